@@ -0,0 +1,85 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Muxing one second of 30fps Annex B video into fragments, excluding file I/O. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FragmentedMp4WriterBenchmark {
+  private static final int FRAME_RATE = 30;
+  private static final long FRAME_US = 1000000L / FRAME_RATE;
+  private static final byte[] SPS = { 0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda, 0x01, 0x40 };
+  private static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+
+  private ByteBuffer keyFrame;
+  private ByteBuffer frame;
+  private FragmentedMp4Writer writer;
+  private long timestampUs;
+
+  @Setup public void setUp() throws IOException {
+    keyFrame = sample(5, 60 * 1024);
+    frame = sample(1, 8 * 1024);
+    writer = new FragmentedMp4Writer(new DiscardingChannel(), 1072, 1904, SPS, PPS, 1000000);
+  }
+
+  @Benchmark public long writeSecond() throws IOException {
+    for (int i = 0; i < FRAME_RATE; i++) {
+      ByteBuffer data = i == 0 ? keyFrame : frame;
+      data.rewind();
+      writer.writeSample(data, timestampUs, i == 0);
+      timestampUs += FRAME_US;
+    }
+    return writer.bytesWritten();
+  }
+
+  /** A single Annex B NAL unit of {@code type} with random payload. */
+  private static ByteBuffer sample(int type, int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    data[0] = 0;
+    data[1] = 0;
+    data[2] = 0;
+    data[3] = 1;
+    data[4] = (byte) (0x60 | type);
+    // Random bytes may contain start codes which would split the unit.
+    for (int i = 5; i < size; i++) {
+      if (data[i] == 0) {
+        data[i] = 1;
+      }
+    }
+    return ByteBuffer.wrap(data);
+  }
+
+  static final class DiscardingChannel implements WritableByteChannel {
+    @Override public int write(ByteBuffer src) {
+      int remaining = src.remaining();
+      src.position(src.limit());
+      return remaining;
+    }
+
+    @Override public boolean isOpen() {
+      return true;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
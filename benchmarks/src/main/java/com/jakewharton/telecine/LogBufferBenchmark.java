@@ -0,0 +1,45 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-message cost of the log buffer backing {@code BugsnagTree.log} against the
+ * synchronized deque it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogBufferBenchmark {
+  LogBuffer buffer = new LogBuffer(200);
+  SynchronizedLogBuffer synchronizedBuffer = new SynchronizedLogBuffer(200);
+  String message = "Recording: 1072 x 1904 @ 420";
+
+  @Benchmark public void add() {
+    buffer.add(3, null, message);
+  }
+
+  @Benchmark @Threads(4) public void addContended() {
+    buffer.add(3, null, message);
+  }
+
+  @Benchmark public void synchronizedAdd() {
+    synchronizedBuffer.add("D", message);
+  }
+
+  @Benchmark @Threads(4) public void synchronizedAddContended() {
+    synchronizedBuffer.add("D", message);
+  }
+}
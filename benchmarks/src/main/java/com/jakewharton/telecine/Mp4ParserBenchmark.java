@@ -0,0 +1,71 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the metadata of an hour-long fragmented recording at 30fps with one second fragments.
+ * Samples are tiny since {@code mdat} contents are never read. The cost is in the 3600
+ * {@code moof} boxes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Mp4ParserBenchmark {
+  private static final int FRAME_RATE = 30;
+  private static final long FRAME_US = 1000000L / FRAME_RATE;
+  private static final int FRAMES = 60 * 60 * FRAME_RATE;
+  private static final byte[] SPS = { 0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda, 0x01, 0x40 };
+  private static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+
+  private File file;
+  private RandomAccessFile input;
+
+  @Setup public void setUp() throws IOException {
+    file = File.createTempFile("telecine", ".mp4");
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FragmentedMp4Writer writer =
+          new FragmentedMp4Writer(output.getChannel(), 1072, 1904, SPS, PPS, 1000000);
+      byte[] sample = { 0, 0, 0, 1, 0x65, 1, 2, 3 };
+      for (int i = 0; i < FRAMES; i++) {
+        boolean keyFrame = i % FRAME_RATE == 0;
+        sample[4] = (byte) (keyFrame ? 0x65 : 0x41);
+        writer.writeSample(ByteBuffer.wrap(sample), i * FRAME_US, keyFrame);
+      }
+      writer.close();
+    } finally {
+      output.close();
+    }
+    input = new RandomAccessFile(file, "r");
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    input.close();
+    if (!file.delete()) {
+      throw new IOException("Unable to delete " + file);
+    }
+  }
+
+  @Benchmark public Mp4Metadata parseHour() throws IOException {
+    return Mp4Parser.parse(input.getChannel());
+  }
+}
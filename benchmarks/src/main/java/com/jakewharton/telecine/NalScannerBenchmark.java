@@ -0,0 +1,153 @@
+package com.jakewharton.telecine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning 32MB of H.264 at 30fps with a keyframe every second, stored once as an Annex B
+ * stream and once with four byte length prefixes. Each invocation counts as one operation per
+ * megabyte so the scores are in MB/s. Annex B scanning looks at every byte while length-prefixed
+ * scanning only reads the headers, so the two measure very different things.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NalScannerBenchmark {
+  private static final int MEGABYTES = 32;
+  private static final int FRAME_RATE = 30;
+  /** About 8Mbps. */
+  private static final int AVERAGE_FRAME_SIZE = 1000000 / FRAME_RATE;
+  /** Baseline 1280x720. */
+  private static final byte[] SPS =
+      { 0x67, 0x42, (byte) 0xc0, 0x1f, 0x56, (byte) 0x80, 0x50, 0x05, (byte) 0xb9 };
+  private static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+
+  private File annexBFile;
+  private File lengthPrefixedFile;
+  private RandomAccessFile annexB;
+  private RandomAccessFile lengthPrefixed;
+  private NalScanner annexBScanner;
+  private NalScanner lengthPrefixedScanner;
+  private final Counter counter = new Counter();
+
+  @Setup public void setUp() throws IOException {
+    annexBFile = File.createTempFile("telecine", ".h264");
+    lengthPrefixedFile = File.createTempFile("telecine", ".avc");
+    OutputStream annexBOutput = new BufferedOutputStream(new FileOutputStream(annexBFile));
+    OutputStream lengthPrefixedOutput =
+        new BufferedOutputStream(new FileOutputStream(lengthPrefixedFile));
+    try {
+      Random random = new Random(0);
+      long total = 0;
+      for (int i = 0; total < MEGABYTES * 1024L * 1024; i++) {
+        boolean keyFrame = i % FRAME_RATE == 0;
+        if (keyFrame) {
+          total += write(annexBOutput, lengthPrefixedOutput, SPS);
+          total += write(annexBOutput, lengthPrefixedOutput, PPS);
+        }
+        // Keyframes are several times larger than the frames which refer to them.
+        int size = keyFrame ? AVERAGE_FRAME_SIZE * 4 : AVERAGE_FRAME_SIZE * 9 / 10;
+        total += write(annexBOutput, lengthPrefixedOutput, slice(random, keyFrame, size));
+      }
+    } finally {
+      annexBOutput.close();
+      lengthPrefixedOutput.close();
+    }
+    annexB = new RandomAccessFile(annexBFile, "r");
+    lengthPrefixed = new RandomAccessFile(lengthPrefixedFile, "r");
+    annexBScanner = new NalScanner(annexB.getChannel(), NalScanner.DEFAULT_WINDOW_SIZE);
+    lengthPrefixedScanner =
+        new NalScanner(lengthPrefixed.getChannel(), NalScanner.DEFAULT_WINDOW_SIZE);
+  }
+
+  private static int write(OutputStream annexB, OutputStream lengthPrefixed, byte[] nal)
+      throws IOException {
+    annexB.write(new byte[] { 0, 0, 0, 1 });
+    annexB.write(nal);
+    int length = nal.length;
+    lengthPrefixed.write(
+        new byte[] { (byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8),
+            (byte) length });
+    lengthPrefixed.write(nal);
+    return 4 + length;
+  }
+
+  /** Random entropy-coded data, escaped so that it never contains a start code. */
+  private static byte[] slice(Random random, boolean keyFrame, int size) {
+    byte[] nal = new byte[size];
+    nal[0] = (byte) (keyFrame ? 0x65 : 0x41);
+    nal[1] = (byte) 0x88;
+    int zeros = 0;
+    for (int i = 2; i < size; i++) {
+      // Compressed data has more zero bytes than uniformly random data.
+      int b = random.nextInt(8) == 0 ? 0 : random.nextInt(256);
+      if (zeros >= 2 && b <= 3) {
+        b = 3;
+      }
+      nal[i] = (byte) b;
+      zeros = b == 0 ? zeros + 1 : 0;
+    }
+    if (nal[size - 1] == 0) {
+      nal[size - 1] = (byte) 0x80; // rbsp_stop_one_bit.
+    }
+    return nal;
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    annexB.close();
+    lengthPrefixed.close();
+    if (!annexBFile.delete()) {
+      throw new IOException("Unable to delete " + annexBFile);
+    }
+    if (!lengthPrefixedFile.delete()) {
+      throw new IOException("Unable to delete " + lengthPrefixedFile);
+    }
+  }
+
+  @Benchmark @OperationsPerInvocation(MEGABYTES) public int scanAnnexB() throws IOException {
+    counter.count = 0;
+    annexBScanner.scanAnnexB(0, annexB.length(), counter);
+    return counter.count;
+  }
+
+  @Benchmark @OperationsPerInvocation(MEGABYTES) public long scanLengthPrefixed()
+      throws IOException {
+    return lengthPrefixedScanner.scanLengthPrefixed(0, lengthPrefixed.length(), 4, counter);
+  }
+
+  /** Scanning plus grouping the units into pictures and storing them in primitive arrays. */
+  @Benchmark @OperationsPerInvocation(MEGABYTES) public FrameIndex indexAnnexB()
+      throws IOException {
+    return FrameIndex.build(annexB.getChannel(), 1000000 / FRAME_RATE);
+  }
+
+  private static final class Counter implements NalScanner.Callback {
+    int count;
+
+    @Override public boolean onNal(long offset, int size, int type, int secondByte) {
+      count++;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingInfoBenchmark {
+  // Non-final so the JIT cannot fold the arguments.
+  int displayWidth = 1440;
+  int displayHeight = 3120;
+  EncoderCapabilities encoder =
+      new EncoderCapabilities("OMX.hw.avc", true, 96, 1920, 96, 1088, 16, 16, 1, 50000000, 60,
+          489600);
+
+  @Benchmark public RecordingInfo calculateFits() {
+    return RecordingInfo.calculate(1080, 1920, 420, false, 1920, 1080, 30, 100);
+  }
+
+  @Benchmark public RecordingInfo calculateScaled() {
+    return RecordingInfo.calculate(displayWidth, displayHeight, 560, false, 1920, 1080, 30, 75);
+  }
+
+  @Benchmark public RecordingInfo solve() {
+    return ResolutionSolver.solve(encoder, displayWidth, displayHeight, 560, 60, 100);
+  }
+}
@@ -0,0 +1,32 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The crop math used to make the notification thumbnail. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SquareCropBenchmark {
+  int width = 1080;
+  int height = 1920;
+
+  @Benchmark public SquareCrop portrait() {
+    return SquareCrop.center(width, height);
+  }
+
+  @Benchmark public SquareCrop landscape() {
+    return SquareCrop.center(height, width);
+  }
+}
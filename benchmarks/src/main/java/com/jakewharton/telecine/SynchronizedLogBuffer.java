@@ -0,0 +1,28 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The lock-based log buffer {@link LogBuffer} replaced, which formats each message as it is
+ * added. Kept as a point of comparison.
+ */
+final class SynchronizedLogBuffer {
+  private final int capacity;
+  private final Deque<String> buffer;
+
+  SynchronizedLogBuffer(int capacity) {
+    this.capacity = capacity;
+    this.buffer = new ArrayDeque<>(capacity + 1);
+  }
+
+  void add(String priority, String message) {
+    message = System.currentTimeMillis() + " " + priority + " " + message;
+    synchronized (buffer) {
+      buffer.addLast(message);
+      if (buffer.size() > capacity) {
+        buffer.removeFirst();
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.jakewharton.telecine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Change detection for one frame of a 1080x1920 recording, downsampled eight times on each side
+ * as the frame relay does. It runs for every frame the display draws so it must stay far below
+ * a 60fps frame interval of 16.7ms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TileHashBenchmark {
+  private static final int WIDTH = 1080 / 8;
+  private static final int HEIGHT = 1920 / 8;
+  private static final int TILE_SIZE = 8;
+
+  private final TileHash tileHash = new TileHash(WIDTH, HEIGHT, TILE_SIZE);
+  private final int[] frame = new int[WIDTH * HEIGHT];
+  private final int[] otherFrame = new int[WIDTH * HEIGHT];
+  private boolean other;
+
+  @Setup public void setUp() {
+    Random random = new Random(0);
+    for (int i = 0; i < frame.length; i++) {
+      frame[i] = random.nextInt();
+    }
+    System.arraycopy(frame, 0, otherFrame, 0, frame.length);
+    // A blinking cursor's worth of change.
+    otherFrame[HEIGHT / 2 * WIDTH + WIDTH / 2] ^= 0xffffff;
+    tileHash.update(frame);
+  }
+
+  /** An idle screen. */
+  @Benchmark public int unchanged() {
+    return tileHash.update(frame);
+  }
+
+  /** A small change on every frame. */
+  @Benchmark public int changed() {
+    other = !other;
+    return tileHash.update(other ? otherFrame : frame);
+  }
+}
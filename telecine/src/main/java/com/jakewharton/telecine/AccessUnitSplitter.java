@@ -0,0 +1,85 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+
+/**
+ * Groups the NAL units found by a {@link NalScanner} into access units, the units of one
+ * picture, at the boundaries defined by H.264 section 7.4.1.2.3: the first slice of a picture,
+ * or any of the non-picture units which may only precede one.
+ */
+abstract class AccessUnitSplitter implements NalScanner.Callback {
+  private final int prefixSize;
+  private long start = -1;
+  private long end;
+  private boolean hasPicture;
+  private boolean sync;
+  private long lastEnd;
+
+  /**
+   * @param prefixSize the bytes before each unit's header which belong to it, such as a length
+   * prefix, and so to the access unit.
+   */
+  AccessUnitSplitter(int prefixSize, long start) {
+    this.prefixSize = prefixSize;
+    this.lastEnd = start;
+  }
+
+  /**
+   * Called for each complete access unit. {@code sync} is true if it holds an IDR picture.
+   *
+   * @return false to stop scanning.
+   */
+  abstract boolean onAccessUnit(long offset, long size, boolean sync) throws IOException;
+
+  /** Called for every unit, after any access unit which it ends. */
+  boolean onNalUnit(long offset, int size, int type) throws IOException {
+    return true;
+  }
+
+  @Override public final boolean onNal(long offset, int size, int type, int secondByte)
+      throws IOException {
+    boolean picture = type == NalUnits.TYPE_NON_IDR || type == NalUnits.TYPE_IDR;
+    // A slice whose first_mb_in_slice, an Exp-Golomb code, is 0 starts with a 1 bit.
+    boolean firstSlice = picture && secondByte != -1 && (secondByte & 0x80) != 0;
+    boolean startsAccessUnit = firstSlice
+        || type == NalUnits.TYPE_SEI
+        || type == NalUnits.TYPE_SPS
+        || type == NalUnits.TYPE_PPS
+        || type == NalUnits.TYPE_AUD
+        || (type >= 14 && type <= 18);
+    if (startsAccessUnit && hasPicture && !finish()) {
+      return false;
+    }
+    if (start == -1) {
+      start = offset - prefixSize;
+    }
+    end = offset + size;
+    if (picture) {
+      hasPicture = true;
+      sync |= type == NalUnits.TYPE_IDR;
+    }
+    return onNalUnit(offset, size, type);
+  }
+
+  /**
+   * Emit the access unit in progress, if it holds a picture, once scanning is done. Returns the
+   * end of the last access unit emitted. Units after it held no picture and are of no use.
+   */
+  final long flush() throws IOException {
+    if (hasPicture) {
+      finish();
+    }
+    return lastEnd;
+  }
+
+  private boolean finish() throws IOException {
+    long offset = start;
+    long size = end - start;
+    start = -1;
+    hasPicture = false;
+    boolean sync = this.sync;
+    this.sync = false;
+    lastEnd = offset + size;
+    return onAccessUnit(offset, size, sync);
+  }
+}
@@ -12,16 +12,27 @@ interface Analytics {
   String ACTION_CAPTURE_INTENT_LAUNCH = "Launch Overlay Launch";
   String ACTION_CAPTURE_INTENT_RESULT = "Launch Overlay Result";
   String ACTION_CHANGE_VIDEO_SIZE = "Change Video Size";
+  String ACTION_CHANGE_VIDEO_QUALITY = "Change Video Quality";
   String ACTION_CHANGE_SHOW_COUNTDOWN = "Show Countdown";
   String ACTION_CHANGE_HIDE_RECENTS = "Hide In Recents";
   String ACTION_CHANGE_RECORDING_NOTIFICATION = "Recording Notification";
   String ACTION_CHANGE_SHOW_TOUCHES = "Show Touches";
   String ACTION_CHANGE_USE_DEMO_MODE = "Use Demo Mode";
+  String ACTION_CHANGE_INSTANT_REPLAY = "Instant Replay";
+  String ACTION_CHANGE_SPLIT_RECORDINGS = "Split Recordings";
+  String ACTION_CHANGE_MULTI_TAKE = "Multi-Take";
+  String ACTION_CHANGE_FRAME_RATE_CAP = "Frame Rate Cap";
+  String ACTION_CHANGE_VARIABLE_FRAME_RATE = "Variable Frame Rate";
   String ACTION_OVERLAY_SHOW = "Overlay Show";
   String ACTION_OVERLAY_HIDE = "Overlay Hide";
   String ACTION_OVERLAY_CANCEL = "Overlay Cancel";
   String ACTION_RECORDING_START = "Recording Start";
   String ACTION_RECORDING_STOP = "Recording Stop";
+  String ACTION_REPLAY_SAVE = "Replay Save";
+  String ACTION_RECORDING_FRAMES = "Recording Frames";
+  String ACTION_RECORDING_LATE_FRAMES = "Recording Late Frames";
+  String ACTION_RECORDING_DROPPED_FRAMES = "Recording Dropped Frames";
+  String ACTION_RECORDING_BYTES_PER_SECOND = "Recording Bytes Per Second";
   String ACTION_SHORTCUT_ADDED = "Shortcut Added";
   String ACTION_SHORTCUT_LAUNCHED = "Shortcut Launched";
   String ACTION_QUICK_TILE_ADDED = "Quick Tile Added";
@@ -29,6 +40,17 @@ interface Analytics {
   String ACTION_QUICK_TILE_REMOVED = "Quick Tile Removed";
 
   String VARIABLE_RECORDING_LENGTH = "Recording Length";
+  String VARIABLE_ENCODE_LATENCY = "Encode Latency";
+  String VARIABLE_WRITE_LATENCY = "Write Latency";
+  String VARIABLE_FRAME_INTERVAL = "Frame Interval";
+  String VARIABLE_PREPARE_DURATION = "Prepare Duration";
+  String VARIABLE_START_LATENCY = "Start Latency";
+  String VARIABLE_STOP_TO_NOTIFICATION = "Stop To Notification";
+
+  String LABEL_P50 = "p50";
+  String LABEL_P95 = "p95";
+  String LABEL_MEDIA_STORE = "Media Store";
+  String LABEL_MEDIA_SCANNER = "Media Scanner";
 
   /** @see {@link Tracker#send(Map)} for usage. */
   void send(Map<String, String> params);
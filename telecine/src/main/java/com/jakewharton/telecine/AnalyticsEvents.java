@@ -0,0 +1,44 @@
+package com.jakewharton.telecine;
+
+import com.google.android.gms.analytics.HitBuilders;
+import java.util.Collections;
+import java.util.Map;
+
+/** Events which carry no parameters, built once and shared. */
+final class AnalyticsEvents {
+  static final Map<String, String> CAPTURE_INTENT_LAUNCH =
+      event(Analytics.CATEGORY_SETTINGS, Analytics.ACTION_CAPTURE_INTENT_LAUNCH);
+  static final Map<String, String> OVERLAY_SHOW =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_OVERLAY_SHOW);
+  static final Map<String, String> OVERLAY_HIDE =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_OVERLAY_HIDE);
+  static final Map<String, String> OVERLAY_CANCEL =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_OVERLAY_CANCEL);
+  static final Map<String, String> RECORDING_START =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_RECORDING_START);
+  static final Map<String, String> RECORDING_STOP =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_RECORDING_STOP);
+  static final Map<String, String> REPLAY_SAVE =
+      event(Analytics.CATEGORY_RECORDING, Analytics.ACTION_REPLAY_SAVE);
+  static final Map<String, String> SHORTCUT_ADDED =
+      event(Analytics.CATEGORY_SHORTCUT, Analytics.ACTION_SHORTCUT_ADDED);
+  static final Map<String, String> SHORTCUT_LAUNCHED =
+      event(Analytics.CATEGORY_SHORTCUT, Analytics.ACTION_SHORTCUT_LAUNCHED);
+  static final Map<String, String> QUICK_TILE_LAUNCHED =
+      event(Analytics.CATEGORY_SHORTCUT, Analytics.ACTION_QUICK_TILE_LAUNCHED);
+  static final Map<String, String> QUICK_TILE_ADDED =
+      event(Analytics.CATEGORY_QUICK_TILE, Analytics.ACTION_QUICK_TILE_ADDED);
+  static final Map<String, String> QUICK_TILE_REMOVED =
+      event(Analytics.CATEGORY_QUICK_TILE, Analytics.ACTION_QUICK_TILE_REMOVED);
+
+  private static Map<String, String> event(String category, String action) {
+    return Collections.unmodifiableMap(new HitBuilders.EventBuilder() //
+        .setCategory(category)
+        .setAction(action)
+        .build());
+  }
+
+  private AnalyticsEvents() {
+    throw new AssertionError("No instances.");
+  }
+}
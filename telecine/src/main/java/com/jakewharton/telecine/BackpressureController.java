@@ -0,0 +1,149 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches how promptly the encoder emits frames and steps quality down while it keeps falling
+ * behind, then back up once it has headroom again. Bit rate is lowered first since it applies
+ * immediately. After that the encoder itself is made smaller, which lightens its per-macroblock
+ * work but means replacing it with a new one at a key frame.
+ *
+ * <p>Frames are judged in windows of {@link #WINDOW_US}. An encoder falling behind either emits
+ * many frames long after they were captured, or emits fewer frames than the target rate while
+ * its queue stays full. An idle screen also emits few frames but promptly, so it is not
+ * mistaken for backpressure. A level changes only after several windows agree. Stepping up takes
+ * much longer than stepping down so the level does not oscillate around the encoder's limit.
+ */
+final class BackpressureController {
+  /** Applies a level's settings. Called on the thread reporting frames. */
+  interface Actuator {
+    /** Use {@code bitRate} at the recording's full size. A smaller encoder gets its share. */
+    void setBitRate(int bitRate);
+
+    /** Encode at {@code percent} of the recording's size on each side. */
+    void setSizePercent(int percent);
+  }
+
+  static final long WINDOW_US = TimeUnit.SECONDS.toMicros(1);
+  /** Settings at each level. Levels past {@link #MAX_BIT_RATE_LEVEL} need resizing. */
+  static final int[] BIT_RATE_PERCENT = { 100, 75, 50, 50, 50 };
+  static final int[] SIZE_PERCENT = { 100, 100, 100, 75, 50 };
+  static final int MAX_BIT_RATE_LEVEL = 2;
+
+  /** Frames emitted this many intervals after capture are late. */
+  private static final int LATE_INTERVALS = RecordingMetrics.LATE_FRAME_INTERVALS;
+  /** A window is behind when at least this share of its frames is late. */
+  private static final int LATE_PERCENT = 20;
+  /** Or when it emits less than this share of the target rate with a queue building up. */
+  private static final int MIN_CADENCE_PERCENT = 80;
+  private static final int QUEUED_INTERVALS = 2;
+  private static final int BEHIND_WINDOWS = 2;
+  private static final int HEADROOM_WINDOWS = 10;
+  /** Windows ignored after a change while the encoder settles. */
+  private static final int SETTLE_WINDOWS = 1;
+
+  private final int frameRate;
+  private final long frameIntervalUs;
+  private final int bitRate;
+  private final int maxLevel;
+  private final Actuator actuator;
+
+  private int level;
+  private long windowStartUs = -1;
+  private int windowFrames;
+  private int windowLate;
+  private long windowLatencyUs;
+  private int behindWindows;
+  private int headroomWindows;
+  private int settleWindows;
+
+  /**
+   * @param bitRate The bit rate the encoder was configured with.
+   * @param canResize Whether {@link Actuator#setSizePercent} has any effect. Without it only
+   * the bit rate is stepped.
+   */
+  BackpressureController(int frameRate, int bitRate, boolean canResize, Actuator actuator) {
+    if (frameRate <= 0) {
+      throw new IllegalArgumentException("frameRate <= 0: " + frameRate);
+    }
+    if (bitRate <= 0) {
+      throw new IllegalArgumentException("bitRate <= 0: " + bitRate);
+    }
+    this.frameRate = frameRate;
+    this.frameIntervalUs = TimeUnit.SECONDS.toMicros(1) / frameRate;
+    this.bitRate = bitRate;
+    this.maxLevel = canResize ? BIT_RATE_PERCENT.length - 1 : MAX_BIT_RATE_LEVEL;
+    this.actuator = actuator;
+  }
+
+  /**
+   * Scale one side of the recording to {@code percent}, rounded down to the encoder's
+   * {@code alignment} and to an even number of pixels.
+   */
+  static int scale(int size, int percent, int alignment) {
+    int align = alignment % 2 == 0 ? alignment : alignment * 2;
+    return Math.max(align, size * percent / 100 / align * align);
+  }
+
+  int level() {
+    return level;
+  }
+
+  /** A frame captured at {@code presentationTimeUs} left the encoder at {@code outputTimeUs}. */
+  void frameEncoded(long presentationTimeUs, long outputTimeUs) {
+    if (windowStartUs == -1) {
+      windowStartUs = presentationTimeUs;
+    }
+    long elapsedUs = presentationTimeUs - windowStartUs;
+    if (elapsedUs >= WINDOW_US) {
+      closeWindow(elapsedUs);
+      windowStartUs = presentationTimeUs;
+      windowFrames = 0;
+      windowLate = 0;
+      windowLatencyUs = 0;
+    }
+
+    long latencyUs = outputTimeUs - presentationTimeUs;
+    windowFrames++;
+    windowLatencyUs += latencyUs;
+    if (latencyUs > LATE_INTERVALS * frameIntervalUs) {
+      windowLate++;
+    }
+  }
+
+  private void closeWindow(long elapsedUs) {
+    if (settleWindows > 0) {
+      settleWindows--;
+      return;
+    }
+    long expectedFrames = elapsedUs * frameRate / TimeUnit.SECONDS.toMicros(1);
+    long meanLatencyUs = windowLatencyUs / windowFrames;
+    boolean late = windowLate * 100 >= windowFrames * LATE_PERCENT;
+    boolean starved = windowFrames * 100 < expectedFrames * MIN_CADENCE_PERCENT
+        && meanLatencyUs > QUEUED_INTERVALS * frameIntervalUs;
+    boolean behind = late || starved;
+    boolean headroom = windowLate == 0 && meanLatencyUs <= frameIntervalUs;
+
+    behindWindows = behind ? behindWindows + 1 : 0;
+    headroomWindows = headroom ? headroomWindows + 1 : 0;
+    if (behindWindows >= BEHIND_WINDOWS && level < maxLevel) {
+      setLevel(level + 1);
+    } else if (headroomWindows >= HEADROOM_WINDOWS && level > 0) {
+      setLevel(level - 1);
+    }
+  }
+
+  private void setLevel(int newLevel) {
+    int oldLevel = level;
+    level = newLevel;
+    behindWindows = 0;
+    headroomWindows = 0;
+    settleWindows = SETTLE_WINDOWS;
+    if (BIT_RATE_PERCENT[newLevel] != BIT_RATE_PERCENT[oldLevel]) {
+      actuator.setBitRate((int) ((long) bitRate * BIT_RATE_PERCENT[newLevel] / 100));
+    }
+    if (SIZE_PERCENT[newLevel] != SIZE_PERCENT[oldLevel]) {
+      actuator.setSizePercent(SIZE_PERCENT[newLevel]);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import timber.log.Timber;
+
+/**
+ * An {@link Analytics} which hands events to a background thread so callers never wait on the
+ * delegate. Events are queued without blocking and sent in batches. When the queue is full new
+ * events are dropped and counted.
+ */
+final class BatchingAnalytics implements Analytics {
+  static final int DEFAULT_CAPACITY = 64;
+  static final int MAX_BATCH = 16;
+
+  private final Analytics delegate;
+  private final BlockingQueue<Map<String, String>> queue;
+  private final AtomicLong dropped = new AtomicLong();
+
+  BatchingAnalytics(Analytics delegate, int capacity) {
+    this.delegate = delegate;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+
+    Thread worker = new Thread(new Worker(), "Telecine-Analytics");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override public void send(Map<String, String> params) {
+    if (!queue.offer(params)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /** The number of events dropped because the queue was full. */
+  long droppedCount() {
+    return dropped.get();
+  }
+
+  private final class Worker implements Runnable {
+    private final List<Map<String, String>> batch = new ArrayList<>(MAX_BATCH);
+    private long reportedDrops;
+
+    @Override public void run() {
+      while (true) {
+        try {
+          batch.add(queue.take());
+        } catch (InterruptedException e) {
+          return;
+        }
+        queue.drainTo(batch, MAX_BATCH - 1);
+        for (int i = 0, size = batch.size(); i < size; i++) {
+          try {
+            delegate.send(batch.get(i));
+          } catch (RuntimeException e) {
+            Timber.w(e, "Unable to send analytics event.");
+          }
+        }
+        batch.clear();
+
+        long drops = dropped.get();
+        if (drops != reportedDrops) {
+          Timber.w("Dropped %s analytics events.", drops - reportedDrops);
+          reportedDrops = drops;
+        }
+      }
+    }
+  }
+}
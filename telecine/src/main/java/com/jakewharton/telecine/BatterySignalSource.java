@@ -0,0 +1,78 @@
+package com.jakewharton.telecine;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the battery's temperature and charge from the sticky battery broadcast. The battery
+ * warms with the rest of the device so its temperature stands in for a thermal status, which the
+ * platform does not expose on the versions supported.
+ *
+ * <p>The broadcast only fires when something changes. The last reading is repeated periodically
+ * so that a steady temperature still lets {@link ThrottlePolicy} cool down.
+ */
+final class BatterySignalSource implements ThrottlePolicy.SignalSource {
+  private static final long REPEAT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Context context;
+  private final Handler handler;
+
+  @Nullable private ThrottlePolicy.Listener listener;
+  @Nullable private Intent lastBattery;
+
+  /** @param handler Readings are delivered on this handler's thread. */
+  BatterySignalSource(Context context, Handler handler) {
+    this.context = context;
+    this.handler = handler;
+  }
+
+  @Override public void start(ThrottlePolicy.Listener listener) {
+    this.listener = listener;
+    // The current state is delivered to the receiver straight away since it is sticky.
+    context.registerReceiver(receiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null,
+        handler);
+  }
+
+  @Override public void stop() {
+    if (listener == null) {
+      return;
+    }
+    listener = null;
+    lastBattery = null;
+    context.unregisterReceiver(receiver);
+    handler.removeCallbacks(repeat);
+  }
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override public void onReceive(Context context, Intent intent) {
+      lastBattery = intent;
+      handler.removeCallbacks(repeat);
+      repeat.run();
+    }
+  };
+
+  private final Runnable repeat = new Runnable() {
+    @Override public void run() {
+      ThrottlePolicy.Listener listener = BatterySignalSource.this.listener;
+      Intent battery = lastBattery;
+      if (listener == null || battery == null) {
+        return; // Stopped.
+      }
+      int temperature =
+          battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, ThrottlePolicy.UNKNOWN);
+      int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+      int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+      int percent = level >= 0 && scale > 0 ? level * 100 / scale : ThrottlePolicy.UNKNOWN;
+      boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+      listener.onReading(SystemClock.elapsedRealtime(), temperature, percent, charging);
+      handler.postDelayed(this, REPEAT_INTERVAL_MS);
+    }
+  };
+}
@@ -0,0 +1,56 @@
+package com.jakewharton.telecine;
+
+/**
+ * Derives an encoding bit rate from the recording size and frame rate using a bits-per-pixel
+ * model. Screen content is mostly flat color and text so it compresses far better than camera
+ * footage, and the density needed to keep it crisp grows linearly with the pixel rate.
+ */
+final class BitratePlanner {
+  static final int QUALITY_LOW = 0;
+  static final int QUALITY_MEDIUM = 1;
+  static final int QUALITY_HIGH = 2;
+
+  /** Bounds used when the encoder does not report its own. */
+  static final int MIN_BIT_RATE = 500 * 1000;
+  static final int MAX_BIT_RATE = 50 * 1000 * 1000;
+
+  private BitratePlanner() {
+    throw new AssertionError("No instances.");
+  }
+
+  /** Thousandths of a bit spent on each pixel of each frame for {@code quality}. */
+  static int milliBitsPerPixel(int quality) {
+    switch (quality) {
+      case QUALITY_LOW:
+        return 60;
+      case QUALITY_MEDIUM:
+        return 120;
+      case QUALITY_HIGH:
+        return 200;
+      default:
+        throw new IllegalArgumentException("Unknown quality: " + quality);
+    }
+  }
+
+  static int plan(int width, int height, int frameRate, int quality) {
+    return plan(width, height, frameRate, quality, MIN_BIT_RATE, MAX_BIT_RATE);
+  }
+
+  /**
+   * Returns the bit rate for recording {@code width}x{@code height} at {@code frameRate} with
+   * {@code quality}, clamped to {@code [minBitRate, maxBitRate]}.
+   */
+  static int plan(int width, int height, int frameRate, int quality, int minBitRate,
+      int maxBitRate) {
+    if (width <= 0 || height <= 0 || frameRate <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid size or frame rate: " + width + "x" + height + " @ " + frameRate);
+    }
+    if (minBitRate > maxBitRate) {
+      throw new IllegalArgumentException("min > max: " + minBitRate + " > " + maxBitRate);
+    }
+    // Doubles keep the product exact for any realistic size and saturate instead of overflowing.
+    double bitRate = (double) width * height * frameRate * milliBitsPerPixel(quality) / 1000;
+    return (int) Math.max(minBitRate, Math.min(maxBitRate, Math.round(bitRate)));
+  }
+}
@@ -0,0 +1,152 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Builds ISO base media file format boxes into a growable buffer. Boxes are opened with
+ * {@link #start} and their size is filled in by the matching {@link #end}.
+ */
+final class BoxBuilder {
+  private static final int MAX_DEPTH = 16;
+
+  private ByteBuffer buffer;
+  private final int[] starts = new int[MAX_DEPTH];
+  private int depth;
+
+  BoxBuilder(int initialCapacity) {
+    buffer = ByteBuffer.allocate(initialCapacity);
+  }
+
+  BoxBuilder start(String type) {
+    if (depth == MAX_DEPTH) {
+      throw new IllegalStateException("Boxes nested too deeply.");
+    }
+    starts[depth++] = buffer.position();
+    putInt(0); // Size placeholder.
+    putFourCc(type);
+    return this;
+  }
+
+  /** Start a full box with a version and flags header. */
+  BoxBuilder startFull(String type, int version, int flags) {
+    start(type);
+    putInt((version << 24) | (flags & 0xffffff));
+    return this;
+  }
+
+  BoxBuilder end() {
+    if (depth == 0) {
+      throw new IllegalStateException("No open box.");
+    }
+    int start = starts[--depth];
+    buffer.putInt(start, buffer.position() - start);
+    return this;
+  }
+
+  BoxBuilder putByte(int value) {
+    ensure(1);
+    buffer.put((byte) value);
+    return this;
+  }
+
+  BoxBuilder putShort(int value) {
+    ensure(2);
+    buffer.putShort((short) value);
+    return this;
+  }
+
+  BoxBuilder putInt(int value) {
+    ensure(4);
+    buffer.putInt(value);
+    return this;
+  }
+
+  BoxBuilder putLong(long value) {
+    ensure(8);
+    buffer.putLong(value);
+    return this;
+  }
+
+  BoxBuilder putFourCc(String fourCc) {
+    if (fourCc.length() != 4) {
+      throw new IllegalArgumentException("Not a four character code: " + fourCc);
+    }
+    return put(fourCc.getBytes(US_ASCII));
+  }
+
+  BoxBuilder put(byte[] bytes) {
+    return put(bytes, 0, bytes.length);
+  }
+
+  BoxBuilder put(byte[] bytes, int offset, int length) {
+    ensure(length);
+    buffer.put(bytes, offset, length);
+    return this;
+  }
+
+  BoxBuilder put(ByteBuffer bytes) {
+    ensure(bytes.remaining());
+    buffer.put(bytes);
+    return this;
+  }
+
+  BoxBuilder zeros(int count) {
+    ensure(count);
+    for (int i = 0; i < count; i++) {
+      buffer.put((byte) 0);
+    }
+    return this;
+  }
+
+  /** Overwrite the int at absolute {@code index} without moving the write position. */
+  void setInt(int index, int value) {
+    buffer.putInt(index, value);
+  }
+
+  /** The number of bytes written so far. */
+  int size() {
+    return buffer.position();
+  }
+
+  /** Discard everything written, keeping the allocated capacity. */
+  void clear() {
+    if (depth != 0) {
+      throw new IllegalStateException("Unclosed boxes.");
+    }
+    buffer.clear();
+  }
+
+  void writeTo(WritableByteChannel channel) throws IOException {
+    if (depth != 0) {
+      throw new IllegalStateException("Unclosed boxes.");
+    }
+    ByteBuffer data = buffer.duplicate();
+    data.flip();
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+
+  byte[] toByteArray() {
+    byte[] bytes = new byte[buffer.position()];
+    ByteBuffer data = buffer.duplicate();
+    data.flip();
+    data.get(bytes);
+    return bytes;
+  }
+
+  private void ensure(int count) {
+    if (buffer.remaining() >= count) {
+      return;
+    }
+    int capacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+    ByteBuffer grown = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+}
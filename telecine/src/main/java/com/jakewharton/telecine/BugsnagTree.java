@@ -3,8 +3,6 @@ package com.jakewharton.telecine;
 import android.util.Log;
 import com.bugsnag.android.Bugsnag;
 import com.bugsnag.android.Error;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.Locale;
 import timber.log.Timber;
 
@@ -14,30 +12,26 @@ import timber.log.Timber;
 final class BugsnagTree extends Timber.Tree {
   private static final int BUFFER_SIZE = 200;
 
-  // Adding one to the initial size accounts for the add before remove.
-  private final Deque<String> buffer = new ArrayDeque<>(BUFFER_SIZE + 1);
+  private final LogBuffer buffer = new LogBuffer(BUFFER_SIZE);
 
   @Override
   protected void log(int priority, String tag, String message, Throwable t) {
-    message = System.currentTimeMillis() + " " + priorityToString(priority) + " " + message;
-    synchronized (buffer) {
-      buffer.addLast(message);
-      if (buffer.size() > BUFFER_SIZE) {
-        buffer.removeFirst();
-      }
-    }
+    buffer.add(priority, tag, message);
     if (t != null && priority == Log.ERROR) {
       Bugsnag.notify(t);
     }
   }
 
-  void update(Error error) {
-    synchronized (buffer) {
-      int i = 1;
-      for (String message : buffer) {
-        error.addToTab("Log", String.format(Locale.US, "%03d", i++), message);
+  void update(final Error error) {
+    buffer.read(new LogBuffer.Reader() {
+      private int i = 1;
+
+      @Override public void entry(long timeMillis, int priority, String tag, String message) {
+        String line = timeMillis + " " + priorityToString(priority) + " "
+            + (tag != null ? tag + ": " : "") + message;
+        error.addToTab("Log", String.format(Locale.US, "%03d", i++), line);
       }
-    }
+    });
   }
 
   private static String priorityToString(int priority) {
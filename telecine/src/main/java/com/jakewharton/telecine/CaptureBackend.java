@@ -0,0 +1,22 @@
+package com.jakewharton.telecine;
+
+import android.view.Surface;
+import java.io.IOException;
+
+/** Encodes whatever is drawn into its input {@link Surface} into a video file. */
+interface CaptureBackend {
+  /**
+   * Configure for recording {@code info} to {@code outputFile}.
+   *
+   * @return the surface into which frames should be drawn.
+   */
+  Surface prepare(RecordingInfo info, String outputFile) throws IOException;
+
+  void start();
+
+  /** Stop encoding and finish writing the output file. */
+  void stop();
+
+  /** Free all resources. Safe to call in any state. */
+  void release();
+}
@@ -21,10 +21,7 @@ final class CaptureHelper {
     Intent intent = manager.createScreenCaptureIntent();
     activity.startActivityForResult(intent, CREATE_SCREEN_CAPTURE);
 
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_SETTINGS)
-        .setAction(Analytics.ACTION_CAPTURE_INTENT_LAUNCH)
-        .build());
+    analytics.send(AnalyticsEvents.CAPTURE_INTENT_LAUNCH);
   }
 
   static boolean handleActivityResult(Activity activity, int requestCode, int resultCode,
@@ -0,0 +1,98 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts how much longer a recording can run before the disk fills and decides when to warn
+ * and when to stop so that there is always room left to finish the file. Free space is sampled
+ * periodically. The rate at which it falls corrects the rate expected from the bit rate, which
+ * encoders overshoot and which ignores everything else writing to the disk.
+ */
+final class DiskBudget {
+  static final int OK = 0;
+  static final int WARN = 1;
+  static final int STOP = 2;
+
+  /** Container overhead and encoder overshoot on top of the requested bit rate. */
+  private static final int OVERHEAD_PERCENT = 10;
+  /** Weight of each new observation in the smoothed rate. */
+  private static final double SMOOTHING = 0.3;
+
+  private final long plannedBytesPerSecond;
+  private final long reserveBytes;
+  private final long warnUs;
+  private final long stopUs;
+
+  private long lastFreeBytes = -1;
+  private long lastTimeUs;
+  private double observedBytesPerSecond;
+
+  /**
+   * @param bitRate The encoder's requested bit rate.
+   * @param reserveBytes Space never to be used, left for the system and other apps.
+   * @param warnUs Warn when less than this much recording time remains.
+   * @param stopUs Stop when less than this much recording time remains.
+   */
+  DiskBudget(int bitRate, long reserveBytes, long warnUs, long stopUs) {
+    if (bitRate <= 0) {
+      throw new IllegalArgumentException("bitRate <= 0: " + bitRate);
+    }
+    if (stopUs > warnUs) {
+      throw new IllegalArgumentException("stopUs > warnUs: " + stopUs + " > " + warnUs);
+    }
+    this.plannedBytesPerSecond = bitRate / 8L * (100 + OVERHEAD_PERCENT) / 100;
+    this.reserveBytes = reserveBytes;
+    this.warnUs = warnUs;
+    this.stopUs = stopUs;
+  }
+
+  /** Whether there is enough space to record for longer than the warning threshold. */
+  boolean canStart(long freeBytes) {
+    return remainingUs(freeBytes, 0) > warnUs;
+  }
+
+  /** The rate used for predictions: the larger of the planned and observed rates. */
+  long bytesPerSecond() {
+    return Math.max(plannedBytesPerSecond, (long) observedBytesPerSecond);
+  }
+
+  /**
+   * Recording time left with {@code freeBytes} available, keeping {@code finishBytes} back for
+   * finishing the file such as copying it to move its {@code moov} to the front.
+   */
+  long remainingUs(long freeBytes, long finishBytes) {
+    long usable = freeBytes - reserveBytes - finishBytes;
+    if (usable <= 0) {
+      return 0;
+    }
+    return usable * TimeUnit.SECONDS.toMicros(1) / bytesPerSecond();
+  }
+
+  /**
+   * Record a sample of the free space at {@code timeUs} and return one of {@link #OK},
+   * {@link #WARN}, or {@link #STOP}.
+   */
+  int update(long freeBytes, long finishBytes, long timeUs) {
+    if (lastFreeBytes != -1 && timeUs > lastTimeUs) {
+      long consumed = lastFreeBytes - freeBytes;
+      // Space freed by something else says nothing about how fast the recording grows.
+      if (consumed >= 0) {
+        double rate = consumed * 1e6 / (timeUs - lastTimeUs);
+        observedBytesPerSecond = observedBytesPerSecond == 0
+            ? rate
+            : observedBytesPerSecond + SMOOTHING * (rate - observedBytesPerSecond);
+      }
+    }
+    lastFreeBytes = freeBytes;
+    lastTimeUs = timeUs;
+
+    long remainingUs = remainingUs(freeBytes, finishBytes);
+    if (remainingUs <= stopUs) {
+      return STOP;
+    }
+    if (remainingUs <= warnUs) {
+      return WARN;
+    }
+    return OK;
+  }
+}
@@ -0,0 +1,35 @@
+package com.jakewharton.telecine;
+
+/**
+ * Metadata for one buffer of encoder output. Mirrors {@code MediaCodec.BufferInfo} so the encoding
+ * pipeline can be driven without Android classes.
+ */
+final class EncodedSample {
+  static final int FLAG_KEY_FRAME = 1;
+  static final int FLAG_CODEC_CONFIG = 2;
+  static final int FLAG_END_OF_STREAM = 4;
+
+  int offset;
+  int size;
+  long presentationTimeUs;
+  int flags;
+
+  void set(int offset, int size, long presentationTimeUs, int flags) {
+    this.offset = offset;
+    this.size = size;
+    this.presentationTimeUs = presentationTimeUs;
+    this.flags = flags;
+  }
+
+  boolean isKeyFrame() {
+    return (flags & FLAG_KEY_FRAME) != 0;
+  }
+
+  boolean isCodecConfig() {
+    return (flags & FLAG_CODEC_CONFIG) != 0;
+  }
+
+  boolean isEndOfStream() {
+    return (flags & FLAG_END_OF_STREAM) != 0;
+  }
+}
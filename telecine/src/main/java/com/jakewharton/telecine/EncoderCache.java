@@ -0,0 +1,163 @@
+package com.jakewharton.telecine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The device's encoders stored in a compact binary form. Querying the platform for them can take
+ * hundreds of milliseconds while reading them back takes a fraction of one. The capabilities only
+ * change with the system image, so the file is tagged with the build fingerprint and probed again
+ * when it no longer matches.
+ */
+final class EncoderCache {
+  static final String FILE_NAME = "encoders.bin";
+  static final int VERSION = 1;
+
+  private static final int MAGIC = 0x544c4543; // 'TLEC'
+  /** Far more encoders or profiles than any device has. Larger counts mean corruption. */
+  private static final int MAX_COUNT = 256;
+
+  /** Queries the platform for its encoders. */
+  interface Probe {
+    List<EncoderCapabilities> query();
+  }
+
+  private EncoderCache() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Read the encoders stored in {@code file} if they were probed on the build with
+   * {@code fingerprint}, otherwise probe them and store them. Failing to store them is not an
+   * error as they can always be probed again.
+   */
+  static List<EncoderCapabilities> load(File file, String fingerprint, Probe probe) {
+    if (file.exists()) {
+      try {
+        List<EncoderCapabilities> encoders = read(file, fingerprint);
+        if (encoders != null) {
+          return encoders;
+        }
+      } catch (IOException ignored) {
+        // Corrupt. Probe again.
+      }
+    }
+
+    List<EncoderCapabilities> encoders = probe.query();
+    try {
+      write(file, fingerprint, encoders);
+    } catch (IOException ignored) {
+      // Probed again next time.
+    }
+    return encoders;
+  }
+
+  /**
+   * Store {@code encoders} in {@code file}, tagged with the build's {@code fingerprint}. The
+   * file is replaced in one step so that concurrent readers see either version whole.
+   */
+  static void write(File file, String fingerprint, List<EncoderCapabilities> encoders)
+      throws IOException {
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(fingerprint);
+        output.writeInt(encoders.size());
+        for (EncoderCapabilities encoder : encoders) {
+          output.writeUTF(encoder.name);
+          output.writeBoolean(encoder.hardwareAccelerated);
+          output.writeInt(encoder.minWidth);
+          output.writeInt(encoder.maxWidth);
+          output.writeInt(encoder.minHeight);
+          output.writeInt(encoder.maxHeight);
+          output.writeInt(encoder.widthAlignment);
+          output.writeInt(encoder.heightAlignment);
+          output.writeInt(encoder.minBitRate);
+          output.writeInt(encoder.maxBitRate);
+          output.writeInt(encoder.maxFrameRate);
+          output.writeLong(encoder.maxMacroblocksPerSecond);
+          output.writeInt(encoder.bitRateModes);
+          output.writeInt(encoder.profiles.length);
+          for (int profile : encoder.profiles) {
+            output.writeInt(profile);
+          }
+        }
+      } finally {
+        output.close();
+      }
+      if (!temp.renameTo(file)) {
+        throw new IOException("Unable to replace " + file);
+      }
+    } finally {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+    }
+  }
+
+  /**
+   * Read the encoders in {@code file}, or return null if they were probed on a different build
+   * or stored by a different version of this class.
+   */
+  static List<EncoderCapabilities> read(File file, String fingerprint) throws IOException {
+    DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not an encoder cache.");
+      }
+      if (input.readInt() != VERSION || !input.readUTF().equals(fingerprint)) {
+        return null;
+      }
+      int count = readCount(input);
+      List<EncoderCapabilities> encoders = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String name = input.readUTF();
+        boolean hardwareAccelerated = input.readBoolean();
+        int minWidth = input.readInt();
+        int maxWidth = input.readInt();
+        int minHeight = input.readInt();
+        int maxHeight = input.readInt();
+        int widthAlignment = input.readInt();
+        int heightAlignment = input.readInt();
+        int minBitRate = input.readInt();
+        int maxBitRate = input.readInt();
+        int maxFrameRate = input.readInt();
+        long maxMacroblocksPerSecond = input.readLong();
+        int bitRateModes = input.readInt();
+        int[] profiles = new int[readCount(input)];
+        for (int j = 0; j < profiles.length; j++) {
+          profiles[j] = input.readInt();
+        }
+        encoders.add(new EncoderCapabilities(name, hardwareAccelerated, minWidth, maxWidth,
+            minHeight, maxHeight, widthAlignment, heightAlignment, minBitRate, maxBitRate,
+            maxFrameRate, maxMacroblocksPerSecond, bitRateModes, profiles));
+      }
+      if (input.read() != -1) {
+        throw new IOException("Trailing data.");
+      }
+      return encoders;
+    } finally {
+      input.close();
+    }
+  }
+
+  private static int readCount(DataInputStream input) throws IOException {
+    int count = input.readInt();
+    if (count < 0 || count > MAX_COUNT) {
+      throw new IOException("Invalid count " + count);
+    }
+    return count;
+  }
+}
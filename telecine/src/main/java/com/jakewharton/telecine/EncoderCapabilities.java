@@ -0,0 +1,86 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/** The limits of a single video encoder as reported by {@code MediaCodecInfo}. */
+final class EncoderCapabilities {
+  final String name;
+  final boolean hardwareAccelerated;
+  final int minWidth;
+  final int maxWidth;
+  final int minHeight;
+  final int maxHeight;
+  final int widthAlignment;
+  final int heightAlignment;
+  final int minBitRate;
+  final int maxBitRate;
+  final int maxFrameRate;
+  /** The number of 16x16 macroblocks the encoder can process each second. */
+  final long maxMacroblocksPerSecond;
+  /** Bit {@code 1 << mode} is set for each supported {@code BITRATE_MODE_*}, or 0 if unknown. */
+  final int bitRateModes;
+  /** The {@code AVCProfile*} values supported, ascending. Empty if unknown. */
+  final int[] profiles;
+
+  /** Capabilities whose bit rate modes and profiles are unknown. */
+  EncoderCapabilities(String name, boolean hardwareAccelerated, int minWidth, int maxWidth,
+      int minHeight, int maxHeight, int widthAlignment, int heightAlignment, int minBitRate,
+      int maxBitRate, int maxFrameRate, long maxMacroblocksPerSecond) {
+    this(name, hardwareAccelerated, minWidth, maxWidth, minHeight, maxHeight, widthAlignment,
+        heightAlignment, minBitRate, maxBitRate, maxFrameRate, maxMacroblocksPerSecond, 0,
+        new int[0]);
+  }
+
+  EncoderCapabilities(String name, boolean hardwareAccelerated, int minWidth, int maxWidth,
+      int minHeight, int maxHeight, int widthAlignment, int heightAlignment, int minBitRate,
+      int maxBitRate, int maxFrameRate, long maxMacroblocksPerSecond, int bitRateModes,
+      int[] profiles) {
+    this.name = name;
+    this.hardwareAccelerated = hardwareAccelerated;
+    this.minWidth = minWidth;
+    this.maxWidth = maxWidth;
+    this.minHeight = minHeight;
+    this.maxHeight = maxHeight;
+    this.widthAlignment = widthAlignment;
+    this.heightAlignment = heightAlignment;
+    this.minBitRate = minBitRate;
+    this.maxBitRate = maxBitRate;
+    this.maxFrameRate = maxFrameRate;
+    this.maxMacroblocksPerSecond = maxMacroblocksPerSecond;
+    this.bitRateModes = bitRateModes;
+    this.profiles = profiles;
+  }
+
+  boolean supportsSize(int width, int height) {
+    return width >= minWidth
+        && width <= maxWidth
+        && height >= minHeight
+        && height <= maxHeight
+        && width % widthAlignment == 0
+        && height % heightAlignment == 0;
+  }
+
+  /** True if the encoder has the throughput to encode {@code width}x{@code height} in real time. */
+  boolean supportsRate(int width, int height, int frameRate) {
+    return frameRate <= maxFrameRate
+        && macroblocks(width, height) * frameRate <= maxMacroblocksPerSecond;
+  }
+
+  static long macroblocks(int width, int height) {
+    return (long) ((width + 15) / 16) * ((height + 15) / 16);
+  }
+
+  /** Software encoders shipped with the platform are named with these prefixes. */
+  static boolean isSoftwareEncoderName(String name) {
+    return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+  }
+
+  @Override public String toString() {
+    return String.format(Locale.US,
+        "%s [%d-%dx%d-%d, align %dx%d, %d-%dbps, %dfps, %dMB/s, modes %d, profiles %s]",
+        name, minWidth, maxWidth, minHeight, maxHeight, widthAlignment, heightAlignment,
+        minBitRate, maxBitRate, maxFrameRate, maxMacroblocksPerSecond, bitRateModes,
+        Arrays.toString(profiles));
+  }
+}
@@ -0,0 +1,25 @@
+package com.jakewharton.telecine;
+
+/** The settings used to configure a video encoder for a single recording. */
+final class EncoderConfig {
+  final String encoderName;
+  final int width;
+  final int height;
+  final int bitRate;
+  final int frameRate;
+  final int keyFrameIntervalSeconds;
+
+  EncoderConfig(String encoderName, int width, int height, int bitRate, int frameRate,
+      int keyFrameIntervalSeconds) {
+    this.encoderName = encoderName;
+    this.width = width;
+    this.height = height;
+    this.bitRate = bitRate;
+    this.frameRate = frameRate;
+    this.keyFrameIntervalSeconds = keyFrameIntervalSeconds;
+  }
+
+  @Override public String toString() {
+    return encoderName + ' ' + width + 'x' + height + " @ " + frameRate + "fps " + bitRate + "bps";
+  }
+}
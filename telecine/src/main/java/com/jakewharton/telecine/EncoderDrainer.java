@@ -0,0 +1,138 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls encoded buffers out of a {@link Codec} and hands them to a {@link Sink} until the end of
+ * the stream is reached or {@link #cancel()} is called. Meant to be run on its own thread.
+ */
+final class EncoderDrainer implements Runnable {
+  /** The subset of {@code MediaCodec} output operations used to drain an encoder. */
+  interface Codec {
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    /**
+     * Returns the index of an output buffer whose metadata was written into {@code sample}, or one
+     * of the {@code INFO_*} constants.
+     */
+    int dequeueOutputBuffer(EncodedSample sample, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+  }
+
+  /** Receives the encoded stream. Only called from the draining thread. */
+  interface Sink {
+    /** Invoked once the output format is known and before any call to {@link #writeSample}. */
+    void formatChanged() throws IOException;
+
+    /**
+     * Write {@code sample.size} bytes from {@code data}. The position and limit of {@code data}
+     * span the sample. The buffer is only valid for the duration of this call.
+     */
+    void writeSample(ByteBuffer data, EncodedSample sample) throws IOException;
+  }
+
+  private static final long TIMEOUT_US = 10000;
+
+  private final Codec codec;
+  private final Sink sink;
+  private final RecordingMetrics metrics;
+  private final EncodedSample sample = new EncodedSample();
+  private final CountDownLatch finished = new CountDownLatch(1);
+
+  private volatile boolean cancelled;
+  private volatile Throwable failure;
+  private boolean formatKnown;
+  private long samplesWritten;
+
+  EncoderDrainer(Codec codec, Sink sink, RecordingMetrics metrics) {
+    this.codec = codec;
+    this.sink = sink;
+    this.metrics = metrics;
+  }
+
+  @Override public void run() {
+    try {
+      drain();
+    } catch (Throwable t) {
+      failure = t;
+    } finally {
+      finished.countDown();
+    }
+  }
+
+  private void drain() throws IOException {
+    while (!cancelled) {
+      int index = codec.dequeueOutputBuffer(sample, TIMEOUT_US);
+      if (index == Codec.INFO_TRY_AGAIN_LATER || index == Codec.INFO_OUTPUT_BUFFERS_CHANGED) {
+        continue;
+      }
+      if (index == Codec.INFO_OUTPUT_FORMAT_CHANGED) {
+        if (formatKnown) {
+          throw new IllegalStateException("Output format changed twice.");
+        }
+        formatKnown = true;
+        sink.formatChanged();
+        continue;
+      }
+      if (index < 0) {
+        continue; // Unknown status. Ignore to match MediaCodec's forward-compatibility contract.
+      }
+      long dequeueTimeUs = System.nanoTime() / 1000;
+
+      try {
+        // Codec config data is delivered through the output format instead.
+        if (sample.size > 0 && !sample.isCodecConfig()) {
+          if (!formatKnown) {
+            throw new IllegalStateException("Sample received before output format.");
+          }
+          ByteBuffer data = codec.getOutputBuffer(index);
+          data.limit(sample.offset + sample.size);
+          data.position(sample.offset);
+          long writeStart = System.nanoTime();
+          sink.writeSample(data, sample);
+          long writeUs = (System.nanoTime() - writeStart) / 1000;
+          metrics.frameEncoded(sample.presentationTimeUs, dequeueTimeUs, writeUs, sample.size);
+          samplesWritten++;
+        }
+      } finally {
+        codec.releaseOutputBuffer(index);
+      }
+
+      if (sample.isEndOfStream()) {
+        return;
+      }
+    }
+  }
+
+  /** Stop draining at the next opportunity without waiting for the end of the stream. */
+  void cancel() {
+    cancelled = true;
+  }
+
+  /** Returns true if draining finished within {@code timeout}. */
+  boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return finished.await(timeout, unit);
+  }
+
+  /** The exception which terminated draining, or null. */
+  Throwable failure() {
+    return failure;
+  }
+
+  /** True once the output format was delivered to the sink. */
+  boolean formatKnown() {
+    return formatKnown;
+  }
+
+  long samplesWritten() {
+    return samplesWritten;
+  }
+}
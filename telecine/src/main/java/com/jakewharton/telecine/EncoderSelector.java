@@ -0,0 +1,39 @@
+package com.jakewharton.telecine;
+
+import java.util.List;
+
+final class EncoderSelector {
+  static final int KEY_FRAME_INTERVAL_SECONDS = 1;
+
+  private EncoderSelector() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Pick the encoder best suited to record at the exact size of {@code info}. Hardware encoders
+   * are preferred over software ones. The bit rate is planned for {@code quality} within the
+   * chosen encoder's bounds. Returns null if no encoder supports the size.
+   */
+  static EncoderConfig select(List<EncoderCapabilities> encoders,
+      RecordingInfo info, int quality) {
+    EncoderCapabilities best = null;
+    for (int i = 0, size = encoders.size(); i < size; i++) {
+      EncoderCapabilities encoder = encoders.get(i);
+      if (!encoder.supportsSize(info.width, info.height)) {
+        continue;
+      }
+      if (best == null || (encoder.hardwareAccelerated && !best.hardwareAccelerated)) {
+        best = encoder;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+
+    int frameRate = Math.min(best.maxFrameRate, info.frameRate);
+    int bitRate = BitratePlanner.plan(info.width, info.height, frameRate, quality,
+        best.minBitRate, best.maxBitRate);
+    return new EncoderConfig(best.name, info.width, info.height, bitRate, frameRate,
+        KEY_FRAME_INTERVAL_SECONDS);
+  }
+}
@@ -0,0 +1,238 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jakewharton.telecine.Mp4Parser.CO64;
+import static com.jakewharton.telecine.Mp4Parser.FTYP;
+import static com.jakewharton.telecine.Mp4Parser.MDIA;
+import static com.jakewharton.telecine.Mp4Parser.MINF;
+import static com.jakewharton.telecine.Mp4Parser.MOOV;
+import static com.jakewharton.telecine.Mp4Parser.STBL;
+import static com.jakewharton.telecine.Mp4Parser.STCO;
+import static com.jakewharton.telecine.Mp4Parser.TRAK;
+
+/**
+ * Rewrites an MP4 whose {@code moov} follows its media data so that the {@code moov} comes
+ * first and playback can begin before the whole file is read. Chunk offsets are shifted by the
+ * size of the relocated {@code moov}, promoting {@code stco} tables to {@code co64} when they
+ * no longer fit in 32 bits. Media data is copied with {@link FileChannel#transferTo} and never
+ * enters the Java heap.
+ *
+ * <p>Only {@code MediaRecorder} output needs this. It reserves a {@code free} box after the
+ * {@code ftyp} for the {@code moov}, but writes the {@code moov} at the end once it outgrows that
+ * space. The codec backend's fragmented files already start with their {@code moov} and are never
+ * passed here.
+ */
+final class FastStart {
+  static final long MAX_32_BIT_OFFSET = 0xffffffffL;
+
+  private static final String TEMP_SUFFIX = ".faststart";
+
+  private FastStart() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Rewrite {@code file} in place if its {@code moov} is not already first. The new file is
+   * written alongside and renamed over the original so a failure leaves the original intact.
+   * Returns true if the file was rewritten.
+   */
+  static boolean rewrite(File file) throws IOException {
+    File temp = new File(file.getPath() + TEMP_SUFFIX);
+    boolean rewritten;
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      RandomAccessFile output = new RandomAccessFile(temp, "rw");
+      try {
+        output.setLength(0);
+        rewritten = rewrite(input.getChannel(), output.getChannel(), MAX_32_BIT_OFFSET);
+      } finally {
+        output.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw e;
+    } finally {
+      input.close();
+    }
+
+    if (!rewritten) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      return false;
+    }
+    if (!temp.renameTo(file)) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw new IOException("Unable to replace " + file);
+    }
+    return true;
+  }
+
+  /**
+   * Copy {@code input} to {@code output} with its {@code moov} moved before all other boxes but
+   * {@code ftyp}. Chunk offsets above {@code offsetLimit} are written as 64-bit. Returns false
+   * without writing anything if the {@code moov} already precedes the media data.
+   */
+  static boolean rewrite(FileChannel input, FileChannel output, long offsetLimit)
+      throws IOException {
+    long fileSize = input.size();
+    ByteBuffer header = ByteBuffer.allocate(16);
+    List<Mp4Parser.Box> boxes = new ArrayList<>();
+    Mp4Parser.Box moov = null;
+    long insertAt = 0;
+    for (long position = 0; position < fileSize; ) {
+      Mp4Parser.Box box = Mp4Parser.readBox(input, header, position, fileSize);
+      if (box.truncated) {
+        throw new IOException("Truncated " + box);
+      }
+      if (box.type == MOOV) {
+        if (moov != null) {
+          throw new IOException("Multiple moov boxes.");
+        }
+        moov = box;
+      } else if (box.type == FTYP && moov == null && insertAt == box.offset) {
+        insertAt = box.end(); // Keep the file type first.
+      }
+      boxes.add(box);
+      position = box.end();
+    }
+    if (moov == null) {
+      throw new IOException("No moov.");
+    }
+    if (moov.offset == insertAt) {
+      return false; // Already first.
+    }
+
+    ByteBuffer moovPayload = Mp4Parser.readPayload(input, moov);
+    // Shifting offsets can promote tables to 64-bit, which grows the moov and shifts offsets
+    // further. Sizes only increase so this settles within a couple of passes.
+    OffsetShift shift = new OffsetShift(insertAt, moov, 0);
+    BoxBuilder newMoov;
+    while (true) {
+      newMoov = new BoxBuilder((int) moov.size + 1024);
+      newMoov.start("moov");
+      copyChildren(moovPayload, 0, moovPayload.limit(), newMoov, shift, offsetLimit);
+      newMoov.end();
+      if (newMoov.size() == shift.newMoovSize) {
+        break;
+      }
+      shift = new OffsetShift(insertAt, moov, newMoov.size());
+    }
+
+    long position = transfer(input, 0, insertAt, output, 0);
+    output.position(position);
+    newMoov.writeTo(output);
+    position += newMoov.size();
+    for (int i = 0, size = boxes.size(); i < size; i++) {
+      Mp4Parser.Box box = boxes.get(i);
+      if (box.offset >= insertAt && box != moov) {
+        position += transfer(input, box.offset, box.size, output, position);
+      }
+    }
+    output.force(false);
+    return true;
+  }
+
+  /** Maps offsets in the original file to where those bytes land in the rewritten one. */
+  private static final class OffsetShift {
+    final long insertAt;
+    final long moovOffset;
+    final long moovEnd;
+    final long moovSize;
+    final long newMoovSize;
+
+    OffsetShift(long insertAt, Mp4Parser.Box moov, long newMoovSize) {
+      this.insertAt = insertAt;
+      this.moovOffset = moov.offset;
+      this.moovEnd = moov.end();
+      this.moovSize = moov.size;
+      this.newMoovSize = newMoovSize;
+    }
+
+    long apply(long offset) throws IOException {
+      if (offset < insertAt) {
+        return offset;
+      }
+      if (offset < moovOffset) {
+        return offset + newMoovSize;
+      }
+      if (offset >= moovEnd) {
+        return offset + newMoovSize - moovSize;
+      }
+      throw new IOException("Chunk offset " + offset + " points into the moov.");
+    }
+  }
+
+  /** Copy the boxes in {@code buffer} between {@code start} and {@code end} to {@code out}. */
+  private static void copyChildren(ByteBuffer buffer, int start, int end, BoxBuilder out,
+      OffsetShift shift, long offsetLimit) throws IOException {
+    for (int position = start; position + 8 <= end; ) {
+      int size = Mp4Parser.childSize(buffer, position, end);
+      int type = buffer.getInt(position + 4);
+      if (type == TRAK || type == MDIA || type == MINF || type == STBL) {
+        out.start(Mp4Parser.fourCcString(type));
+        copyChildren(buffer, position + 8, position + size, out, shift, offsetLimit);
+        out.end();
+      } else if (type == STCO || type == CO64) {
+        copyChunkOffsets(buffer, position, size, type == CO64, out, shift, offsetLimit);
+      } else {
+        ByteBuffer box = buffer.duplicate();
+        box.limit(position + size).position(position);
+        out.put(box);
+      }
+      position += size;
+    }
+  }
+
+  private static void copyChunkOffsets(ByteBuffer buffer, int position, int size, boolean wide,
+      BoxBuilder out, OffsetShift shift, long offsetLimit) throws IOException {
+    int count = buffer.getInt(position + 12);
+    int entrySize = wide ? 8 : 4;
+    if (count < 0 || 16 + (long) count * entrySize > size) {
+      throw new IOException("Invalid chunk offset count " + count);
+    }
+    long[] offsets = new long[count];
+    boolean needsWide = wide;
+    for (int i = 0; i < count; i++) {
+      int entry = position + 16 + i * entrySize;
+      long offset = wide ? buffer.getLong(entry) : buffer.getInt(entry) & 0xffffffffL;
+      offsets[i] = shift.apply(offset);
+      if (offsets[i] > offsetLimit) {
+        needsWide = true;
+      }
+    }
+
+    out.startFull(needsWide ? "co64" : "stco", 0, 0).putInt(count);
+    for (long offset : offsets) {
+      if (needsWide) {
+        out.putLong(offset);
+      } else {
+        out.putInt((int) offset);
+      }
+    }
+    out.end();
+  }
+
+  /** Copy {@code count} bytes without them passing through the Java heap. */
+  private static long transfer(FileChannel input, long position, long count, FileChannel output,
+      long outputPosition) throws IOException {
+    output.position(outputPosition);
+    long done = 0;
+    while (done < count) {
+      long transferred = input.transferTo(position + done, count - done, output);
+      if (transferred <= 0) {
+        throw new IOException("Unable to copy bytes at " + (position + done));
+      }
+      done += transferred;
+    }
+    return count;
+  }
+}
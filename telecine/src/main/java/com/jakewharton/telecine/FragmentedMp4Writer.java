@@ -0,0 +1,204 @@
+package com.jakewharton.telecine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes a single H.264 track as a fragmented MP4. The {@code moov} is written up front and
+ * samples follow in {@code moof}/{@code mdat} pairs, so the file is playable up to its last
+ * complete fragment even if the process dies before {@link #close()}.
+ *
+ * <p>Fragments are cut at the first key frame after the target duration has elapsed, so they
+ * normally start with one. An encoder whose key frames are further apart than four target
+ * durations would leave too much unwritten if the process died, so the fragment is then cut at
+ * any frame. A fragment starting that way depends on samples in earlier fragments, which is why
+ * readers take sync samples from each sample's flags rather than from fragment boundaries.
+ */
+final class FragmentedMp4Writer implements Closeable {
+  static final int TIMESCALE = 90000;
+
+  static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+  static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+  private static final int DEFAULT_SAMPLE_DURATION = TIMESCALE / 30;
+  private static final int TRUN_FLAGS = 0x000001 // Data offset.
+      | 0x000100 // Sample duration.
+      | 0x000200 // Sample size.
+      | 0x000400; // Sample flags.
+  private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+
+  private final WritableByteChannel channel;
+  private final long fragmentDurationTicks;
+
+  private final BoxBuilder moof = new BoxBuilder(4096);
+  private final BoxBuilder mdat = new BoxBuilder(1024 * 1024);
+
+  private long[] timestamps = new long[64];
+  private int[] sizes = new int[64];
+  private boolean[] keyFrames = new boolean[64];
+  private int pending;
+
+  private long firstTimestampUs = -1;
+  private long lastTimestamp = -1;
+  private long fragmentStartTimestamp;
+  private int lastDuration = DEFAULT_SAMPLE_DURATION;
+  private int sequenceNumber;
+  private long bytesWritten;
+  private boolean closed;
+
+  FragmentedMp4Writer(WritableByteChannel channel, int width, int height, byte[] sps, byte[] pps,
+      long fragmentDurationUs) throws IOException {
+    this.channel = channel;
+    this.fragmentDurationTicks = usToTicks(fragmentDurationUs);
+
+    BoxBuilder header = new BoxBuilder(1024);
+    MovieBoxes.ftyp(header, "iso6", "iso6", "iso5", "avc1", "mp41");
+    header.start("moov");
+    MovieBoxes.mvhd(header, TIMESCALE, 0);
+    header.start("trak");
+    MovieBoxes.tkhd(header, 0, width, height);
+    header.start("mdia");
+    MovieBoxes.mdhd(header, TIMESCALE, 0);
+    MovieBoxes.hdlr(header);
+    header.start("minf");
+    MovieBoxes.videoMediaHeader(header);
+    header.start("stbl");
+    MovieBoxes.stsd(header, width, height, sps, pps);
+    header.startFull("stts", 0, 0).putInt(0).end();
+    header.startFull("stsc", 0, 0).putInt(0).end();
+    header.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+    header.startFull("stco", 0, 0).putInt(0).end();
+    header.end(); // stbl
+    header.end(); // minf
+    header.end(); // mdia
+    header.end(); // trak
+    header.start("mvex");
+    header.startFull("trex", 0, 0)
+        .putInt(MovieBoxes.VIDEO_TRACK_ID)
+        .putInt(1) // Sample description index.
+        .putInt(0) // Default duration.
+        .putInt(0) // Default size.
+        .putInt(0) // Default flags.
+        .end();
+    header.end(); // mvex
+    header.end(); // moov
+    write(header);
+  }
+
+  /**
+   * Append one access unit. {@code data} may be in Annex B or length-prefixed form. Samples
+   * before the first key frame are dropped since they cannot be decoded.
+   */
+  void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+      throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Closed.");
+    }
+    if (firstTimestampUs == -1) {
+      if (!keyFrame) {
+        return;
+      }
+      firstTimestampUs = presentationTimeUs;
+    }
+
+    long timestamp = usToTicks(presentationTimeUs - firstTimestampUs);
+    if (timestamp <= lastTimestamp) {
+      timestamp = lastTimestamp + 1; // Decode order must be strictly increasing.
+    }
+
+    if (pending > 0) {
+      long elapsed = timestamp - fragmentStartTimestamp;
+      if ((keyFrame && elapsed >= fragmentDurationTicks) || elapsed >= 4 * fragmentDurationTicks) {
+        writeFragment(timestamp);
+      }
+    }
+
+    if (pending == 0) {
+      fragmentStartTimestamp = timestamp;
+    }
+    ensureCapacity(pending + 1);
+    timestamps[pending] = timestamp;
+    sizes[pending] = NalUnits.writeLengthPrefixed(data, mdat);
+    keyFrames[pending] = keyFrame;
+    pending++;
+    lastTimestamp = timestamp;
+  }
+
+  /** Write out any buffered samples as a fragment. */
+  void flush() throws IOException {
+    if (pending > 0) {
+      // The last duration is unknown so repeat the one before it.
+      long duration =
+          pending > 1 ? timestamps[pending - 1] - timestamps[pending - 2] : lastDuration;
+      writeFragment(lastTimestamp + duration);
+    }
+  }
+
+  /** The number of bytes written to the channel so far. */
+  long bytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+  }
+
+  /** Write all pending samples. {@code endTimestamp} gives the duration of the last one. */
+  private void writeFragment(long endTimestamp) throws IOException {
+    moof.clear();
+    moof.start("moof");
+    moof.startFull("mfhd", 0, 0).putInt(++sequenceNumber).end();
+    moof.start("traf");
+    moof.startFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF).putInt(MovieBoxes.VIDEO_TRACK_ID).end();
+    moof.startFull("tfdt", 1, 0).putLong(timestamps[0]).end();
+    moof.startFull("trun", 0, TRUN_FLAGS).putInt(pending);
+    int dataOffsetIndex = moof.size();
+    moof.putInt(0); // Data offset placeholder.
+    for (int i = 0; i < pending; i++) {
+      long next = i + 1 < pending ? timestamps[i + 1] : endTimestamp;
+      int duration = (int) (next - timestamps[i]);
+      moof.putInt(duration);
+      moof.putInt(sizes[i]);
+      moof.putInt(keyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+      lastDuration = duration;
+    }
+    moof.end(); // trun
+    moof.end(); // traf
+    moof.end(); // moof
+    int moofSize = moof.size();
+    moof.setInt(dataOffsetIndex, moofSize + 8); // Samples start after the mdat header.
+    moof.start("mdat").end();
+    moof.setInt(moofSize, 8 + mdat.size());
+
+    write(moof);
+    write(mdat);
+    mdat.clear();
+    pending = 0;
+  }
+
+  private void write(BoxBuilder box) throws IOException {
+    box.writeTo(channel);
+    bytesWritten += box.size();
+  }
+
+  private void ensureCapacity(int count) {
+    if (count <= sizes.length) {
+      return;
+    }
+    int capacity = sizes.length * 2;
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    sizes = Arrays.copyOf(sizes, capacity);
+    keyFrames = Arrays.copyOf(keyFrames, capacity);
+  }
+
+  static long usToTicks(long us) {
+    return us * TIMESCALE / 1000000L;
+  }
+}
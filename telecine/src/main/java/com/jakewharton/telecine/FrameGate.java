@@ -0,0 +1,101 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which captured frames reach the encoder. Frames which do not change the picture are
+ * skipped so an idle screen costs nothing, and frames arriving faster than the frame rate cap are
+ * held back. A held frame is still encoded once the cap allows unless a newer one replaces it
+ * first, so the last change before the screen goes idle is never lost.
+ *
+ * <p>Skipping leaves gaps between timestamps rather than changing them, which makes the output
+ * variable frame rate with every frame shown at the time it was captured. Held frames are shown
+ * at most one frame interval late.
+ */
+final class FrameGate {
+  static final int ENCODE = 0;
+  static final int SKIP = 1;
+  static final int DEFER = 2;
+
+  private long minIntervalNs;
+  /** Display frames arrive with jitter. Accept those slightly early rather than halving rate. */
+  private long toleranceNs;
+  private final long refreshIntervalNs;
+
+  private boolean started;
+  private long lastEncodedNs;
+  /** Whether the latest frame differs from the last one encoded. */
+  private boolean dirty;
+  private boolean deferred;
+
+  /**
+   * @param maxFrameRate Encode at most this many frames per second, or 0 for no cap.
+   * @param refreshIntervalNs Encode an unchanged frame when none has been encoded for this long,
+   * or 0 to never. Changes too small to be detected then still appear eventually.
+   */
+  FrameGate(int maxFrameRate, long refreshIntervalNs) {
+    if (refreshIntervalNs < 0) {
+      throw new IllegalArgumentException("refreshIntervalNs < 0: " + refreshIntervalNs);
+    }
+    setMaxFrameRate(maxFrameRate);
+    this.refreshIntervalNs = refreshIntervalNs;
+  }
+
+  /** Change the cap for frames offered from now on, or remove it with 0. */
+  void setMaxFrameRate(int maxFrameRate) {
+    if (maxFrameRate < 0) {
+      throw new IllegalArgumentException("maxFrameRate < 0: " + maxFrameRate);
+    }
+    minIntervalNs = maxFrameRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxFrameRate;
+    toleranceNs = minIntervalNs / 4;
+  }
+
+  /**
+   * A frame captured at {@code timestampNs} arrived. {@code changed} is whether it differs from
+   * the frame before it. Returns {@link #ENCODE} to encode it now, {@link #SKIP} if it shows
+   * nothing new, or {@link #DEFER} to hold it and encode it at {@link #deferredUntilNs()} unless
+   * a newer frame is offered first.
+   */
+  int offer(long timestampNs, boolean changed) {
+    if (!started) {
+      started = true;
+      encoded(timestampNs);
+      return ENCODE;
+    }
+    dirty |= changed;
+    long elapsedNs = timestampNs - lastEncodedNs;
+    if (!dirty && (refreshIntervalNs == 0 || elapsedNs < refreshIntervalNs)) {
+      return SKIP;
+    }
+    if (elapsedNs >= minIntervalNs - toleranceNs && elapsedNs >= 0) {
+      encoded(timestampNs);
+      return ENCODE;
+    }
+    deferred = true;
+    return DEFER;
+  }
+
+  /** When the held frame is due. Only meaningful after {@link #offer} returned {@link #DEFER}. */
+  long deferredUntilNs() {
+    return lastEncodedNs + minIntervalNs;
+  }
+
+  /**
+   * Release the held frame because its time came or recording stopped. Returns the timestamp to
+   * encode it with, or -1 if no frame is held.
+   */
+  long flush() {
+    if (!deferred) {
+      return -1;
+    }
+    long timestampNs = deferredUntilNs();
+    encoded(timestampNs);
+    return timestampNs;
+  }
+
+  private void encoded(long timestampNs) {
+    lastEncodedNs = timestampNs;
+    dirty = false;
+    deferred = false;
+  }
+}
@@ -0,0 +1,322 @@
+package com.jakewharton.telecine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Where each picture of an H.264 recording is, how big it is, whether it is an IDR picture, and
+ * when it is presented. Built by scanning either an MP4, whose samples hold length-prefixed
+ * units, or a raw Annex B stream, and stored beside the recording in a compact binary form so
+ * that seeking, trimming, and frame analysis do not need to scan again.
+ */
+final class FrameIndex {
+  static final String SUFFIX = ".index";
+  static final int VERSION = 1;
+
+  private static final int MAGIC = 0x544c4649; // 'TLFI'
+  private static final int FTYP = Mp4Parser.fourCc("ftyp");
+  private static final int AVCC = Mp4Parser.fourCc("avcC");
+  /** The size of an {@code avc1} sample entry before its child boxes. */
+  private static final int VISUAL_SAMPLE_ENTRY_SIZE = 86;
+
+  final int width;
+  final int height;
+  int count;
+  long[] offsets;
+  int[] sizes;
+  /** The NAL unit type of each picture's first slice, or 0 if none was found. */
+  byte[] types;
+  long[] ptsUs;
+
+  FrameIndex(int width, int height, int capacity) {
+    this.width = width;
+    this.height = height;
+    capacity = Math.max(capacity, 16);
+    offsets = new long[capacity];
+    sizes = new int[capacity];
+    types = new byte[capacity];
+    ptsUs = new long[capacity];
+  }
+
+  void add(long offset, int size, int type, long ptsUs) {
+    if (count == sizes.length) {
+      int capacity = count * 2;
+      offsets = Arrays.copyOf(offsets, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      types = Arrays.copyOf(types, capacity);
+      this.ptsUs = Arrays.copyOf(this.ptsUs, capacity);
+    }
+    offsets[count] = offset;
+    sizes[count] = size;
+    types[count] = (byte) type;
+    this.ptsUs[count] = ptsUs;
+    count++;
+  }
+
+  boolean isIdr(int index) {
+    return types[index] == NalUnits.TYPE_IDR;
+  }
+
+  /**
+   * The index of the last IDR picture presented at or before {@code ptsUs}, from which decoding
+   * must begin to show that time, or -1 if there is none.
+   */
+  int idrAtOrBefore(long ptsUs) {
+    int found = -1;
+    for (int i = 0; i < count; i++) {
+      if (types[i] == NalUnits.TYPE_IDR) {
+        if (this.ptsUs[i] > ptsUs) {
+          break;
+        }
+        found = i;
+      }
+    }
+    return found;
+  }
+
+  static File fileFor(File recording) {
+    return new File(recording.getPath() + SUFFIX);
+  }
+
+  /**
+   * Read the index stored beside {@code recording} if it was built from the recording as it is
+   * now, otherwise build one and store it. Failing to store the index is not an error as it can
+   * always be built again.
+   */
+  static FrameIndex load(File recording, long annexBFrameDurationUs) throws IOException {
+    File file = fileFor(recording);
+    long length = recording.length();
+    long modified = recording.lastModified();
+    if (file.exists()) {
+      try {
+        FrameIndex index = read(file, length, modified);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException ignored) {
+        // Corrupt. Build it again.
+      }
+    }
+
+    FrameIndex index;
+    RandomAccessFile input = new RandomAccessFile(recording, "r");
+    try {
+      index = build(input.getChannel(), annexBFrameDurationUs);
+    } finally {
+      input.close();
+    }
+    try {
+      index.write(file, length, modified);
+    } catch (IOException e) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+    return index;
+  }
+
+  /**
+   * Index {@code channel}. Annex B streams carry no timing so their pictures are given
+   * {@code annexBFrameDurationUs} each.
+   */
+  static FrameIndex build(FileChannel channel, long annexBFrameDurationUs) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(8);
+    channel.read(head, 0);
+    if (head.position() == 8 && head.getInt(4) == FTYP) {
+      return buildMp4(channel);
+    }
+    if (head.position() >= 4 && head.get(0) == 0 && head.get(1) == 0
+        && (head.get(2) == 1 || head.get(2) == 0 && head.get(3) == 1)) {
+      return buildAnnexB(channel, annexBFrameDurationUs);
+    }
+    throw new IOException("Neither an MP4 nor an Annex B stream.");
+  }
+
+  private static FrameIndex buildMp4(FileChannel channel) throws IOException {
+    Mp4SampleTable table = Mp4SampleTable.read(channel);
+    byte[] stsd = table.sampleDescription;
+    ByteBuffer description = ByteBuffer.wrap(stsd);
+    // stsd header, entry count, then the first entry.
+    int entry = 16;
+    if (stsd.length < entry + VISUAL_SAMPLE_ENTRY_SIZE) {
+      throw new IOException("Truncated sample description.");
+    }
+    int entryEnd = entry + Mp4Parser.childSize(description, entry, stsd.length);
+    int avcC = Mp4Parser.findChild(description, entry + VISUAL_SAMPLE_ENTRY_SIZE, entryEnd, AVCC);
+    if (avcC == -1 || avcC + 14 > entryEnd) {
+      throw new IOException(
+          "Not H.264: " + Mp4Parser.fourCcString(description.getInt(entry + 4)));
+    }
+    int lengthSize = (stsd[avcC + 12] & 3) + 1;
+
+    int width = table.width;
+    int height = table.height;
+    int spsCount = stsd[avcC + 13] & 0x1f;
+    if (spsCount > 0 && avcC + 16 <= entryEnd) {
+      int spsLength = description.getShort(avcC + 14) & 0xffff;
+      if (avcC + 16 + spsLength <= entryEnd) {
+        byte[] nal = Arrays.copyOfRange(stsd, avcC + 16, avcC + 16 + spsLength);
+        try {
+          SequenceParameterSet sps = SequenceParameterSet.parse(nal);
+          width = sps.width;
+          height = sps.height;
+        } catch (IOException ignored) {
+          // Keep the track header's size.
+        }
+      }
+    }
+
+    FrameIndex index = new FrameIndex(width, height, table.count);
+    NalScanner scanner = new NalScanner(channel, NalScanner.DEFAULT_WINDOW_SIZE);
+    FirstSlice firstSlice = new FirstSlice();
+    long decodeTime = 0;
+    for (int i = 0; i < table.count; i++) {
+      firstSlice.type = 0;
+      long offset = table.offsets[i];
+      scanner.scanLengthPrefixed(offset, offset + table.sizes[i], lengthSize, firstSlice);
+      long presentationTime = decodeTime
+          + (table.compositionOffsets != null ? table.compositionOffsets[i] : 0);
+      index.add(offset, table.sizes[i], firstSlice.type, table.ticksToUs(presentationTime));
+      decodeTime += table.durations[i];
+    }
+    return index;
+  }
+
+  /** Records the type of the first picture unit and stops. */
+  private static final class FirstSlice implements NalScanner.Callback {
+    int type;
+
+    @Override public boolean onNal(long offset, int size, int type, int secondByte) {
+      if (type == NalUnits.TYPE_NON_IDR || type == NalUnits.TYPE_IDR) {
+        this.type = type;
+        return false;
+      }
+      return true;
+    }
+  }
+
+  private static FrameIndex buildAnnexB(final FileChannel channel, final long frameDurationUs)
+      throws IOException {
+    final byte[][] sps = new byte[1][];
+    // The size is only known once the SPS has been found.
+    final FrameIndex pending = new FrameIndex(0, 0, 1024);
+    AccessUnitSplitter splitter = new AccessUnitSplitter(0, 0) {
+      @Override boolean onAccessUnit(long offset, long size, boolean sync) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException("Access unit at " + offset + " is " + size + " bytes.");
+        }
+        pending.add(offset, (int) size, sync ? NalUnits.TYPE_IDR : NalUnits.TYPE_NON_IDR,
+            pending.count * frameDurationUs);
+        return true;
+      }
+
+      @Override boolean onNalUnit(long offset, int size, int type) throws IOException {
+        if (type == NalUnits.TYPE_SPS && sps[0] == null && size <= 1024) {
+          ByteBuffer nal = ByteBuffer.allocate(size);
+          while (nal.hasRemaining()) {
+            if (channel.read(nal, offset + nal.position()) == -1) {
+              throw new EOFException();
+            }
+          }
+          sps[0] = nal.array();
+        }
+        return true;
+      }
+    };
+    new NalScanner(channel, NalScanner.DEFAULT_WINDOW_SIZE)
+        .scanAnnexB(0, channel.size(), splitter);
+    splitter.flush();
+    if (sps[0] == null) {
+      throw new IOException("No SPS in the stream.");
+    }
+    SequenceParameterSet parameters = SequenceParameterSet.parse(sps[0]);
+    FrameIndex index = new FrameIndex(parameters.width, parameters.height, 0);
+    index.count = pending.count;
+    index.offsets = pending.offsets;
+    index.sizes = pending.sizes;
+    index.types = pending.types;
+    index.ptsUs = pending.ptsUs;
+    return index;
+  }
+
+  /**
+   * Store this index in {@code file}, tagged with the length and modification time of the
+   * recording it was built from so that a stale index is never used.
+   */
+  void write(File file, long sourceLength, long sourceModified) throws IOException {
+    DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(sourceLength);
+      output.writeLong(sourceModified);
+      output.writeInt(width);
+      output.writeInt(height);
+      output.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        output.writeLong(offsets[i]);
+      }
+      for (int i = 0; i < count; i++) {
+        output.writeInt(sizes[i]);
+      }
+      output.write(types, 0, count);
+      for (int i = 0; i < count; i++) {
+        output.writeLong(ptsUs[i]);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Read the index in {@code file}, or return null if it was built from a different version of
+   * its recording or by a different version of this class.
+   */
+  static FrameIndex read(File file, long sourceLength, long sourceModified) throws IOException {
+    DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not a frame index.");
+      }
+      if (input.readInt() != VERSION
+          || input.readLong() != sourceLength
+          || input.readLong() != sourceModified) {
+        return null;
+      }
+      int width = input.readInt();
+      int height = input.readInt();
+      int count = input.readInt();
+      // Each entry takes 21 bytes. Refuse counts which the file cannot hold.
+      if (count < 0 || count > (file.length() - 36) / 21) {
+        throw new IOException("Invalid count " + count);
+      }
+      FrameIndex index = new FrameIndex(width, height, count);
+      for (int i = 0; i < count; i++) {
+        index.offsets[i] = input.readLong();
+      }
+      for (int i = 0; i < count; i++) {
+        index.sizes[i] = input.readInt();
+      }
+      input.readFully(index.types, 0, count);
+      for (int i = 0; i < count; i++) {
+        index.ptsUs[i] = input.readLong();
+      }
+      index.count = count;
+      return index;
+    } finally {
+      input.close();
+    }
+  }
+}
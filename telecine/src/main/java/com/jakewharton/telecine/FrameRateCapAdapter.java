@@ -0,0 +1,65 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/** Frame rate caps in frames per second. Zero records at the display's own rate. */
+final class FrameRateCapAdapter extends BaseAdapter {
+  static int getSelectedPosition(int value) {
+    switch (value) {
+      case 0: return 0;
+      case 60: return 1;
+      case 30: return 2;
+      case 15: return 3;
+      case 10: return 4;
+      default: return 0;
+    }
+  }
+
+  private final Context context;
+  private final LayoutInflater inflater;
+
+  FrameRateCapAdapter(Context context) {
+    this.context = context;
+    inflater = LayoutInflater.from(context);
+  }
+
+  @Override public int getCount() {
+    return 5;
+  }
+
+  @Override public Integer getItem(int position) {
+    switch (position) {
+      case 0: return 0;
+      case 1: return 60;
+      case 2: return 30;
+      case 3: return 15;
+      case 4: return 10;
+      default: throw new IllegalArgumentException("Unknown position: " + position);
+    }
+  }
+
+  @Override public long getItemId(int position) {
+    return position;
+  }
+
+  @Override public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+    TextView tv = (TextView) convertView;
+    if (tv == null) {
+      tv =
+          (TextView) inflater.inflate(android.R.layout.simple_spinner_dropdown_item, parent, false);
+    }
+
+    int cap = getItem(position);
+    tv.setText(cap == 0
+        ? context.getString(R.string.frame_rate_cap_display)
+        : context.getString(R.string.frame_rate_cap_fps, cap));
+
+    return tv;
+  }
+}
@@ -0,0 +1,425 @@
+package com.jakewharton.telecine;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Sits between the virtual display and the encoder's input surface and draws only the frames
+ * which {@link FrameGate} lets through, each with its capture timestamp. The display draws into
+ * a {@link SurfaceTexture} which is copied to the encoder with OpenGL.
+ *
+ * <p>To skip unchanged frames each one is also drawn into a small offscreen buffer which is read
+ * back and compared with {@link TileHash}. Downsampling on the GPU keeps the read back tiny and
+ * describes exactly the frame about to be encoded.
+ */
+final class FrameRelay implements SurfaceTexture.OnFrameAvailableListener {
+  /** The change detection buffer is this many times smaller than the recording on each side. */
+  private static final int TAP_DIVISOR = 8;
+  private static final int TILE_SIZE = 8;
+  /** Encode at least this often so that changes too small to detect still show up. */
+  private static final long REFRESH_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+  private static final long RELAY_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+  private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+  private static final String VERTEX_SHADER = ""
+      + "uniform mat4 uTexMatrix;\n"
+      + "attribute vec4 aPosition;\n"
+      + "attribute vec4 aTexCoord;\n"
+      + "varying vec2 vTexCoord;\n"
+      + "void main() {\n"
+      + "  gl_Position = aPosition;\n"
+      + "  vTexCoord = (uTexMatrix * aTexCoord).xy;\n"
+      + "}\n";
+  private static final String FRAGMENT_SHADER = ""
+      + "#extension GL_OES_EGL_image_external : require\n"
+      + "precision mediump float;\n"
+      + "varying vec2 vTexCoord;\n"
+      + "uniform samplerExternalOES sTexture;\n"
+      + "void main() {\n"
+      + "  gl_FragColor = texture2D(sTexture, vTexCoord);\n"
+      + "}\n";
+  private static final float[] POSITIONS = { -1, -1, 1, -1, -1, 1, 1, 1 };
+  private static final float[] TEX_COORDS = { 0, 0, 1, 0, 0, 1, 1, 1 };
+
+  private final FrameGate gate;
+  @Nullable private final TileHash tileHash;
+  private final HandlerThread thread = new HandlerThread("Telecine-Relay");
+  private final Handler handler;
+  private final float[] texMatrix = new float[16];
+  /** The encoder's size. Only changed on the relay thread once it is started. */
+  private int width;
+  private int height;
+
+  // Only touched on the relay thread.
+  private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+  private EGLConfig eglConfig;
+  private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+  private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+  private int program;
+  private int positionLocation;
+  private int texCoordLocation;
+  private int texMatrixLocation;
+  private FloatBuffer positions;
+  private FloatBuffer texCoords;
+  private int texture;
+  private SurfaceTexture surfaceTexture;
+  private Surface inputSurface;
+  private int tapWidth;
+  private int tapHeight;
+  private int tapTexture;
+  private int tapFramebuffer;
+  private ByteBuffer tapBuffer;
+  private int[] tapPixels;
+  private int framesOffered;
+  private int framesEncoded;
+
+  /**
+   * @param encoderSurface The backend's input surface which frames are relayed to.
+   * @param maxFrameRate Relay at most this many frames per second, or 0 for no cap.
+   * @param skipUnchanged Whether to skip frames which do not change the picture.
+   */
+  static FrameRelay create(Surface encoderSurface, RecordingInfo info, int maxFrameRate,
+      boolean skipUnchanged) {
+    FrameRelay relay = new FrameRelay(info, maxFrameRate, skipUnchanged);
+    try {
+      relay.setUp(encoderSurface);
+    } catch (RuntimeException e) {
+      relay.release();
+      throw e;
+    }
+    return relay;
+  }
+
+  private FrameRelay(RecordingInfo info, int maxFrameRate, boolean skipUnchanged) {
+    width = info.width;
+    height = info.height;
+    gate = new FrameGate(maxFrameRate, skipUnchanged ? REFRESH_INTERVAL_NS : 0);
+    if (skipUnchanged) {
+      tapWidth = Math.max(1, width / TAP_DIVISOR);
+      tapHeight = Math.max(1, height / TAP_DIVISOR);
+      tileHash = new TileHash(tapWidth, tapHeight, TILE_SIZE);
+    } else {
+      tileHash = null;
+    }
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /** The surface for the virtual display to draw into. */
+  Surface inputSurface() {
+    return inputSurface;
+  }
+
+  private void setUp(final Surface encoderSurface) {
+    runAndWait(new Runnable() {
+      @Override public void run() {
+        setUpEgl(encoderSurface);
+        setUpProgram();
+        texture = createTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+        surfaceTexture = new SurfaceTexture(texture);
+        surfaceTexture.setDefaultBufferSize(width, height);
+        surfaceTexture.setOnFrameAvailableListener(FrameRelay.this, handler);
+        inputSurface = new Surface(surfaceTexture);
+        if (tileHash != null) {
+          setUpTap();
+        }
+      }
+    });
+  }
+
+  private void setUpEgl(Surface encoderSurface) {
+    eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+    int[] version = new int[2];
+    if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+      throw new IllegalStateException("Unable to initialize EGL: " + EGL14.eglGetError());
+    }
+    int[] configAttributes = {
+        EGL14.EGL_RED_SIZE, 8,
+        EGL14.EGL_GREEN_SIZE, 8,
+        EGL14.EGL_BLUE_SIZE, 8,
+        EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+        EGL_RECORDABLE_ANDROID, 1,
+        EGL14.EGL_NONE
+    };
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] count = new int[1];
+    if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, count, 0)
+        || count[0] == 0) {
+      throw new IllegalStateException("No recordable EGL config: " + EGL14.eglGetError());
+    }
+    int[] contextAttributes = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+    eglConfig = configs[0];
+    eglContext =
+        EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+    if (eglContext == EGL14.EGL_NO_CONTEXT) {
+      throw new IllegalStateException("Unable to create EGL context: " + EGL14.eglGetError());
+    }
+    setUpEglSurface(encoderSurface);
+  }
+
+  private void setUpEglSurface(Surface encoderSurface) {
+    eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, encoderSurface,
+        new int[] { EGL14.EGL_NONE }, 0);
+    if (eglSurface == EGL14.EGL_NO_SURFACE) {
+      throw new IllegalStateException("Unable to create EGL surface: " + EGL14.eglGetError());
+    }
+    if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+      throw new IllegalStateException("Unable to make EGL current: " + EGL14.eglGetError());
+    }
+  }
+
+  private void setUpProgram() {
+    program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+    GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+    GLES20.glLinkProgram(program);
+    int[] status = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+    if (status[0] != GLES20.GL_TRUE) {
+      throw new IllegalStateException("Unable to link program: "
+          + GLES20.glGetProgramInfoLog(program));
+    }
+    positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+    texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+    texMatrixLocation = GLES20.glGetUniformLocation(program, "uTexMatrix");
+    positions = floatBuffer(POSITIONS);
+    texCoords = floatBuffer(TEX_COORDS);
+  }
+
+  private static int compileShader(int type, String source) {
+    int shader = GLES20.glCreateShader(type);
+    GLES20.glShaderSource(shader, source);
+    GLES20.glCompileShader(shader);
+    int[] status = new int[1];
+    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+    if (status[0] != GLES20.GL_TRUE) {
+      String log = GLES20.glGetShaderInfoLog(shader);
+      GLES20.glDeleteShader(shader);
+      throw new IllegalStateException("Unable to compile shader: " + log);
+    }
+    return shader;
+  }
+
+  private static FloatBuffer floatBuffer(float[] values) {
+    FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    buffer.put(values).position(0);
+    return buffer;
+  }
+
+  private static int createTexture(int target) {
+    int[] textures = new int[1];
+    GLES20.glGenTextures(1, textures, 0);
+    GLES20.glBindTexture(target, textures[0]);
+    GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+    GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    return textures[0];
+  }
+
+  private void setUpTap() {
+    tapTexture = createTexture(GLES20.GL_TEXTURE_2D);
+    GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, tapWidth, tapHeight, 0,
+        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+    int[] framebuffers = new int[1];
+    GLES20.glGenFramebuffers(1, framebuffers, 0);
+    tapFramebuffer = framebuffers[0];
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, tapFramebuffer);
+    GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+        GLES20.GL_TEXTURE_2D, tapTexture, 0);
+    int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+      throw new IllegalStateException("Incomplete tap framebuffer: " + status);
+    }
+    tapBuffer = ByteBuffer.allocateDirect(tapWidth * tapHeight * 4).order(ByteOrder.nativeOrder());
+    tapPixels = new int[tapWidth * tapHeight];
+  }
+
+  @Override public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+    if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+      return; // Released.
+    }
+    surfaceTexture.updateTexImage();
+    surfaceTexture.getTransformMatrix(texMatrix);
+    long timestampNs = surfaceTexture.getTimestamp();
+    framesOffered++;
+
+    boolean changed = true;
+    if (tileHash != null) {
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, tapFramebuffer);
+      draw(tapWidth, tapHeight);
+      tapBuffer.clear();
+      GLES20.glReadPixels(0, 0, tapWidth, tapHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+          tapBuffer);
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+      tapBuffer.asIntBuffer().get(tapPixels);
+      changed = tileHash.update(tapPixels) > 0;
+    }
+
+    handler.removeCallbacks(flushDeferred);
+    switch (gate.offer(timestampNs, changed)) {
+      case FrameGate.ENCODE:
+        encode(timestampNs);
+        break;
+      case FrameGate.DEFER:
+        long delayNs = gate.deferredUntilNs() - System.nanoTime();
+        handler.postDelayed(flushDeferred, Math.max(0, TimeUnit.NANOSECONDS.toMillis(delayNs)));
+        break;
+      case FrameGate.SKIP:
+        break;
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /** Encode the frame held back by the cap if nothing newer arrived in time. */
+  private final Runnable flushDeferred = new Runnable() {
+    @Override public void run() {
+      long timestampNs = gate.flush();
+      if (timestampNs != -1) {
+        encode(timestampNs);
+      }
+    }
+  };
+
+  private void encode(long timestampNs) {
+    draw(width, height);
+    EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, timestampNs);
+    EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+    framesEncoded++;
+  }
+
+  private void draw(int width, int height) {
+    GLES20.glViewport(0, 0, width, height);
+    GLES20.glUseProgram(program);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+    GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, texMatrix, 0);
+    GLES20.glEnableVertexAttribArray(positionLocation);
+    GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 8, positions);
+    GLES20.glEnableVertexAttribArray(texCoordLocation);
+    GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, 8, texCoords);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+  }
+
+  /** Change the frame rate cap, or remove it with 0. Safe to call from any thread. */
+  void setMaxFrameRate(final int maxFrameRate) {
+    handler.post(new Runnable() {
+      @Override public void run() {
+        gate.setMaxFrameRate(maxFrameRate);
+      }
+    });
+  }
+
+  /**
+   * Relay into a replacement encoder's input surface of {@code info}'s size. Call once the display
+   * no longer draws and the held frame was relayed with {@link #finish()}. The display should be
+   * resized to match before it draws again.
+   */
+  void setOutput(final Surface encoderSurface, final RecordingInfo info) {
+    runAndWait(new Runnable() {
+      @Override public void run() {
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+            EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        setUpEglSurface(encoderSurface);
+        width = info.width;
+        height = info.height;
+        surfaceTexture.setDefaultBufferSize(width, height);
+      }
+    });
+  }
+
+  /**
+   * Relay the frame still held back by the cap. Call once the display no longer draws and before
+   * the encoder's input ends.
+   */
+  void finish() {
+    runAndWait(new Runnable() {
+      @Override public void run() {
+        handler.removeCallbacks(flushDeferred);
+        flushDeferred.run();
+        Timber.d("Relayed %s of %s frames.", framesEncoded, framesOffered);
+      }
+    });
+  }
+
+  /** Free the GL resources and stop the relay thread. The input surface must no longer be used. */
+  void release() {
+    try {
+      runAndWait(releaseGl);
+    } catch (IllegalStateException e) {
+      Timber.w(e, "Unable to release relay.");
+    }
+    thread.quitSafely();
+  }
+
+  private final Runnable releaseGl = new Runnable() {
+    @Override public void run() {
+      handler.removeCallbacks(flushDeferred);
+      if (inputSurface != null) {
+        inputSurface.release();
+      }
+      if (surfaceTexture != null) {
+        surfaceTexture.release();
+      }
+      if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+            EGL14.EGL_NO_CONTEXT);
+        // Destroying the context frees the program, textures, and framebuffer with it.
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        EGL14.eglDestroyContext(eglDisplay, eglContext);
+        EGL14.eglReleaseThread();
+        EGL14.eglTerminate(eglDisplay);
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+      }
+    }
+  };
+
+  private void runAndWait(final Runnable runnable) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final RuntimeException[] failure = new RuntimeException[1];
+    handler.post(new Runnable() {
+      @Override public void run() {
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          failure[0] = e;
+        }
+        latch.countDown();
+      }
+    });
+    try {
+      if (!latch.await(RELAY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Timed out waiting for the relay thread.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.jakewharton.telecine;
+
+import android.hardware.display.VirtualDisplay;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.Looper;
+import timber.log.Timber;
+
+/**
+ * A projection and its virtual display kept alive between the takes of a multi-take session.
+ * Asking for a projection shows the system's permission dialog and creating the display is slow,
+ * so each take only swaps the display's surface for its own recorder's.
+ *
+ * <p>The display draws nothing while it has no surface. It is only touched by one take's recorder
+ * thread at a time, and by whichever thread releases it once no take owns it.
+ */
+final class KeptCapture {
+  final MediaProjection projection;
+  final VirtualDisplay display;
+  private int width;
+  private int height;
+  private int density;
+  private volatile boolean revoked;
+
+  KeptCapture(MediaProjection projection, VirtualDisplay display, RecordingInfo info) {
+    this.projection = projection;
+    this.display = display;
+    this.width = info.width;
+    this.height = info.height;
+    this.density = info.density;
+
+    projection.registerCallback(new MediaProjection.Callback() {
+      @Override public void onStop() {
+        Timber.d("Kept projection was stopped.");
+        revoked = true;
+      }
+    }, new Handler(Looper.getMainLooper()));
+  }
+
+  /** Whether the system stopped the projection, such as when the user revoked it. */
+  boolean isRevoked() {
+    return revoked;
+  }
+
+  /** Match the display to a take's size, which changes when the device rotates between takes. */
+  void resize(RecordingInfo info) {
+    if (info.width == width && info.height == height && info.density == density) {
+      return;
+    }
+    Timber.d("Resizing kept display to %s x %s @ %s", info.width, info.height, info.density);
+    display.resize(info.width, info.height, info.density);
+    width = info.width;
+    height = info.height;
+    density = info.density;
+  }
+
+  void release() {
+    display.release();
+    projection.stop();
+  }
+}
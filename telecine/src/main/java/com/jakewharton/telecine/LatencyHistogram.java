@@ -0,0 +1,75 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in microseconds. Bucket {@code i} counts values in
+ * {@code [2^(i-1), 2^i)}, with bucket 0 holding zero, so percentiles are accurate to within a
+ * factor of two.
+ */
+final class LatencyHistogram {
+  static final int BUCKETS = 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long valueUs) {
+    if (valueUs < 0) {
+      valueUs = 0;
+    }
+    counts.incrementAndGet(bucket(valueUs));
+    count.incrementAndGet();
+    sum.addAndGet(valueUs);
+    long current;
+    while (valueUs > (current = max.get())) {
+      if (max.compareAndSet(current, valueUs)) {
+        break;
+      }
+    }
+  }
+
+  static int bucket(long valueUs) {
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(valueUs));
+  }
+
+  /** The exclusive upper bound of values in {@code bucket}. */
+  static long bucketLimit(int bucket) {
+    return 1L << bucket;
+  }
+
+  long count() {
+    return count.get();
+  }
+
+  long maxUs() {
+    return max.get();
+  }
+
+  long meanUs() {
+    long count = this.count.get();
+    return count == 0 ? 0 : sum.get() / count;
+  }
+
+  /**
+   * An upper bound on the value below which {@code percentile} percent of samples fall, capped
+   * at the maximum recorded value. Returns 0 when empty.
+   */
+  long percentileUs(int percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (total * percentile + 99) / 100;
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketLimit(i) - 1, max.get());
+      }
+    }
+    return max.get();
+  }
+}
@@ -0,0 +1,90 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity ring of the most recent log entries which any number of threads can append
+ * to without locking or allocating. Entries are stored as their parts and only formatted by the
+ * caller of {@link #read}.
+ *
+ * <p>Each slot carries the sequence number of the entry it holds. Writers claim a sequence,
+ * mark the slot as being written, fill it, and then publish the sequence. Readers check the
+ * sequence before and after copying a slot and skip entries which were overwritten meanwhile.
+ * Reads are not atomic across slots, so entries logged concurrently with a read may be missing
+ * from it.
+ */
+final class LogBuffer {
+  interface Reader {
+    void entry(long timeMillis, int priority, String tag, String message);
+  }
+
+  private static final long EMPTY = -1;
+  private static final long WRITING = -2;
+
+  private final int capacity;
+  private final AtomicLong next = new AtomicLong();
+  private final AtomicLongArray sequences;
+  private final AtomicLongArray times;
+  private final AtomicIntegerArray priorities;
+  private final AtomicReferenceArray<String> tags;
+  private final AtomicReferenceArray<String> messages;
+
+  LogBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.capacity = capacity;
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, EMPTY);
+    }
+    times = new AtomicLongArray(capacity);
+    priorities = new AtomicIntegerArray(capacity);
+    tags = new AtomicReferenceArray<>(capacity);
+    messages = new AtomicReferenceArray<>(capacity);
+  }
+
+  void add(int priority, String tag, String message) {
+    long sequence = next.getAndIncrement();
+    int index = (int) (sequence % capacity);
+    if (sequences.getAndSet(index, WRITING) == WRITING) {
+      // A writer which claimed this slot a full lap ago is still filling it. Drop rather than
+      // wait or interleave with it.
+      return;
+    }
+    times.lazySet(index, System.currentTimeMillis());
+    priorities.lazySet(index, priority);
+    tags.lazySet(index, tag);
+    messages.lazySet(index, message);
+    sequences.lazySet(index, sequence);
+  }
+
+  /**
+   * Pass the buffered entries to {@code reader}, oldest first. Entries still being written or
+   * overwritten during the read are skipped. Returns the number of entries read.
+   */
+  int read(Reader reader) {
+    long end = next.get();
+    long start = Math.max(0, end - capacity);
+    int count = 0;
+    for (long sequence = start; sequence < end; sequence++) {
+      int index = (int) (sequence % capacity);
+      if (sequences.get(index) != sequence) {
+        continue;
+      }
+      long time = times.get(index);
+      int priority = priorities.get(index);
+      String tag = tags.get(index);
+      String message = messages.get(index);
+      if (sequences.get(index) != sequence) {
+        continue;
+      }
+      reader.entry(time, priority, tag, message);
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,750 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.util.Range;
+import android.view.Surface;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
+import static android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+import static android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+import static android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+import static android.media.MediaFormat.MIMETYPE_VIDEO_AVC;
+
+/**
+ * A {@link CaptureBackend} which feeds a {@link MediaCodec} encoder from its input surface and
+ * drains the encoded output on a dedicated thread into a crash-safe {@link FragmentedMp4Writer}.
+ * Its moov is written up front, so the file needs no rewriting when it is finished.
+ *
+ * <p>A {@link BackpressureController} watches the encoded frames and lowers the bit rate while
+ * the encoder falls behind. When the recording is split into segments and a {@link Resizer} is
+ * set, it then replaces the encoder with a smaller one which starts the next segment. A throttle
+ * set by {@link ThrottlePolicy} scales whatever bit rate the controller chose.
+ */
+final class MediaCodecBackend implements CaptureBackend {
+  /** Switches the capture to a smaller encoder with {@link #prepareResize} and friends. */
+  interface Resizer {
+    /** Called on the encoder thread. */
+    void resize(int percent);
+  }
+
+  /** A replacement encoder which is started and waiting for input. */
+  static final class Resize {
+    /** The size to capture at, with a density scaled to match. */
+    final RecordingInfo info;
+    final Surface surface;
+
+    Resize(RecordingInfo info, Surface surface) {
+      this.info = info;
+      this.surface = surface;
+    }
+  }
+
+  private static final long STOP_TIMEOUT_MS = 3000;
+  private static final long FRAGMENT_DURATION_US = TimeUnit.SECONDS.toMicros(2);
+
+  private static final int[] BITRATE_MODES =
+      { BITRATE_MODE_CQ, BITRATE_MODE_VBR, BITRATE_MODE_CBR };
+
+  /**
+   * The encoders which can produce H.264, read from the cache in {@code context}'s storage. The
+   * platform is only queried when the cache was not written by this build.
+   */
+  static List<EncoderCapabilities> encoders(Context context) {
+    long startNanos = System.nanoTime();
+    File file = new File(context.getNoBackupFilesDir(), EncoderCache.FILE_NAME);
+    List<EncoderCapabilities> encoders =
+        EncoderCache.load(file, Build.FINGERPRINT, new EncoderCache.Probe() {
+          @Override public List<EncoderCapabilities> query() {
+            Timber.d("Encoder cache is missing or stale. Probing.");
+            return queryEncoders();
+          }
+        });
+    Timber.d("Loaded %s encoders in %sms.", encoders.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    return encoders;
+  }
+
+  /** Query the platform for every encoder which can produce H.264. */
+  static List<EncoderCapabilities> queryEncoders() {
+    List<EncoderCapabilities> encoders = new ArrayList<>();
+    MediaCodecInfo[] infos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+    for (MediaCodecInfo info : infos) {
+      if (!info.isEncoder()) {
+        continue;
+      }
+      for (String type : info.getSupportedTypes()) {
+        if (!MIMETYPE_VIDEO_AVC.equalsIgnoreCase(type)) {
+          continue;
+        }
+        MediaCodecInfo.CodecCapabilities capabilities =
+            info.getCapabilitiesForType(MIMETYPE_VIDEO_AVC);
+        MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+        Range<Integer> widths = video.getSupportedWidths();
+        Range<Integer> heights = video.getSupportedHeights();
+        Range<Integer> bitRates = video.getBitrateRange();
+        Range<Integer> frameRates = video.getSupportedFrameRates();
+        // Block rates are reported in the codec's block size which is not always a macroblock.
+        long macroblocksPerSecond = video.getBlocksPerSecondRange().getUpper()
+            * video.getBlockSize().getWidth() * video.getBlockSize().getHeight() / (16 * 16);
+        int bitRateModes = 0;
+        for (int mode : BITRATE_MODES) {
+          if (capabilities.getEncoderCapabilities().isBitrateModeSupported(mode)) {
+            bitRateModes |= 1 << mode;
+          }
+        }
+        String name = info.getName();
+        encoders.add(new EncoderCapabilities(name, !EncoderCapabilities.isSoftwareEncoderName(name),
+            widths.getLower(), widths.getUpper(), heights.getLower(), heights.getUpper(),
+            video.getWidthAlignment(), video.getHeightAlignment(), bitRates.getLower(),
+            bitRates.getUpper(), frameRates.getUpper(), macroblocksPerSecond, bitRateModes,
+            profiles(capabilities.profileLevels)));
+      }
+    }
+    return encoders;
+  }
+
+  /** The distinct profiles among {@code profileLevels}, ascending. */
+  private static int[] profiles(MediaCodecInfo.CodecProfileLevel[] profileLevels) {
+    int[] profiles = new int[profileLevels.length];
+    for (int i = 0; i < profileLevels.length; i++) {
+      profiles[i] = profileLevels[i].profile;
+    }
+    Arrays.sort(profiles);
+    int count = 0;
+    for (int i = 0; i < profiles.length; i++) {
+      if (i == 0 || profiles[i] != profiles[i - 1]) {
+        profiles[count++] = profiles[i];
+      }
+    }
+    return Arrays.copyOf(profiles, count);
+  }
+
+  private final List<EncoderCapabilities> encoders;
+  private final long replayWindowUs;
+  private final long replayBudgetBytes;
+  private final int quality;
+  private final RecordingMetrics metrics;
+  @Nullable private final Segmenter segmenter;
+
+  @Nullable private Resizer resizer;
+
+  private RecordingInfo info;
+  /** The encoder at the recording's full size. */
+  private EncoderConfig fullConfig;
+  /** The current encoder, smaller than {@link #fullConfig} once resized. */
+  private MediaCodec codec;
+  private EncoderConfig config;
+  private BackpressureController controller;
+  /** The bit rate the encoder's load allows at full size, before throttling. Guarded by this. */
+  private int loadBitRate;
+  private int throttlePercent = 100;
+  private Surface surface;
+  private EncoderDrainer drainer;
+  /** Owns the codec's output and the sink while alive. Null until started. */
+  @Nullable private Thread drainerThread;
+  private OutputSink sink;
+
+  // A replacement encoder between prepareResize and finishResize.
+  @Nullable private MediaCodec nextCodec;
+  private EncoderConfig nextConfig;
+  private Surface nextSurface;
+  private File nextFile;
+  private OutputSink nextSink;
+
+  /**
+   * @param encoders The encoders to choose from.
+   * @param replayWindowUs When non-zero, keep only this much of the most recent video in memory
+   * and write it out when stopped.
+   * @param replayBudgetBytes The most memory the replay may hold. The bit rate is lowered to
+   * fit the window in it.
+   * @param quality One of the {@link BitratePlanner} quality tiers.
+   * @param metrics Updated from the encoder thread as frames are written.
+   * @param segmenter When non-null, split the recording into segments at key frames. Ignored
+   * for instant replays.
+   */
+  MediaCodecBackend(List<EncoderCapabilities> encoders, long replayWindowUs,
+      long replayBudgetBytes, int quality, RecordingMetrics metrics,
+      @Nullable Segmenter segmenter) {
+    this.encoders = encoders;
+    this.replayWindowUs = replayWindowUs;
+    this.replayBudgetBytes = replayBudgetBytes;
+    this.quality = quality;
+    this.metrics = metrics;
+    this.segmenter = segmenter;
+  }
+
+  @Override public Surface prepare(RecordingInfo info, String outputFile)
+      throws IOException {
+    EncoderConfig config = EncoderSelector.select(encoders, info, quality);
+    if (config == null) {
+      throw new IOException("No encoder supports " + info.width + "x" + info.height);
+    }
+    if (replayWindowUs > 0) {
+      int maxBitRate = ReplayBudget.maxBitRate(replayWindowUs, replayBudgetBytes);
+      if (maxBitRate < BitratePlanner.MIN_BIT_RATE) {
+        throw new IOException("Not enough memory for instant replay in "
+            + replayBudgetBytes + " bytes.");
+      }
+      if (config.bitRate > maxBitRate) {
+        Timber.i("Lowering bit rate to %s to fit instant replay in %s bytes.", maxBitRate,
+            replayBudgetBytes);
+        config = new EncoderConfig(config.encoderName, config.width, config.height, maxBitRate,
+            config.frameRate, config.keyFrameIntervalSeconds);
+      }
+    }
+    Timber.d("Encoder config: %s", config);
+    this.info = info;
+    this.fullConfig = config;
+    this.config = config;
+
+    try {
+      codec = MediaCodec.createByCodecName(config.encoderName);
+      codec.configure(format(config), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      surface = codec.createInputSurface();
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      throw new IOException("Unable to configure " + config.encoderName, e);
+    }
+
+    if (replayWindowUs > 0) {
+      sink = new ReplaySink(outputFile, config);
+    } else if (segmenter != null) {
+      sink = new SegmentedSink(new FragmentedSink(outputFile, config), config);
+    } else {
+      sink = new FragmentedSink(outputFile, config);
+    }
+    drainer = new EncoderDrainer(new AndroidCodec(codec), new ControlledSink(sink), metrics);
+    return surface;
+  }
+
+  private static MediaFormat format(EncoderConfig config) {
+    MediaFormat format = MediaFormat.createVideoFormat(MIMETYPE_VIDEO_AVC, config.width,
+        config.height);
+    format.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatSurface);
+    format.setInteger(MediaFormat.KEY_BIT_RATE, config.bitRate);
+    format.setInteger(MediaFormat.KEY_FRAME_RATE, config.frameRate);
+    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.keyFrameIntervalSeconds);
+    return format;
+  }
+
+  /**
+   * Let the backpressure controller shrink the encoder once lowering the bit rate is not enough.
+   * Only has an effect on a segmented recording, since each size needs its own file. Call before
+   * start.
+   */
+  void setResizer(@Nullable Resizer resizer) {
+    this.resizer = resizer;
+  }
+
+  /** Scale the bit rate to {@code percent} of what the encoder's load allows. Call after start. */
+  synchronized void setThrottle(int percent) {
+    throttlePercent = percent;
+    updateBitRate();
+  }
+
+  @Override public void start() {
+    loadBitRate = config.bitRate;
+    boolean canResize = resizer != null && sink instanceof SegmentedSink;
+    controller = new BackpressureController(config.frameRate, config.bitRate, canResize,
+        new BackpressureController.Actuator() {
+          @Override public void setBitRate(int bitRate) {
+            Timber.i("Encoder load changed. Bit rate now %s.", bitRate);
+            synchronized (MediaCodecBackend.this) {
+              loadBitRate = bitRate;
+              updateBitRate();
+            }
+          }
+
+          @Override public void setSizePercent(int percent) {
+            Timber.i("Encoder load changed. Size now %s%%.", percent);
+            resizer.resize(percent);
+          }
+        });
+    codec.start();
+    startDrainer();
+  }
+
+  private void startDrainer() {
+    drainerThread = new Thread(drainer, "Telecine-Encoder");
+    drainerThread.start();
+  }
+
+  private void updateBitRate() {
+    Bundle parameters = new Bundle();
+    parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate(config.width, config.height));
+    codec.setParameters(parameters);
+  }
+
+  /**
+   * The bit rate for an encoder of {@code width}x{@code height}: what the load allows at full
+   * size, throttled, and shared out by area. Guarded by this.
+   */
+  private int bitRate(int width, int height) {
+    long area = (long) width * height;
+    long fullArea = (long) fullConfig.width * fullConfig.height;
+    return (int) ((long) loadBitRate * throttlePercent / 100 * area / fullArea);
+  }
+
+  /**
+   * Start a replacement encoder at {@code percent} of the recording's size and open the segment
+   * it will write. Nothing changes for the running encoder until {@link #finishResize()}. Call on
+   * the thread which started the backend.
+   */
+  Resize prepareResize(int percent) throws IOException {
+    if (!(sink instanceof SegmentedSink)) {
+      throw new IllegalStateException("Only segmented recordings can be resized.");
+    }
+    if (nextCodec != null) {
+      throw new IllegalStateException("Resize already prepared.");
+    }
+    EncoderCapabilities encoder = null;
+    for (EncoderCapabilities candidate : encoders) {
+      if (candidate.name.equals(fullConfig.encoderName)) {
+        encoder = candidate;
+        break;
+      }
+    }
+    if (encoder == null) {
+      throw new IOException("Unknown encoder " + fullConfig.encoderName);
+    }
+    int width = BackpressureController.scale(fullConfig.width, percent, encoder.widthAlignment);
+    int height =
+        BackpressureController.scale(fullConfig.height, percent, encoder.heightAlignment);
+    if (!encoder.supportsSize(width, height)) {
+      throw new IOException(encoder.name + " does not support " + width + "x" + height);
+    }
+    RecordingInfo nextInfo =
+        new RecordingInfo(width, height, info.frameRate, info.density * percent / 100);
+    int bitRate;
+    synchronized (this) {
+      bitRate = bitRate(width, height);
+    }
+    EncoderConfig next = new EncoderConfig(fullConfig.encoderName, width, height, bitRate,
+        fullConfig.frameRate, fullConfig.keyFrameIntervalSeconds);
+    Timber.d("Replacement encoder config: %s", next);
+
+    MediaCodec codec = null;
+    Surface input = null;
+    try {
+      codec = MediaCodec.createByCodecName(next.encoderName);
+      codec.configure(format(next), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      input = codec.createInputSurface();
+      codec.start();
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      if (codec != null) {
+        codec.release();
+      }
+      if (input != null) {
+        input.release();
+      }
+      throw new IOException("Unable to configure " + next.encoderName, e);
+    }
+    File file = segmenter.next(nextInfo);
+    try {
+      nextSink = new FragmentedSink(file.getAbsolutePath(), next);
+    } catch (IOException e) {
+      codec.release();
+      input.release();
+      throw e;
+    }
+    nextCodec = codec;
+    nextConfig = next;
+    nextSurface = input;
+    nextFile = file;
+    return new Resize(nextInfo, input);
+  }
+
+  /**
+   * Switch to the encoder from {@link #prepareResize} once nothing draws into the current one.
+   * The current encoder's input ends and its remaining frames finish its segment, then the
+   * replacement's frames, which start with a key frame, begin the next.
+   */
+  void finishResize() {
+    if (nextCodec == null) {
+      throw new IllegalStateException("No resize prepared.");
+    }
+    codec.signalEndOfInputStream();
+    boolean drained;
+    try {
+      drained = drainer.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      drained = false;
+    }
+    if (!drained) {
+      Timber.w("Encoder did not reach end of stream before resizing. Cancelling.");
+      drainer.cancel();
+    }
+    boolean stopped = joinDrainer();
+    Throwable failure = drainer.failure();
+    if (failure != null) {
+      Timber.w(failure, "Encoder failed before resizing.");
+    }
+
+    MediaCodec oldCodec = codec;
+    Surface oldSurface = surface;
+    synchronized (this) {
+      codec = nextCodec;
+      config = nextConfig;
+    }
+    surface = nextSurface;
+    ((SegmentedSink) sink).resized(nextFile, nextSink, nextConfig,
+        drained && stopped && failure == null && drainer.formatKnown());
+    nextCodec = null;
+    nextConfig = null;
+    nextSurface = null;
+    nextFile = null;
+    nextSink = null;
+
+    if (stopped) {
+      oldCodec.stop();
+      oldCodec.release();
+    } else {
+      // Releasing the codec under the thread could crash it. Leave it to the GC.
+      Timber.w("Encoder thread did not stop. Leaking the old codec.");
+    }
+    oldSurface.release();
+
+    drainer = new EncoderDrainer(new AndroidCodec(codec), new ControlledSink(sink), metrics);
+    startDrainer();
+  }
+
+  @Override public void stop() {
+    codec.signalEndOfInputStream();
+    try {
+      if (!drainer.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        Timber.w("Encoder did not reach end of stream. Cancelling.");
+        drainer.cancel();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while stopping encoder.", e);
+    }
+    if (!joinDrainer()) {
+      // Stopping the codec or finishing the sink under a write could corrupt the output.
+      throw new RuntimeException("Encoder thread did not stop. Output left unfinished.");
+    }
+    codec.stop();
+
+    Throwable failure = drainer.failure();
+    if (failure != null) {
+      throw new RuntimeException("Encoder failed.", failure);
+    }
+    if (!drainer.formatKnown()) {
+      throw new RuntimeException("No frames were encoded.");
+    }
+    try {
+      sink.finish();
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to finish writing output.", e);
+    }
+    Timber.d("Encoded %s samples.", drainer.samplesWritten());
+  }
+
+  /** Wait for the drainer thread to exit, returning false if it is still running. */
+  private boolean joinDrainer() {
+    Thread thread = drainerThread;
+    if (thread == null) {
+      return true;
+    }
+    try {
+      thread.join(STOP_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !thread.isAlive();
+  }
+
+  @Override public void release() {
+    if (drainer != null) {
+      drainer.cancel();
+      if (!joinDrainer()) {
+        // Releasing the codec or sink under the thread could crash it. Leave them to the GC.
+        Timber.w("Encoder thread did not stop. Leaking the codec and output.");
+        codec = null;
+        sink = null;
+      }
+    }
+    if (codec != null) {
+      codec.release();
+      codec = null;
+    }
+    if (surface != null) {
+      surface.release();
+      surface = null;
+    }
+    if (nextCodec != null) {
+      nextCodec.release();
+      nextCodec = null;
+      nextSurface.release();
+      nextSurface = null;
+      nextSink.release();
+      nextSink = null;
+    }
+    if (sink != null) {
+      sink.release();
+      sink = null;
+    }
+  }
+
+  /** Reports how late each frame left the encoder before passing it on. */
+  private final class ControlledSink implements EncoderDrainer.Sink {
+    private final EncoderDrainer.Sink delegate;
+
+    ControlledSink(EncoderDrainer.Sink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public void formatChanged() throws IOException {
+      delegate.formatChanged();
+    }
+
+    @Override public void writeSample(ByteBuffer data, EncodedSample sample) throws IOException {
+      controller.frameEncoded(sample.presentationTimeUs, System.nanoTime() / 1000);
+      delegate.writeSample(data, sample);
+    }
+  }
+
+  private interface OutputSink extends EncoderDrainer.Sink {
+    /** Finish writing the file after the encoder reached the end of its stream. */
+    void finish() throws IOException;
+
+    void release();
+  }
+
+  private final class FragmentedSink implements OutputSink {
+    private final FileOutputStream output;
+    private final EncoderConfig config;
+    private FragmentedMp4Writer writer;
+
+    FragmentedSink(String outputFile, EncoderConfig config) throws IOException {
+      this.output = new FileOutputStream(outputFile);
+      this.config = config;
+    }
+
+    @Override public void formatChanged() throws IOException {
+      MediaFormat format = codec.getOutputFormat();
+      Timber.d("Encoder output format: %s", format);
+      ByteBuffer sps = format.getByteBuffer("csd-0");
+      ByteBuffer pps = format.getByteBuffer("csd-1");
+      if (sps == null || pps == null) {
+        throw new IOException("Encoder output format is missing SPS or PPS.");
+      }
+      writer = new FragmentedMp4Writer(output.getChannel(), config.width, config.height,
+          NalUnits.stripStartCode(sps), NalUnits.stripStartCode(pps), FRAGMENT_DURATION_US);
+    }
+
+    @Override public void writeSample(ByteBuffer data, EncodedSample sample) throws IOException {
+      writer.writeSample(data, sample.presentationTimeUs, sample.isKeyFrame());
+    }
+
+    @Override public void finish() throws IOException {
+      writer.close();
+      output.close();
+    }
+
+    @Override public void release() {
+      try {
+        output.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Writes into a sink per segment. Once the segment is long or large enough, a key frame is
+   * requested and the next segment starts with it so that every segment decodes on its own and
+   * no frame is lost. A resized encoder also starts a new segment, since its output has a
+   * different size. The closed segment's sink is finished on the segmenter's thread.
+   */
+  private final class SegmentedSink implements OutputSink {
+    private EncoderConfig config;
+    private OutputSink current;
+    private long segmentStartUs = -1;
+    private long segmentBytes;
+    private boolean keyFrameRequested;
+
+    SegmentedSink(OutputSink first, EncoderConfig config) {
+      this.current = first;
+      this.config = config;
+    }
+
+    @Override public void formatChanged() throws IOException {
+      current.formatChanged();
+    }
+
+    @Override public void writeSample(ByteBuffer data, EncodedSample sample) throws IOException {
+      long timeUs = sample.presentationTimeUs;
+      if (segmentStartUs == -1) {
+        segmentStartUs = timeUs;
+      }
+      long durationUs = timeUs - segmentStartUs;
+      if (segmenter.shouldRoll(durationUs, segmentBytes)) {
+        if (sample.isKeyFrame()) {
+          roll(durationUs);
+          segmentStartUs = timeUs;
+        } else if (!keyFrameRequested) {
+          Bundle parameters = new Bundle();
+          parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+          codec.setParameters(parameters);
+          keyFrameRequested = true;
+        }
+      }
+      current.writeSample(data, sample);
+      segmentBytes += sample.size;
+    }
+
+    private void roll(long durationUs) throws IOException {
+      File next = segmenter.next();
+      OutputSink nextSink = new FragmentedSink(next.getAbsolutePath(), config);
+      nextSink.formatChanged();
+      roll(next, nextSink, durationUs, true);
+    }
+
+    /**
+     * Continue in {@code next}, written to {@code nextSink} by a replacement encoder of
+     * {@code config}'s size whose format arrives from that encoder. Only called while no encoder
+     * is draining.
+     *
+     * @param finished Whether the replaced encoder reached the end of its stream. If not, its
+     * segment is left unfinished for recovery.
+     */
+    void resized(File next, OutputSink nextSink, EncoderConfig config, boolean finished) {
+      this.config = config;
+      roll(next, nextSink, -1, finished);
+    }
+
+    private void roll(File next, OutputSink nextSink, long durationUs, final boolean finished) {
+      final OutputSink closed = current;
+      current = nextSink;
+      segmentStartUs = -1;
+      segmentBytes = 0;
+      keyFrameRequested = false;
+      segmenter.rolled(next, durationUs, new Closeable() {
+        @Override public void close() throws IOException {
+          if (!finished) {
+            throw new IOException("Encoder was replaced before finishing the segment.");
+          }
+          try {
+            closed.finish();
+          } finally {
+            closed.release();
+          }
+        }
+      });
+      Timber.d("Rolled to segment '%s' after %sus.", next, durationUs);
+    }
+
+    @Override public void finish() throws IOException {
+      current.finish();
+    }
+
+    @Override public void release() {
+      current.release();
+    }
+  }
+
+  /**
+   * Holds the last {@link #replayWindowUs} of video in a direct buffer sized from the bit rate.
+   * Nothing is written to disk until {@link #finish()}.
+   */
+  private final class ReplaySink implements OutputSink {
+    private final String outputFile;
+    private final EncoderConfig config;
+    private final ReplayBuffer buffer;
+    private byte[] sps;
+    private byte[] pps;
+
+    ReplaySink(String outputFile, EncoderConfig config) {
+      this.outputFile = outputFile;
+      this.config = config;
+
+      // The bit rate was lowered in prepare so that this fits in the budget.
+      long capacity = Math.min(ReplayBudget.capacity(replayWindowUs, config.bitRate),
+          replayBudgetBytes);
+      long windowSeconds = TimeUnit.MICROSECONDS.toSeconds(replayWindowUs) + 1;
+      int maxSamples = (int) (windowSeconds * config.frameRate * 2);
+      Timber.d("Replay buffer: %s bytes, %s samples", capacity, maxSamples);
+      buffer = new ReplayBuffer(ByteBuffer.allocateDirect((int) capacity), maxSamples,
+          replayWindowUs);
+    }
+
+    @Override public void formatChanged() throws IOException {
+      MediaFormat format = codec.getOutputFormat();
+      Timber.d("Encoder output format: %s", format);
+      ByteBuffer spsBuffer = format.getByteBuffer("csd-0");
+      ByteBuffer ppsBuffer = format.getByteBuffer("csd-1");
+      if (spsBuffer == null || ppsBuffer == null) {
+        throw new IOException("Encoder output format is missing SPS or PPS.");
+      }
+      sps = NalUnits.stripStartCode(spsBuffer);
+      pps = NalUnits.stripStartCode(ppsBuffer);
+    }
+
+    @Override public void writeSample(ByteBuffer data, EncodedSample sample) {
+      if (!buffer.append(data, sample.presentationTimeUs, sample.isKeyFrame())) {
+        metrics.frameDropped();
+      }
+    }
+
+    @Override public void finish() throws IOException {
+      Timber.d("Writing %s samples (%sus) of replay. Dropped %s.", buffer.sampleCount(),
+          buffer.durationUs(), buffer.droppedSamples());
+      FileOutputStream output = new FileOutputStream(outputFile);
+      try {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel(), config.width,
+            config.height, sps, pps, FRAGMENT_DURATION_US);
+        buffer.writeTo(writer);
+        writer.close();
+      } finally {
+        output.close();
+      }
+    }
+
+    @Override public void release() {
+      buffer.clear();
+    }
+  }
+
+  /** Adapts a {@link MediaCodec} to the drainer's JVM-testable interface. */
+  static final class AndroidCodec implements EncoderDrainer.Codec {
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    AndroidCodec(MediaCodec codec) {
+      this.codec = codec;
+    }
+
+    @Override public int dequeueOutputBuffer(EncodedSample sample, long timeoutUs) {
+      int index = codec.dequeueOutputBuffer(info, timeoutUs);
+      if (index >= 0) {
+        sample.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+      }
+      return index;
+    }
+
+    @Override public ByteBuffer getOutputBuffer(int index) {
+      return codec.getOutputBuffer(index);
+    }
+
+    @Override public void releaseOutputBuffer(int index) {
+      codec.releaseOutputBuffer(index, false);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.jakewharton.telecine;
+
+import android.annotation.TargetApi;
+import android.media.MediaRecorder;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import timber.log.Timber;
+
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING;
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED;
+import static android.media.MediaRecorder.OutputFormat.MPEG_4;
+import static android.media.MediaRecorder.VideoEncoder.H264;
+import static android.media.MediaRecorder.VideoSource.SURFACE;
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.O;
+
+/** A {@link CaptureBackend} which delegates everything to the platform {@link MediaRecorder}. */
+final class MediaRecorderBackend implements CaptureBackend {
+  private final int quality;
+  @Nullable private final Segmenter segmenter;
+  private MediaRecorder recorder;
+
+  /**
+   * @param quality One of the {@link BitratePlanner} quality tiers.
+   * @param segmenter When non-null, split the recording into segments. Only supported on API 26
+   * and newer, and only by size since the recorder can only switch files at its size limit.
+   */
+  MediaRecorderBackend(int quality, @Nullable Segmenter segmenter) {
+    this.quality = quality;
+    this.segmenter = segmenter;
+  }
+
+  @Override public Surface prepare(RecordingInfo info, String outputFile)
+      throws IOException {
+    recorder = new MediaRecorder();
+    recorder.setVideoSource(SURFACE);
+    recorder.setOutputFormat(MPEG_4);
+    recorder.setVideoFrameRate(info.frameRate);
+    recorder.setVideoEncoder(H264);
+    recorder.setVideoSize(info.width, info.height);
+    int bitRate = BitratePlanner.plan(info.width, info.height, info.frameRate, quality);
+    Timber.d("Bit rate: %s", bitRate);
+    recorder.setVideoEncodingBitRate(bitRate);
+    recorder.setOutputFile(outputFile);
+    if (segmenter != null) {
+      if (SDK_INT >= O && segmenter.maxBytes > 0) {
+        splitAtMaxFileSize(segmenter);
+      } else {
+        Timber.w("MediaRecorder cannot split this recording. Writing a single file.");
+      }
+    }
+    recorder.prepare();
+    return recorder.getSurface();
+  }
+
+  /**
+   * When the recorder nears its size limit it asks for the next file and switches to it at the
+   * next key frame. The info callbacks run on the thread which created the recorder.
+   */
+  @TargetApi(O)
+  private void splitAtMaxFileSize(final Segmenter segmenter) {
+    recorder.setMaxFileSize(segmenter.maxBytes);
+    recorder.setOnInfoListener(new MediaRecorder.OnInfoListener() {
+      private File next;
+
+      @Override public void onInfo(MediaRecorder recorder, int what, int extra) {
+        if (what == MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING && next == null) {
+          next = segmenter.next();
+          try {
+            recorder.setNextOutputFile(next);
+          } catch (IOException | IllegalStateException e) {
+            Timber.w(e, "Unable to set next segment. Recording will stop at the size limit.");
+          }
+        } else if (what == MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED && next != null) {
+          Timber.d("Rolled to segment '%s'.", next);
+          // The recorder already finished the previous file.
+          segmenter.rolled(next, -1, null);
+          next = null;
+        }
+      }
+    });
+  }
+
+  @Override public void start() {
+    recorder.start();
+  }
+
+  @Override public void stop() {
+    recorder.stop();
+  }
+
+  @Override public void release() {
+    if (recorder != null) {
+      recorder.release();
+      recorder = null;
+    }
+  }
+}
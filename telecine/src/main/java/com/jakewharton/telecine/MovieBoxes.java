@@ -0,0 +1,126 @@
+package com.jakewharton.telecine;
+
+/** Writers for the MP4 boxes which describe a single H.264 video track. */
+final class MovieBoxes {
+  static final int VIDEO_TRACK_ID = 1;
+
+  private static final int[] IDENTITY_MATRIX = {
+      0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000
+  };
+
+  private MovieBoxes() {
+    throw new AssertionError("No instances.");
+  }
+
+  static void ftyp(BoxBuilder b, String majorBrand, String... compatibleBrands) {
+    b.start("ftyp").putFourCc(majorBrand).putInt(0x200);
+    for (String brand : compatibleBrands) {
+      b.putFourCc(brand);
+    }
+    b.end();
+  }
+
+  static void mvhd(BoxBuilder b, int timescale, long duration) {
+    b.startFull("mvhd", 1, 0)
+        .putLong(0) // Creation time.
+        .putLong(0) // Modification time.
+        .putInt(timescale)
+        .putLong(duration)
+        .putInt(0x00010000) // Rate 1.0.
+        .putShort(0x0100) // Volume 1.0.
+        .zeros(10);
+    matrix(b);
+    b.zeros(24) // Predefined.
+        .putInt(VIDEO_TRACK_ID + 1) // Next track ID.
+        .end();
+  }
+
+  /** Write a {@code tkhd} for the video track. {@code duration} is in the movie timescale. */
+  static void tkhd(BoxBuilder b, long duration, int width, int height) {
+    b.startFull("tkhd", 1, 0x3) // Enabled, in movie.
+        .putLong(0) // Creation time.
+        .putLong(0) // Modification time.
+        .putInt(VIDEO_TRACK_ID)
+        .putInt(0) // Reserved.
+        .putLong(duration)
+        .zeros(8) // Reserved.
+        .putShort(0) // Layer.
+        .putShort(0) // Alternate group.
+        .putShort(0) // Volume.
+        .putShort(0); // Reserved.
+    matrix(b);
+    b.putInt(width << 16).putInt(height << 16).end();
+  }
+
+  static void mdhd(BoxBuilder b, int timescale, long duration) {
+    b.startFull("mdhd", 1, 0)
+        .putLong(0) // Creation time.
+        .putLong(0) // Modification time.
+        .putInt(timescale)
+        .putLong(duration)
+        .putShort(0x55c4) // Language 'und'.
+        .putShort(0)
+        .end();
+  }
+
+  static void hdlr(BoxBuilder b) {
+    b.startFull("hdlr", 0, 0)
+        .putInt(0) // Predefined.
+        .putFourCc("vide")
+        .zeros(12) // Reserved.
+        .put(new byte[] { 'V', 'i', 'd', 'e', 'o', 0 })
+        .end();
+  }
+
+  /** Write the {@code vmhd} and {@code dinf} boxes which open every video {@code minf}. */
+  static void videoMediaHeader(BoxBuilder b) {
+    b.startFull("vmhd", 0, 1).zeros(8).end();
+    b.start("dinf");
+    b.startFull("dref", 0, 0).putInt(1);
+    b.startFull("url ", 0, 1).end(); // Media is in this file.
+    b.end();
+    b.end();
+  }
+
+  /** Write an {@code stsd} with a single {@code avc1} sample entry. */
+  static void stsd(BoxBuilder b, int width, int height, byte[] sps, byte[] pps) {
+    if (sps.length < 4) {
+      throw new IllegalArgumentException("SPS too short: " + sps.length);
+    }
+    b.startFull("stsd", 0, 0).putInt(1);
+    b.start("avc1")
+        .zeros(6) // Reserved.
+        .putShort(1) // Data reference index.
+        .zeros(16) // Predefined and reserved.
+        .putShort(width)
+        .putShort(height)
+        .putInt(0x00480000) // 72 dpi.
+        .putInt(0x00480000)
+        .putInt(0) // Reserved.
+        .putShort(1) // Frame count.
+        .zeros(32) // Compressor name.
+        .putShort(0x0018) // Depth.
+        .putShort(0xffff); // Predefined.
+    b.start("avcC")
+        .putByte(1) // Version.
+        .putByte(sps[1]) // Profile.
+        .putByte(sps[2]) // Profile compatibility.
+        .putByte(sps[3]) // Level.
+        .putByte(0xfc | 3) // 4 byte NAL lengths.
+        .putByte(0xe0 | 1) // One SPS.
+        .putShort(sps.length)
+        .put(sps)
+        .putByte(1) // One PPS.
+        .putShort(pps.length)
+        .put(pps)
+        .end();
+    b.end();
+    b.end();
+  }
+
+  private static void matrix(BoxBuilder b) {
+    for (int value : IDENTITY_MATRIX) {
+      b.putInt(value);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.jakewharton.telecine;
+
+/** A summary of an MP4's video track read from its boxes without decoding any samples. */
+final class Mp4Metadata {
+  final String majorBrand;
+  /** The sample entry type of the video track, e.g. {@code avc1}. */
+  final String codec;
+  final int width;
+  final int height;
+  final long durationUs;
+  final int sampleCount;
+  final int syncSampleCount;
+  /** True if samples are described by {@code moof} boxes rather than the {@code moov}. */
+  final boolean fragmented;
+  /** True if the {@code moov} precedes all media data so playback can start while streaming. */
+  final boolean fastStart;
+
+  Mp4Metadata(String majorBrand, String codec, int width, int height, long durationUs,
+      int sampleCount, int syncSampleCount, boolean fragmented, boolean fastStart) {
+    this.majorBrand = majorBrand;
+    this.codec = codec;
+    this.width = width;
+    this.height = height;
+    this.durationUs = durationUs;
+    this.sampleCount = sampleCount;
+    this.syncSampleCount = syncSampleCount;
+    this.fragmented = fragmented;
+    this.fastStart = fastStart;
+  }
+
+  @Override public String toString() {
+    return "Mp4Metadata{" + codec + ' ' + width + 'x' + height + ", " + durationUs + "us, "
+        + sampleCount + " samples (" + syncSampleCount + " sync)"
+        + (fragmented ? ", fragmented" : "") + (fastStart ? ", fast start" : "") + '}';
+  }
+}
@@ -0,0 +1,476 @@
+package com.jakewharton.telecine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads {@link Mp4Metadata} from the structure of an MP4 file. Only box headers are read at
+ * the top level. The {@code moov} and any {@code moof} boxes are read whole, but {@code mdat}
+ * and other boxes are skipped by position so the cost is independent of the file's size.
+ */
+final class Mp4Parser {
+  static final int FTYP = fourCc("ftyp");
+  static final int MOOV = fourCc("moov");
+  static final int MOOF = fourCc("moof");
+  static final int MDAT = fourCc("mdat");
+  static final int MVHD = fourCc("mvhd");
+  static final int MVEX = fourCc("mvex");
+  static final int TREX = fourCc("trex");
+  static final int TRAK = fourCc("trak");
+  static final int TKHD = fourCc("tkhd");
+  static final int MDIA = fourCc("mdia");
+  static final int MDHD = fourCc("mdhd");
+  static final int HDLR = fourCc("hdlr");
+  static final int MINF = fourCc("minf");
+  static final int STBL = fourCc("stbl");
+  static final int STSD = fourCc("stsd");
+  static final int STTS = fourCc("stts");
+  static final int STSS = fourCc("stss");
+  static final int STSZ = fourCc("stsz");
+  static final int STCO = fourCc("stco");
+  static final int CO64 = fourCc("co64");
+  static final int TRAF = fourCc("traf");
+  static final int TFHD = fourCc("tfhd");
+  static final int TRUN = fourCc("trun");
+
+  private static final int VIDE = fourCc("vide");
+  /** Guards against reading a corrupt size as a huge allocation. */
+  static final int MAX_METADATA_BOX_SIZE = 64 * 1024 * 1024;
+  private static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+
+  /** The position and extent of one box. */
+  static final class Box {
+    final int type;
+    final long offset;
+    final int headerSize;
+    final long size;
+    /** True if the box claims to extend past the end of the file. {@link #size} is clamped. */
+    final boolean truncated;
+
+    Box(int type, long offset, int headerSize, long size, boolean truncated) {
+      this.type = type;
+      this.offset = offset;
+      this.headerSize = headerSize;
+      this.size = size;
+      this.truncated = truncated;
+    }
+
+    long end() {
+      return offset + size;
+    }
+
+    long payloadOffset() {
+      return offset + headerSize;
+    }
+
+    long payloadSize() {
+      return size - headerSize;
+    }
+
+    @Override public String toString() {
+      return fourCcString(type) + '@' + offset + '+' + size;
+    }
+  }
+
+  private Mp4Parser() {
+    throw new AssertionError("No instances.");
+  }
+
+  static Mp4Metadata parse(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(16);
+    ByteBuffer moof = ByteBuffer.allocate(0); // Reused since there is one per fragment.
+
+    String majorBrand = null;
+    Track track = null;
+    boolean fastStart = true;
+    boolean sawMdat = false;
+    for (long position = 0; position < fileSize; ) {
+      Box box = readBox(channel, header, position, fileSize);
+      if (box.type == FTYP) {
+        ByteBuffer ftyp = read(channel, box.payloadOffset(), 4);
+        majorBrand = fourCcString(ftyp.getInt(0));
+      } else if (box.type == MOOV) {
+        if (sawMdat) {
+          fastStart = false;
+        }
+        track = parseMoov(readPayload(channel, box));
+      } else if (box.type == MOOF) {
+        if (track == null) {
+          throw new IOException("moof before moov at " + box.offset);
+        }
+        if (box.truncated) {
+          break; // Cut short while writing. Everything before it is intact.
+        }
+        moof = readPayload(channel, box, moof);
+        parseMoof(moof, track);
+      } else if (box.type == MDAT && box.payloadSize() > 0) {
+        sawMdat = true;
+      }
+      position = box.end();
+    }
+
+    if (track == null) {
+      throw new IOException("No moov.");
+    }
+    if (track.codec == null) {
+      throw new IOException("No video track.");
+    }
+    long durationUs = track.movieDuration > 0
+        ? scale(track.movieDuration, track.movieTimescale)
+        : scale(track.mediaDuration, track.mediaTimescale);
+    int syncSamples = track.hasSyncTable ? track.syncSamples : track.samples;
+    return new Mp4Metadata(majorBrand, track.codec, track.width, track.height, durationUs,
+        track.samples, syncSamples, track.fragmented, fastStart);
+  }
+
+  /**
+   * Read the header of the box at {@code position}. {@code header} must have room for 16 bytes.
+   * Boxes which extend to the end of the file or past it are clamped to {@code end} since that
+   * is how a recording cut short by a crash looks.
+   */
+  static Box readBox(FileChannel channel, ByteBuffer header, long position, long end)
+      throws IOException {
+    header.clear();
+    header.limit((int) Math.min(16, end - position));
+    readFully(channel, header, position);
+    if (header.position() < 8) {
+      throw new EOFException("Truncated box header at " + position);
+    }
+    long size = header.getInt(0) & 0xffffffffL;
+    int type = header.getInt(4);
+    int headerSize = 8;
+    if (size == 1) {
+      if (header.position() < 16) {
+        throw new EOFException("Truncated box header at " + position);
+      }
+      size = header.getLong(8);
+      headerSize = 16;
+    } else if (size == 0) {
+      size = end - position;
+    }
+    if (size < headerSize) {
+      throw new IOException("Invalid size " + size + " for " + fourCcString(type) + " at "
+          + position);
+    }
+    boolean truncated = size > end - position;
+    return new Box(type, position, headerSize, truncated ? end - position : size, truncated);
+  }
+
+  static ByteBuffer readPayload(FileChannel channel, Box box) throws IOException {
+    return readPayload(channel, box, ByteBuffer.allocate(0));
+  }
+
+  /** Read the payload of {@code box} into {@code buffer} if it fits, or a new buffer. */
+  static ByteBuffer readPayload(FileChannel channel, Box box, ByteBuffer buffer)
+      throws IOException {
+    if (box.payloadSize() > MAX_METADATA_BOX_SIZE) {
+      throw new IOException("Box too large: " + box);
+    }
+    return read(channel, box.payloadOffset(), (int) box.payloadSize(), buffer);
+  }
+
+  static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    return read(channel, position, size, ByteBuffer.allocate(size));
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size, ByteBuffer buffer)
+      throws IOException {
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+    }
+    buffer.clear();
+    buffer.limit(size);
+    readFully(channel, buffer, position);
+    if (buffer.hasRemaining()) {
+      throw new EOFException("Expected " + size + " bytes at " + position);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read == -1) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Find the first child box of {@code type} in {@code buffer} between {@code start} and
+   * {@code end}, which are absolute indices. Returns the child's offset or -1.
+   */
+  static int findChild(ByteBuffer buffer, int start, int end, int type) throws IOException {
+    for (int position = start; position + 8 <= end; ) {
+      int size = childSize(buffer, position, end);
+      if (buffer.getInt(position + 4) == type) {
+        return position;
+      }
+      position += size;
+    }
+    return -1;
+  }
+
+  /** The size of the child box at {@code position}, validated to fit within {@code end}. */
+  static int childSize(ByteBuffer buffer, int position, int end) throws IOException {
+    long size = buffer.getInt(position) & 0xffffffffL;
+    if (size == 0) {
+      size = end - position;
+    }
+    if (size < 8 || position + size > end) {
+      throw new IOException("Invalid size " + size + " for "
+          + fourCcString(buffer.getInt(position + 4)) + " at " + position);
+    }
+    return (int) size;
+  }
+
+  private static final class Track {
+    int movieTimescale;
+    long movieDuration;
+    int mediaTimescale;
+    long mediaDuration;
+    String codec;
+    int width;
+    int height;
+    int samples;
+    int syncSamples;
+    boolean hasSyncTable;
+    boolean fragmented;
+    int trackId;
+    int defaultSampleDuration;
+    int defaultSampleFlags;
+  }
+
+  private static Track parseMoov(ByteBuffer moov) throws IOException {
+    Track track = new Track();
+    int end = moov.limit();
+    int mvhd = findChild(moov, 0, end, MVHD);
+    if (mvhd == -1) {
+      throw new IOException("No mvhd.");
+    }
+    int version = moov.get(mvhd + 8);
+    if (version == 1) {
+      track.movieTimescale = moov.getInt(mvhd + 28);
+      track.movieDuration = moov.getLong(mvhd + 32);
+    } else {
+      track.movieTimescale = moov.getInt(mvhd + 20);
+      track.movieDuration = moov.getInt(mvhd + 24) & 0xffffffffL;
+    }
+
+    for (int position = 0; position + 8 <= end; ) {
+      int size = childSize(moov, position, end);
+      if (moov.getInt(position + 4) == TRAK && parseTrak(moov, position + 8, position + size,
+          track)) {
+        break;
+      }
+      position += size;
+    }
+
+    int mvex = findChild(moov, 0, end, MVEX);
+    if (mvex != -1) {
+      track.fragmented = true;
+      int mvexEnd = mvex + childSize(moov, mvex, end);
+      for (int position = mvex + 8; position + 8 <= mvexEnd; ) {
+        int size = childSize(moov, position, mvexEnd);
+        if (moov.getInt(position + 4) == TREX && moov.getInt(position + 12) == track.trackId) {
+          track.defaultSampleDuration = moov.getInt(position + 20);
+          track.defaultSampleFlags = moov.getInt(position + 28);
+        }
+        position += size;
+      }
+    }
+    return track;
+  }
+
+  /** Returns true if {@code trak} is a video track and was read into {@code track}. */
+  private static boolean parseTrak(ByteBuffer moov, int start, int end, Track track)
+      throws IOException {
+    int mdia = findChild(moov, start, end, MDIA);
+    if (mdia == -1) {
+      return false;
+    }
+    int mdiaEnd = mdia + childSize(moov, mdia, end);
+    int hdlr = findChild(moov, mdia + 8, mdiaEnd, HDLR);
+    if (hdlr == -1 || moov.getInt(hdlr + 16) != VIDE) {
+      return false;
+    }
+
+    int tkhd = findChild(moov, start, end, TKHD);
+    if (tkhd != -1) {
+      int tkhdEnd = tkhd + childSize(moov, tkhd, end);
+      track.trackId = moov.getInt(tkhd + (moov.get(tkhd + 8) == 1 ? 28 : 20));
+      track.width = moov.getInt(tkhdEnd - 8) >>> 16;
+      track.height = moov.getInt(tkhdEnd - 4) >>> 16;
+    }
+
+    int mdhd = findChild(moov, mdia + 8, mdiaEnd, MDHD);
+    if (mdhd != -1) {
+      if (moov.get(mdhd + 8) == 1) {
+        track.mediaTimescale = moov.getInt(mdhd + 28);
+        track.mediaDuration = moov.getLong(mdhd + 32);
+      } else {
+        track.mediaTimescale = moov.getInt(mdhd + 20);
+        track.mediaDuration = moov.getInt(mdhd + 24) & 0xffffffffL;
+      }
+    }
+
+    int minf = findChild(moov, mdia + 8, mdiaEnd, MINF);
+    if (minf == -1) {
+      throw new IOException("No minf.");
+    }
+    int minfEnd = minf + childSize(moov, minf, mdiaEnd);
+    int stbl = findChild(moov, minf + 8, minfEnd, STBL);
+    if (stbl == -1) {
+      throw new IOException("No stbl.");
+    }
+    int stblEnd = stbl + childSize(moov, stbl, minfEnd);
+
+    int stsd = findChild(moov, stbl + 8, stblEnd, STSD);
+    if (stsd == -1 || moov.getInt(stsd + 12) < 1) {
+      throw new IOException("No sample description.");
+    }
+    int entry = stsd + 16;
+    track.codec = fourCcString(moov.getInt(entry + 4));
+    // Visual sample entry: reserved, data reference index, predefined, then the size.
+    int entryWidth = moov.getShort(entry + 32) & 0xffff;
+    int entryHeight = moov.getShort(entry + 34) & 0xffff;
+    if (track.width == 0 || track.height == 0) {
+      track.width = entryWidth;
+      track.height = entryHeight;
+    }
+
+    int stsz = findChild(moov, stbl + 8, stblEnd, STSZ);
+    if (stsz != -1) {
+      track.samples = moov.getInt(stsz + 16);
+    }
+
+    int stts = findChild(moov, stbl + 8, stblEnd, STTS);
+    if (stts != -1 && stsz == -1) {
+      int entries = moov.getInt(stts + 12);
+      for (int i = 0; i < entries; i++) {
+        track.samples += moov.getInt(stts + 16 + i * 8);
+      }
+    }
+
+    int stss = findChild(moov, stbl + 8, stblEnd, STSS);
+    if (stss != -1) {
+      track.hasSyncTable = true;
+      track.syncSamples = moov.getInt(stss + 12);
+    }
+    return true;
+  }
+
+  /** Add the samples described by {@code moof} to {@code track}. */
+  private static void parseMoof(ByteBuffer moof, Track track) throws IOException {
+    int end = moof.limit();
+    for (int traf = 0; traf + 8 <= end; ) {
+      int trafSize = childSize(moof, traf, end);
+      if (moof.getInt(traf + 4) == TRAF) {
+        parseTraf(moof, traf + 8, traf + trafSize, track);
+      }
+      traf += trafSize;
+    }
+  }
+
+  private static void parseTraf(ByteBuffer moof, int start, int end, Track track)
+      throws IOException {
+    int tfhd = findChild(moof, start, end, TFHD);
+    if (tfhd == -1) {
+      throw new IOException("No tfhd.");
+    }
+    int tfhdFlags = moof.getInt(tfhd + 8) & 0xffffff;
+    if (moof.getInt(tfhd + 12) != track.trackId) {
+      return;
+    }
+    int defaultDuration = track.defaultSampleDuration;
+    int defaultFlags = track.defaultSampleFlags;
+    int field = tfhd + 16;
+    if ((tfhdFlags & 0x01) != 0) field += 8; // Base data offset.
+    if ((tfhdFlags & 0x02) != 0) field += 4; // Sample description index.
+    if ((tfhdFlags & 0x08) != 0) {
+      defaultDuration = moof.getInt(field);
+      field += 4;
+    }
+    if ((tfhdFlags & 0x10) != 0) field += 4; // Default sample size.
+    if ((tfhdFlags & 0x20) != 0) defaultFlags = moof.getInt(field);
+
+    for (int trun = start; trun + 8 <= end; ) {
+      int trunSize = childSize(moof, trun, end);
+      if (moof.getInt(trun + 4) == TRUN) {
+        parseTrun(moof, trun, trun + trunSize, defaultDuration, defaultFlags, track);
+      }
+      trun += trunSize;
+    }
+  }
+
+  private static void parseTrun(ByteBuffer moof, int trun, int end, int defaultDuration,
+      int defaultFlags, Track track) throws IOException {
+    int flags = moof.getInt(trun + 8) & 0xffffff;
+    int count = moof.getInt(trun + 12);
+    int position = trun + 16;
+    if ((flags & 0x001) != 0) position += 4; // Data offset.
+    int firstFlags = defaultFlags;
+    if ((flags & 0x004) != 0) {
+      firstFlags = moof.getInt(position);
+      position += 4;
+    }
+    boolean hasDuration = (flags & 0x100) != 0;
+    boolean hasSize = (flags & 0x200) != 0;
+    boolean hasFlags = (flags & 0x400) != 0;
+    boolean hasOffset = (flags & 0x800) != 0;
+    int entrySize = 4 * ((hasDuration ? 1 : 0) + (hasSize ? 1 : 0) + (hasFlags ? 1 : 0)
+        + (hasOffset ? 1 : 0));
+    if (count < 0 || position + (long) count * entrySize > end) {
+      throw new IOException("Invalid trun sample count " + count);
+    }
+
+    long duration = 0;
+    int sync = 0;
+    for (int i = 0; i < count; i++) {
+      int sampleDuration = defaultDuration;
+      int sampleFlags = i == 0 ? firstFlags : defaultFlags;
+      if (hasDuration) {
+        sampleDuration = moof.getInt(position);
+        position += 4;
+      }
+      if (hasSize) position += 4;
+      if (hasFlags) {
+        sampleFlags = moof.getInt(position);
+        position += 4;
+      }
+      if (hasOffset) position += 4;
+      duration += sampleDuration & 0xffffffffL;
+      if ((sampleFlags & SAMPLE_IS_NON_SYNC) == 0) {
+        sync++;
+      }
+    }
+    track.samples += count;
+    track.syncSamples += sync;
+    track.hasSyncTable = true;
+    track.mediaDuration += duration;
+  }
+
+  private static long scale(long duration, int timescale) {
+    if (timescale <= 0) {
+      return 0;
+    }
+    return duration * TimeUnit.SECONDS.toMicros(1) / timescale;
+  }
+
+  static int fourCc(String type) {
+    return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+  }
+
+  static String fourCcString(int type) {
+    return new String(new char[] {
+        (char) (type >>> 24), (char) ((type >>> 16) & 0xff), (char) ((type >>> 8) & 0xff),
+        (char) (type & 0xff)
+    });
+  }
+}
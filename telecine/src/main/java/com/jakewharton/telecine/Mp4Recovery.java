@@ -0,0 +1,246 @@
+package com.jakewharton.telecine;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.jakewharton.telecine.Mp4Parser.MDAT;
+import static com.jakewharton.telecine.Mp4Parser.MOOV;
+
+/**
+ * Rebuilds a playable file from a recording which was never finished and so has media data but
+ * no {@code moov}. The {@code mdat} is walked as 4-byte length-prefixed H.264 NAL units, as
+ * {@code MediaMuxer} and {@code MediaRecorder} write them, and split into access units. Frame
+ * timing is lost with the {@code moov} so samples are spaced evenly at the recording's frame
+ * rate.
+ *
+ * <p>Only a small window of the file is held in memory at a time, so recovering a file of
+ * several gigabytes costs a few bytes of sample table per frame and little else.
+ */
+final class Mp4Recovery {
+  static final int TIMESCALE = 90000;
+
+  private static final String TEMP_SUFFIX = ".recovered";
+  /** Both muxers prefix units with 4-byte lengths. */
+  private static final int LENGTH_SIZE = 4;
+  /** Parameter sets are tiny. Anything bigger is garbage which happens to parse. */
+  private static final int MAX_PARAMETER_SET_SIZE = 1024;
+
+  /** What was recovered. */
+  static final class Result {
+    final int sampleCount;
+    final int syncSampleCount;
+    final long durationUs;
+    final long size;
+    /** Bytes at the end of the {@code mdat} which did not hold a complete NAL unit. */
+    final long discardedBytes;
+
+    Result(int sampleCount, int syncSampleCount, long durationUs, long size,
+        long discardedBytes) {
+      this.sampleCount = sampleCount;
+      this.syncSampleCount = syncSampleCount;
+      this.durationUs = durationUs;
+      this.size = size;
+      this.discardedBytes = discardedBytes;
+    }
+
+    @Override public String toString() {
+      return "Result{sampleCount=" + sampleCount
+          + ", syncSampleCount=" + syncSampleCount
+          + ", durationUs=" + durationUs
+          + ", size=" + size
+          + ", discardedBytes=" + discardedBytes
+          + '}';
+    }
+  }
+
+  private Mp4Recovery() {
+    throw new AssertionError("No instances.");
+  }
+
+  /** Returns true if {@code channel} has media data but no {@code moov}. */
+  static boolean needsRecovery(FileChannel channel) throws IOException {
+    return findMdat(channel) != null;
+  }
+
+  /**
+   * Recover {@code file} in place. The recovered file is written alongside and renamed over the
+   * original so a failure leaves the original intact.
+   */
+  static Result recover(File file, RecordingSidecar sidecar) throws IOException {
+    File temp = new File(file.getPath() + TEMP_SUFFIX);
+    Result result;
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      RandomAccessFile output = new RandomAccessFile(temp, "rw");
+      try {
+        output.setLength(0);
+        result = recover(input.getChannel(), output.getChannel(), sidecar);
+      } finally {
+        output.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw e;
+    } finally {
+      input.close();
+    }
+
+    if (!temp.renameTo(file)) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw new IOException("Unable to replace " + file);
+    }
+    return result;
+  }
+
+  static Result recover(FileChannel input, FileChannel output, RecordingSidecar sidecar)
+      throws IOException {
+    long[] mdat = findMdat(input);
+    if (mdat == null) {
+      throw new IOException("No mdat, or the file already has a moov.");
+    }
+    Scanner scanner = new Scanner(input, mdat[0], mdat[1], TIMESCALE / sidecar.frameRate);
+    scanner.scan();
+    Mp4SampleTable samples = scanner.samples;
+
+    byte[] sps = sidecar.sps != null ? sidecar.sps : scanner.sps;
+    byte[] pps = sidecar.pps != null ? sidecar.pps : scanner.pps;
+    if (sps == null || pps == null) {
+      throw new IOException("No SPS or PPS in the sidecar or the media data.");
+    }
+    int from = 0;
+    while (from < samples.count && !samples.sync[from]) {
+      from++;
+    }
+    if (from == samples.count) {
+      throw new IOException("No sync sample in " + samples.count + " samples.");
+    }
+
+    BoxBuilder stsd = new BoxBuilder(256);
+    MovieBoxes.stsd(stsd, sidecar.width, sidecar.height, sps, pps);
+    Mp4SampleTable table = new Mp4SampleTable(TIMESCALE, sidecar.width, sidecar.height,
+        stsd.toByteArray());
+    table.count = samples.count;
+    table.offsets = samples.offsets;
+    table.sizes = samples.sizes;
+    table.durations = samples.durations;
+    table.sync = samples.sync;
+
+    long size = table.write(from, table.count, input, output);
+    int syncCount = 0;
+    for (int i = from; i < table.count; i++) {
+      if (table.sync[i]) {
+        syncCount++;
+      }
+    }
+    long durationUs = table.ticksToUs((long) (table.count - from) * scanner.sampleDuration);
+    return new Result(table.count - from, syncCount, durationUs, size,
+        mdat[1] - scanner.position);
+  }
+
+  /**
+   * Returns the start and end of the payload of the first {@code mdat}, or null if there is none
+   * or there is a {@code moov}. An {@code mdat} whose size was never filled in, or which claims
+   * to extend past the end of the file, ends at the end of the file.
+   */
+  private static long[] findMdat(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(16);
+    long[] mdat = null;
+    for (long position = 0; position + 8 <= fileSize; ) {
+      header.clear();
+      if (fileSize - position < 16) {
+        header.limit((int) (fileSize - position));
+      }
+      readFully(channel, header, position);
+      long size = header.getInt(0) & 0xffffffffL;
+      int type = header.getInt(4);
+      int headerSize = 8;
+      if (size == 1 && header.limit() == 16) {
+        size = header.getLong(8);
+        headerSize = 16;
+      }
+      if (type == MOOV) {
+        return null;
+      }
+      if (size < headerSize || position + size > fileSize) {
+        size = fileSize - position; // Never finished. Nothing can follow it.
+      }
+      if (type == MDAT && mdat == null) {
+        mdat = new long[] { position + headerSize, position + size };
+      }
+      position += size;
+    }
+    return mdat;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read == -1) {
+        throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+      }
+    }
+  }
+
+  /** Collects the access units of length-prefixed units and any parameter sets among them. */
+  static final class Scanner extends AccessUnitSplitter {
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final NalScanner nals;
+    final int sampleDuration;
+    final Mp4SampleTable samples = new Mp4SampleTable(TIMESCALE, 0, 0, null);
+    byte[] sps;
+    byte[] pps;
+    /** The end of the last complete access unit. */
+    long position;
+
+    Scanner(FileChannel channel, long start, long end, int sampleDuration) {
+      this(channel, start, end, sampleDuration, NalScanner.DEFAULT_WINDOW_SIZE);
+    }
+
+    Scanner(FileChannel channel, long start, long end, int sampleDuration, int windowSize) {
+      super(LENGTH_SIZE, start);
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.sampleDuration = sampleDuration;
+      nals = new NalScanner(channel, windowSize);
+    }
+
+    void scan() throws IOException {
+      nals.scanLengthPrefixed(start, end, LENGTH_SIZE, this);
+      position = flush();
+    }
+
+    @Override boolean onAccessUnit(long offset, long size, boolean sync) throws IOException {
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Sample at " + offset + " is " + size + " bytes.");
+      }
+      samples.add(offset, (int) size, sampleDuration, sync, 0);
+      return true;
+    }
+
+    @Override boolean onNalUnit(long offset, int size, int type) throws IOException {
+      if (type == NalUnits.TYPE_SPS && sps == null && size <= MAX_PARAMETER_SET_SIZE) {
+        sps = read(offset, size);
+      } else if (type == NalUnits.TYPE_PPS && pps == null && size <= MAX_PARAMETER_SET_SIZE) {
+        pps = read(offset, size);
+      }
+      return true;
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+      ByteBuffer nal = ByteBuffer.allocate(length);
+      readFully(channel, nal, offset);
+      return nal.array();
+    }
+  }
+}
@@ -0,0 +1,611 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.jakewharton.telecine.Mp4Parser.CO64;
+import static com.jakewharton.telecine.Mp4Parser.HDLR;
+import static com.jakewharton.telecine.Mp4Parser.MDAT;
+import static com.jakewharton.telecine.Mp4Parser.MDHD;
+import static com.jakewharton.telecine.Mp4Parser.MDIA;
+import static com.jakewharton.telecine.Mp4Parser.MINF;
+import static com.jakewharton.telecine.Mp4Parser.MOOF;
+import static com.jakewharton.telecine.Mp4Parser.MOOV;
+import static com.jakewharton.telecine.Mp4Parser.MVEX;
+import static com.jakewharton.telecine.Mp4Parser.STBL;
+import static com.jakewharton.telecine.Mp4Parser.STCO;
+import static com.jakewharton.telecine.Mp4Parser.STSD;
+import static com.jakewharton.telecine.Mp4Parser.STSS;
+import static com.jakewharton.telecine.Mp4Parser.STSZ;
+import static com.jakewharton.telecine.Mp4Parser.STTS;
+import static com.jakewharton.telecine.Mp4Parser.TFHD;
+import static com.jakewharton.telecine.Mp4Parser.TKHD;
+import static com.jakewharton.telecine.Mp4Parser.TRAF;
+import static com.jakewharton.telecine.Mp4Parser.TRAK;
+import static com.jakewharton.telecine.Mp4Parser.TREX;
+import static com.jakewharton.telecine.Mp4Parser.TRUN;
+import static com.jakewharton.telecine.Mp4Parser.childSize;
+import static com.jakewharton.telecine.Mp4Parser.findChild;
+import static com.jakewharton.telecine.Mp4Parser.fourCc;
+
+/**
+ * Every sample of a file's single video track, flattened from either a progressive
+ * {@code stbl} or fragments into parallel arrays of where each sample is and how long it lasts.
+ * Also writes a sample range back out as a progressive, fast start file whose media data is
+ * copied with {@link FileChannel#transferTo}.
+ */
+final class Mp4SampleTable {
+  private static final int CTTS = fourCc("ctts");
+  private static final int STSC = fourCc("stsc");
+  private static final int VIDE = fourCc("vide");
+  private static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+  /** Samples per chunk in written files. */
+  static final int CHUNK_SAMPLES = 30;
+
+  final int timescale;
+  final int width;
+  final int height;
+  /** The complete {@code stsd} box, copied verbatim into written files. */
+  final byte[] sampleDescription;
+
+  int count;
+  long[] offsets;
+  int[] sizes;
+  int[] durations;
+  /** Composition time minus decode time, or null if every sample's is zero. */
+  int[] compositionOffsets;
+  boolean[] sync;
+
+  Mp4SampleTable(int timescale, int width, int height, byte[] sampleDescription) {
+    this.timescale = timescale;
+    this.width = width;
+    this.height = height;
+    this.sampleDescription = sampleDescription;
+    offsets = new long[64];
+    sizes = new int[64];
+    durations = new int[64];
+    sync = new boolean[64];
+  }
+
+  void add(long offset, int size, int duration, boolean sync, int compositionOffset) {
+    if (count == sizes.length) {
+      int capacity = count * 2;
+      offsets = Arrays.copyOf(offsets, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      durations = Arrays.copyOf(durations, capacity);
+      this.sync = Arrays.copyOf(this.sync, capacity);
+      if (compositionOffsets != null) {
+        compositionOffsets = Arrays.copyOf(compositionOffsets, capacity);
+      }
+    }
+    if (compositionOffset != 0 && compositionOffsets == null) {
+      compositionOffsets = new int[sizes.length];
+    }
+    offsets[count] = offset;
+    sizes[count] = size;
+    durations[count] = duration;
+    this.sync[count] = sync;
+    if (compositionOffsets != null) {
+      compositionOffsets[count] = compositionOffset;
+    }
+    count++;
+  }
+
+  long ticksToUs(long ticks) {
+    return ticks * 1000000L / timescale;
+  }
+
+  long usToTicks(long us) {
+    return us * timescale / 1000000L;
+  }
+
+  static Mp4SampleTable read(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(16);
+    ByteBuffer moof = ByteBuffer.allocate(0);
+    Mp4SampleTable table = null;
+    Defaults defaults = null;
+    for (long position = 0; position < fileSize; ) {
+      Mp4Parser.Box box = Mp4Parser.readBox(channel, header, position, fileSize);
+      if (box.type == MOOV) {
+        ByteBuffer moov = Mp4Parser.readPayload(channel, box);
+        defaults = new Defaults();
+        table = readMoov(moov, defaults);
+      } else if (box.type == MOOF) {
+        if (table == null) {
+          throw new IOException("moof before moov at " + box.offset);
+        }
+        if (box.truncated) {
+          break;
+        }
+        moof = Mp4Parser.readPayload(channel, box, moof);
+        readMoof(moof, box.offset, defaults, table);
+      }
+      position = box.end();
+    }
+    if (table == null) {
+      throw new IOException("No moov.");
+    }
+    // Drop samples whose data was never completely written.
+    while (table.count > 0
+        && table.offsets[table.count - 1] + table.sizes[table.count - 1] > fileSize) {
+      table.count--;
+    }
+    return table;
+  }
+
+  /** Track values which fragments fall back to. */
+  private static final class Defaults {
+    int trackId;
+    int duration;
+    int size;
+    int flags;
+  }
+
+  private static Mp4SampleTable readMoov(ByteBuffer moov, Defaults defaults) throws IOException {
+    int end = moov.limit();
+    for (int trak = 0; trak + 8 <= end; ) {
+      int trakSize = childSize(moov, trak, end);
+      if (moov.getInt(trak + 4) == TRAK) {
+        Mp4SampleTable table = readTrak(moov, trak + 8, trak + trakSize, defaults);
+        if (table != null) {
+          int mvex = findChild(moov, 0, end, MVEX);
+          if (mvex != -1) {
+            readTrex(moov, mvex, childSize(moov, mvex, end), defaults);
+          }
+          return table;
+        }
+      }
+      trak += trakSize;
+    }
+    throw new IOException("No video track.");
+  }
+
+  private static void readTrex(ByteBuffer moov, int mvex, int mvexSize, Defaults defaults)
+      throws IOException {
+    int end = mvex + mvexSize;
+    for (int position = mvex + 8; position + 8 <= end; ) {
+      int size = childSize(moov, position, end);
+      if (moov.getInt(position + 4) == TREX && moov.getInt(position + 12) == defaults.trackId) {
+        defaults.duration = moov.getInt(position + 20);
+        defaults.size = moov.getInt(position + 24);
+        defaults.flags = moov.getInt(position + 28);
+      }
+      position += size;
+    }
+  }
+
+  private static Mp4SampleTable readTrak(ByteBuffer moov, int start, int end, Defaults defaults)
+      throws IOException {
+    int mdia = requireChild(moov, start, end, MDIA);
+    int mdiaEnd = mdia + childSize(moov, mdia, end);
+    int hdlr = findChild(moov, mdia + 8, mdiaEnd, HDLR);
+    if (hdlr == -1 || moov.getInt(hdlr + 16) != VIDE) {
+      return null;
+    }
+    int tkhd = requireChild(moov, start, end, TKHD);
+    int tkhdEnd = tkhd + childSize(moov, tkhd, end);
+    defaults.trackId = moov.getInt(tkhd + (moov.get(tkhd + 8) == 1 ? 28 : 20));
+    int width = moov.getInt(tkhdEnd - 8) >>> 16;
+    int height = moov.getInt(tkhdEnd - 4) >>> 16;
+
+    int mdhd = requireChild(moov, mdia + 8, mdiaEnd, MDHD);
+    int timescale = moov.getInt(mdhd + (moov.get(mdhd + 8) == 1 ? 28 : 20));
+    if (timescale <= 0) {
+      throw new IOException("Invalid timescale " + timescale);
+    }
+
+    int minf = requireChild(moov, mdia + 8, mdiaEnd, MINF);
+    int minfEnd = minf + childSize(moov, minf, mdiaEnd);
+    int stbl = requireChild(moov, minf + 8, minfEnd, STBL);
+    int stblEnd = stbl + childSize(moov, stbl, minfEnd);
+    int stsd = requireChild(moov, stbl + 8, stblEnd, STSD);
+    byte[] sampleDescription = new byte[childSize(moov, stsd, stblEnd)];
+    ByteBuffer stsdBytes = moov.duplicate();
+    stsdBytes.position(stsd);
+    stsdBytes.get(sampleDescription);
+
+    Mp4SampleTable table = new Mp4SampleTable(timescale, width, height, sampleDescription);
+    readStbl(moov, stbl + 8, stblEnd, table);
+    return table;
+  }
+
+  private static int requireChild(ByteBuffer buffer, int start, int end, int type)
+      throws IOException {
+    int child = findChild(buffer, start, end, type);
+    if (child == -1) {
+      throw new IOException("No " + Mp4Parser.fourCcString(type) + '.');
+    }
+    return child;
+  }
+
+  /** Read the samples of a progressive file. Fragmented files have none here. */
+  private static void readStbl(ByteBuffer moov, int start, int end, Mp4SampleTable table)
+      throws IOException {
+    int stsz = findChild(moov, start, end, STSZ);
+    int count = stsz == -1 ? 0 : moov.getInt(stsz + 16);
+    if (count == 0) {
+      return;
+    }
+    int stszEnd = stsz + childSize(moov, stsz, end);
+    int uniformSize = moov.getInt(stsz + 12);
+    if (uniformSize == 0 && stsz + 20 + (long) count * 4 > stszEnd) {
+      throw new IOException("Invalid stsz sample count " + count);
+    }
+
+    // Chunk offsets.
+    int stco = findChild(moov, start, end, STCO);
+    boolean wide = stco == -1;
+    if (wide) {
+      stco = requireChild(moov, start, end, CO64);
+    }
+    int chunkCount = moov.getInt(stco + 12);
+    if (stco + 16 + (long) chunkCount * (wide ? 8 : 4) > stco + childSize(moov, stco, end)) {
+      throw new IOException("Invalid chunk count " + chunkCount);
+    }
+
+    // Samples per chunk, as runs starting at a first chunk.
+    int stsc = requireChild(moov, start, end, STSC);
+    int runs = moov.getInt(stsc + 12);
+    if (stsc + 16 + (long) runs * 12 > stsc + childSize(moov, stsc, end)) {
+      throw new IOException("Invalid stsc entry count " + runs);
+    }
+
+    int stts = requireChild(moov, start, end, STTS);
+    int sttsEntries = moov.getInt(stts + 12);
+    if (stts + 16 + (long) sttsEntries * 8 > stts + childSize(moov, stts, end)) {
+      throw new IOException("Invalid stts entry count " + sttsEntries);
+    }
+
+    int stss = findChild(moov, start, end, STSS);
+    int syncEntries = stss == -1 ? 0 : moov.getInt(stss + 12);
+    if (stss != -1 && stss + 16 + (long) syncEntries * 4 > stss + childSize(moov, stss, end)) {
+      throw new IOException("Invalid stss entry count " + syncEntries);
+    }
+
+    int ctts = findChild(moov, start, end, CTTS);
+    int cttsEntries = ctts == -1 ? 0 : moov.getInt(ctts + 12);
+    if (ctts != -1 && ctts + 16 + (long) cttsEntries * 8 > ctts + childSize(moov, ctts, end)) {
+      throw new IOException("Invalid ctts entry count " + cttsEntries);
+    }
+
+    int sample = 0;
+    int sttsEntry = 0;
+    int sttsRemaining = sttsEntries > 0 ? moov.getInt(stts + 16) : 0;
+    int syncEntry = 0;
+    int cttsEntry = 0;
+    int cttsRemaining = cttsEntries > 0 ? moov.getInt(ctts + 16) : 0;
+    for (int run = 0; run < runs && sample < count; run++) {
+      int firstChunk = moov.getInt(stsc + 16 + run * 12) - 1;
+      int samplesPerChunk = moov.getInt(stsc + 16 + run * 12 + 4);
+      int nextFirstChunk = run + 1 < runs
+          ? moov.getInt(stsc + 16 + (run + 1) * 12) - 1
+          : chunkCount;
+      for (int chunk = firstChunk; chunk < nextFirstChunk && sample < count; chunk++) {
+        if (chunk < 0 || chunk >= chunkCount) {
+          throw new IOException("Invalid chunk " + (chunk + 1));
+        }
+        long offset = wide
+            ? moov.getLong(stco + 16 + chunk * 8)
+            : moov.getInt(stco + 16 + chunk * 4) & 0xffffffffL;
+        for (int i = 0; i < samplesPerChunk && sample < count; i++) {
+          int size = uniformSize != 0 ? uniformSize : moov.getInt(stsz + 20 + sample * 4);
+
+          while (sttsRemaining == 0 && sttsEntry + 1 < sttsEntries) {
+            sttsEntry++;
+            sttsRemaining = moov.getInt(stts + 16 + sttsEntry * 8);
+          }
+          int duration = sttsEntries > 0 ? moov.getInt(stts + 16 + sttsEntry * 8 + 4) : 0;
+          sttsRemaining--;
+
+          boolean isSync = stss == -1;
+          if (syncEntry < syncEntries && moov.getInt(stss + 16 + syncEntry * 4) == sample + 1) {
+            isSync = true;
+            syncEntry++;
+          }
+
+          int compositionOffset = 0;
+          if (cttsEntries > 0) {
+            while (cttsRemaining == 0 && cttsEntry + 1 < cttsEntries) {
+              cttsEntry++;
+              cttsRemaining = moov.getInt(ctts + 16 + cttsEntry * 8);
+            }
+            compositionOffset = moov.getInt(ctts + 16 + cttsEntry * 8 + 4);
+            cttsRemaining--;
+          }
+
+          table.add(offset, size, duration, isSync, compositionOffset);
+          offset += size;
+          sample++;
+        }
+      }
+    }
+    if (sample != count) {
+      throw new IOException("Chunks describe " + sample + " of " + count + " samples.");
+    }
+  }
+
+  private static void readMoof(ByteBuffer moof, long moofOffset, Defaults defaults,
+      Mp4SampleTable table) throws IOException {
+    int end = moof.limit();
+    for (int traf = 0; traf + 8 <= end; ) {
+      int trafSize = childSize(moof, traf, end);
+      if (moof.getInt(traf + 4) == TRAF) {
+        readTraf(moof, traf + 8, traf + trafSize, moofOffset, defaults, table);
+      }
+      traf += trafSize;
+    }
+  }
+
+  private static void readTraf(ByteBuffer moof, int start, int end, long moofOffset,
+      Defaults defaults, Mp4SampleTable table) throws IOException {
+    int tfhd = requireChild(moof, start, end, TFHD);
+    if (moof.getInt(tfhd + 12) != defaults.trackId) {
+      return;
+    }
+    int tfhdFlags = moof.getInt(tfhd + 8) & 0xffffff;
+    // Without an explicit base, offsets are from the moof. Telecine always sets the flag which
+    // says so, and no other writer is expected to produce these files.
+    long baseOffset = moofOffset;
+    int duration = defaults.duration;
+    int size = defaults.size;
+    int flags = defaults.flags;
+    int field = tfhd + 16;
+    if ((tfhdFlags & 0x01) != 0) {
+      baseOffset = moof.getLong(field);
+      field += 8;
+    }
+    if ((tfhdFlags & 0x02) != 0) field += 4; // Sample description index.
+    if ((tfhdFlags & 0x08) != 0) {
+      duration = moof.getInt(field);
+      field += 4;
+    }
+    if ((tfhdFlags & 0x10) != 0) {
+      size = moof.getInt(field);
+      field += 4;
+    }
+    if ((tfhdFlags & 0x20) != 0) flags = moof.getInt(field);
+
+    long nextOffset = baseOffset;
+    for (int trun = start; trun + 8 <= end; ) {
+      int trunSize = childSize(moof, trun, end);
+      if (moof.getInt(trun + 4) == TRUN) {
+        nextOffset = readTrun(moof, trun, trun + trunSize, baseOffset, nextOffset, duration,
+            size, flags, table);
+      }
+      trun += trunSize;
+    }
+  }
+
+  /** Returns the offset following the run's last sample. */
+  private static long readTrun(ByteBuffer moof, int trun, int end, long baseOffset,
+      long offset, int defaultDuration, int defaultSize, int defaultFlags,
+      Mp4SampleTable table) throws IOException {
+    int flags = moof.getInt(trun + 8) & 0xffffff;
+    int count = moof.getInt(trun + 12);
+    int position = trun + 16;
+    if ((flags & 0x001) != 0) {
+      offset = baseOffset + moof.getInt(position);
+      position += 4;
+    }
+    int firstFlags = defaultFlags;
+    if ((flags & 0x004) != 0) {
+      firstFlags = moof.getInt(position);
+      position += 4;
+    }
+    boolean hasDuration = (flags & 0x100) != 0;
+    boolean hasSize = (flags & 0x200) != 0;
+    boolean hasFlags = (flags & 0x400) != 0;
+    boolean hasOffset = (flags & 0x800) != 0;
+    int entrySize = 4 * ((hasDuration ? 1 : 0) + (hasSize ? 1 : 0) + (hasFlags ? 1 : 0)
+        + (hasOffset ? 1 : 0));
+    if (count < 0 || position + (long) count * entrySize > end) {
+      throw new IOException("Invalid trun sample count " + count);
+    }
+    for (int i = 0; i < count; i++) {
+      int duration = defaultDuration;
+      int size = defaultSize;
+      int sampleFlags = i == 0 ? firstFlags : defaultFlags;
+      int compositionOffset = 0;
+      if (hasDuration) {
+        duration = moof.getInt(position);
+        position += 4;
+      }
+      if (hasSize) {
+        size = moof.getInt(position);
+        position += 4;
+      }
+      if (hasFlags) {
+        sampleFlags = moof.getInt(position);
+        position += 4;
+      }
+      if (hasOffset) {
+        compositionOffset = moof.getInt(position);
+        position += 4;
+      }
+      table.add(offset, size, duration, (sampleFlags & SAMPLE_IS_NON_SYNC) == 0,
+          compositionOffset);
+      offset += size;
+    }
+    return offset;
+  }
+
+  /**
+   * Write samples {@code from} (inclusive) to {@code to} (exclusive), whose data is read from
+   * {@code input}, to {@code output} as a progressive file with its {@code moov} first. The
+   * first sample must be a sync sample. Returns the number of bytes written.
+   */
+  long write(int from, int to, FileChannel input, FileChannel output) throws IOException {
+    if (from < 0 || to > count || from >= to) {
+      throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") of " + count);
+    }
+    if (!sync[from]) {
+      throw new IllegalArgumentException("Sample " + from + " is not a sync sample.");
+    }
+
+    long dataSize = 0;
+    for (int i = from; i < to; i++) {
+      dataSize += sizes[i];
+    }
+    boolean largeData = dataSize > FastStart.MAX_32_BIT_OFFSET - 16;
+
+    long mdatHeaderSize = largeData ? 16 : 8;
+    // Chunk offsets depend on the moov's size, which depends on whether they need 64 bits.
+    BoxBuilder head = new BoxBuilder(1024 + (to - from) * 12);
+    writeHead(head, from, to, 0, false);
+    boolean wideOffsets = head.size() + mdatHeaderSize + dataSize > FastStart.MAX_32_BIT_OFFSET;
+    if (wideOffsets) {
+      head.clear();
+      writeHead(head, from, to, 0, true);
+    }
+    long dataStart = head.size() + mdatHeaderSize;
+    head.clear();
+    writeHead(head, from, to, dataStart, wideOffsets);
+    if (largeData) {
+      head.putInt(1).putInt(MDAT).putLong(16 + dataSize);
+    } else {
+      head.putInt((int) (8 + dataSize)).putInt(MDAT);
+    }
+    output.position(0);
+    head.writeTo(output);
+
+    // Copy runs of samples which are contiguous in the input in one transfer each.
+    long position = head.size();
+    int runStart = from;
+    for (int i = from + 1; i <= to; i++) {
+      if (i == to || offsets[i] != offsets[i - 1] + sizes[i - 1]) {
+        long runOffset = offsets[runStart];
+        long runSize = offsets[i - 1] + sizes[i - 1] - runOffset;
+        transfer(input, runOffset, runSize, output, position);
+        position += runSize;
+        runStart = i;
+      }
+    }
+    output.force(false);
+    return position;
+  }
+
+  /** Write the {@code ftyp} and {@code moov} for samples stored from {@code dataStart}. */
+  private void writeHead(BoxBuilder b, int from, int to, long dataStart, boolean wideOffsets) {
+    MovieBoxes.ftyp(b, "mp42", "isom", "mp42");
+
+    long duration = 0;
+    for (int i = from; i < to; i++) {
+      duration += durations[i];
+    }
+
+    b.start("moov");
+    MovieBoxes.mvhd(b, timescale, duration);
+    b.start("trak");
+    MovieBoxes.tkhd(b, duration, width, height);
+    b.start("mdia");
+    MovieBoxes.mdhd(b, timescale, duration);
+    MovieBoxes.hdlr(b);
+    b.start("minf");
+    MovieBoxes.videoMediaHeader(b);
+    b.start("stbl");
+    b.put(sampleDescription);
+
+    // Decode durations, run-length encoded.
+    b.startFull("stts", 0, 0);
+    int sttsCountIndex = b.size();
+    b.putInt(0);
+    int sttsEntries = 0;
+    for (int i = from; i < to; ) {
+      int run = 1;
+      while (i + run < to && durations[i + run] == durations[i]) {
+        run++;
+      }
+      b.putInt(run).putInt(durations[i]);
+      sttsEntries++;
+      i += run;
+    }
+    b.setInt(sttsCountIndex, sttsEntries);
+    b.end();
+
+    if (compositionOffsets != null) {
+      b.startFull("ctts", 0, 0);
+      int cttsCountIndex = b.size();
+      b.putInt(0);
+      int cttsEntries = 0;
+      for (int i = from; i < to; ) {
+        int run = 1;
+        while (i + run < to && compositionOffsets[i + run] == compositionOffsets[i]) {
+          run++;
+        }
+        b.putInt(run).putInt(compositionOffsets[i]);
+        cttsEntries++;
+        i += run;
+      }
+      b.setInt(cttsCountIndex, cttsEntries);
+      b.end();
+    }
+
+    b.startFull("stss", 0, 0);
+    int stssCountIndex = b.size();
+    b.putInt(0);
+    int syncCount = 0;
+    for (int i = from; i < to; i++) {
+      if (sync[i]) {
+        b.putInt(i - from + 1);
+        syncCount++;
+      }
+    }
+    b.setInt(stssCountIndex, syncCount);
+    b.end();
+
+    int samples = to - from;
+    int chunks = (samples + CHUNK_SAMPLES - 1) / CHUNK_SAMPLES;
+    int remainder = samples % CHUNK_SAMPLES;
+    b.startFull("stsc", 0, 0);
+    if (remainder == 0 || chunks == 1) {
+      b.putInt(1).putInt(1).putInt(Math.min(samples, CHUNK_SAMPLES)).putInt(1);
+    } else {
+      b.putInt(2);
+      b.putInt(1).putInt(CHUNK_SAMPLES).putInt(1);
+      b.putInt(chunks).putInt(remainder).putInt(1);
+    }
+    b.end();
+
+    b.startFull("stsz", 0, 0).putInt(0).putInt(samples);
+    for (int i = from; i < to; i++) {
+      b.putInt(sizes[i]);
+    }
+    b.end();
+
+    b.startFull(wideOffsets ? "co64" : "stco", 0, 0).putInt(chunks);
+    long offset = dataStart;
+    for (int i = from; i < to; i++) {
+      if ((i - from) % CHUNK_SAMPLES == 0) {
+        if (wideOffsets) {
+          b.putLong(offset);
+        } else {
+          b.putInt((int) offset);
+        }
+      }
+      offset += sizes[i];
+    }
+    b.end();
+
+    b.end(); // stbl
+    b.end(); // minf
+    b.end(); // mdia
+    b.end(); // trak
+    b.end(); // moov
+  }
+
+  private static void transfer(FileChannel input, long position, long count, FileChannel output,
+      long outputPosition) throws IOException {
+    output.position(outputPosition);
+    long done = 0;
+    while (done < count) {
+      long transferred = input.transferTo(position + done, count - done, output);
+      if (transferred <= 0) {
+        throw new IOException("Unable to copy bytes at " + (position + done));
+      }
+      done += transferred;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cuts a recording down to a time range without re-encoding. The output starts at the last sync
+ * sample at or before the requested start, since nothing before it can be decoded without its
+ * predecessors, and ends exactly at the requested end. Media data is copied, not decoded, so
+ * trimming costs about as much as copying the kept bytes.
+ */
+final class Mp4Trimmer {
+  private static final String TEMP_SUFFIX = ".trim";
+  private static final String TRIMMED_SUFFIX = "-trimmed";
+
+  /** The range which was actually kept. */
+  static final class Result {
+    final long startUs;
+    final long durationUs;
+    final int sampleCount;
+    final long size;
+
+    Result(long startUs, long durationUs, int sampleCount, long size) {
+      this.startUs = startUs;
+      this.durationUs = durationUs;
+      this.sampleCount = sampleCount;
+      this.size = size;
+    }
+
+    @Override public String toString() {
+      return "Result{startUs=" + startUs
+          + ", durationUs=" + durationUs
+          + ", sampleCount=" + sampleCount
+          + ", size=" + size
+          + '}';
+    }
+  }
+
+  private Mp4Trimmer() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Write the trimmed recording to {@code output}, leaving {@code input} untouched. It is written
+   * alongside and renamed into place so a failure leaves no partial output behind.
+   */
+  static Result trim(File input, File output, long startUs, long endUs) throws IOException {
+    File temp = new File(output.getPath() + TEMP_SUFFIX);
+    Result result;
+    RandomAccessFile in = new RandomAccessFile(input, "r");
+    try {
+      RandomAccessFile out = new RandomAccessFile(temp, "rw");
+      try {
+        out.setLength(0);
+        result = trim(in.getChannel(), out.getChannel(), startUs, endUs);
+      } finally {
+        out.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw e;
+    } finally {
+      in.close();
+    }
+
+    if (!temp.renameTo(output)) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw new IOException("Unable to write " + output);
+    }
+    return result;
+  }
+
+  /** The name of a trimmed copy of {@code file}, kept next to it. */
+  static File trimmedFile(File file) {
+    String name = file.getName();
+    int extension = name.lastIndexOf('.');
+    String base = extension == -1 ? name : name.substring(0, extension);
+    String suffix = extension == -1 ? "" : name.substring(extension);
+    return new File(file.getParentFile(), base + TRIMMED_SUFFIX + suffix);
+  }
+
+  /**
+   * Write the samples of {@code input} decoded from {@code startUs} up to {@code endUs} to
+   * {@code output} as a progressive file. Either may be fragmented; the output never is.
+   */
+  static Result trim(FileChannel input, FileChannel output, long startUs, long endUs)
+      throws IOException {
+    if (startUs < 0 || endUs <= startUs) {
+      throw new IllegalArgumentException("Invalid range " + startUs + ".." + endUs);
+    }
+    Mp4SampleTable table = Mp4SampleTable.read(input);
+    long startTicks = table.usToTicks(startUs);
+    long endTicks = table.usToTicks(endUs);
+
+    int from = -1;
+    int to = 0;
+    long fromTicks = 0;
+    long ticks = 0;
+    for (int i = 0; i < table.count && ticks < endTicks; i++) {
+      if (table.sync[i] && (ticks <= startTicks || from == -1)) {
+        from = i;
+        fromTicks = ticks;
+      }
+      ticks += table.durations[i];
+      to = i + 1;
+    }
+    if (from == -1 || from >= to) {
+      throw new IOException("No sync sample before " + endUs + "us in " + table.count
+          + " samples.");
+    }
+
+    long size = table.write(from, to, input, output);
+    return new Result(table.ticksToUs(fromTicks), table.ticksToUs(ticks - fromTicks), to - from,
+        size);
+  }
+}
@@ -0,0 +1,160 @@
+package com.jakewharton.telecine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Finds the H.264 NAL units in a range of a file, which hold either an Annex B byte stream
+ * (start code delimited) or length-prefixed units as in MP4 samples. Only a fixed window of the
+ * file is buffered and nothing is allocated per unit, so ranges of any size can be scanned.
+ */
+final class NalScanner {
+  static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+  interface Callback {
+    /**
+     * Called for each unit in order. {@code offset} and {@code size} cover the unit from its
+     * header byte, excluding any start code or length prefix. {@code secondByte} is the byte
+     * after the header, or -1 if the unit has none.
+     *
+     * @return false to stop scanning.
+     */
+    boolean onNal(long offset, int size, int type, int secondByte) throws IOException;
+  }
+
+  private final FileChannel channel;
+  private final ByteBuffer window;
+  private final byte[] bytes;
+  private long windowStart;
+  private int windowLimit;
+
+  NalScanner(FileChannel channel, int windowSize) {
+    this.channel = channel;
+    this.bytes = new byte[windowSize];
+    this.window = ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * Scan length-prefixed units with {@code lengthSize}-byte prefixes from {@code start}. Stops
+   * at {@code end}, when the callback returns false, or before the first unit which would extend
+   * past {@code end} or is not a valid unit, as happens in files which were never finished.
+   *
+   * @return the end of the last unit passed to the callback.
+   */
+  long scanLengthPrefixed(long start, long end, int lengthSize, Callback callback)
+      throws IOException {
+    if (lengthSize < 1 || lengthSize > 4) {
+      throw new IllegalArgumentException("Invalid length size " + lengthSize);
+    }
+    if (bytes.length < lengthSize + 2) {
+      throw new IllegalArgumentException("Window too small: " + bytes.length);
+    }
+    long position = start;
+    while (position + lengthSize + 1 <= end) {
+      int available = fill(position, lengthSize + 2, end);
+      int index = (int) (position - windowStart);
+      long length = 0;
+      for (int i = 0; i < lengthSize; i++) {
+        length = length << 8 | (bytes[index + i] & 0xff);
+      }
+      int header = bytes[index + lengthSize] & 0xff;
+      if (length == 0 || length > Integer.MAX_VALUE || position + lengthSize + length > end
+          || !isValidHeader(header)) {
+        break;
+      }
+      int secondByte =
+          length >= 2 && available >= lengthSize + 2 ? bytes[index + lengthSize + 1] & 0xff : -1;
+      long nalStart = position + lengthSize;
+      position = nalStart + length;
+      if (!callback.onNal(nalStart, (int) length, header & 0x1f, secondByte)) {
+        break;
+      }
+    }
+    return position;
+  }
+
+  /**
+   * Scan an Annex B byte stream from {@code start} to {@code end}. Trailing zero bytes before a
+   * start code are not part of the preceding unit. The last unit ends at {@code end}.
+   */
+  void scanAnnexB(long start, long end, Callback callback) throws IOException {
+    long nalStart = -1;
+    // Zero bytes are only looked at when counting them so these default to zero.
+    int header = 0;
+    int secondByte = 0;
+    int zeros = 0;
+    long position = start;
+    while (position < end) {
+      int available = fill(position, 1, end);
+      int index = (int) (position - windowStart);
+      int limit = index + available;
+      for (int i = index; i < limit; i++) {
+        int b = bytes[i];
+        if (b == 0) {
+          zeros++;
+          continue;
+        }
+        long absolute = windowStart + i;
+        if (b == 1 && zeros >= 2) {
+          if (nalStart != -1 && !emit(nalStart, absolute - zeros, header, secondByte, callback)) {
+            return;
+          }
+          nalStart = absolute + 1;
+          header = 0;
+          secondByte = 0;
+        } else if (absolute == nalStart) {
+          header = b & 0xff;
+        } else if (absolute == nalStart + 1) {
+          secondByte = b & 0xff;
+        }
+        zeros = 0;
+      }
+      position = windowStart + limit;
+    }
+    if (nalStart != -1) {
+      emit(nalStart, end - zeros, header, secondByte, callback);
+    }
+  }
+
+  private static boolean emit(long start, long end, int header, int secondByte,
+      Callback callback) throws IOException {
+    long size = end - start;
+    if (size <= 0 || !isValidHeader(header)) {
+      return true; // Padding or garbage between start codes.
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("NAL unit at " + start + " is " + size + " bytes.");
+    }
+    return callback.onNal(start, (int) size, header & 0x1f, size >= 2 ? secondByte : -1);
+  }
+
+  /** A forbidden zero bit of zero and a type which is not unspecified. */
+  static boolean isValidHeader(int header) {
+    int type = header & 0x1f;
+    return (header & 0x80) == 0 && type != 0 && type <= 23;
+  }
+
+  /**
+   * Ensure the window holds {@code count} bytes from {@code position}, or as many as there are
+   * before {@code end}. Returns the number of bytes buffered from {@code position}.
+   */
+  private int fill(long position, int count, long end) throws IOException {
+    long windowEnd = windowStart + windowLimit;
+    if (position < windowStart || position + count > windowEnd) {
+      int limit = (int) Math.min(bytes.length, end - position);
+      window.clear();
+      window.limit(limit);
+      while (window.hasRemaining()) {
+        int read = channel.read(window, position + window.position());
+        if (read == -1) {
+          throw new EOFException("Unexpected end of file at " + (position + window.position()));
+        }
+      }
+      windowStart = position;
+      windowLimit = limit;
+    }
+    return (int) (windowStart + windowLimit - position);
+  }
+}
@@ -0,0 +1,112 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+
+/** Helpers for H.264 network abstraction layer units. */
+final class NalUnits {
+  static final int TYPE_NON_IDR = 1;
+  static final int TYPE_IDR = 5;
+  static final int TYPE_SEI = 6;
+  static final int TYPE_SPS = 7;
+  static final int TYPE_PPS = 8;
+  static final int TYPE_AUD = 9;
+
+  private NalUnits() {
+    throw new AssertionError("No instances.");
+  }
+
+  /** Returns a copy of {@code data} without a leading Annex B start code, if present. */
+  static byte[] stripStartCode(byte[] data) {
+    int skip = startCodeLength(data, 0, data.length);
+    byte[] stripped = new byte[data.length - skip];
+    System.arraycopy(data, skip, stripped, 0, stripped.length);
+    return stripped;
+  }
+
+  /** Reads the remaining bytes of {@code buffer} without a leading start code. */
+  static byte[] stripStartCode(ByteBuffer buffer) {
+    byte[] data = new byte[buffer.remaining()];
+    buffer.duplicate().get(data);
+    return stripStartCode(data);
+  }
+
+  /** Returns 3 or 4 if an Annex B start code begins at {@code offset}, otherwise 0. */
+  static int startCodeLength(byte[] data, int offset, int limit) {
+    if (offset + 3 <= limit && data[offset] == 0 && data[offset + 1] == 0) {
+      if (data[offset + 2] == 1) {
+        return 3;
+      }
+      if (offset + 4 <= limit && data[offset + 2] == 0 && data[offset + 3] == 1) {
+        return 4;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Copy an access unit in {@code source} to {@code sink} in length-prefixed form as required by
+   * MP4. Input which does not begin with a start code is assumed to be length-prefixed already.
+   *
+   * @return the number of bytes written to {@code sink}.
+   */
+  static int writeLengthPrefixed(ByteBuffer source, BoxBuilder sink) {
+    int start = sink.size();
+    if (source.remaining() < 3 || !hasStartCode(source)) {
+      sink.put(source);
+      return sink.size() - start;
+    }
+
+    int position = source.position();
+    int limit = source.limit();
+    int nalStart = -1;
+    int i = position;
+    while (i < limit) {
+      int codeLength = startCodeAt(source, i, limit);
+      if (codeLength == 0) {
+        i++;
+        continue;
+      }
+      if (nalStart >= 0) {
+        writeNal(source, nalStart, i, sink);
+      }
+      i += codeLength;
+      nalStart = i;
+    }
+    if (nalStart >= 0 && nalStart < limit) {
+      writeNal(source, nalStart, limit, sink);
+    }
+    source.position(limit);
+    return sink.size() - start;
+  }
+
+  private static boolean hasStartCode(ByteBuffer source) {
+    return startCodeAt(source, source.position(), source.limit()) != 0;
+  }
+
+  private static int startCodeAt(ByteBuffer data, int offset, int limit) {
+    if (offset + 3 <= limit && data.get(offset) == 0 && data.get(offset + 1) == 0) {
+      if (data.get(offset + 2) == 1) {
+        return 3;
+      }
+      if (offset + 4 <= limit && data.get(offset + 2) == 0 && data.get(offset + 3) == 1) {
+        return 4;
+      }
+    }
+    return 0;
+  }
+
+  private static void writeNal(ByteBuffer source, int start, int end, BoxBuilder sink) {
+    // Trailing zeros belong to the next start code (or are padding), not this unit.
+    while (end > start && source.get(end - 1) == 0) {
+      end--;
+    }
+    if (end == start) {
+      return;
+    }
+    sink.putInt(end - start);
+    ByteBuffer nal = source.duplicate();
+    nal.limit(end);
+    nal.position(start);
+    sink.put(nal);
+  }
+}
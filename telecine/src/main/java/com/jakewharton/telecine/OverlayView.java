@@ -67,8 +67,8 @@ final class OverlayView extends FrameLayout {
     void onCancel();
 
     /**
-     * Called when start is clicked and the view is animating itself out,
-     * before {@link #onStart()}.
+     * Called as soon as start is clicked, before the countdown and {@link #onStart()}. Slow
+     * setup for recording should begin here.
      */
     void onPrepare();
 
@@ -142,6 +142,8 @@ final class OverlayView extends FrameLayout {
   }
 
   @OnClick(R.id.record_overlay_start) void onStartClicked() {
+    listener.onPrepare();
+
     recordingView.setVisibility(VISIBLE);
     int centerX = (int) (startView.getX() + (startView.getWidth() / 2));
     int centerY = (int) (startView.getY() + (startView.getHeight() / 2));
@@ -181,7 +183,6 @@ final class OverlayView extends FrameLayout {
   }
 
   private void countdownComplete() {
-    listener.onPrepare();
     recordingView.animate()
         .alpha(0)
         .setDuration(COUNTDOWN_DELAY)
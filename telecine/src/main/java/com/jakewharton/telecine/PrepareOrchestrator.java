@@ -0,0 +1,213 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs independent setup tasks in parallel and waits for all of them with a single deadline.
+ * The first failure or the deadline ends the wait and abandons every task. Values of tasks
+ * which already completed, and of those which complete later, are handed to
+ * {@link Task#abandon} so that resources they acquired are not leaked.
+ */
+final class PrepareOrchestrator {
+  abstract static class Task<T> {
+    final String name;
+
+    Task(String name) {
+      this.name = name;
+    }
+
+    abstract T run() throws Exception;
+
+    /** Free {@code result} of a task whose value will never be used. */
+    void abandon(T result) {
+    }
+  }
+
+  /** The eventual outcome of a submitted task. */
+  static final class Result<T> {
+    final String name;
+    private final Task<T> task;
+    private T value;
+    private Throwable error;
+    private boolean done;
+    private boolean abandoned;
+    private long durationNanos;
+
+    Result(Task<T> task) {
+      this.name = task.name;
+      this.task = task;
+    }
+
+    /** The task's value. Only valid after {@link #await} returns normally. */
+    T get() {
+      if (!done || error != null) {
+        throw new IllegalStateException(name + " did not complete.");
+      }
+      return value;
+    }
+
+    long durationNanos() {
+      return durationNanos;
+    }
+
+    /** Free the value of a completed task. Called once, after {@link #claim} returns true. */
+    void abandon() {
+      if (value != null) {
+        task.abandon(value);
+      }
+    }
+
+    /** Returns true if the caller should abandon this result. Must hold the lock. */
+    boolean claim() {
+      if (!done || abandoned) {
+        return false;
+      }
+      abandoned = true;
+      return true;
+    }
+  }
+
+  private final Executor executor;
+  private final List<Result<?>> results = new ArrayList<>();
+  private final Object lock = new Object();
+  /** Guarded by {@link #lock}. */
+  private int pending;
+  /** Guarded by {@link #lock}. */
+  private Result<?> failed;
+  /** Guarded by {@link #lock}. */
+  private boolean abandoned;
+
+  PrepareOrchestrator(Executor executor) {
+    this.executor = executor;
+  }
+
+  <T> Result<T> submit(final Task<T> task) {
+    final Result<T> result = new Result<>(task);
+    synchronized (lock) {
+      if (abandoned) {
+        throw new IllegalStateException("Already awaited.");
+      }
+      results.add(result);
+      pending++;
+    }
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        long startNanos = System.nanoTime();
+        T value = null;
+        Throwable error = null;
+        try {
+          value = task.run();
+        } catch (Throwable t) {
+          error = t;
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+
+        boolean abandon;
+        synchronized (lock) {
+          result.value = value;
+          result.error = error;
+          result.durationNanos = durationNanos;
+          result.done = true;
+          pending--;
+          if (error != null && failed == null) {
+            failed = result;
+          }
+          abandon = abandoned && result.claim();
+          lock.notifyAll();
+        }
+        if (abandon) {
+          result.abandon();
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Wait for every submitted task to complete. Throws {@link ExecutionException} with the cause
+   * of the first task to fail, or {@link TimeoutException} naming the tasks still running after
+   * {@code timeout}. Either way, all tasks which have not completed are abandoned.
+   */
+  void await(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    boolean succeeded = false;
+    try {
+      synchronized (lock) {
+        while (pending > 0 && failed == null) {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            throw new TimeoutException("Timed out after " + unit.toMillis(timeout)
+                + "ms waiting for " + pendingNames());
+          }
+          TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+        }
+        if (failed != null) {
+          throw new ExecutionException(failed.name + " failed.", failed.error);
+        }
+        abandoned = true; // No further submissions.
+        succeeded = true;
+      }
+    } finally {
+      if (!succeeded) {
+        abandon();
+      }
+    }
+  }
+
+  /**
+   * Abandon all tasks, for example when setup is cancelled. Values of completed tasks are freed
+   * immediately and those of running tasks as they complete.
+   */
+  void abandon() {
+    List<Result<?>> completed = new ArrayList<>();
+    synchronized (lock) {
+      abandoned = true;
+      for (int i = 0, size = results.size(); i < size; i++) {
+        Result<?> result = results.get(i);
+        if (result.claim()) {
+          completed.add(result);
+        }
+      }
+    }
+    for (int i = 0, size = completed.size(); i < size; i++) {
+      completed.get(i).abandon();
+    }
+  }
+
+  /** A summary of how long each task took, for logging. */
+  String timings() {
+    StringBuilder builder = new StringBuilder();
+    synchronized (lock) {
+      for (int i = 0, size = results.size(); i < size; i++) {
+        Result<?> result = results.get(i);
+        if (i > 0) {
+          builder.append(", ");
+        }
+        builder.append(result.name).append('=');
+        if (result.done) {
+          builder.append(TimeUnit.NANOSECONDS.toMillis(result.durationNanos)).append("ms");
+        } else {
+          builder.append("pending");
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  private List<String> pendingNames() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0, size = results.size(); i < size; i++) {
+      Result<?> result = results.get(i);
+      if (!result.done) {
+        names.add(result.name);
+      }
+    }
+    return names;
+  }
+}
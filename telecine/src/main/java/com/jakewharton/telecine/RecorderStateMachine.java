@@ -0,0 +1,195 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Drives a {@link Recorder} through its lifecycle on a single recorder thread. Requests may be
+ * made from any thread and are handled in order as messages on {@code recorderThread}. Results
+ * are delivered to {@link Callbacks} on {@code callbackThread}.
+ *
+ * <p>Preparing may be requested ahead of starting so that slow setup overlaps with other work
+ * and starting only has to flip an already-armed recorder. Preparing and starting are always
+ * separate messages so a stop requested while preparing is handled before recording begins.
+ * Requests which do not apply to the current state are ignored, which makes stopping and
+ * destroying idempotent.
+ */
+final class RecorderStateMachine {
+  /** The capture operations. Only called on the recorder thread. */
+  interface Recorder {
+    void prepare() throws Exception;
+
+    void start() throws Exception;
+
+    /** Stop capturing and finish writing the output. */
+    void stop() throws Exception;
+
+    /** Free all resources. Called exactly once after a successful or failed prepare. */
+    void release();
+  }
+
+  /** Only called on the callback thread. */
+  interface Callbacks {
+    void onStarted();
+
+    /** An operation failed. Always followed by {@link #onStopped}. */
+    void onError(Throwable t);
+
+    /**
+     * The session is over. {@code recorded} is true if a recording started and its output was
+     * finished successfully.
+     */
+    void onStopped(boolean recorded);
+  }
+
+  enum State {
+    IDLE, PREPARING, PREPARED, RECORDING, STOPPED, DESTROYED
+  }
+
+  private final Recorder recorder;
+  private final Callbacks callbacks;
+  private final Executor recorderThread;
+  private final Executor callbackThread;
+
+  /** Only accessed on the recorder thread. */
+  private State state = State.IDLE;
+
+  RecorderStateMachine(Recorder recorder, Callbacks callbacks, Executor recorderThread,
+      Executor callbackThread) {
+    this.recorder = recorder;
+    this.callbacks = callbacks;
+    this.recorderThread = recorderThread;
+    this.callbackThread = callbackThread;
+  }
+
+  /** Prepare the recorder without starting it. */
+  void prepare() {
+    recorderThread.execute(new Runnable() {
+      @Override public void run() {
+        handlePrepare();
+      }
+    });
+  }
+
+  /** Start recording, first preparing if that was not already requested. */
+  void start() {
+    recorderThread.execute(new Runnable() {
+      @Override public void run() {
+        handlePrepare();
+        if (state == State.PREPARED) {
+          recorderThread.execute(new Runnable() {
+            @Override public void run() {
+              handleStart();
+            }
+          });
+        }
+      }
+    });
+  }
+
+  void stop() {
+    recorderThread.execute(new Runnable() {
+      @Override public void run() {
+        handleStop();
+      }
+    });
+  }
+
+  /** Stop if needed and refuse all further requests. */
+  void destroy() {
+    recorderThread.execute(new Runnable() {
+      @Override public void run() {
+        if (state != State.IDLE) {
+          handleStop();
+        }
+        state = State.DESTROYED;
+      }
+    });
+  }
+
+  /** The current state. Only meaningful on the recorder thread. */
+  State state() {
+    return state;
+  }
+
+  private void handlePrepare() {
+    if (state != State.IDLE) {
+      return;
+    }
+    state = State.PREPARING;
+    try {
+      recorder.prepare();
+    } catch (Exception e) {
+      fail(e);
+      return;
+    }
+    state = State.PREPARED;
+  }
+
+  private void handleStart() {
+    if (state != State.PREPARED) {
+      return; // Stopped before starting.
+    }
+    try {
+      recorder.start();
+    } catch (Exception e) {
+      fail(e);
+      return;
+    }
+    state = State.RECORDING;
+    callbackThread.execute(new Runnable() {
+      @Override public void run() {
+        callbacks.onStarted();
+      }
+    });
+  }
+
+  private void handleStop() {
+    switch (state) {
+      case IDLE:
+        state = State.STOPPED;
+        postStopped(false);
+        break;
+      case PREPARED:
+        recorder.release();
+        state = State.STOPPED;
+        postStopped(false);
+        break;
+      case RECORDING:
+        try {
+          recorder.stop();
+        } catch (Exception e) {
+          fail(e);
+          return;
+        }
+        recorder.release();
+        state = State.STOPPED;
+        postStopped(true);
+        break;
+      case PREPARING: // Unreachable: preparing completes within a single message.
+      case STOPPED:
+      case DESTROYED:
+        break;
+      default:
+        throw new AssertionError(state);
+    }
+  }
+
+  private void fail(final Throwable t) {
+    recorder.release();
+    state = State.STOPPED;
+    callbackThread.execute(new Runnable() {
+      @Override public void run() {
+        callbacks.onError(t);
+      }
+    });
+    postStopped(false);
+  }
+
+  private void postStopped(final boolean recorded) {
+    callbackThread.execute(new Runnable() {
+      @Override public void run() {
+        callbacks.onStopped(recorded);
+      }
+    });
+  }
+}
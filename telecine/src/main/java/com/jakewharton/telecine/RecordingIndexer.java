@@ -0,0 +1,51 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Builds a {@link FrameIndex} for each finished recording which does not have an up-to-date one
+ * and deletes the indexes of recordings which no longer exist. Run after
+ * {@link RecordingRecovery} so that recovered recordings are indexed in their final form.
+ */
+final class RecordingIndexer implements Runnable {
+  private final File directory;
+  /** Recordings modified after this may still be in progress. */
+  private final long startedMillis;
+
+  RecordingIndexer(File directory) {
+    this.directory = directory;
+    this.startedMillis = System.currentTimeMillis();
+  }
+
+  @Override public void run() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return; // No directory or no permission to read it.
+    }
+    long startNanos = System.nanoTime();
+    int indexed = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(FrameIndex.SUFFIX)) {
+        String recording = name.substring(0, name.length() - FrameIndex.SUFFIX.length());
+        if (!new File(directory, recording).exists() && !file.delete()) {
+          Timber.w("Unable to delete orphaned index '%s'.", file);
+        }
+      } else if (name.endsWith(".mp4")
+          && file.lastModified() < startedMillis
+          && !RecordingSidecar.fileFor(file).exists()) {
+        try {
+          FrameIndex.load(file, 0);
+          indexed++;
+        } catch (IOException | RuntimeException e) {
+          Timber.w(e, "Unable to index '%s'.", file);
+        }
+      }
+    }
+    Timber.d("Checked the indexes of %s recordings in %sms.", indexed,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+}
@@ -0,0 +1,48 @@
+package com.jakewharton.telecine;
+
+/** The size, frame rate, and density at which the screen will be recorded. */
+final class RecordingInfo {
+  final int width;
+  final int height;
+  final int frameRate;
+  final int density;
+
+  RecordingInfo(int width, int height, int frameRate, int density) {
+    this.width = width;
+    this.height = height;
+    this.frameRate = frameRate;
+    this.density = density;
+  }
+
+  /**
+   * Fit the display into the best camera profile size on the assumption that the encoder
+   * supports at least that. Only used when {@link ResolutionSolver} cannot find a size.
+   */
+  static RecordingInfo calculate(int displayWidth, int displayHeight, int displayDensity,
+      boolean isLandscapeDevice, int cameraWidth, int cameraHeight, int cameraFrameRate,
+      int sizePercentage) {
+    // Scale the display size before any maximum size calculations.
+    displayWidth = displayWidth * sizePercentage / 100;
+    displayHeight = displayHeight * sizePercentage / 100;
+
+    if (cameraWidth == -1 && cameraHeight == -1) {
+      // No cameras. Fall back to the display size.
+      return new RecordingInfo(displayWidth, displayHeight, cameraFrameRate, displayDensity);
+    }
+
+    int frameWidth = isLandscapeDevice ? cameraWidth : cameraHeight;
+    int frameHeight = isLandscapeDevice ? cameraHeight : cameraWidth;
+    if (frameWidth >= displayWidth && frameHeight >= displayHeight) {
+      // Frame can hold the entire display. Use exact values.
+      return new RecordingInfo(displayWidth, displayHeight, cameraFrameRate, displayDensity);
+    }
+
+    // Calculate new width or height to preserve aspect ratio.
+    if (isLandscapeDevice) {
+      frameWidth = displayWidth * frameHeight / displayHeight;
+    } else {
+      frameHeight = displayHeight * frameWidth / displayWidth;
+    }
+    return new RecordingInfo(frameWidth, frameHeight, cameraFrameRate, displayDensity);
+  }
+}
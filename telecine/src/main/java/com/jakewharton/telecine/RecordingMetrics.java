@@ -0,0 +1,207 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms describing how a single recording performed. Updated from the
+ * encoder thread without locking and read once the recording has stopped.
+ *
+ * <p>Encode latency is the time from a frame's capture timestamp to its encoded output being
+ * dequeued, so it covers both the compositor and the encoder. Write latency is the time taken
+ * by the output sink and isolates storage. The interval between frames shows how steadily the
+ * virtual display delivered them. Changes of {@link ThrottlePolicy} tier are logged with the
+ * time they took effect.
+ */
+final class RecordingMetrics {
+  /** Frames whose encode latency exceeds this many frame intervals are counted as late. */
+  static final int LATE_FRAME_INTERVALS = 3;
+
+  final LatencyHistogram encodeLatency = new LatencyHistogram();
+  final LatencyHistogram writeLatency = new LatencyHistogram();
+  final LatencyHistogram frameInterval = new LatencyHistogram();
+
+  private final long lateThresholdUs;
+  private final AtomicLong framesEncoded = new AtomicLong();
+  private final AtomicLong framesLate = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+  private final AtomicLong bytesEncoded = new AtomicLong();
+  private final AtomicLong peakBytesPerSecond = new AtomicLong();
+  /** Guarded by itself. */
+  private final List<ThrottleChange> throttleChanges = new ArrayList<>();
+
+  // Only touched by the single thread calling frameEncoded.
+  private long lastPresentationTimeUs = -1;
+  private long firstPresentationTimeUs = -1;
+  private long windowStartUs;
+  private long windowBytes;
+
+  RecordingMetrics(int frameRate) {
+    lateThresholdUs = LATE_FRAME_INTERVALS * TimeUnit.SECONDS.toMicros(1) / frameRate;
+  }
+
+  /**
+   * Record an encoded frame captured at {@code presentationTimeUs}, dequeued at
+   * {@code dequeueTimeUs} on the same clock, which took {@code writeUs} to write.
+   */
+  void frameEncoded(long presentationTimeUs, long dequeueTimeUs, long writeUs, int size) {
+    framesEncoded.incrementAndGet();
+    bytesEncoded.addAndGet(size);
+
+    long latencyUs = dequeueTimeUs - presentationTimeUs;
+    encodeLatency.record(latencyUs);
+    if (latencyUs > lateThresholdUs) {
+      framesLate.incrementAndGet();
+    }
+    writeLatency.record(writeUs);
+
+    if (lastPresentationTimeUs == -1) {
+      firstPresentationTimeUs = presentationTimeUs;
+      windowStartUs = presentationTimeUs;
+    } else {
+      frameInterval.record(presentationTimeUs - lastPresentationTimeUs);
+    }
+    lastPresentationTimeUs = presentationTimeUs;
+
+    if (presentationTimeUs - windowStartUs >= TimeUnit.SECONDS.toMicros(1)) {
+      updatePeak(windowBytes);
+      windowStartUs = presentationTimeUs;
+      windowBytes = 0;
+    }
+    windowBytes += size;
+  }
+
+  /** Record a frame which was encoded but discarded before reaching the output. */
+  void frameDropped() {
+    framesDropped.incrementAndGet();
+  }
+
+  /**
+   * Record that the throttle moved to {@code tier} at {@code timeUs}, on the same clock as
+   * presentation times, because of the given temperature and battery level. Either may be
+   * {@link ThrottlePolicy#UNKNOWN}.
+   */
+  void throttleChanged(long timeUs, int tier, int temperatureTenths, int batteryPercent) {
+    synchronized (throttleChanges) {
+      throttleChanges.add(new ThrottleChange(timeUs, tier, temperatureTenths, batteryPercent));
+    }
+  }
+
+  private void updatePeak(long bytes) {
+    long current;
+    while (bytes > (current = peakBytesPerSecond.get())) {
+      if (peakBytesPerSecond.compareAndSet(current, bytes)) {
+        break;
+      }
+    }
+  }
+
+  long framesEncoded() {
+    return framesEncoded.get();
+  }
+
+  long framesLate() {
+    return framesLate.get();
+  }
+
+  long framesDropped() {
+    return framesDropped.get();
+  }
+
+  long bytesEncoded() {
+    return bytesEncoded.get();
+  }
+
+  /** Capture time of the first encoded frame, on the presentation clock. -1 if there was none. */
+  long firstPresentationTimeUs() {
+    return firstPresentationTimeUs;
+  }
+
+  /** Time spanned by the encoded frames. */
+  long durationUs() {
+    return lastPresentationTimeUs == -1 ? 0 : lastPresentationTimeUs - firstPresentationTimeUs;
+  }
+
+  long meanBytesPerSecond() {
+    long durationUs = durationUs();
+    if (durationUs == 0) {
+      return bytesEncoded.get();
+    }
+    return bytesEncoded.get() * TimeUnit.SECONDS.toMicros(1) / durationUs;
+  }
+
+  /** The most bytes encoded in any one second window. Includes the final partial window. */
+  long peakBytesPerSecond() {
+    return Math.max(peakBytesPerSecond.get(), windowBytes);
+  }
+
+  void writeJson(Writer writer) throws IOException {
+    writer.write("{\n");
+    writer.write(String.format(Locale.US, "  \"framesEncoded\": %d,\n", framesEncoded()));
+    writer.write(String.format(Locale.US, "  \"framesLate\": %d,\n", framesLate()));
+    writer.write(String.format(Locale.US, "  \"framesDropped\": %d,\n", framesDropped()));
+    writer.write(String.format(Locale.US, "  \"durationUs\": %d,\n", durationUs()));
+    writer.write(String.format(Locale.US, "  \"bytesEncoded\": %d,\n", bytesEncoded()));
+    writer.write(String.format(Locale.US, "  \"meanBytesPerSecond\": %d,\n",
+        meanBytesPerSecond()));
+    writer.write(String.format(Locale.US, "  \"peakBytesPerSecond\": %d,\n",
+        peakBytesPerSecond()));
+    writeHistogram(writer, "encodeLatencyUs", encodeLatency);
+    writer.write(",\n");
+    writeHistogram(writer, "writeLatencyUs", writeLatency);
+    writer.write(",\n");
+    writeHistogram(writer, "frameIntervalUs", frameInterval);
+    writer.write(",\n");
+    writeThrottleChanges(writer);
+    writer.write("\n}\n");
+  }
+
+  private void writeThrottleChanges(Writer writer) throws IOException {
+    writer.write("  \"throttle\": [");
+    synchronized (throttleChanges) {
+      for (int i = 0; i < throttleChanges.size(); i++) {
+        ThrottleChange change = throttleChanges.get(i);
+        String temperature = change.temperatureTenths == ThrottlePolicy.UNKNOWN ? "null"
+            : String.format(Locale.US, "%.1f", change.temperatureTenths / 10f);
+        String battery = change.batteryPercent == ThrottlePolicy.UNKNOWN ? "null"
+            : String.valueOf(change.batteryPercent);
+        writer.write(i == 0 ? "\n" : ",\n");
+        writer.write(String.format(Locale.US,
+            "    {\"timeUs\": %d, \"tier\": %d, \"temperature\": %s, \"battery\": %s}",
+            change.timeUs, change.tier, temperature, battery));
+      }
+      if (!throttleChanges.isEmpty()) {
+        writer.write("\n  ");
+      }
+    }
+    writer.write("]");
+  }
+
+  private static void writeHistogram(Writer writer, String name, LatencyHistogram histogram)
+      throws IOException {
+    writer.write(String.format(Locale.US,
+        "  \"%s\": {\"count\": %d, \"mean\": %d, \"p50\": %d, \"p95\": %d, \"p99\": %d, "
+            + "\"max\": %d}", name, histogram.count(), histogram.meanUs(),
+        histogram.percentileUs(50), histogram.percentileUs(95), histogram.percentileUs(99),
+        histogram.maxUs()));
+  }
+
+  private static final class ThrottleChange {
+    final long timeUs;
+    final int tier;
+    final int temperatureTenths;
+    final int batteryPercent;
+
+    ThrottleChange(long timeUs, int tier, int temperatureTenths, int batteryPercent) {
+      this.timeUs = timeUs;
+      this.tier = tier;
+      this.temperatureTenths = temperatureTenths;
+      this.batteryPercent = batteryPercent;
+    }
+  }
+}
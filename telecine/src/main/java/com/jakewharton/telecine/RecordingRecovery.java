@@ -0,0 +1,81 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Finds recordings which were never finished, because the encoder failed or the process was
+ * killed, and rebuilds them with {@link Mp4Recovery}. Such recordings are the ones whose
+ * {@link RecordingSidecar} was never deleted.
+ */
+final class RecordingRecovery implements Runnable {
+  private final Context context;
+  private final File directory;
+  /** Recordings modified after this may still be in progress. */
+  private final long startedMillis;
+
+  RecordingRecovery(Context context, File directory) {
+    this.context = context.getApplicationContext();
+    this.directory = directory;
+    this.startedMillis = System.currentTimeMillis();
+  }
+
+  @Override public void run() {
+    File[] sidecars = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.getName().endsWith(RecordingSidecar.SUFFIX);
+      }
+    });
+    if (sidecars == null) {
+      return; // No directory or no permission to read it.
+    }
+    for (File sidecar : sidecars) {
+      File recording = RecordingSidecar.recordingFor(sidecar);
+      if (recording.lastModified() >= startedMillis) {
+        continue;
+      }
+      try {
+        recover(recording, sidecar);
+      } catch (IOException | RuntimeException e) {
+        Timber.w(e, "Unable to recover '%s'. Keeping it as is.", recording);
+      }
+      if (!sidecar.delete()) {
+        Timber.w("Unable to delete recovery sidecar '%s'.", sidecar);
+      }
+    }
+  }
+
+  private void recover(File recording, File sidecar) throws IOException {
+    if (!recording.exists()) {
+      return;
+    }
+    boolean needsRecovery;
+    RandomAccessFile input = new RandomAccessFile(recording, "r");
+    try {
+      needsRecovery = Mp4Recovery.needsRecovery(input.getChannel());
+    } finally {
+      input.close();
+    }
+    if (needsRecovery) {
+      long startNanos = System.nanoTime();
+      Mp4Recovery.Result result = Mp4Recovery.recover(recording, RecordingSidecar.read(sidecar));
+      Timber.i("Recovered '%s' in %sms: %s", recording,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), result);
+    } else if (recording.length() == 0) {
+      // Prepared but never started.
+      if (!recording.delete()) {
+        Timber.w("Unable to delete empty recording '%s'.", recording);
+      }
+      return;
+    }
+    // Fragmented recordings are playable as they are but were never added to the media store.
+    MediaScannerConnection.scanFile(context, new String[] { recording.getAbsolutePath() }, null,
+        null);
+  }
+}
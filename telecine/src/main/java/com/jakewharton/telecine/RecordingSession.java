@@ -1,8 +1,10 @@
 package com.jakewharton.telecine;
 
+import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -10,7 +12,6 @@ import android.graphics.Bitmap;
 import android.hardware.display.VirtualDisplay;
 import android.media.CamcorderProfile;
 import android.media.MediaMetadataRetriever;
-import android.media.MediaRecorder;
 import android.media.MediaScannerConnection;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
@@ -18,25 +19,39 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.StatFs;
+import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
 import android.util.DisplayMetrics;
 import android.view.Surface;
 import android.view.WindowManager;
 import android.widget.Toast;
 import com.google.android.gms.analytics.HitBuilders;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 import timber.log.Timber;
 
 import static android.app.PendingIntent.FLAG_CANCEL_CURRENT;
+import static android.content.Context.ACTIVITY_SERVICE;
 import static android.content.Context.MEDIA_PROJECTION_SERVICE;
 import static android.content.Context.NOTIFICATION_SERVICE;
 import static android.content.Context.WINDOW_SERVICE;
@@ -44,22 +59,37 @@ import static android.content.Intent.ACTION_SEND;
 import static android.content.Intent.ACTION_VIEW;
 import static android.content.res.Configuration.ORIENTATION_LANDSCAPE;
 import static android.hardware.display.DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
-import static android.media.MediaRecorder.OutputFormat.MPEG_4;
-import static android.media.MediaRecorder.VideoEncoder.H264;
-import static android.media.MediaRecorder.VideoSource.SURFACE;
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.M;
 import static android.os.Environment.DIRECTORY_MOVIES;
+import static android.widget.Toast.LENGTH_LONG;
 import static android.widget.Toast.LENGTH_SHORT;
 
 final class RecordingSession {
   static final int NOTIFICATION_ID = 522592;
 
   private static final String DISPLAY_NAME = "telecine";
-  private static final String MIME_TYPE = "video/mp4";
+  static final String MIME_TYPE = "video/mp4";
+  private static final long REPLAY_WINDOW_US = TimeUnit.SECONDS.toMicros(30);
+  /** Limits on each file when splitting long recordings. */
+  private static final long SEGMENT_DURATION_US = TimeUnit.MINUTES.toMicros(10);
+  private static final long SEGMENT_MAX_BYTES = 1024L * 1024 * 1024;
+  /** Upper bound on the frame rate requested from the encoder regardless of the display. */
+  private static final int MAX_FRAME_RATE = 60;
+  private static final String METRICS_SUFFIX = ".metrics.json";
+  /** Space left for the system and other apps. */
+  private static final long DISK_RESERVE_BYTES = 64L * 1024 * 1024;
+  private static final long DISK_WARN_US = TimeUnit.MINUTES.toMicros(2);
+  private static final long DISK_STOP_US = TimeUnit.SECONDS.toMicros(15);
+  private static final long DISK_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+  /** Limit on parallel setup. Generous since it normally overlaps with the countdown. */
+  private static final long PREPARE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
 
   interface Listener {
-    /** Invoked before {@link #onStart()} to prepare UI before recording. */
+    /**
+     * Invoked on a background thread as soon as start is clicked, in parallel with preparing
+     * the recorder, to prepare UI before recording. Must finish within the prepare deadline.
+     */
     void onPrepare();
 
     /** Invoked immediately prior to the start of recording. */
@@ -68,20 +98,44 @@ final class RecordingSession {
     /** Invoked immediately after the end of recording. */
     void onStop();
 
+    /** Invoked periodically while recording with the time left before the disk fills. */
+    void onSpaceRemaining(long remainingMs);
+
     /** Invoked after all work for this session has completed. */
     void onEnd();
   }
 
   private final Handler mainThread = new Handler(Looper.getMainLooper());
+  private final HandlerThread recorderThread = new HandlerThread("Telecine-Recorder");
+  private final Handler recorderHandler;
+  private final ExecutorService prepareExecutor = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        @Override public Thread newThread(@NonNull Runnable runnable) {
+          return new Thread(runnable, "Telecine-Prepare");
+        }
+      });
+  private final RecorderStateMachine stateMachine;
 
   private final Context context;
   private final Listener listener;
   private final int resultCode;
   private final Intent data;
+  /**
+   * The previous take's capture when one was kept, and the one to hand on to the next take when
+   * recording multiple takes. Owned by the recorder thread until the session ends.
+   */
+  @Nullable private volatile KeptCapture capture;
+  private boolean cancelled;
 
   private final Analytics analytics;
   private final Provider<Boolean> showCountDown;
   private final Provider<Integer> videoSizePercentage;
+  private final Provider<Boolean> instantReplay;
+  private final Provider<Integer> videoQuality;
+  private final Provider<Boolean> splitRecordings;
+  private final Provider<Boolean> multiTake;
+  private final Provider<Integer> frameRateCap;
+  private final Provider<Boolean> variableFrameRate;
 
   private final File outputRoot;
   private final DateFormat fileFormat =
@@ -92,30 +146,85 @@ final class RecordingSession {
   private final MediaProjectionManager projectionManager;
 
   private OverlayView overlayView;
-  private MediaRecorder recorder;
-  private MediaProjection projection;
-  private VirtualDisplay display;
-  private String outputFile;
   private boolean running;
+  private long startRequestedNanos;
   private long recordingStartNanos;
+  private long stopRequestedNanos;
+  /** Frames captured before the recording was reported started. Trimmed along with the head. */
+  private long startupUs;
 
-  RecordingSession(Context context, Listener listener, int resultCode, Intent data,
-      Analytics analytics, Provider<Boolean> showCountDown, Provider<Integer> videoSizePercentage) {
+  // Written on the recorder thread. Callbacks observe them through the main thread handoff.
+  private CaptureBackend backend;
+  private RecordingMetrics metrics;
+  private MediaProjection projection;
+  private VirtualDisplay display;
+  private Surface surface;
+  @Nullable private FrameRelay relay;
+  /** The cap the relay was created with, or 0 for none. */
+  private int relayFrameRate;
+  @Nullable private ThrottlePolicy throttlePolicy;
+  private ThumbnailTap thumbnailTap;
+  private Bitmap thumbnail;
+  private Bitmap thumbnailIcon;
+  private RecordingInfo recordingInfo;
+  /** The size being captured. Smaller than {@link #recordingInfo} while the encoder is resized. */
+  private RecordingInfo captureInfo;
+  @Nullable private Segmenter segmenter;
+  private String outputFile;
+  private Uri outputUri;
+  private boolean replaying;
+  private DiskBudget diskBudget;
+  /**
+   * Whether finishing the file copies it, which needs as much space again. Only MediaRecorder
+   * output does, to move its moov to the front.
+   */
+  private volatile boolean finishCopiesFile;
+  private long prepareNanos;
+
+  /**
+   * @param capture The capture kept by the previous take, in which case {@code resultCode} and
+   * {@code data} are not used.
+   */
+  RecordingSession(Context context, Listener listener, int resultCode, @Nullable Intent data,
+      @Nullable KeptCapture capture, Analytics analytics, Provider<Boolean> showCountDown,
+      Provider<Integer> videoSizePercentage, Provider<Boolean> instantReplay,
+      Provider<Integer> videoQuality, Provider<Boolean> splitRecordings,
+      Provider<Boolean> multiTake, Provider<Integer> frameRateCap,
+      Provider<Boolean> variableFrameRate) {
     this.context = context;
     this.listener = listener;
     this.resultCode = resultCode;
     this.data = data;
+    this.capture = capture;
     this.analytics = analytics;
 
     this.showCountDown = showCountDown;
     this.videoSizePercentage = videoSizePercentage;
+    this.instantReplay = instantReplay;
+    this.videoQuality = videoQuality;
+    this.splitRecordings = splitRecordings;
+    this.multiTake = multiTake;
+    this.frameRateCap = frameRateCap;
+    this.variableFrameRate = variableFrameRate;
 
-    File picturesDir = Environment.getExternalStoragePublicDirectory(DIRECTORY_MOVIES);
-    outputRoot = new File(picturesDir, "Telecine");
+    outputRoot = outputRoot();
 
     notificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
     windowManager = (WindowManager) context.getSystemService(WINDOW_SERVICE);
     projectionManager = (MediaProjectionManager) context.getSystemService(MEDIA_PROJECTION_SERVICE);
+
+    recorderThread.start();
+    recorderHandler = new Handler(recorderThread.getLooper());
+    stateMachine = new RecorderStateMachine(new Recorder(), new RecorderCallbacks(),
+        handlerExecutor(recorderHandler), handlerExecutor(mainThread));
+  }
+
+  private static Executor handlerExecutor(final Handler handler) {
+    return new Executor() {
+      @Override public void execute(@NonNull Runnable runnable) {
+        handler.post(runnable);
+      }
+    };
   }
 
   void showOverlay() {
@@ -127,7 +236,7 @@ final class RecordingSession {
       }
 
       @Override public void onPrepare() {
-        listener.onPrepare();
+        prepareRecording();
       }
 
       @Override public void onStart() {
@@ -145,10 +254,7 @@ final class RecordingSession {
     overlayView = OverlayView.create(context, overlayListener, showCountDown.get());
     windowManager.addView(overlayView, OverlayView.createLayoutParams(context));
 
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_RECORDING)
-        .setAction(Analytics.ACTION_OVERLAY_SHOW)
-        .build());
+    analytics.send(AnalyticsEvents.OVERLAY_SHOW);
   }
 
   private void hideOverlay() {
@@ -157,24 +263,20 @@ final class RecordingSession {
       windowManager.removeView(overlayView);
       overlayView = null;
 
-      analytics.send(new HitBuilders.EventBuilder() //
-          .setCategory(Analytics.CATEGORY_RECORDING)
-          .setAction(Analytics.ACTION_OVERLAY_HIDE)
-          .build());
+      analytics.send(AnalyticsEvents.OVERLAY_HIDE);
     }
   }
 
   private void cancelOverlay() {
     hideOverlay();
+    // Cancelling also ends a multi-take session. The capture is released on destroy.
+    cancelled = true;
     listener.onEnd();
 
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_RECORDING)
-        .setAction(Analytics.ACTION_OVERLAY_CANCEL)
-        .build());
+    analytics.send(AnalyticsEvents.OVERLAY_CANCEL);
   }
 
-  private RecordingInfo getRecordingInfo() {
+  private RecordingInfo getRecordingInfo(List<EncoderCapabilities> encoders) {
     DisplayMetrics displayMetrics = new DisplayMetrics();
     WindowManager wm = (WindowManager) context.getSystemService(WINDOW_SERVICE);
     wm.getDefaultDisplay().getRealMetrics(displayMetrics);
@@ -187,135 +289,780 @@ final class RecordingSession {
     boolean isLandscape = configuration.orientation == ORIENTATION_LANDSCAPE;
     Timber.d("Display landscape: %s", isLandscape);
 
+    int sizePercentage = videoSizePercentage.get();
+    Timber.d("Size percentage: %s", sizePercentage);
+
+    int refreshRate = Math.round(wm.getDefaultDisplay().getRefreshRate());
+    int cap = frameRateCap.get();
+    Timber.d("Refresh rate: %s, frame rate cap: %s", refreshRate, cap);
+    int frameRate = Math.min(refreshRate, MAX_FRAME_RATE);
+    if (cap > 0) {
+      frameRate = Math.min(frameRate, cap);
+    }
+    RecordingInfo solved = ResolutionSolver.solve(encoders, displayWidth, displayHeight,
+        displayDensity, frameRate, sizePercentage);
+    if (solved != null) {
+      return solved;
+    }
+    Timber.w("No encoder can record the display. Falling back to camera profile.");
+
     // Get the best camera profile available. We assume MediaRecorder supports the highest.
     CamcorderProfile camcorderProfile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
     int cameraWidth = camcorderProfile != null ? camcorderProfile.videoFrameWidth : -1;
     int cameraHeight = camcorderProfile != null ? camcorderProfile.videoFrameHeight : -1;
     int cameraFrameRate = camcorderProfile != null ? camcorderProfile.videoFrameRate : 30;
+    if (cap > 0) {
+      cameraFrameRate = Math.min(cameraFrameRate, cap);
+    }
     Timber.d("Camera size: %s x %s framerate: %s", cameraWidth, cameraHeight, cameraFrameRate);
 
-    int sizePercentage = videoSizePercentage.get();
-    Timber.d("Size percentage: %s", sizePercentage);
-
-    return calculateRecordingInfo(displayWidth, displayHeight, displayDensity, isLandscape,
+    return RecordingInfo.calculate(displayWidth, displayHeight, displayDensity, isLandscape,
         cameraWidth, cameraHeight, cameraFrameRate, sizePercentage);
   }
 
+  /** Arm the recorder while the overlay counts down. */
+  private void prepareRecording() {
+    Timber.d("Preparing screen recording...");
+    stateMachine.prepare();
+  }
+
   private void startRecording() {
     Timber.d("Starting screen recording...");
+    startRequestedNanos = System.nanoTime();
+    stateMachine.start();
+  }
 
-    if (!outputRoot.exists() && !outputRoot.mkdirs()) {
-      Timber.e("Unable to create output directory '%s'.", outputRoot.getAbsolutePath());
-      Toast.makeText(context, "Unable to create output directory.\nCannot record screen.",
-          LENGTH_SHORT).show();
-      return;
-    }
-
-    RecordingInfo recordingInfo = getRecordingInfo();
-    Timber.d("Recording: %s x %s @ %s", recordingInfo.width, recordingInfo.height,
-        recordingInfo.density);
-
-    recorder = new MediaRecorder();
-    recorder.setVideoSource(SURFACE);
-    recorder.setOutputFormat(MPEG_4);
-    recorder.setVideoFrameRate(recordingInfo.frameRate);
-    recorder.setVideoEncoder(H264);
-    recorder.setVideoSize(recordingInfo.width, recordingInfo.height);
-    recorder.setVideoEncodingBitRate(8 * 1000 * 1000);
+  /** The directory into which recordings are written. */
+  static File outputRoot() {
+    File picturesDir = Environment.getExternalStoragePublicDirectory(DIRECTORY_MOVIES);
+    return new File(picturesDir, "Telecine");
+  }
 
-    String outputName = fileFormat.format(new Date());
-    outputFile = new File(outputRoot, outputName).getAbsolutePath();
-    Timber.i("Output file '%s'.", outputFile);
-    recorder.setOutputFile(outputFile);
+  /** Bytes available in the output directory, or -1 if unknown. */
+  private long freeBytes() {
+    try {
+      return new StatFs(outputRoot.getPath()).getAvailableBytes();
+    } catch (IllegalArgumentException e) {
+      Timber.w(e, "Unable to read free space of '%s'.", outputRoot);
+      return -1;
+    }
+  }
 
+  /** Prepare the MediaCodec backend, falling back to MediaRecorder if it cannot be used. */
+  private Surface prepareBackend(List<EncoderCapabilities> encoders,
+      RecordingInfo recordingInfo) throws IOException {
+    int quality = videoQuality.get();
+    metrics = new RecordingMetrics(recordingInfo.frameRate);
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(ACTIVITY_SERVICE);
+    long replayBudget = ReplayBudget.bytes(activityManager.getMemoryClass(),
+        activityManager.isLowRamDevice());
+    if (replaying
+        && ReplayBudget.maxBitRate(REPLAY_WINDOW_US, replayBudget) < BitratePlanner.MIN_BIT_RATE) {
+      Timber.w("Not enough memory for instant replay. Recording everything instead.");
+      replaying = false;
+    }
+    backend = new MediaCodecBackend(encoders, replaying ? REPLAY_WINDOW_US : 0, replayBudget,
+        quality, metrics, segmenter);
     try {
-      recorder.prepare();
+      Surface surface = backend.prepare(recordingInfo, outputFile);
+      finishCopiesFile = false; // Fragmented output is finished where it stands.
+      return surface;
     } catch (IOException e) {
-      throw new RuntimeException("Unable to prepare MediaRecorder.", e);
+      Timber.w(e, "Unable to prepare MediaCodec. Falling back to MediaRecorder.");
+      backend.release();
     }
 
-    projection = projectionManager.getMediaProjection(resultCode, data);
+    if (replaying) {
+      Timber.w("Instant replay requires MediaCodec. Recording everything instead.");
+      replaying = false;
+    }
 
-    Surface surface = recorder.getSurface();
-    display =
-        projection.createVirtualDisplay(DISPLAY_NAME, recordingInfo.width, recordingInfo.height,
-            recordingInfo.density, VIRTUAL_DISPLAY_FLAG_PRESENTATION, surface, null, null);
+    backend = new MediaRecorderBackend(quality, segmenter);
+    finishCopiesFile = true; // The moov is written last and moved to the front on stop.
+    return backend.prepare(recordingInfo, outputFile);
+  }
 
-    recorder.start();
-    running = true;
-    recordingStartNanos = System.nanoTime();
-    listener.onStart();
+  /** True when the running recording is an instant replay, after any fallback to recording all. */
+  boolean isReplaying() {
+    return running && replaying;
+  }
 
-    Timber.d("Screen recording started.");
+  /** Stop an instant replay, writing out the most recent video. */
+  void saveReplay() {
+    if (!running || !replaying) {
+      Timber.w("Not recording an instant replay. Ignoring save.");
+      return;
+    }
+    stopRecording();
 
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_RECORDING)
-        .setAction(Analytics.ACTION_RECORDING_START)
-        .build());
+    analytics.send(AnalyticsEvents.REPLAY_SAVE);
   }
 
   private void stopRecording() {
     Timber.d("Stopping screen recording...");
+    stopRequestedNanos = System.nanoTime();
+    running = false;
+    hideOverlay();
+    stateMachine.stop();
+  }
+
+  /**
+   * Owns the projection, virtual display, and backend. Every method runs on the recorder thread
+   * so that slow encoder and file system calls never block the main thread.
+   */
+  private final class Recorder implements RecorderStateMachine.Recorder {
+    private long startNanos;
+
+    @Override public void prepare() throws Exception {
+      long startNanos = System.nanoTime();
+
+      final KeptCapture kept = capture;
+      if (kept != null && kept.isRevoked()) {
+        throw new IOException("Screen capture was stopped. Launch again to record.");
+      }
+      // Normally read from the cache probed when the app launched.
+      final List<EncoderCapabilities> encoders = MediaCodecBackend.encoders(context);
+
+      // Independent setup runs in parallel. Only the backend and display depend on its results.
+      PrepareOrchestrator orchestrator = new PrepareOrchestrator(prepareExecutor);
+      PrepareOrchestrator.Result<RecordingInfo> recordingInfoResult =
+          orchestrator.submit(new PrepareOrchestrator.Task<RecordingInfo>("recording info") {
+            @Override RecordingInfo run() {
+              return getRecordingInfo(encoders);
+            }
+          });
+      PrepareOrchestrator.Result<MediaProjection> projectionResult = null;
+      if (kept == null) {
+        projectionResult =
+            orchestrator.submit(new PrepareOrchestrator.Task<MediaProjection>("projection") {
+              @Override MediaProjection run() {
+                return projectionManager.getMediaProjection(resultCode, data);
+              }
 
-    if (!running) {
-      throw new IllegalStateException("Not running.");
+              @Override void abandon(MediaProjection projection) {
+                projection.stop();
+              }
+            });
+      }
+      orchestrator.submit(new PrepareOrchestrator.Task<Void>("output directory") {
+        @Override Void run() throws IOException {
+          if (!outputRoot.exists() && !outputRoot.mkdirs()) {
+            throw new IOException(
+                "Unable to create output directory '" + outputRoot.getAbsolutePath() + "'.");
+          }
+          return null;
+        }
+      });
+      orchestrator.submit(new PrepareOrchestrator.Task<Void>("listener") {
+        @Override Void run() {
+          listener.onPrepare();
+          return null;
+        }
+      });
+      orchestrator.await(PREPARE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      Timber.d("Prepare tasks: %s", orchestrator.timings());
+
+      projection = kept != null ? kept.projection : projectionResult.get();
+      recordingInfo = recordingInfoResult.get();
+      Timber.d("Recording: %s x %s @ %s", recordingInfo.width, recordingInfo.height,
+          recordingInfo.density);
+
+      int bitRate = BitratePlanner.plan(recordingInfo.width, recordingInfo.height,
+          recordingInfo.frameRate, videoQuality.get());
+      diskBudget = new DiskBudget(bitRate, DISK_RESERVE_BYTES, DISK_WARN_US, DISK_STOP_US);
+      long freeBytes = freeBytes();
+      if (freeBytes != -1 && !diskBudget.canStart(freeBytes)) {
+        throw new IOException("Not enough free space. "
+            + freeBytes / (1024 * 1024) + "MB available.");
+      }
+
+      File output = new File(outputRoot, fileFormat.format(new Date()));
+      replaying = instantReplay.get();
+      if (splitRecordings.get() && !replaying) {
+        segmenter = new Segmenter(output, recordingInfo, SEGMENT_DURATION_US, SEGMENT_MAX_BYTES,
+            new SegmentCallback(), Executors.newSingleThreadExecutor(new ThreadFactory() {
+              @Override public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, "Telecine-Segments");
+              }
+            }));
+        output = segmenter.current();
+      }
+      outputFile = output.getAbsolutePath();
+      Timber.i("Output file '%s'.", outputFile);
+      try {
+        RecordingSidecar.write(new File(outputFile), recordingInfo);
+      } catch (IOException e) {
+        Timber.w(e, "Unable to write recovery sidecar. Recording will not be recoverable.");
+      }
+
+      surface = prepareBackend(encoders, recordingInfo);
+      captureInfo = recordingInfo;
+      if (backend instanceof MediaCodecBackend && segmenter != null) {
+        // Each encoder size gets its own segment, so only split recordings can be resized.
+        ((MediaCodecBackend) backend).setResizer(new MediaCodecBackend.Resizer() {
+          @Override public void resize(final int percent) {
+            recorderHandler.post(new Runnable() {
+              @Override public void run() {
+                resizeEncoder(percent);
+              }
+            });
+          }
+        });
+      }
+      int cap = frameRateCap.get();
+      boolean skipUnchanged = variableFrameRate.get();
+      if (cap > 0 || skipUnchanged) {
+        relayFrameRate = cap > 0 ? recordingInfo.frameRate : 0;
+        try {
+          relay = FrameRelay.create(surface, recordingInfo, relayFrameRate, skipUnchanged);
+          surface = relay.inputSurface();
+        } catch (RuntimeException e) {
+          Timber.w(e, "Unable to relay frames. Recording every frame.");
+        }
+      }
+
+      if (kept != null) {
+        kept.resize(recordingInfo);
+        display = kept.display;
+      } else {
+        // The display is created without a surface so nothing is drawn until recording starts.
+        display =
+            projection.createVirtualDisplay(DISPLAY_NAME, recordingInfo.width,
+                recordingInfo.height, recordingInfo.density, VIRTUAL_DISPLAY_FLAG_PRESENTATION,
+                null, null, null);
+        if (multiTake.get()) {
+          capture = new KeptCapture(projection, display, recordingInfo);
+        }
+      }
+
+      try {
+        thumbnailTap = ThumbnailTap.create(projection, recordingInfo, recorderHandler);
+      } catch (RuntimeException e) {
+        Timber.w(e, "Unable to tap frames. Thumbnail will be decoded from the recording.");
+      }
+
+      prepareNanos = System.nanoTime() - startNanos;
+      Timber.d("Screen recording prepared in %sms.", TimeUnit.NANOSECONDS.toMillis(prepareNanos));
     }
-    running = false;
 
-    hideOverlay();
+    /**
+     * Replace the encoder with one at {@code percent} of the recording's size. The display stops
+     * drawing while the old encoder drains, leaving a short gap, then draws at the new size.
+     */
+    private void resizeEncoder(int percent) {
+      if (stateMachine.state() != RecorderStateMachine.State.RECORDING) {
+        return; // Stopping. The display may already be detached or released.
+      }
+      MediaCodecBackend codecBackend = (MediaCodecBackend) backend;
+      MediaCodecBackend.Resize resize;
+      try {
+        resize = codecBackend.prepareResize(percent);
+      } catch (IOException e) {
+        Timber.w(e, "Unable to resize encoder. Keeping its size.");
+        return;
+      }
 
-    boolean propagate = false;
-    try {
-      // Stop the projection in order to flush everything to the recorder.
-      projection.stop();
-      // Stop the recorder which writes the contents to the file.
-      recorder.stop();
+      // Nothing may draw into the old encoder once its input ends.
+      display.setSurface(null);
+      if (relay != null) {
+        relay.finish();
+        try {
+          relay.setOutput(resize.surface, resize.info);
+        } catch (RuntimeException e) {
+          Timber.w(e, "Unable to relay frames to the resized encoder. Recording every frame.");
+          relay.release();
+          relay = null;
+        }
+      }
+      codecBackend.finishResize();
+
+      captureInfo = resize.info;
+      surface = relay != null ? relay.inputSurface() : resize.surface;
+      if (capture != null) {
+        // The next take restores the kept display to its own size.
+        capture.resize(captureInfo);
+      } else {
+        display.resize(captureInfo.width, captureInfo.height, captureInfo.density);
+      }
+      display.setSurface(surface);
+      Timber.i("Encoder resized to %s x %s.", captureInfo.width, captureInfo.height);
+    }
+
+    @Override public void start() {
+      backend.start();
+      display.setSurface(surface);
+      startNanos = System.nanoTime();
+      if (!replaying) {
+        // Instant replays only write when saved.
+        recorderHandler.postDelayed(checkDisk, DISK_CHECK_INTERVAL_MS);
+      }
+      if (backend instanceof MediaCodecBackend) {
+        // MediaRecorder cannot change its bit rate once started.
+        throttlePolicy = new ThrottlePolicy(new BatterySignalSource(context, recorderHandler),
+            throttleCallback);
+        throttlePolicy.start();
+      }
+    }
+
+    /** Apply a new throttle tier. Readings arrive on the recorder thread while recording. */
+    private final ThrottlePolicy.Callback throttleCallback = new ThrottlePolicy.Callback() {
+      @Override public void onTierChanged(long timeMs, int tier, int temperatureTenths,
+          int batteryPercent) {
+        Timber.i("Throttle tier now %s. Temperature %s, battery %s.", tier, temperatureTenths,
+            batteryPercent);
+        metrics.throttleChanged(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()), tier,
+            temperatureTenths, batteryPercent);
+        ((MediaCodecBackend) backend).setThrottle(ThrottlePolicy.BIT_RATE_PERCENT[tier]);
+        int tierFrameRate = ThrottlePolicy.MAX_FRAME_RATE[tier];
+        int frameRate = relayFrameRate;
+        if (tierFrameRate > 0) {
+          frameRate = frameRate > 0 ? Math.min(frameRate, tierFrameRate) : tierFrameRate;
+        }
+        if (relay != null) {
+          relay.setMaxFrameRate(frameRate);
+        } else if (frameRate > 0) {
+          insertRelay(frameRate);
+        }
+      }
+    };
 
-      propagate = true;
-    } finally {
+    /**
+     * Route the display through a relay so that its frame rate can be capped. Only done once
+     * throttling needs it since relaying copies every frame. It then stays for the rest of the
+     * recording, uncapped again if the device cools down.
+     */
+    private void insertRelay(int maxFrameRate) {
+      Surface encoderSurface = surface;
+      // A surface takes one producer at a time. Detach the display before the relay connects.
+      display.setSurface(null);
       try {
-        // Ensure the listener can tear down its resources regardless if stopping crashes.
-        listener.onStop();
+        relay = FrameRelay.create(encoderSurface, captureInfo, maxFrameRate, false);
       } catch (RuntimeException e) {
-        if (propagate) {
-          //noinspection ThrowFromFinallyBlock
-          throw e; // Only allow listener exceptions to propagate if stopped successfully.
+        Timber.w(e, "Unable to relay frames. Frame rate will not be throttled.");
+        display.setSurface(encoderSurface);
+        return;
+      }
+      surface = relay.inputSurface();
+      display.setSurface(surface);
+    }
+
+    private void stopThrottling() {
+      if (throttlePolicy != null) {
+        throttlePolicy.stop();
+        throttlePolicy = null;
+      }
+    }
+
+    /** Predict when the disk fills, warning and then stopping before it does. */
+    private final Runnable checkDisk = new Runnable() {
+      private boolean warned;
+
+      @Override public void run() {
+        long freeBytes = freeBytes();
+        if (freeBytes == -1) {
+          return;
         }
+        File file = segmenter != null ? segmenter.current() : new File(outputFile);
+        long finishBytes = finishCopiesFile ? file.length() : 0;
+        int state = diskBudget.update(freeBytes, finishBytes,
+            TimeUnit.NANOSECONDS.toMicros(System.nanoTime()));
+        final long remainingMs =
+            TimeUnit.MICROSECONDS.toMillis(diskBudget.remainingUs(freeBytes, finishBytes));
+        final boolean warn = state == DiskBudget.WARN && !warned;
+        final boolean stop = state == DiskBudget.STOP;
+        if (warn) {
+          warned = true;
+          Timber.w("Disk almost full. %sms of recording left.", remainingMs);
+        }
+        if (stop) {
+          Timber.w("Disk full. Stopping with %s bytes free.", freeBytes);
+        } else {
+          recorderHandler.postDelayed(this, DISK_CHECK_INTERVAL_MS);
+        }
+        mainThread.post(new Runnable() {
+          @Override public void run() {
+            if (!running) {
+              return;
+            }
+            listener.onSpaceRemaining(remainingMs);
+            if (warn) {
+              // Recording stops with some time still left.
+              long stopsInMs = remainingMs - TimeUnit.MICROSECONDS.toMillis(DISK_STOP_US);
+              String remaining =
+                  DateUtils.formatElapsedTime(TimeUnit.MILLISECONDS.toSeconds(stopsInMs));
+              Toast.makeText(context, context.getString(R.string.disk_space_low, remaining),
+                  LENGTH_LONG).show();
+            } else if (stop) {
+              Toast.makeText(context, R.string.disk_space_stopped, LENGTH_LONG).show();
+              stopRecording();
+            }
+          }
+        });
       }
+    };
+
+    @Override public void stop() {
+      recorderHandler.removeCallbacks(checkDisk);
+      stopThrottling();
+      captureThumbnail();
+      if (capture != null) {
+        // Detach the display to flush everything to the recorder. The projection is kept.
+        display.setSurface(null);
+      } else {
+        // Stop the projection in order to flush everything to the recorder. It is not stopped
+        // again on release.
+        projection.stop();
+        projection = null;
+      }
+      if (relay != null) {
+        // The display no longer draws so nothing newer can replace a held frame.
+        relay.finish();
+      }
+      // Stop the backend which writes the contents to the file.
+      backend.stop();
+      long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      if (segmenter != null) {
+        // Earlier segments are finished by the segmenter. Only the last is finished here.
+        outputFile = segmenter.current().getAbsolutePath();
+      }
+
+      writeMetrics();
+      if (finishCopiesFile) {
+        moveMoovToFront();
+      }
+      outputUri = insertMediaStore(durationMs);
+      deleteSidecar();
+      finishSegments();
+    }
+
+    /** Wait for closed segments to be finished and list the last one with them. */
+    private void finishSegments() {
+      if (segmenter == null) {
+        return;
+      }
+      try {
+        if (segmenter.stopped(-1)) {
+          Timber.d("Segments listed in '%s'.", segmenter.manifestFile());
+        } else {
+          Timber.w("Timed out finishing segments.");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /** The recording was finished so there is nothing to recover. */
+    private void deleteSidecar() {
+      File sidecar = RecordingSidecar.fileFor(new File(outputFile));
+      if (sidecar.exists() && !sidecar.delete()) {
+        Timber.w("Unable to delete recovery sidecar '%s'.", sidecar);
+      }
+    }
+
+    /** MediaRecorder writes the moov last. Move it first so shared files stream. */
+    private void moveMoovToFront() {
+      long startNanos = System.nanoTime();
+      try {
+        if (FastStart.rewrite(new File(outputFile))) {
+          Timber.d("Moved moov to front in %sms.",
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+      } catch (IOException e) {
+        Timber.w(e, "Unable to move moov to front. Keeping original.");
+      }
+    }
+
+    /** Build the notification's pictures from a frame sampled shortly before stopping. */
+    private void captureThumbnail() {
+      if (thumbnailTap == null) {
+        return;
+      }
+      try {
+        thumbnail = thumbnailTap.capture();
+      } catch (RuntimeException e) {
+        Timber.w(e, "Unable to capture thumbnail.");
+      }
+      if (thumbnail != null) {
+        thumbnailIcon = createSquareBitmap(thumbnail);
+      }
+    }
+
+    /** Read what was actually written, which either backend may adjust. Null on failure. */
+    @Nullable private Mp4Metadata readMetadata(File file) {
+      try {
+        FileInputStream input = new FileInputStream(file);
+        try {
+          Mp4Metadata metadata = Mp4Parser.parse(input.getChannel());
+          Timber.d("Recorded %s", metadata);
+          return metadata;
+        } finally {
+          input.close();
+        }
+      } catch (IOException e) {
+        Timber.w(e, "Unable to read recording metadata.");
+        return null;
+      }
+    }
+
+    /**
+     * Register the finished recording with the media store from what the session already knows
+     * rather than having the scanner read the file back. Returns null on failure.
+     */
+    @Nullable private Uri insertMediaStore(long durationMs) {
+      File file = new File(outputFile);
+      int width = recordingInfo.width;
+      int height = recordingInfo.height;
+      Mp4Metadata metadata = readMetadata(file);
+      if (metadata != null) {
+        width = metadata.width;
+        height = metadata.height;
+        durationMs = TimeUnit.MICROSECONDS.toMillis(metadata.durationUs);
+      } else if (metrics.durationUs() > 0) {
+        durationMs = TimeUnit.MICROSECONDS.toMillis(metrics.durationUs());
+      }
+      long nowMillis = System.currentTimeMillis();
+      String title = file.getName().replaceFirst("\\.mp4$", "");
+
+      ContentValues values = new ContentValues();
+      values.put(MediaStore.Video.Media.DATA, file.getAbsolutePath());
+      values.put(MediaStore.Video.Media.TITLE, title);
+      values.put(MediaStore.Video.Media.DISPLAY_NAME, file.getName());
+      values.put(MediaStore.Video.Media.MIME_TYPE, MIME_TYPE);
+      values.put(MediaStore.Video.Media.SIZE, file.length());
+      values.put(MediaStore.Video.Media.WIDTH, width);
+      values.put(MediaStore.Video.Media.HEIGHT, height);
+      values.put(MediaStore.Video.Media.RESOLUTION, width + "x" + height);
+      values.put(MediaStore.Video.Media.DURATION, durationMs);
+      values.put(MediaStore.Video.Media.DATE_TAKEN, nowMillis - durationMs);
+      values.put(MediaStore.Video.Media.DATE_ADDED, TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+      values.put(MediaStore.Video.Media.DATE_MODIFIED,
+          TimeUnit.MILLISECONDS.toSeconds(file.lastModified()));
+      try {
+        return context.getContentResolver()
+            .insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+      } catch (RuntimeException e) {
+        Timber.w(e, "Unable to insert recording into the media store.");
+        return null;
+      }
+    }
+
+    @Override public void release() {
+      recorderHandler.removeCallbacks(checkDisk);
+      stopThrottling();
+      KeptCapture kept = capture;
+      if (kept != null) {
+        if (kept.isRevoked()) {
+          kept.release();
+          capture = null;
+        } else {
+          // Kept for the next take. Detach the surface which is released with the backend.
+          kept.display.setSurface(null);
+        }
+        display = null;
+        projection = null;
+      }
+      if (relay != null) {
+        relay.release();
+        relay = null;
+      }
+      if (backend != null) {
+        backend.release();
+        backend = null;
+      }
+      if (segmenter != null) {
+        segmenter.release();
+        segmenter = null;
+      }
+      if (thumbnailTap != null) {
+        thumbnailTap.release();
+        thumbnailTap = null;
+      }
+      if (display != null) {
+        display.release();
+        display = null;
+      }
+      if (projection != null) {
+        projection.stop();
+        projection = null;
+      }
+      surface = null; // Owned by the backend or the relay.
+    }
+  }
+
+  /**
+   * Finishes the segments closed while recording as {@link Recorder#stop()} finishes the last
+   * one. Runs on the segmenter's thread.
+   */
+  private final class SegmentCallback implements Segmenter.Callback {
+    @Override public void onFinished(File segment) throws IOException {
+      if (finishCopiesFile) {
+        // MediaRecorder segments have their moov last. Fragmented ones already lead with it.
+        FastStart.rewrite(segment);
+      }
+      File sidecar = RecordingSidecar.fileFor(segment);
+      if (sidecar.exists() && !sidecar.delete()) {
+        Timber.w("Unable to delete recovery sidecar '%s'.", sidecar);
+      }
+      MediaScannerConnection.scanFile(context, new String[] { segment.getAbsolutePath() }, null,
+          null);
+      Timber.d("Finished segment '%s'.", segment);
+    }
+
+    @Override public void onError(File file, Exception e) {
+      Timber.w(e, "Unable to finish '%s'.", file);
+    }
+  }
+
+  private final class RecorderCallbacks implements RecorderStateMachine.Callbacks {
+    @Override public void onStarted() {
+      running = true;
+      recordingStartNanos = System.nanoTime();
+      listener.onStart();
+
+      long startLatencyNanos = recordingStartNanos - startRequestedNanos;
+      Timber.d("Screen recording started %sms after countdown.",
+          TimeUnit.NANOSECONDS.toMillis(startLatencyNanos));
+
+      analytics.send(AnalyticsEvents.RECORDING_START);
+      sendTiming(Analytics.VARIABLE_PREPARE_DURATION, prepareNanos);
+      sendTiming(Analytics.VARIABLE_START_LATENCY, startLatencyNanos);
+    }
+
+    @Override public void onError(Throwable t) {
+      Timber.e(t, "Unable to record screen.");
+      Toast.makeText(context, "Unable to record screen.\n" + t.getMessage(), LENGTH_SHORT).show();
+    }
+
+    @Override public void onStopped(boolean recorded) {
+      running = false;
+      hideOverlay();
+      // Ensure the listener can tear down its resources regardless of how recording ended.
+      listener.onStop();
+
+      if (!recorded) {
+        listener.onEnd();
+        return;
+      }
+
+      long firstFrameUs = metrics.firstPresentationTimeUs();
+      startupUs = firstFrameUs == -1 ? 0
+          : Math.max(0, TimeUnit.NANOSECONDS.toMicros(recordingStartNanos) - firstFrameUs);
+
+      long recordingStopNanos = System.nanoTime();
+      analytics.send(AnalyticsEvents.RECORDING_STOP);
+      sendTiming(Analytics.VARIABLE_RECORDING_LENGTH, recordingStopNanos - recordingStartNanos);
+      reportMetrics();
+
+      if (outputUri != null) {
+        Timber.d("Screen recording stopped. Added to media store as %s.", outputUri);
+        showCapturedNotification(outputUri, Analytics.LABEL_MEDIA_STORE);
+        return;
+      }
+
+      Timber.d("Screen recording stopped. Notifying media scanner of new video.");
+
+      MediaScannerConnection.scanFile(context, new String[] { outputFile }, null,
+          new MediaScannerConnection.OnScanCompletedListener() {
+            @Override public void onScanCompleted(String path, final Uri uri) {
+              if (uri == null) throw new NullPointerException("uri == null");
+              Timber.d("Media scanner completed.");
+              mainThread.post(new Runnable() {
+                @Override public void run() {
+                  showCapturedNotification(uri, Analytics.LABEL_MEDIA_SCANNER);
+                }
+              });
+            }
+          });
+    }
+
+    private void showCapturedNotification(Uri uri, String source) {
+      showNotification(uri, thumbnail, thumbnailIcon);
+      thumbnail = null;
+      thumbnailIcon = null;
+
+      long latencyNanos = System.nanoTime() - stopRequestedNanos;
+      Timber.d("Notification shown %sms after stop.", TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+      analytics.send(new HitBuilders.TimingBuilder() //
+          .setCategory(Analytics.CATEGORY_RECORDING)
+          .setValue(TimeUnit.NANOSECONDS.toMillis(latencyNanos))
+          .setVariable(Analytics.VARIABLE_STOP_TO_NOTIFICATION)
+          .setLabel(source)
+          .build());
     }
+  }
 
-    long recordingStopNanos = System.nanoTime();
+  /** Send a summary of the recording's metrics. */
+  private void reportMetrics() {
+    if (metrics.framesEncoded() == 0) {
+      return; // MediaRecorder does not expose its frames.
+    }
+    Timber.d("Encoded %s frames. %s late, %s dropped, %s bytes/s.", metrics.framesEncoded(),
+        metrics.framesLate(), metrics.framesDropped(), metrics.meanBytesPerSecond());
+
+    sendCount(Analytics.ACTION_RECORDING_FRAMES, metrics.framesEncoded());
+    sendCount(Analytics.ACTION_RECORDING_LATE_FRAMES, metrics.framesLate());
+    sendCount(Analytics.ACTION_RECORDING_DROPPED_FRAMES, metrics.framesDropped());
+    sendCount(Analytics.ACTION_RECORDING_BYTES_PER_SECOND, metrics.meanBytesPerSecond());
+    sendTimings(Analytics.VARIABLE_ENCODE_LATENCY, metrics.encodeLatency);
+    sendTimings(Analytics.VARIABLE_WRITE_LATENCY, metrics.writeLatency);
+    sendTimings(Analytics.VARIABLE_FRAME_INTERVAL, metrics.frameInterval);
+  }
 
-    recorder.release();
-    display.release();
+  /** Write the recording's metrics next to the video. Called on the recorder thread. */
+  private void writeMetrics() {
+    if (metrics.framesEncoded() == 0) {
+      return;
+    }
+    File metricsFile = new File(outputFile.replaceFirst("\\.mp4$", "") + METRICS_SUFFIX);
+    try {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(metricsFile), "UTF-8");
+      try {
+        metrics.writeJson(writer);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      Timber.w(e, "Unable to write metrics to %s", metricsFile);
+    }
+  }
 
+  private void sendCount(String action, long value) {
     analytics.send(new HitBuilders.EventBuilder() //
         .setCategory(Analytics.CATEGORY_RECORDING)
-        .setAction(Analytics.ACTION_RECORDING_STOP)
+        .setAction(action)
+        .setValue(value)
         .build());
+  }
+
+  private void sendTiming(String variable, long nanos) {
     analytics.send(new HitBuilders.TimingBuilder() //
         .setCategory(Analytics.CATEGORY_RECORDING)
-        .setValue(TimeUnit.NANOSECONDS.toMillis(recordingStopNanos - recordingStartNanos))
-        .setVariable(Analytics.VARIABLE_RECORDING_LENGTH)
+        .setValue(TimeUnit.NANOSECONDS.toMillis(nanos))
+        .setVariable(variable)
         .build());
+  }
 
-    Timber.d("Screen recording stopped. Notifying media scanner of new video.");
-
-    MediaScannerConnection.scanFile(context, new String[] { outputFile }, null,
-        new MediaScannerConnection.OnScanCompletedListener() {
-          @Override public void onScanCompleted(String path, final Uri uri) {
-            if (uri == null) throw new NullPointerException("uri == null");
-            Timber.d("Media scanner completed.");
-            mainThread.post(new Runnable() {
-              @Override public void run() {
-                showNotification(uri, null);
-              }
-            });
-          }
-        });
+  private void sendTimings(String variable, LatencyHistogram histogram) {
+    analytics.send(new HitBuilders.TimingBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setVariable(variable)
+        .setLabel(Analytics.LABEL_P50)
+        .setValue(TimeUnit.MICROSECONDS.toMillis(histogram.percentileUs(50)))
+        .build());
+    analytics.send(new HitBuilders.TimingBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setVariable(variable)
+        .setLabel(Analytics.LABEL_P95)
+        .setValue(TimeUnit.MICROSECONDS.toMillis(histogram.percentileUs(95)))
+        .build());
   }
 
-  private void showNotification(final Uri uri, Bitmap bitmap) {
+  /**
+   * Show the captured notification. Without a {@code bitmap} from the recording, one is decoded
+   * from the file and the notification is shown again with it.
+   */
+  private void showNotification(final Uri uri, @Nullable Bitmap bitmap, @Nullable Bitmap icon) {
     Intent viewIntent = new Intent(ACTION_VIEW, uri);
     PendingIntent pendingViewIntent =
         PendingIntent.getActivity(context, 0, viewIntent, FLAG_CANCEL_CURRENT);
@@ -332,9 +1079,16 @@ final class RecordingSession {
     PendingIntent pendingDeleteIntent =
         PendingIntent.getBroadcast(context, 0, deleteIntent, FLAG_CANCEL_CURRENT);
 
+    Intent trimIntent = new Intent(context, TrimRecordingService.class);
+    trimIntent.setData(uri);
+    trimIntent.putExtra(TrimRecordingService.EXTRA_STARTUP_US, startupUs);
+    PendingIntent pendingTrimIntent =
+        PendingIntent.getService(context, 0, trimIntent, FLAG_CANCEL_CURRENT);
+
     CharSequence title = context.getText(R.string.notification_captured_title);
     CharSequence subtitle = context.getText(R.string.notification_captured_subtitle);
     CharSequence share = context.getText(R.string.notification_captured_share);
+    CharSequence trim = context.getText(R.string.notification_captured_trim);
     CharSequence delete = context.getText(R.string.notification_captured_delete);
     Notification.Builder builder = new Notification.Builder(context) //
         .setContentTitle(title)
@@ -346,10 +1100,11 @@ final class RecordingSession {
         .setContentIntent(pendingViewIntent)
         .setAutoCancel(true)
         .addAction(R.drawable.ic_share_white_24dp, share, pendingShareIntent)
+        .addAction(R.drawable.ic_content_cut_white_24dp, trim, pendingTrimIntent)
         .addAction(R.drawable.ic_delete_white_24dp, delete, pendingDeleteIntent);
 
     if (bitmap != null) {
-      builder.setLargeIcon(createSquareBitmap(bitmap))
+      builder.setLargeIcon(icon)
           .setStyle(new Notification.BigPictureStyle() //
               .setBigContentTitle(title) //
               .setSummaryText(subtitle) //
@@ -372,7 +1127,7 @@ final class RecordingSession {
 
       @Override protected void onPostExecute(@Nullable Bitmap bitmap) {
         if (bitmap != null && !notificationDismissed()) {
-          showNotification(uri, bitmap);
+          showNotification(uri, bitmap, createSquareBitmap(bitmap));
         } else {
           listener.onEnd();
         }
@@ -384,69 +1139,45 @@ final class RecordingSession {
     }.execute();
   }
 
-  static RecordingInfo calculateRecordingInfo(int displayWidth, int displayHeight,
-      int displayDensity, boolean isLandscapeDevice, int cameraWidth, int cameraHeight,
-      int cameraFrameRate, int sizePercentage) {
-    // Scale the display size before any maximum size calculations.
-    displayWidth = displayWidth * sizePercentage / 100;
-    displayHeight = displayHeight * sizePercentage / 100;
-
-    if (cameraWidth == -1 && cameraHeight == -1) {
-      // No cameras. Fall back to the display size.
-      return new RecordingInfo(displayWidth, displayHeight, cameraFrameRate, displayDensity);
-    }
-
-    int frameWidth = isLandscapeDevice ? cameraWidth : cameraHeight;
-    int frameHeight = isLandscapeDevice ? cameraHeight : cameraWidth;
-    if (frameWidth >= displayWidth && frameHeight >= displayHeight) {
-      // Frame can hold the entire display. Use exact values.
-      return new RecordingInfo(displayWidth, displayHeight, cameraFrameRate, displayDensity);
-    }
-
-    // Calculate new width or height to preserve aspect ratio.
-    if (isLandscapeDevice) {
-      frameWidth = displayWidth * frameHeight / displayHeight;
-    } else {
-      frameHeight = displayHeight * frameWidth / displayWidth;
-    }
-    return new RecordingInfo(frameWidth, frameHeight, cameraFrameRate, displayDensity);
+  private static Bitmap createSquareBitmap(Bitmap bitmap) {
+    SquareCrop crop = SquareCrop.center(bitmap.getWidth(), bitmap.getHeight());
+    return Bitmap.createBitmap(bitmap, crop.x, crop.y, crop.size, crop.size, null, true);
   }
 
-  static final class RecordingInfo {
-    final int width;
-    final int height;
-    final int frameRate;
-    final int density;
-
-    RecordingInfo(int width, int height, int frameRate, int density) {
-      this.width = width;
-      this.height = height;
-      this.frameRate = frameRate;
-      this.density = density;
+  /**
+   * Hand over the capture kept for the next take, or null if there is none because multi-take is
+   * off, the projection was revoked, or the overlay was cancelled. Call after {@link
+   * Listener#onEnd()}.
+   */
+  @Nullable KeptCapture takeCapture() {
+    KeptCapture kept = capture;
+    if (kept == null || cancelled || kept.isRevoked()) {
+      return null; // Released on destroy.
     }
-  }
-
-  private static Bitmap createSquareBitmap(Bitmap bitmap) {
-    int x = 0;
-    int y = 0;
-    int width = bitmap.getWidth();
-    int height = bitmap.getHeight();
-    if (width > height) {
-      x = (width - height) / 2;
-      //noinspection SuspiciousNameCombination
-      width = height;
-    } else {
-      y = (height - width) / 2;
-      //noinspection SuspiciousNameCombination
-      height = width;
-    }
-    return Bitmap.createBitmap(bitmap, x, y, width, height, null, true);
+    capture = null;
+    return kept;
   }
 
   void destroy() {
     if (running) {
       Timber.w("Destroyed while running!");
-      stopRecording();
+      stopRequestedNanos = System.nanoTime();
     }
+    // The overlay may also be waiting for a take which never came.
+    hideOverlay();
+    stateMachine.destroy();
+    recorderHandler.post(new Runnable() {
+      @Override public void run() {
+        // Stopping above detached the display from the recorder so it is safe to release.
+        KeptCapture kept = capture;
+        if (kept != null) {
+          kept.release();
+          capture = null;
+        }
+      }
+    });
+    // Pending stop work still completes before the thread exits.
+    recorderThread.quitSafely();
+    prepareExecutor.shutdown();
   }
 }
@@ -0,0 +1,142 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+/**
+ * What a recording needs to be recovered if it is never finished, written beside it when
+ * recording starts and deleted once it finishes. Parameter sets are appended when the encoder
+ * reports them, if it ever does, since without them the recovered video cannot be decoded unless
+ * they were also written in-band.
+ */
+final class RecordingSidecar {
+  static final String SUFFIX = ".recovery";
+  static final int VERSION = 1;
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  final int width;
+  final int height;
+  final int frameRate;
+  /** Null if the encoder never reported them. */
+  final byte[] sps;
+  /** Null if the encoder never reported them. */
+  final byte[] pps;
+
+  RecordingSidecar(int width, int height, int frameRate, byte[] sps, byte[] pps) {
+    this.width = width;
+    this.height = height;
+    this.frameRate = frameRate;
+    this.sps = sps;
+    this.pps = pps;
+  }
+
+  static File fileFor(File recording) {
+    return new File(recording.getPath() + SUFFIX);
+  }
+
+  /** The recording which {@code sidecar} describes. */
+  static File recordingFor(File sidecar) {
+    String path = sidecar.getPath();
+    if (!path.endsWith(SUFFIX)) {
+      throw new IllegalArgumentException("Not a sidecar: " + sidecar);
+    }
+    return new File(path.substring(0, path.length() - SUFFIX.length()));
+  }
+
+  static void write(File recording, RecordingInfo info) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(fileFor(recording)), ISO_8859_1);
+    try {
+      writer.write("version=" + VERSION + '\n');
+      writer.write("width=" + info.width + '\n');
+      writer.write("height=" + info.height + '\n');
+      writer.write("frameRate=" + info.frameRate + '\n');
+    } finally {
+      writer.close();
+    }
+  }
+
+  /** Add the encoder's parameter sets, without start codes, to an existing sidecar. */
+  static void appendParameterSets(File recording, byte[] sps, byte[] pps) throws IOException {
+    File file = fileFor(recording);
+    if (!file.exists()) {
+      throw new IOException("No sidecar for " + recording);
+    }
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), ISO_8859_1);
+    try {
+      writer.write("sps=" + hex(sps) + '\n');
+      writer.write("pps=" + hex(pps) + '\n');
+    } finally {
+      writer.close();
+    }
+  }
+
+  static RecordingSidecar read(File sidecar) throws IOException {
+    Properties properties = new Properties();
+    FileInputStream input = new FileInputStream(sidecar);
+    try {
+      properties.load(input);
+    } finally {
+      input.close();
+    }
+
+    int version = intProperty(properties, "version");
+    if (version != VERSION) {
+      throw new IOException("Unsupported sidecar version " + version);
+    }
+    int width = intProperty(properties, "width");
+    int height = intProperty(properties, "height");
+    int frameRate = intProperty(properties, "frameRate");
+    if (width <= 0 || height <= 0 || frameRate <= 0) {
+      throw new IOException("Invalid sidecar " + properties);
+    }
+    String sps = properties.getProperty("sps");
+    String pps = properties.getProperty("pps");
+    return new RecordingSidecar(width, height, frameRate, sps != null ? unhex(sps) : null,
+        pps != null ? unhex(pps) : null);
+  }
+
+  private static int intProperty(Properties properties, String key) throws IOException {
+    String value = properties.getProperty(key);
+    if (value == null) {
+      throw new IOException("Sidecar missing " + key);
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid " + key + ": " + value);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+          .append(Character.forDigit(b & 0xf, 16));
+    }
+    return builder.toString();
+  }
+
+  private static byte[] unhex(String hex) throws IOException {
+    hex = hex.trim();
+    if (hex.length() % 2 != 0) {
+      throw new IOException("Odd length hex: " + hex);
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(hex.charAt(i * 2), 16);
+      int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+      if (high == -1 || low == -1) {
+        throw new IOException("Invalid hex: " + hex);
+      }
+      bytes[i] = (byte) (high << 4 | low);
+    }
+    return bytes;
+  }
+}
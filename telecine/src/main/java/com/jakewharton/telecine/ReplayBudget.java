@@ -0,0 +1,48 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much native memory an instant replay may hold and which bit rates fit in it. The buffer
+ * lives in the foreground service for the whole recording so it is kept to a small share of what
+ * the device grants apps, and far less on low memory devices.
+ */
+final class ReplayBudget {
+  static final long MAX_BYTES = 32 * 1024 * 1024;
+  static final long LOW_RAM_BYTES = 12 * 1024 * 1024;
+  /** The share of the app's memory class which the buffer may use. */
+  private static final int MEMORY_CLASS_DIVISOR = 8;
+  /** Key frames and bit rate overshoot make the real rate spiky so leave generous headroom. */
+  private static final int HEADROOM = 2;
+
+  private ReplayBudget() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * @param memoryClassMb The per-app memory limit reported by {@code ActivityManager}.
+   * @param lowRam Whether the device reports itself as a low memory device.
+   */
+  static long bytes(int memoryClassMb, boolean lowRam) {
+    if (lowRam) {
+      return LOW_RAM_BYTES;
+    }
+    return Math.min(MAX_BYTES, memoryClassMb * 1024L * 1024 / MEMORY_CLASS_DIVISOR);
+  }
+
+  /** The bytes needed to hold {@code windowUs} of video at {@code bitRate}. */
+  static long capacity(long windowUs, int bitRate) {
+    return windowSeconds(windowUs) * bitRate / 8 * HEADROOM;
+  }
+
+  /** The highest bit rate whose window fits in {@code budgetBytes}. */
+  static int maxBitRate(long windowUs, long budgetBytes) {
+    long bitRate = budgetBytes / HEADROOM * 8 / windowSeconds(windowUs);
+    return (int) Math.min(bitRate, Integer.MAX_VALUE);
+  }
+
+  private static long windowSeconds(long windowUs) {
+    // Round up and add one so a partial group of pictures at the start still fits.
+    return (windowUs + TimeUnit.SECONDS.toMicros(1) - 1) / TimeUnit.SECONDS.toMicros(1) + 1;
+  }
+}
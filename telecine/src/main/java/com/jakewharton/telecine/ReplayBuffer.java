@@ -0,0 +1,183 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded, preallocated circular buffer of encoded access units covering roughly the last
+ * {@code windowUs} of video. Samples are only ever evicted a whole group of pictures at a time so
+ * the buffer always begins with a key frame and its contents can be decoded on their own.
+ *
+ * <p>Appending copies into preallocated storage and performs no allocation. Samples are never
+ * split across the end of the storage so each one can be handed out as a single contiguous view.
+ * This class is not thread safe.
+ */
+final class ReplayBuffer {
+  private final ByteBuffer data;
+  private final ByteBuffer writeView;
+  private final ByteBuffer readView;
+  private final long windowUs;
+
+  private final int[] offsets;
+  private final int[] sizes;
+  private final long[] timestamps;
+  private final boolean[] keyFrames;
+
+  /** Index of the oldest sample in the metadata ring. */
+  private int head;
+  private int count;
+  /** Offset in {@link #data} at which the next sample will be written. */
+  private int writeOffset;
+  private long droppedSamples;
+
+  /**
+   * @param data storage for sample bytes. Its entire capacity is used.
+   * @param maxSamples the maximum number of samples which can be held at once.
+   * @param windowUs how much video to retain, measured from the newest sample.
+   */
+  ReplayBuffer(ByteBuffer data, int maxSamples, long windowUs) {
+    if (maxSamples < 1) {
+      throw new IllegalArgumentException("maxSamples < 1: " + maxSamples);
+    }
+    this.data = data;
+    this.writeView = data.duplicate();
+    this.readView = data.duplicate();
+    this.windowUs = windowUs;
+    offsets = new int[maxSamples];
+    sizes = new int[maxSamples];
+    timestamps = new long[maxSamples];
+    keyFrames = new boolean[maxSamples];
+  }
+
+  /**
+   * Copy the remaining bytes of {@code sample} into the buffer, evicting the oldest groups of
+   * pictures as needed to make room. Returns false if the sample was dropped because it cannot
+   * be decoded (no preceding key frame) or it is larger than the whole buffer.
+   */
+  boolean append(ByteBuffer sample, long presentationTimeUs, boolean keyFrame) {
+    int size = sample.remaining();
+    if (size > data.capacity()) {
+      clear(); // Keeping older samples would leave a gap in the stream.
+      droppedSamples++;
+      return false;
+    }
+    if (count == 0 && !keyFrame) {
+      droppedSamples++;
+      return false;
+    }
+
+    int offset;
+    while ((offset = findSpace(size)) == -1 || count == offsets.length) {
+      evictGroup();
+      if (count == 0 && !keyFrame) {
+        droppedSamples++; // The group this sample belongs to was just evicted.
+        return false;
+      }
+    }
+
+    writeView.limit(offset + size);
+    writeView.position(offset);
+    writeView.put(sample);
+
+    int index = (head + count) % offsets.length;
+    offsets[index] = offset;
+    sizes[index] = size;
+    timestamps[index] = presentationTimeUs;
+    keyFrames[index] = keyFrame;
+    count++;
+    writeOffset = offset + size;
+
+    trimToWindow(presentationTimeUs);
+    return true;
+  }
+
+  /** Returns the offset at which {@code size} bytes fit contiguously, or -1. */
+  private int findSpace(int size) {
+    if (count == 0) {
+      return 0;
+    }
+    int headOffset = offsets[head];
+    if (writeOffset > headOffset) {
+      if (data.capacity() - writeOffset >= size) {
+        return writeOffset;
+      }
+      return size <= headOffset ? 0 : -1; // Wrap around to the start.
+    }
+    return headOffset - writeOffset >= size ? writeOffset : -1;
+  }
+
+  /** Drop groups of pictures which are entirely older than the window. */
+  private void trimToWindow(long newestTimeUs) {
+    while (true) {
+      int next = nextKeyFrame();
+      if (next == -1 || newestTimeUs - timestamps[next] < windowUs) {
+        return;
+      }
+      evictGroup();
+    }
+  }
+
+  /** Remove the oldest sample and everything up to the following key frame. */
+  private void evictGroup() {
+    int next = nextKeyFrame();
+    if (next == -1) {
+      clear();
+      return;
+    }
+    int evicted = (next - head + offsets.length) % offsets.length;
+    head = next;
+    count -= evicted;
+  }
+
+  /** Ring index of the first key frame after the head, or -1. */
+  private int nextKeyFrame() {
+    for (int i = 1; i < count; i++) {
+      int index = (head + i) % offsets.length;
+      if (keyFrames[index]) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  void clear() {
+    head = 0;
+    count = 0;
+    writeOffset = 0;
+  }
+
+  int sampleCount() {
+    return count;
+  }
+
+  /** The number of samples rejected by {@link #append} since creation. */
+  long droppedSamples() {
+    return droppedSamples;
+  }
+
+  /** The timestamp of the oldest buffered sample, which is always a key frame. */
+  long oldestTimestampUs() {
+    if (count == 0) {
+      throw new IllegalStateException("Empty.");
+    }
+    return timestamps[head];
+  }
+
+  /** The time span from the oldest to the newest buffered sample. */
+  long durationUs() {
+    if (count == 0) {
+      return 0;
+    }
+    return timestamps[(head + count - 1) % offsets.length] - timestamps[head];
+  }
+
+  /** Write every buffered sample, oldest first, to {@code writer}. */
+  void writeTo(FragmentedMp4Writer writer) throws IOException {
+    for (int i = 0; i < count; i++) {
+      int index = (head + i) % offsets.length;
+      readView.limit(offsets[index] + sizes[index]);
+      readView.position(offsets[index]);
+      writer.writeSample(readView, timestamps[index], keyFrames[index]);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.jakewharton.telecine;
+
+import java.util.List;
+
+/**
+ * Finds the largest recording size which keeps the display's aspect ratio and which an encoder
+ * can actually accept and sustain: within its width and height ranges, aligned to both its
+ * reported alignment and the 16 pixel macroblock size, and within its macroblock rate.
+ */
+final class ResolutionSolver {
+  static final int MACROBLOCK_SIZE = 16;
+
+  private ResolutionSolver() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Solve for the first encoder in {@code encoders} able to record the display, trying hardware
+   * encoders before software ones. Returns null if none can.
+   */
+  static RecordingInfo solve(List<EncoderCapabilities> encoders,
+      int displayWidth, int displayHeight, int displayDensity, int frameRate,
+      int sizePercentage) {
+    for (int pass = 0; pass < 2; pass++) {
+      boolean hardware = pass == 0;
+      for (int i = 0, size = encoders.size(); i < size; i++) {
+        EncoderCapabilities encoder = encoders.get(i);
+        if (encoder.hardwareAccelerated != hardware) {
+          continue;
+        }
+        RecordingInfo info =
+            solve(encoder, displayWidth, displayHeight, displayDensity, frameRate,
+                sizePercentage);
+        if (info != null) {
+          return info;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the largest size no bigger than the display scaled by {@code sizePercentage} which
+   * {@code encoder} supports at {@code frameRate}, or its maximum frame rate if lower. The
+   * height is the aligned value nearest to the display's aspect ratio. Returns null if even the
+   * smallest size the encoder accepts cannot be used.
+   */
+  static RecordingInfo solve(EncoderCapabilities encoder, int displayWidth,
+      int displayHeight, int displayDensity, int frameRate, int sizePercentage) {
+    if (displayWidth <= 0 || displayHeight <= 0 || frameRate <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid display: " + displayWidth + "x" + displayHeight + " @ " + frameRate);
+    }
+    int targetWidth = displayWidth * sizePercentage / 100;
+    int targetHeight = displayHeight * sizePercentage / 100;
+    int widthAlignment = lcm(MACROBLOCK_SIZE, encoder.widthAlignment);
+    int heightAlignment = lcm(MACROBLOCK_SIZE, encoder.heightAlignment);
+    int rate = Math.min(frameRate, encoder.maxFrameRate);
+
+    int maxHeight = alignDown(targetHeight, heightAlignment);
+    int width = alignDown(Math.min(targetWidth, encoder.maxWidth), widthAlignment);
+    for (; width >= encoder.minWidth && width > 0; width -= widthAlignment) {
+      int height = heightFor(width, displayWidth, displayHeight, heightAlignment);
+      if (height > encoder.maxHeight) {
+        continue; // Too tall. Narrower widths will be shorter.
+      }
+      // Rounding to the nearest alignment can overshoot the display by up to half a step.
+      height = Math.min(height, maxHeight);
+      if (height < encoder.minHeight || height <= 0) {
+        return null; // Heights only shrink from here.
+      }
+      if (encoder.supportsSize(width, height) && encoder.supportsRate(width, height, rate)) {
+        return new RecordingInfo(width, height, rate, displayDensity);
+      }
+    }
+    return null;
+  }
+
+  /** The multiple of {@code alignment} nearest to the height matching the display's aspect. */
+  static int heightFor(int width, int displayWidth, int displayHeight, int alignment) {
+    long exact = (long) width * displayHeight;
+    long step = (long) displayWidth * alignment;
+    return (int) ((exact + step / 2) / step * alignment);
+  }
+
+  static int alignDown(int value, int alignment) {
+    return value - value % alignment;
+  }
+
+  static int lcm(int a, int b) {
+    return a / gcd(a, b) * b;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
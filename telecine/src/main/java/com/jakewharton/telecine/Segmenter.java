@@ -0,0 +1,215 @@
+package com.jakewharton.telecine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a long recording into numbered segments which are each a complete, playable MP4. The
+ * capture backends decide where a segment can end and report each one they close. Closed
+ * segments are finished on a background thread in order and listed in an M3U playlist beside
+ * them so the recording can still be played as a whole.
+ *
+ * <p>A recording {@code Telecine_X.mp4} becomes {@code Telecine_X_001.mp4},
+ * {@code Telecine_X_002.mp4}, and so on, listed in {@code Telecine_X.m3u}.
+ */
+final class Segmenter {
+  static final String MANIFEST_SUFFIX = ".m3u";
+  private static final long FINISH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /** Called on the executor. */
+  interface Callback {
+    /** Platform work for a finished segment, such as adding it to the media store. */
+    void onFinished(File segment) throws IOException;
+
+    /** Finishing a segment or writing the playlist failed. */
+    void onError(File file, Exception e);
+  }
+
+  final long maxDurationUs;
+  final long maxBytes;
+
+  private final File directory;
+  private final String baseName;
+  private final File manifestFile;
+  private final RecordingInfo info;
+  private final Callback callback;
+  private final ExecutorService executor;
+
+  /** Touched only by the executor. */
+  private final List<String> names = new ArrayList<>();
+  private final List<Long> durationsUs = new ArrayList<>();
+
+  /** Written by whichever thread rolls to the next segment. */
+  private volatile File current;
+  private int index = 1;
+
+  /**
+   * @param recording The name the recording would have had without segments.
+   * @param maxDurationUs Roll to a new segment after this much video, or 0 for no limit.
+   * @param maxBytes Roll to a new segment after this many bytes, or 0 for no limit.
+   * @param executor A single thread on which segments are finished in order.
+   */
+  Segmenter(File recording, RecordingInfo info, long maxDurationUs, long maxBytes,
+      Callback callback, ExecutorService executor) {
+    this.maxDurationUs = maxDurationUs;
+    this.maxBytes = maxBytes;
+    this.info = info;
+    this.callback = callback;
+    this.executor = executor;
+
+    directory = recording.getParentFile();
+    String name = recording.getName();
+    int extension = name.lastIndexOf('.');
+    baseName = extension != -1 ? name.substring(0, extension) : name;
+    manifestFile = new File(directory, baseName + MANIFEST_SUFFIX);
+    current = segmentFile(index);
+  }
+
+  File segmentFile(int index) {
+    return new File(directory, String.format(Locale.US, "%s_%03d.mp4", baseName, index));
+  }
+
+  File manifestFile() {
+    return manifestFile;
+  }
+
+  /** The segment currently being written. */
+  File current() {
+    return current;
+  }
+
+  /** Whether a segment this long and this large should be closed at the next key frame. */
+  boolean shouldRoll(long durationUs, long bytes) {
+    return maxDurationUs > 0 && durationUs >= maxDurationUs || maxBytes > 0 && bytes >= maxBytes;
+  }
+
+  /**
+   * Allocate the next segment and write its recovery sidecar. Does not change {@link #current()}
+   * until {@link #rolled} is called since the backend may not switch to it immediately.
+   */
+  File next() {
+    return next(info);
+  }
+
+  /** Like {@link #next()} for a segment recorded at a different size than the recording. */
+  File next(RecordingInfo info) {
+    File next = segmentFile(index + 1);
+    try {
+      RecordingSidecar.write(next, info);
+    } catch (IOException ignored) {
+      // The segment will not be recoverable but can still be recorded.
+    }
+    return next;
+  }
+
+  /**
+   * The backend has switched from {@link #current()} to {@code next}. The closed segment is
+   * finished on the executor: first {@code closer}, if any, finishes writing it, then the
+   * callback is notified, then it is added to the playlist.
+   *
+   * @param durationUs The closed segment's duration, or -1 to read it from the file.
+   */
+  void rolled(File next, long durationUs, Closeable closer) {
+    File closed = current;
+    current = next;
+    index++;
+    finish(closed, durationUs, closer);
+  }
+
+  /**
+   * Recording stopped and the last segment was finished by the caller. Add it to the playlist and
+   * wait for every earlier segment to be finished.
+   *
+   * @return false if segments were still being finished when the wait timed out.
+   */
+  boolean stopped(final long durationUs) throws InterruptedException {
+    final File last = current;
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        addToManifest(last, durationUs);
+      }
+    });
+    executor.shutdown();
+    return executor.awaitTermination(FINISH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop accepting segments without waiting. Safe to call in any state. */
+  void release() {
+    executor.shutdown();
+  }
+
+  private void finish(final File segment, final long durationUs, final Closeable closer) {
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          if (closer != null) {
+            closer.close();
+          }
+          callback.onFinished(segment);
+        } catch (IOException | RuntimeException e) {
+          // Still listed. Recovery rebuilds it on the next launch if its sidecar remains.
+          callback.onError(segment, e);
+        }
+        addToManifest(segment, durationUs);
+      }
+    });
+  }
+
+  private void addToManifest(File segment, long durationUs) {
+    if (durationUs < 0) {
+      durationUs = readDurationUs(segment);
+    }
+    names.add(segment.getName());
+    durationsUs.add(durationUs);
+    try {
+      writeManifest();
+    } catch (IOException e) {
+      callback.onError(manifestFile, e);
+    }
+  }
+
+  private static long readDurationUs(File segment) {
+    try {
+      FileInputStream input = new FileInputStream(segment);
+      try {
+        return Mp4Parser.parse(input.getChannel()).durationUs;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      return 0; // Unknown. Players read it from the segment anyway.
+    }
+  }
+
+  /** Replace the whole playlist so that a reader never sees a partial one. */
+  private void writeManifest() throws IOException {
+    File temp = new File(manifestFile.getPath() + ".tmp");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+    try {
+      writer.write("#EXTM3U\n");
+      for (int i = 0; i < names.size(); i++) {
+        String name = names.get(i);
+        String title = name.substring(0, name.lastIndexOf('.'));
+        double seconds = durationsUs.get(i) / 1e6;
+        writer.write(String.format(Locale.US, "#EXTINF:%.3f,%s\n", seconds, title));
+        writer.write(name);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    if (!temp.renameTo(manifestFile)) {
+      throw new IOException("Unable to rename " + temp + " to " + manifestFile);
+    }
+  }
+}
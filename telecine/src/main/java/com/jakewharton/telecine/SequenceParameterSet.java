@@ -0,0 +1,203 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+
+/** The fields of an H.264 sequence parameter set which describe the size of its pictures. */
+final class SequenceParameterSet {
+  final int profileIdc;
+  final int levelIdc;
+  final int chromaFormatIdc;
+  /** Luma width after cropping. */
+  final int width;
+  /** Luma height after cropping. */
+  final int height;
+  final boolean frameMbsOnly;
+
+  private SequenceParameterSet(int profileIdc, int levelIdc, int chromaFormatIdc, int width,
+      int height, boolean frameMbsOnly) {
+    this.profileIdc = profileIdc;
+    this.levelIdc = levelIdc;
+    this.chromaFormatIdc = chromaFormatIdc;
+    this.width = width;
+    this.height = height;
+    this.frameMbsOnly = frameMbsOnly;
+  }
+
+  /** Parse the unit in {@code nal}, starting from its header byte and without a start code. */
+  static SequenceParameterSet parse(byte[] nal) throws IOException {
+    if (nal.length < 4 || (nal[0] & 0x1f) != NalUnits.TYPE_SPS) {
+      throw new IOException("Not an SPS.");
+    }
+    BitReader reader = new BitReader(unescape(nal));
+    reader.skip(8); // NAL header.
+    int profileIdc = reader.bits(8);
+    reader.skip(8); // Constraint flags.
+    int levelIdc = reader.bits(8);
+    reader.unsigned(); // seq_parameter_set_id
+
+    int chromaFormatIdc = 1;
+    boolean separateColourPlanes = false;
+    if (hasChromaInfo(profileIdc)) {
+      chromaFormatIdc = reader.unsigned();
+      if (chromaFormatIdc == 3) {
+        separateColourPlanes = reader.bit();
+      }
+      reader.unsigned(); // bit_depth_luma_minus8
+      reader.unsigned(); // bit_depth_chroma_minus8
+      reader.skip(1); // qpprime_y_zero_transform_bypass_flag
+      if (reader.bit()) { // seq_scaling_matrix_present_flag
+        int lists = chromaFormatIdc != 3 ? 8 : 12;
+        for (int i = 0; i < lists; i++) {
+          if (reader.bit()) {
+            skipScalingList(reader, i < 6 ? 16 : 64);
+          }
+        }
+      }
+    }
+
+    reader.unsigned(); // log2_max_frame_num_minus4
+    int picOrderCountType = reader.unsigned();
+    if (picOrderCountType == 0) {
+      reader.unsigned(); // log2_max_pic_order_cnt_lsb_minus4
+    } else if (picOrderCountType == 1) {
+      reader.skip(1); // delta_pic_order_always_zero_flag
+      reader.signed(); // offset_for_non_ref_pic
+      reader.signed(); // offset_for_top_to_bottom_field
+      int cycle = reader.unsigned();
+      for (int i = 0; i < cycle; i++) {
+        reader.signed(); // offset_for_ref_frame
+      }
+    }
+    reader.unsigned(); // max_num_ref_frames
+    reader.skip(1); // gaps_in_frame_num_value_allowed_flag
+    int widthInMbs = reader.unsigned() + 1;
+    int heightInMapUnits = reader.unsigned() + 1;
+    boolean frameMbsOnly = reader.bit();
+    if (!frameMbsOnly) {
+      reader.skip(1); // mb_adaptive_frame_field_flag
+    }
+    reader.skip(1); // direct_8x8_inference_flag
+
+    int width = widthInMbs * 16;
+    int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+    if (reader.bit()) { // frame_cropping_flag
+      int left = reader.unsigned();
+      int right = reader.unsigned();
+      int top = reader.unsigned();
+      int bottom = reader.unsigned();
+      int cropUnitX = 1;
+      int cropUnitY = frameMbsOnly ? 1 : 2;
+      if (chromaFormatIdc != 0 && !separateColourPlanes) {
+        cropUnitX *= chromaFormatIdc == 3 ? 1 : 2;
+        cropUnitY *= chromaFormatIdc == 1 ? 2 : 1;
+      }
+      width -= cropUnitX * (left + right);
+      height -= cropUnitY * (top + bottom);
+    }
+    if (width <= 0 || height <= 0) {
+      throw new IOException("Invalid size " + width + "x" + height);
+    }
+    return new SequenceParameterSet(profileIdc, levelIdc, chromaFormatIdc, width, height,
+        frameMbsOnly);
+  }
+
+  private static boolean hasChromaInfo(int profileIdc) {
+    switch (profileIdc) {
+      case 44: case 83: case 86: case 100: case 110: case 118: case 122: case 128: case 134:
+      case 135: case 138: case 139: case 144: case 244:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static void skipScalingList(BitReader reader, int size) throws IOException {
+    int lastScale = 8;
+    int nextScale = 8;
+    for (int i = 0; i < size && nextScale != 0; i++) {
+      int delta = reader.signed();
+      nextScale = (lastScale + delta + 256) % 256;
+      if (nextScale != 0) {
+        lastScale = nextScale;
+      }
+    }
+  }
+
+  /** Remove the emulation prevention bytes from each {@code 00 00 03} sequence. */
+  static byte[] unescape(byte[] nal) {
+    byte[] out = new byte[nal.length];
+    int length = 0;
+    int zeros = 0;
+    for (byte b : nal) {
+      if (zeros >= 2 && b == 3) {
+        zeros = 0;
+        continue;
+      }
+      zeros = b == 0 ? zeros + 1 : 0;
+      out[length++] = b;
+    }
+    if (length == nal.length) {
+      return out;
+    }
+    byte[] trimmed = new byte[length];
+    System.arraycopy(out, 0, trimmed, 0, length);
+    return trimmed;
+  }
+
+  @Override public String toString() {
+    return "SequenceParameterSet{profileIdc=" + profileIdc
+        + ", levelIdc=" + levelIdc
+        + ", chromaFormatIdc=" + chromaFormatIdc
+        + ", width=" + width
+        + ", height=" + height
+        + ", frameMbsOnly=" + frameMbsOnly
+        + '}';
+  }
+
+  private static final class BitReader {
+    private final byte[] data;
+    private int position;
+
+    BitReader(byte[] data) {
+      this.data = data;
+    }
+
+    boolean bit() throws IOException {
+      if (position >= data.length * 8) {
+        throw new IOException("SPS too short.");
+      }
+      int bit = (data[position >> 3] >> (7 - (position & 7))) & 1;
+      position++;
+      return bit == 1;
+    }
+
+    int bits(int count) throws IOException {
+      int value = 0;
+      for (int i = 0; i < count; i++) {
+        value = value << 1 | (bit() ? 1 : 0);
+      }
+      return value;
+    }
+
+    void skip(int count) throws IOException {
+      bits(count);
+    }
+
+    /** An Exp-Golomb coded unsigned value, {@code ue(v)}. */
+    int unsigned() throws IOException {
+      int leadingZeros = 0;
+      while (!bit()) {
+        if (++leadingZeros > 31) {
+          throw new IOException("Invalid Exp-Golomb code.");
+        }
+      }
+      return (int) ((1L << leadingZeros) - 1 + bits(leadingZeros));
+    }
+
+    /** An Exp-Golomb coded signed value, {@code se(v)}. */
+    int signed() throws IOException {
+      int value = unsigned();
+      return (value & 1) != 0 ? (value + 1) / 2 : -(value / 2);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.jakewharton.telecine;
+
+/** The largest square which can be cut from the center of an image. */
+final class SquareCrop {
+  final int x;
+  final int y;
+  final int size;
+
+  private SquareCrop(int x, int y, int size) {
+    this.x = x;
+    this.y = y;
+    this.size = size;
+  }
+
+  static SquareCrop center(int width, int height) {
+    if (width > height) {
+      return new SquareCrop((width - height) / 2, 0, height);
+    }
+    return new SquareCrop(0, (height - width) / 2, width);
+  }
+}
@@ -30,10 +30,16 @@ import static android.view.View.VISIBLE;
 
 public final class TelecineActivity extends AppCompatActivity {
   @BindView(R.id.spinner_video_size_percentage) Spinner videoSizePercentageView;
+  @BindView(R.id.spinner_video_quality) Spinner videoQualityView;
+  @BindView(R.id.spinner_frame_rate_cap) Spinner frameRateCapView;
   @BindView(R.id.switch_show_countdown) Switch showCountdownView;
   @BindView(R.id.switch_hide_from_recents) Switch hideFromRecentsView;
   @BindView(R.id.switch_recording_notification) Switch recordingNotificationView;
   @BindView(R.id.switch_show_touches) Switch showTouchesView;
+  @BindView(R.id.switch_instant_replay) Switch instantReplayView;
+  @BindView(R.id.switch_split_recordings) Switch splitRecordingsView;
+  @BindView(R.id.switch_multi_take) Switch multiTakeView;
+  @BindView(R.id.switch_variable_frame_rate) Switch variableFrameRateView;
   @BindView(R.id.container_use_demo_mode) View useDemoModeContainerView;
   @BindView(R.id.switch_use_demo_mode) Switch useDemoModeView;
   @BindView(R.id.launch) View launchView;
@@ -42,15 +48,23 @@ public final class TelecineActivity extends AppCompatActivity {
   @BindColor(R.color.primary_normal) int primaryNormal;
 
   @Inject @VideoSizePercentage IntPreference videoSizePreference;
+  @Inject @VideoQuality IntPreference videoQualityPreference;
+  @Inject @FrameRateCap IntPreference frameRateCapPreference;
   @Inject @ShowCountdown BooleanPreference showCountdownPreference;
   @Inject @HideFromRecents BooleanPreference hideFromRecentsPreference;
   @Inject @RecordingNotification BooleanPreference recordingNotificationPreference;
   @Inject @ShowTouches BooleanPreference showTouchesPreference;
+  @Inject @InstantReplay BooleanPreference instantReplayPreference;
+  @Inject @SplitRecordings BooleanPreference splitRecordingsPreference;
+  @Inject @MultiTake BooleanPreference multiTakePreference;
+  @Inject @VariableFrameRate BooleanPreference variableFrameRatePreference;
   @Inject @UseDemoMode BooleanPreference useDemoModePreference;
 
   @Inject Analytics analytics;
 
   private VideoSizePercentageAdapter videoSizePercentageAdapter;
+  private VideoQualityAdapter videoQualityAdapter;
+  private FrameRateCapAdapter frameRateCapAdapter;
   private DemoModeHelper.ShowDemoModeSetting showDemoModeSetting;
 
   @Override protected void onCreate(Bundle savedInstanceState) {
@@ -74,10 +88,26 @@ public final class TelecineActivity extends AppCompatActivity {
     videoSizePercentageView.setSelection(
         VideoSizePercentageAdapter.getSelectedPosition(videoSizePreference.get()));
 
+    videoQualityAdapter = new VideoQualityAdapter(this);
+
+    videoQualityView.setAdapter(videoQualityAdapter);
+    videoQualityView.setSelection(
+        VideoQualityAdapter.getSelectedPosition(videoQualityPreference.get()));
+
+    frameRateCapAdapter = new FrameRateCapAdapter(this);
+
+    frameRateCapView.setAdapter(frameRateCapAdapter);
+    frameRateCapView.setSelection(
+        FrameRateCapAdapter.getSelectedPosition(frameRateCapPreference.get()));
+
     showCountdownView.setChecked(showCountdownPreference.get());
     hideFromRecentsView.setChecked(hideFromRecentsPreference.get());
     recordingNotificationView.setChecked(recordingNotificationPreference.get());
     showTouchesView.setChecked(showTouchesPreference.get());
+    instantReplayView.setChecked(instantReplayPreference.get());
+    splitRecordingsView.setChecked(splitRecordingsPreference.get());
+    multiTakeView.setChecked(multiTakePreference.get());
+    variableFrameRateView.setChecked(variableFrameRatePreference.get());
     useDemoModeView.setChecked(useDemoModePreference.get());
     showDemoModeSetting = new DemoModeHelper.ShowDemoModeSetting() {
       @Override public void show() {
@@ -127,6 +157,36 @@ public final class TelecineActivity extends AppCompatActivity {
     }
   }
 
+  @OnItemSelected(R.id.spinner_video_quality) void onVideoQualitySelected(int position) {
+    int newValue = videoQualityAdapter.getItem(position);
+    int oldValue = videoQualityPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Video quality changing to %s", newValue);
+      videoQualityPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_VIDEO_QUALITY)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_frame_rate_cap) void onFrameRateCapSelected(int position) {
+    int newValue = frameRateCapAdapter.getItem(position);
+    int oldValue = frameRateCapPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Frame rate cap changing to %s", newValue);
+      frameRateCapPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_FRAME_RATE_CAP)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
   @OnCheckedChanged(R.id.switch_show_countdown) void onShowCountdownChanged() {
     boolean newValue = showCountdownView.isChecked();
     boolean oldValue = showCountdownPreference.get();
@@ -187,6 +247,66 @@ public final class TelecineActivity extends AppCompatActivity {
     }
   }
 
+  @OnCheckedChanged(R.id.switch_instant_replay) void onInstantReplayChanged() {
+    boolean newValue = instantReplayView.isChecked();
+    boolean oldValue = instantReplayPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Instant replay preference changing to %s", newValue);
+      instantReplayPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_INSTANT_REPLAY)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_split_recordings) void onSplitRecordingsChanged() {
+    boolean newValue = splitRecordingsView.isChecked();
+    boolean oldValue = splitRecordingsPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Split recordings preference changing to %s", newValue);
+      splitRecordingsPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_SPLIT_RECORDINGS)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_multi_take) void onMultiTakeChanged() {
+    boolean newValue = multiTakeView.isChecked();
+    boolean oldValue = multiTakePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Multi-take preference changing to %s", newValue);
+      multiTakePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_MULTI_TAKE)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_variable_frame_rate) void onVariableFrameRateChanged() {
+    boolean newValue = variableFrameRateView.isChecked();
+    boolean oldValue = variableFrameRatePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Variable frame rate preference changing to %s", newValue);
+      variableFrameRatePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_VARIABLE_FRAME_RATE)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
   @OnCheckedChanged(R.id.switch_use_demo_mode) void onUseDemoModeChanged() {
     boolean newValue = useDemoModeView.isChecked();
     boolean oldValue = useDemoModePreference.get();
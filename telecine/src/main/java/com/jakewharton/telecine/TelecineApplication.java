@@ -3,6 +3,7 @@ package com.jakewharton.telecine;
 import android.app.Activity;
 import android.app.Application;
 import android.app.Service;
+import android.os.AsyncTask;
 import com.bugsnag.android.BeforeNotify;
 import com.bugsnag.android.Bugsnag;
 import com.bugsnag.android.Error;
@@ -10,6 +11,7 @@ import dagger.android.AndroidInjector;
 import dagger.android.DispatchingAndroidInjector;
 import dagger.android.HasActivityInjector;
 import dagger.android.HasServiceInjector;
+import java.io.File;
 import javax.inject.Inject;
 import timber.log.Timber;
 
@@ -39,6 +41,23 @@ public final class TelecineApplication extends Application
 
       Timber.plant(tree);
     }
+
+    // Probe the encoders now so that recording only has to read them back.
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+      @Override public void run() {
+        MediaCodecBackend.encoders(TelecineApplication.this);
+      }
+    });
+
+    File outputRoot = RecordingSession.outputRoot();
+    final RecordingRecovery recovery = new RecordingRecovery(this, outputRoot);
+    final RecordingIndexer indexer = new RecordingIndexer(outputRoot);
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+      @Override public void run() {
+        recovery.run();
+        indexer.run();
+      }
+    });
   }
 
   @Override public AndroidInjector<Activity> activityInjector() {
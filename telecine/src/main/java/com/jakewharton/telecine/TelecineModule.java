@@ -22,20 +22,28 @@ import static android.content.Context.MODE_PRIVATE;
   private static final boolean DEFAULT_USE_DEMO_MODE = false;
   private static final boolean DEFAULT_RECORDING_NOTIFICATION = false;
   private static final int DEFAULT_VIDEO_SIZE_PERCENTAGE = 100;
+  private static final int DEFAULT_VIDEO_QUALITY = BitratePlanner.QUALITY_MEDIUM;
+  private static final boolean DEFAULT_INSTANT_REPLAY = false;
+  private static final boolean DEFAULT_SPLIT_RECORDINGS = false;
+  private static final boolean DEFAULT_MULTI_TAKE = false;
+  private static final int DEFAULT_FRAME_RATE_CAP = 0;
+  private static final boolean DEFAULT_VARIABLE_FRAME_RATE = false;
 
   @Provides @Singleton static Analytics provideAnalytics(Application app) {
+    Analytics delegate;
     if (BuildConfig.DEBUG) {
-      return new Analytics() {
+      delegate = new Analytics() {
         @Override public void send(Map<String, String> params) {
           Timber.tag("Analytics").d(String.valueOf(params));
         }
       };
+    } else {
+      GoogleAnalytics googleAnalytics = GoogleAnalytics.getInstance(app);
+      Tracker tracker = googleAnalytics.newTracker(BuildConfig.ANALYTICS_KEY);
+      tracker.setSessionTimeout(300); // ms? s? better be s.
+      delegate = new Analytics.GoogleAnalytics(tracker);
     }
-
-    GoogleAnalytics googleAnalytics = GoogleAnalytics.getInstance(app);
-    Tracker tracker = googleAnalytics.newTracker(BuildConfig.ANALYTICS_KEY);
-    tracker.setSessionTimeout(300); // ms? s? better be s.
-    return new Analytics.GoogleAnalytics(tracker);
+    return new BatchingAnalytics(delegate, BatchingAnalytics.DEFAULT_CAPACITY);
   }
 
   @Provides @Singleton static ContentResolver provideContentResolver(Application app) {
@@ -99,6 +107,74 @@ import static android.content.Context.MODE_PRIVATE;
     return pref.get();
   }
 
+  @Provides @Singleton @VideoQuality
+  static IntPreference provideVideoQualityPreference(SharedPreferences prefs) {
+    return new IntPreference(prefs, "video-quality", DEFAULT_VIDEO_QUALITY);
+  }
+
+  @Provides @VideoQuality
+  static Integer provideVideoQuality(@VideoQuality IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @FrameRateCap
+  static IntPreference provideFrameRateCapPreference(SharedPreferences prefs) {
+    return new IntPreference(prefs, "frame-rate-cap", DEFAULT_FRAME_RATE_CAP);
+  }
+
+  @Provides @FrameRateCap
+  static Integer provideFrameRateCap(@FrameRateCap IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @VariableFrameRate
+  static BooleanPreference provideVariableFrameRatePreference(SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "variable-frame-rate", DEFAULT_VARIABLE_FRAME_RATE);
+  }
+
+  @Provides @VariableFrameRate
+  static Boolean provideVariableFrameRate(@VariableFrameRate BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @InstantReplay
+  static BooleanPreference provideInstantReplayPreference(SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "instant-replay", DEFAULT_INSTANT_REPLAY);
+  }
+
+  @Provides @InstantReplay
+  static Boolean provideInstantReplay(@InstantReplay BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @SplitRecordings
+  static BooleanPreference provideSplitRecordingsPreference(SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "split-recordings", DEFAULT_SPLIT_RECORDINGS);
+  }
+
+  @Provides @SplitRecordings
+  static Boolean provideSplitRecordings(@SplitRecordings BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @MultiTake
+  static BooleanPreference provideMultiTakePreference(SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "multi-take", DEFAULT_MULTI_TAKE);
+  }
+
+  @Provides @MultiTake static Boolean provideMultiTake(@MultiTake BooleanPreference pref) {
+    return pref.get();
+  }
+
+  /**
+   * Whether the service is recording an instant replay. Persisted rather than held in memory so a
+   * tile created in a fresh process sees it, and cleared whenever a new service instance starts.
+   */
+  @Provides @Singleton @ReplayRecording
+  static BooleanPreference provideReplayRecordingPreference(SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "replay-recording", false);
+  }
+
   @ContributesAndroidInjector abstract TelecineActivity contributeTelecineActivity();
 
   @ContributesAndroidInjector
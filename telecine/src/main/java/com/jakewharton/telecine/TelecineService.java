@@ -1,14 +1,19 @@
 package com.jakewharton.telecine;
 
 import android.app.Notification;
+import android.app.NotificationManager;
 import android.app.Service;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.text.format.DateUtils;
 import com.nightlynexus.demomode.BarsBuilder;
 import com.nightlynexus.demomode.BatteryBuilder;
 import com.nightlynexus.demomode.ClockBuilder;
@@ -18,6 +23,7 @@ import com.nightlynexus.demomode.NotificationsBuilder;
 import com.nightlynexus.demomode.SystemIconsBuilder;
 import com.nightlynexus.demomode.WifiBuilder;
 import dagger.android.AndroidInjection;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import timber.log.Timber;
@@ -29,8 +35,11 @@ import static java.lang.Boolean.TRUE;
 public final class TelecineService extends Service {
   private static final String EXTRA_RESULT_CODE = "result-code";
   private static final String EXTRA_DATA = "data";
+  private static final String ACTION_SAVE_REPLAY = "com.jakewharton.telecine.SAVE_REPLAY";
   private static final int NOTIFICATION_ID = 99118822;
   private static final String SHOW_TOUCHES = "show_touches";
+  /** How long a kept capture waits for the next take before it is released. */
+  private static final long MULTI_TAKE_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
 
   static Intent newIntent(Context context, int resultCode, Intent data) {
     Intent intent = new Intent(context, TelecineService.class);
@@ -39,25 +48,53 @@ public final class TelecineService extends Service {
     return intent;
   }
 
+  /** An intent which saves the instant replay of the running session. */
+  static Intent newSaveReplayIntent(Context context) {
+    return new Intent(context, TelecineService.class).setAction(ACTION_SAVE_REPLAY);
+  }
+
   @Inject @ShowCountdown Provider<Boolean> showCountdownProvider;
   @Inject @VideoSizePercentage Provider<Integer> videoSizePercentageProvider;
+  @Inject @VideoQuality Provider<Integer> videoQualityProvider;
   @Inject @RecordingNotification Provider<Boolean> recordingNotificationProvider;
   @Inject @ShowTouches Provider<Boolean> showTouchesProvider;
   @Inject @UseDemoMode Provider<Boolean> useDemoModeProvider;
+  @Inject @InstantReplay Provider<Boolean> instantReplayProvider;
+  @Inject @SplitRecordings Provider<Boolean> splitRecordingsProvider;
+  @Inject @MultiTake Provider<Boolean> multiTakeProvider;
+  @Inject @FrameRateCap Provider<Integer> frameRateCapProvider;
+  @Inject @VariableFrameRate Provider<Boolean> variableFrameRateProvider;
+  @Inject @ReplayRecording BooleanPreference replayRecording;
 
   @Inject Analytics analytics;
   @Inject ContentResolver contentResolver;
 
+  private final Handler mainThread = new Handler(Looper.getMainLooper());
+  private final Runnable idleTimeout = new Runnable() {
+    @Override public void run() {
+      Timber.d("No take started. Releasing kept screen capture.");
+      stopSelf();
+    }
+  };
+
   private boolean running;
   private RecordingSession recordingSession;
 
   private final RecordingSession.Listener listener = new RecordingSession.Listener() {
-    private boolean showTouches;
-    private boolean useDemoMode;
+    // Written by onPrepare on a background thread.
+    private volatile boolean showTouches;
+    private volatile boolean useDemoMode;
+    private volatile boolean instantReplay;
+    /** Whether the running notification is shown. Only accessed on the main thread. */
+    private boolean showingNotification;
 
     @Override public void onPrepare() {
       showTouches = showTouchesProvider.get();
       useDemoMode = useDemoModeProvider.get();
+      instantReplay = instantReplayProvider.get();
+      if (showTouches) {
+        Settings.System.putInt(contentResolver, SHOW_TOUCHES, 1);
+      }
       if (useDemoMode) {
         sendBroadcast(new BarsBuilder().mode(BarsBuilder.BarsMode.TRANSPARENT).build());
         sendBroadcast(new BatteryBuilder().level(100).plugged(FALSE).build());
@@ -84,31 +121,51 @@ public final class TelecineService extends Service {
     }
 
     @Override public void onStart() {
-      if (showTouches) {
-        Settings.System.putInt(contentResolver, SHOW_TOUCHES, 1);
-      }
+      replayRecording.set(recordingSession.isReplaying());
+      mainThread.removeCallbacks(idleTimeout);
 
       if (!recordingNotificationProvider.get()) {
         return; // No running notification was requested.
       }
 
+      Timber.d("Moving service into the foreground with recording notification.");
+      startForeground(NOTIFICATION_ID, createRecordingNotification(null));
+      showingNotification = true;
+    }
+
+    @Override public void onSpaceRemaining(long remainingMs) {
+      if (!showingNotification) {
+        return;
+      }
+      String remaining =
+          DateUtils.formatElapsedTime(TimeUnit.MILLISECONDS.toSeconds(remainingMs));
+      CharSequence space = getString(R.string.notification_recording_space, remaining);
+      NotificationManager notificationManager =
+          (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+      notificationManager.notify(NOTIFICATION_ID, createRecordingNotification(space));
+    }
+
+    private Notification createRecordingNotification(@Nullable CharSequence subText) {
       Context context = getApplicationContext();
       String title = context.getString(R.string.notification_recording_title);
-      String subtitle = context.getString(R.string.notification_recording_subtitle);
-      Notification notification = new Notification.Builder(context) //
+      String subtitle = context.getString(instantReplay //
+          ? R.string.notification_replay_subtitle //
+          : R.string.notification_recording_subtitle);
+      return new Notification.Builder(context) //
           .setContentTitle(title)
           .setContentText(subtitle)
+          .setSubText(subText)
           .setSmallIcon(R.drawable.ic_videocam_white_24dp)
           .setColor(ContextCompat.getColor(context, R.color.primary_normal))
           .setAutoCancel(true)
           .setPriority(PRIORITY_MIN)
+          .setOnlyAlertOnce(true)
           .build();
-
-      Timber.d("Moving service into the foreground with recording notification.");
-      startForeground(NOTIFICATION_ID, notification);
     }
 
     @Override public void onStop() {
+      replayRecording.set(false);
+      showingNotification = false;
       if (showTouches) {
         Settings.System.putInt(contentResolver, SHOW_TOUCHES, 0);
       }
@@ -118,6 +175,13 @@ public final class TelecineService extends Service {
     }
 
     @Override public void onEnd() {
+      KeptCapture capture = recordingSession.takeCapture();
+      if (capture != null) {
+        Timber.d("Keeping screen capture for the next take.");
+        recordingSession.destroy();
+        startSession(0, null, capture);
+        return;
+      }
       Timber.d("Shutting down.");
       stopSelf();
     }
@@ -126,9 +190,24 @@ public final class TelecineService extends Service {
   @Override public void onCreate() {
     AndroidInjection.inject(this);
     super.onCreate();
+    // A new instance has no session. Clear state left behind if the process was killed mid-replay.
+    replayRecording.set(false);
   }
 
   @Override public int onStartCommand(@NonNull Intent intent, int flags, int startId) {
+    if (ACTION_SAVE_REPLAY.equals(intent.getAction())) {
+      if (running) {
+        Timber.d("Saving instant replay.");
+        recordingSession.saveReplay();
+      } else {
+        // The tile saw a replay flag this instance has since cleared. Treat the tap as a launch.
+        Timber.d("No instant replay running. Launching instead.");
+        startActivity(TelecineShortcutLaunchActivity.createQuickTileIntent(this)
+            .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+        stopSelf(startId);
+      }
+      return START_NOT_STICKY;
+    }
     if (running) {
       Timber.d("Already running! Ignoring...");
       return START_NOT_STICKY;
@@ -142,16 +221,33 @@ public final class TelecineService extends Service {
       throw new IllegalStateException("Result code or data missing.");
     }
 
+    startSession(resultCode, data, null);
+
+    return START_NOT_STICKY;
+  }
+
+  /** Show the overlay for a take, reusing the previous take's capture if it was kept. */
+  private void startSession(int resultCode, @Nullable Intent data,
+      @Nullable KeptCapture capture) {
     recordingSession =
-        new RecordingSession(this, listener, resultCode, data, analytics, showCountdownProvider,
-            videoSizePercentageProvider);
+        new RecordingSession(this, listener, resultCode, data, capture, analytics,
+            showCountdownProvider, videoSizePercentageProvider, instantReplayProvider,
+            videoQualityProvider, splitRecordingsProvider, multiTakeProvider,
+            frameRateCapProvider, variableFrameRateProvider);
     recordingSession.showOverlay();
 
-    return START_NOT_STICKY;
+    mainThread.removeCallbacks(idleTimeout);
+    if (capture != null) {
+      mainThread.postDelayed(idleTimeout, MULTI_TAKE_IDLE_TIMEOUT_MS);
+    }
   }
 
   @Override public void onDestroy() {
-    recordingSession.destroy();
+    mainThread.removeCallbacks(idleTimeout);
+    replayRecording.set(false);
+    if (recordingSession != null) {
+      recordingSession.destroy();
+    }
     super.onDestroy();
   }
 
@@ -3,7 +3,6 @@ package com.jakewharton.telecine;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
-import com.google.android.gms.analytics.HitBuilders;
 import dagger.android.AndroidInjection;
 import javax.inject.Inject;
 
@@ -16,10 +15,7 @@ public final class TelecineShortcutConfigureActivity extends Activity {
     AndroidInjection.inject(this);
     super.onCreate(savedInstanceState);
 
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_SHORTCUT) //
-        .setAction(Analytics.ACTION_SHORTCUT_ADDED) //
-        .build());
+    analytics.send(AnalyticsEvents.SHORTCUT_ADDED);
 
     Intent launchIntent = new Intent(this, TelecineShortcutLaunchActivity.class);
     ShortcutIconResource icon = ShortcutIconResource.fromContext(this, R.drawable.ic_launcher);
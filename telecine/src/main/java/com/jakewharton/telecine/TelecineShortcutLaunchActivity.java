@@ -4,7 +4,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import com.google.android.gms.analytics.HitBuilders;
 import dagger.android.AndroidInjection;
 import javax.inject.Inject;
 
@@ -24,14 +23,9 @@ public final class TelecineShortcutLaunchActivity extends Activity {
     super.onCreate(savedInstanceState);
 
     String launchAction = getIntent().getStringExtra(KEY_ACTION);
-    if (launchAction == null) {
-      launchAction = Analytics.ACTION_SHORTCUT_LAUNCHED;
-    }
-
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_SHORTCUT)
-        .setAction(launchAction)
-        .build());
+    analytics.send(Analytics.ACTION_QUICK_TILE_LAUNCHED.equals(launchAction)
+        ? AnalyticsEvents.QUICK_TILE_LAUNCHED
+        : AnalyticsEvents.SHORTCUT_LAUNCHED);
 
     CaptureHelper.fireScreenCaptureIntent(this, analytics);
   }
@@ -3,7 +3,6 @@ package com.jakewharton.telecine;
 import android.annotation.TargetApi;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
-import com.google.android.gms.analytics.HitBuilders;
 import dagger.android.AndroidInjection;
 import javax.inject.Inject;
 import timber.log.Timber;
@@ -13,6 +12,7 @@ import static android.os.Build.VERSION_CODES.N;
 @TargetApi(N) // Only created on N+
 public final class TelecineTileService extends TileService {
   @Inject Analytics analytics;
+  @Inject @ReplayRecording BooleanPreference replayRecording;
 
   @Override public void onCreate() {
     AndroidInjection.inject(this);
@@ -20,6 +20,10 @@ public final class TelecineTileService extends TileService {
   }
 
   @Override public void onClick() {
+    if (replayRecording.get()) {
+      startService(TelecineService.newSaveReplayIntent(this));
+      return;
+    }
     startActivity(TelecineShortcutLaunchActivity.createQuickTileIntent(this));
   }
 
@@ -36,17 +40,11 @@ public final class TelecineTileService extends TileService {
 
   @Override public void onTileAdded() {
     Timber.i("Quick tile added");
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_QUICK_TILE)
-        .setAction(Analytics.ACTION_QUICK_TILE_ADDED)
-        .build());
+    analytics.send(AnalyticsEvents.QUICK_TILE_ADDED);
   }
 
   @Override public void onTileRemoved() {
     Timber.i("Quick tile removed");
-    analytics.send(new HitBuilders.EventBuilder() //
-        .setCategory(Analytics.CATEGORY_QUICK_TILE)
-        .setAction(Analytics.ACTION_QUICK_TILE_REMOVED)
-        .build());
+    analytics.send(AnalyticsEvents.QUICK_TILE_REMOVED);
   }
 }
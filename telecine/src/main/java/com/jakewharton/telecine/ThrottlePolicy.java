@@ -0,0 +1,127 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lowers the frame rate and bit rate through fixed tiers as the device heats up or its battery
+ * runs low, so that long recordings degrade predictably instead of dropping frames once the
+ * system throttles the encoder.
+ *
+ * <p>Worsening conditions raise the tier as soon as a reading crosses a threshold. The tier only
+ * comes back down after readings stay below a lower threshold for {@link #COOL_DOWN_MS}, one
+ * tier at a time, so a temperature hovering around a threshold does not flap. A low battery is
+ * ignored while charging.
+ */
+final class ThrottlePolicy {
+  /** Delivers readings to a listener, on any single thread, until stopped. */
+  interface SignalSource {
+    void start(Listener listener);
+
+    void stop();
+  }
+
+  interface Listener {
+    /**
+     * @param timeMs A monotonic clock reading.
+     * @param temperatureTenths The temperature in tenths of a degree Celsius, or
+     * {@link #UNKNOWN}.
+     * @param batteryPercent The remaining charge, or {@link #UNKNOWN}.
+     */
+    void onReading(long timeMs, int temperatureTenths, int batteryPercent, boolean charging);
+  }
+
+  /** Called on the signal source's thread. */
+  interface Callback {
+    void onTierChanged(long timeMs, int tier, int temperatureTenths, int batteryPercent);
+  }
+
+  static final int UNKNOWN = Integer.MIN_VALUE;
+  static final int TIER_NONE = 0;
+
+  /** Frame rate cap at each tier, or 0 for no cap. */
+  static final int[] MAX_FRAME_RATE = { 0, 30, 20, 15 };
+  static final int[] BIT_RATE_PERCENT = { 100, 80, 60, 40 };
+  /** Temperature entering each tier, in tenths of a degree. */
+  static final int[] TEMPERATURE_TENTHS = { Integer.MIN_VALUE, 400, 430, 460 };
+  /** Battery percentage at or below which each tier is entered. */
+  static final int[] BATTERY_PERCENT = { 100, 15, 5, 0 };
+  /** How far conditions must improve past a tier's threshold before leaving it. */
+  static final int TEMPERATURE_HYSTERESIS_TENTHS = 20;
+  static final int BATTERY_HYSTERESIS_PERCENT = 3;
+  static final long COOL_DOWN_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final SignalSource source;
+  private final Callback callback;
+
+  private int tier = TIER_NONE;
+  /** When readings first allowed a lower tier, or -1 if they do not. */
+  private long coolingSinceMs = -1;
+
+  ThrottlePolicy(SignalSource source, Callback callback) {
+    this.source = source;
+    this.callback = callback;
+  }
+
+  void start() {
+    source.start(new Listener() {
+      @Override public void onReading(long timeMs, int temperatureTenths, int batteryPercent,
+          boolean charging) {
+        update(timeMs, temperatureTenths, batteryPercent, charging);
+      }
+    });
+  }
+
+  void stop() {
+    source.stop();
+  }
+
+  int tier() {
+    return tier;
+  }
+
+  private void update(long timeMs, int temperatureTenths, int batteryPercent, boolean charging) {
+    if (charging) {
+      batteryPercent = UNKNOWN;
+    }
+    int target = tierFor(temperatureTenths, batteryPercent, 0, 0);
+    if (target > tier) {
+      setTier(timeMs, target, temperatureTenths, batteryPercent);
+      return;
+    }
+    // Only leave the current tier once conditions are clearly better than its thresholds.
+    int relaxed = tierFor(temperatureTenths, batteryPercent, TEMPERATURE_HYSTERESIS_TENTHS,
+        BATTERY_HYSTERESIS_PERCENT);
+    if (relaxed >= tier) {
+      coolingSinceMs = -1;
+      return;
+    }
+    if (coolingSinceMs == -1) {
+      coolingSinceMs = timeMs;
+    }
+    if (timeMs - coolingSinceMs >= COOL_DOWN_MS) {
+      setTier(timeMs, tier - 1, temperatureTenths, batteryPercent);
+      coolingSinceMs = timeMs; // The next tier down needs its own period.
+    }
+  }
+
+  /** The highest tier whose thresholds, moved by the margins, the reading meets. */
+  private static int tierFor(int temperatureTenths, int batteryPercent, int temperatureMargin,
+      int batteryMargin) {
+    for (int tier = MAX_FRAME_RATE.length - 1; tier > TIER_NONE; tier--) {
+      if (temperatureTenths != UNKNOWN
+          && temperatureTenths >= TEMPERATURE_TENTHS[tier] - temperatureMargin) {
+        return tier;
+      }
+      if (batteryPercent != UNKNOWN && batteryPercent <= BATTERY_PERCENT[tier] + batteryMargin) {
+        return tier;
+      }
+    }
+    return TIER_NONE;
+  }
+
+  private void setTier(long timeMs, int tier, int temperatureTenths, int batteryPercent) {
+    this.tier = tier;
+    coolingSinceMs = -1;
+    callback.onTierChanged(timeMs, tier, temperatureTenths, batteryPercent);
+  }
+}
@@ -0,0 +1,51 @@
+package com.jakewharton.telecine;
+
+/** Size math for the low resolution frames sampled to build the captured notification. */
+final class ThumbnailSize {
+  final int width;
+  final int height;
+
+  ThumbnailSize(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Scale {@code width} by {@code height} down to fit within {@code maxEdge} on its longer side,
+   * keeping the aspect ratio. Sizes which already fit are not scaled up.
+   */
+  static ThumbnailSize fit(int width, int height, int maxEdge) {
+    if (width <= 0 || height <= 0 || maxEdge <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid size: " + width + "x" + height + " within " + maxEdge);
+    }
+    int longEdge = Math.max(width, height);
+    if (longEdge <= maxEdge) {
+      return new ThumbnailSize(width, height);
+    }
+    int scaledWidth = (int) Math.max(1, ((long) width * maxEdge + longEdge / 2) / longEdge);
+    int scaledHeight = (int) Math.max(1, ((long) height * maxEdge + longEdge / 2) / longEdge);
+    return new ThumbnailSize(scaledWidth, scaledHeight);
+  }
+
+  /** The density which keeps content the same relative size when drawn at this width. */
+  int scaleDensity(int density, int fromWidth) {
+    return Math.max(1, (int) (((long) density * width + fromWidth / 2) / fromWidth));
+  }
+
+  /**
+   * The width in pixels of an image buffer whose rows are {@code rowStride} bytes apart, which
+   * may be wider than the image itself when rows are padded.
+   */
+  static int bufferWidth(int width, int rowStride, int pixelStride) {
+    if (pixelStride <= 0 || rowStride % pixelStride != 0 || rowStride / pixelStride < width) {
+      throw new IllegalArgumentException("Invalid stride " + rowStride + "/" + pixelStride
+          + " for width " + width);
+    }
+    return rowStride / pixelStride;
+  }
+
+  @Override public String toString() {
+    return width + "x" + height;
+  }
+}
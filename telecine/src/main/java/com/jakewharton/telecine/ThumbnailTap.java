@@ -0,0 +1,125 @@
+package com.jakewharton.telecine;
+
+import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import timber.log.Timber;
+
+import static android.hardware.display.DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
+
+/**
+ * Samples the projection into a small second display so that a frame from near the end is on hand
+ * when recording stops. The display has no surface most of the time and so is not composed at
+ * all. Every {@link #SAMPLE_INTERVAL_MS} its surface is attached for a single frame and detached
+ * again. Only the newest image is held and nothing is copied until {@link #capture()}.
+ */
+final class ThumbnailTap {
+  /** Long edge of the sampled frame. Notifications show big pictures at roughly this size. */
+  static final int MAX_EDGE = 540;
+  /** The most a frame can lag behind the end of the recording, plus one frame. */
+  static final long SAMPLE_INTERVAL_MS = 2000;
+
+  private static final String DISPLAY_NAME = "telecine-thumbnail";
+
+  private final ImageReader reader;
+  private final VirtualDisplay display;
+  private final Handler handler;
+  /** The newest frame. Only accessed on the handler's thread. */
+  private Image latest;
+  /** False once captured or released. Only accessed on the handler's thread. */
+  private boolean sampling = true;
+
+  private final Runnable sample = new Runnable() {
+    @Override public void run() {
+      // Stays attached until a frame arrives. A still screen is not composed either way.
+      display.setSurface(reader.getSurface());
+    }
+  };
+
+  static ThumbnailTap create(MediaProjection projection, RecordingInfo info, Handler handler) {
+    ThumbnailSize size = ThumbnailSize.fit(info.width, info.height, MAX_EDGE);
+    int density = size.scaleDensity(info.density, info.width);
+    Timber.d("Thumbnail tap: %s @ %s", size, density);
+    return new ThumbnailTap(projection, size, density, handler);
+  }
+
+  private ThumbnailTap(MediaProjection projection, ThumbnailSize size, int density,
+      final Handler handler) {
+    this.handler = handler;
+    // One image held, one being delivered, and one for the display to draw into.
+    reader = ImageReader.newInstance(size.width, size.height, PixelFormat.RGBA_8888, 3);
+    reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+      @Override public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+          return;
+        }
+        if (latest != null) {
+          latest.close();
+        }
+        latest = image;
+        // One frame is enough. Stop composing until the next sample.
+        display.setSurface(null);
+        if (sampling) {
+          handler.postDelayed(sample, SAMPLE_INTERVAL_MS);
+        }
+      }
+    }, handler);
+    // Created without a surface. The first sample is taken once recording is under way.
+    display = projection.createVirtualDisplay(DISPLAY_NAME, size.width, size.height, density,
+        VIRTUAL_DISPLAY_FLAG_PRESENTATION, null, null, null);
+    handler.postDelayed(sample, SAMPLE_INTERVAL_MS);
+  }
+
+  /**
+   * Copy the most recently sampled frame. Returns null if none was drawn. No more samples are
+   * taken afterwards. Must be called on the handler's thread.
+   */
+  @Nullable Bitmap capture() {
+    sampling = false;
+    handler.removeCallbacks(sample);
+    display.setSurface(null);
+    // Pick up a frame which arrived after the last callback.
+    Image image = reader.acquireLatestImage();
+    if (image != null) {
+      if (latest != null) {
+        latest.close();
+      }
+      latest = image;
+    }
+    if (latest == null) {
+      return null;
+    }
+
+    int width = latest.getWidth();
+    int height = latest.getHeight();
+    Image.Plane plane = latest.getPlanes()[0];
+    int bufferWidth =
+        ThumbnailSize.bufferWidth(width, plane.getRowStride(), plane.getPixelStride());
+    Bitmap padded = Bitmap.createBitmap(bufferWidth, height, Bitmap.Config.ARGB_8888);
+    padded.copyPixelsFromBuffer(plane.getBuffer());
+    if (bufferWidth == width) {
+      return padded;
+    }
+    Bitmap bitmap = Bitmap.createBitmap(padded, 0, 0, width, height);
+    padded.recycle();
+    return bitmap;
+  }
+
+  /** Must be called on the handler's thread. */
+  void release() {
+    sampling = false;
+    handler.removeCallbacks(sample);
+    display.release();
+    if (latest != null) {
+      latest.close();
+      latest = null;
+    }
+    reader.close();
+  }
+}
@@ -0,0 +1,88 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+
+/**
+ * Detects whether a frame differs from the one before it by hashing fixed-size tiles of its
+ * pixels. Frames are small downsampled copies of the screen so hashing one costs a fraction of
+ * encoding it.
+ *
+ * <p>A hash collision makes a changed tile look unchanged. Changes smaller than the downsampled
+ * pixels can also vanish. Either only delays the change until something else on screen changes
+ * or until {@link FrameGate} refreshes an idle recording.
+ */
+final class TileHash {
+  private static final int FNV_PRIME = 0x01000193;
+  private static final int FNV_OFFSET = 0x811c9dc5;
+
+  final int width;
+  final int height;
+  final int tileSize;
+  final int columns;
+  final int rows;
+
+  private int[] hashes;
+  private int[] previous;
+  private boolean first = true;
+
+  TileHash(int width, int height, int tileSize) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    }
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("tileSize <= 0: " + tileSize);
+    }
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    columns = (width + tileSize - 1) / tileSize;
+    rows = (height + tileSize - 1) / tileSize;
+    hashes = new int[columns * rows];
+    previous = new int[columns * rows];
+  }
+
+  /**
+   * Hash a frame of {@code width * height} pixels stored row after row and return the number
+   * of tiles which differ from the previous frame. Every tile differs on the first frame.
+   */
+  int update(int[] pixels) {
+    if (pixels.length < width * height) {
+      throw new IllegalArgumentException(
+          "pixels.length < " + width * height + ": " + pixels.length);
+    }
+    int[] hashes = this.hashes;
+    Arrays.fill(hashes, FNV_OFFSET);
+
+    // Walk the pixels in memory order and fold each row's run into its tile's running hash.
+    int tileSize = this.tileSize;
+    int width = this.width;
+    for (int y = 0, rowStart = 0; y < height; y++, rowStart += width) {
+      int tileRow = y / tileSize * columns;
+      for (int x = 0, tile = tileRow; x < width; x += tileSize, tile++) {
+        int end = rowStart + Math.min(x + tileSize, width);
+        int hash = hashes[tile];
+        for (int i = rowStart + x; i < end; i++) {
+          hash = (hash ^ pixels[i]) * FNV_PRIME;
+        }
+        hashes[tile] = hash;
+      }
+    }
+
+    int changed;
+    if (first) {
+      first = false;
+      changed = hashes.length;
+    } else {
+      changed = 0;
+      int[] previous = this.previous;
+      for (int i = 0; i < hashes.length; i++) {
+        if (hashes[i] != previous[i]) {
+          changed++;
+        }
+      }
+    }
+    this.hashes = this.previous;
+    this.previous = hashes;
+    return changed;
+  }
+}
@@ -0,0 +1,138 @@
+package com.jakewharton.telecine;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.support.annotation.Nullable;
+import android.widget.Toast;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Cuts the dead time off both ends of a recording. Its first second is of reaching from the overlay
+ * to whatever is being recorded, after any frames captured while the recorder was still starting.
+ * Recordings are stopped from the notification shade so their last couple of seconds are almost
+ * always of the shade being pulled down. The trimmed copy is saved next to the original, which is
+ * left as it was.
+ *
+ * <p>Copying a long recording takes far longer than a broadcast may run, so it is done here. The
+ * recording's notification is only dismissed once the copy is saved.
+ */
+public final class TrimRecordingService extends IntentService {
+  /** Microseconds of frames which were captured before the recording was reported started. */
+  static final String EXTRA_STARTUP_US = "com.jakewharton.telecine.extra.STARTUP_US";
+  static final long HEAD_US = TimeUnit.SECONDS.toMicros(1);
+  static final long TAIL_US = TimeUnit.SECONDS.toMicros(2);
+
+  private final Handler mainThread = new Handler(Looper.getMainLooper());
+
+  public TrimRecordingService() {
+    super("Telecine-Trim");
+  }
+
+  @Override protected void onHandleIntent(@Nullable Intent intent) {
+    if (intent == null) {
+      return;
+    }
+    Uri uri = intent.getData();
+    long startUs = intent.getLongExtra(EXTRA_STARTUP_US, 0) + HEAD_US;
+    boolean trimmed = trim(getContentResolver(), uri, startUs);
+    if (trimmed) {
+      // Only now is the original's notification done with. On failure its actions stay available.
+      NotificationManager notificationManager =
+          (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+      notificationManager.cancel(RecordingSession.NOTIFICATION_ID);
+    }
+    final int message = trimmed ? R.string.trim_complete : R.string.trim_failed;
+    final Context appContext = getApplicationContext();
+    mainThread.post(new Runnable() {
+      @Override public void run() {
+        Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+      }
+    });
+  }
+
+  /** Trim the recording at {@code uri}, deleting the trimmed copy if it cannot be saved. */
+  private static boolean trim(ContentResolver contentResolver, Uri uri, long startUs) {
+    File file = queryFile(contentResolver, uri);
+    if (file == null) {
+      Timber.e("Unable to find recording for %s", uri);
+      return false;
+    }
+    File trimmed = Mp4Trimmer.trimmedFile(file);
+    boolean written = false;
+    try {
+      Mp4Metadata metadata = readMetadata(file);
+      long endUs = metadata.durationUs - TAIL_US;
+      if (endUs <= startUs) {
+        Timber.w("Recording too short to trim: %sus", metadata.durationUs);
+        return false;
+      }
+      Mp4Trimmer.Result result = Mp4Trimmer.trim(file, trimmed, startUs, endUs);
+      written = true;
+      Timber.i("Trimmed recording to '%s': %s", trimmed, result);
+
+      long nowMillis = System.currentTimeMillis();
+      long durationMs = TimeUnit.MICROSECONDS.toMillis(result.durationUs);
+      ContentValues values = new ContentValues();
+      values.put(MediaStore.Video.Media.DATA, trimmed.getAbsolutePath());
+      values.put(MediaStore.Video.Media.TITLE, trimmed.getName().replaceFirst("\\.mp4$", ""));
+      values.put(MediaStore.Video.Media.DISPLAY_NAME, trimmed.getName());
+      values.put(MediaStore.Video.Media.MIME_TYPE, RecordingSession.MIME_TYPE);
+      values.put(MediaStore.Video.Media.SIZE, result.size);
+      values.put(MediaStore.Video.Media.WIDTH, metadata.width);
+      values.put(MediaStore.Video.Media.HEIGHT, metadata.height);
+      values.put(MediaStore.Video.Media.RESOLUTION, metadata.width + "x" + metadata.height);
+      values.put(MediaStore.Video.Media.DURATION, durationMs);
+      values.put(MediaStore.Video.Media.DATE_TAKEN, nowMillis - durationMs);
+      values.put(MediaStore.Video.Media.DATE_ADDED, TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+      values.put(MediaStore.Video.Media.DATE_MODIFIED,
+          TimeUnit.MILLISECONDS.toSeconds(trimmed.lastModified()));
+      if (contentResolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values) == null) {
+        throw new IOException("Unable to add trimmed recording to the media store.");
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      Timber.e(e, "Unable to trim recording.");
+      // The trimmer never leaves partial output, but a trimmed copy nobody can see is no better.
+      if (written) {
+        //noinspection ResultOfMethodCallIgnored
+        trimmed.delete();
+      }
+      return false;
+    }
+  }
+
+  @Nullable private static File queryFile(ContentResolver contentResolver, Uri uri) {
+    Cursor cursor = contentResolver.query(uri, new String[] { MediaStore.Video.Media.DATA },
+        null, null, null);
+    if (cursor == null) {
+      return null;
+    }
+    try {
+      return cursor.moveToFirst() ? new File(cursor.getString(0)) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static Mp4Metadata readMetadata(File file) throws IOException {
+    FileInputStream input = new FileInputStream(file);
+    try {
+      return Mp4Parser.parse(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_HIGH;
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_LOW;
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_MEDIUM;
+
+final class VideoQualityAdapter extends BaseAdapter {
+  static int getSelectedPosition(int value) {
+    switch (value) {
+      case QUALITY_HIGH: return 0;
+      case QUALITY_MEDIUM: return 1;
+      case QUALITY_LOW: return 2;
+      default: return 1;
+    }
+  }
+
+  private final LayoutInflater inflater;
+
+  VideoQualityAdapter(Context context) {
+    inflater = LayoutInflater.from(context);
+  }
+
+  @Override public int getCount() {
+    return 3;
+  }
+
+  @Override public Integer getItem(int position) {
+    switch (position) {
+      case 0: return QUALITY_HIGH;
+      case 1: return QUALITY_MEDIUM;
+      case 2: return QUALITY_LOW;
+      default: throw new IllegalArgumentException("Unknown position: " + position);
+    }
+  }
+
+  @Override public long getItemId(int position) {
+    return position;
+  }
+
+  @Override public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+    TextView tv = (TextView) convertView;
+    if (tv == null) {
+      tv =
+          (TextView) inflater.inflate(android.R.layout.simple_spinner_dropdown_item, parent, false);
+    }
+
+    tv.setText(getLabel(getItem(position)));
+
+    return tv;
+  }
+
+  private static int getLabel(int quality) {
+    switch (quality) {
+      case QUALITY_HIGH: return R.string.video_quality_high;
+      case QUALITY_MEDIUM: return R.string.video_quality_medium;
+      case QUALITY_LOW: return R.string.video_quality_low;
+      default: throw new IllegalArgumentException("Unknown quality: " + quality);
+    }
+  }
+}
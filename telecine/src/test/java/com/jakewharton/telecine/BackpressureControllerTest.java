@@ -0,0 +1,171 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class BackpressureControllerTest {
+  private static final int FRAME_RATE = 60;
+  private static final int BIT_RATE = 8000000;
+  private static final long MS = 1000;
+
+  private final List<String> events = new ArrayList<>();
+  private final BackpressureController.Actuator actuator =
+      new BackpressureController.Actuator() {
+        @Override public void setBitRate(int bitRate) {
+          events.add("bitRate " + bitRate);
+        }
+
+        @Override public void setSizePercent(int percent) {
+          events.add("size " + percent);
+        }
+      };
+  private long timeUs;
+
+  /** Simulate an encoder emitting {@code fps} frames per second, each {@code latencyUs} late. */
+  private void run(BackpressureController controller, int seconds, int fps, long latencyUs) {
+    long intervalUs = 1000000 / fps;
+    long endUs = timeUs + seconds * 1000000L;
+    for (; timeUs < endUs; timeUs += intervalUs) {
+      controller.frameEncoded(timeUs, timeUs + latencyUs);
+    }
+  }
+
+  /** Simulate an encoder which is always late until the controller reaches {@code level}. */
+  private void runUntilLevel(BackpressureController controller, int level) {
+    while (controller.level() < level) {
+      run(controller, 1, 60, 80 * MS);
+    }
+  }
+
+  @Test public void healthyEncoderKeepsFullQuality() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    run(controller, 30, 60, 10 * MS);
+    assertThat(controller.level()).isEqualTo(0);
+    assertThat(events).isEmpty();
+  }
+
+  @Test public void lateFramesStepBitRateDown() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, false, actuator);
+    run(controller, 3, 60, 80 * MS);
+    assertThat(controller.level()).isEqualTo(1);
+    assertThat(events).containsExactly("bitRate 6000000");
+
+    // Without resizing there is nowhere to go past the lowest bit rate.
+    run(controller, 30, 60, 80 * MS);
+    assertThat(controller.level()).isEqualTo(BackpressureController.MAX_BIT_RATE_LEVEL);
+    assertThat(events).containsExactly("bitRate 6000000", "bitRate 4000000").inOrder();
+  }
+
+  @Test public void sizeStepsFollowBitRateSteps() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    run(controller, 30, 60, 80 * MS);
+    assertThat(controller.level()).isEqualTo(4);
+    assertThat(events).containsExactly("bitRate 6000000", "bitRate 4000000", "size 75", "size 50")
+        .inOrder();
+  }
+
+  @Test public void sizeRecoversBeforeBitRate() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    runUntilLevel(controller, 4);
+    events.clear();
+
+    run(controller, 60, 60, 5 * MS);
+    assertThat(controller.level()).isEqualTo(0);
+    assertThat(events).containsExactly("size 75", "size 100", "bitRate 6000000", "bitRate 8000000")
+        .inOrder();
+  }
+
+  @Test public void resizeGapIsNotBackpressure() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    runUntilLevel(controller, 3);
+    assertThat(events).contains("size 75");
+
+    // Nothing is captured while the encoder is replaced, then the smaller one keeps up.
+    timeUs += 200 * MS;
+    run(controller, 5, 60, 10 * MS);
+    assertThat(controller.level()).isEqualTo(3);
+  }
+
+  @Test public void smallerEncoderStillBehindKeepsShrinking() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    runUntilLevel(controller, 3);
+
+    // Cadence recovers at 75% but frames are still queued behind each other.
+    timeUs += 200 * MS;
+    run(controller, 4, 45, 60 * MS);
+    assertThat(controller.level()).isEqualTo(4);
+    assertThat(events.get(events.size() - 1)).isEqualTo("size 50");
+  }
+
+  @Test public void scaleRoundsDownToAlignment() {
+    assertThat(BackpressureController.scale(1080, 75, 16)).isEqualTo(800);
+    assertThat(BackpressureController.scale(1920, 50, 16)).isEqualTo(960);
+    // Odd alignments are doubled so sizes stay even.
+    assertThat(BackpressureController.scale(1081, 75, 1)).isEqualTo(810);
+    assertThat(BackpressureController.scale(1081, 50, 1)).isEqualTo(540);
+    // Never below one aligned block.
+    assertThat(BackpressureController.scale(20, 50, 16)).isEqualTo(16);
+  }
+
+  @Test public void singleSlowWindowIsIgnored() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    run(controller, 1, 60, 80 * MS);
+    run(controller, 10, 60, 10 * MS);
+    assertThat(controller.level()).isEqualTo(0);
+  }
+
+  @Test public void recoveryIsSlowerThanDownshift() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    run(controller, 3, 60, 80 * MS);
+    assertThat(controller.level()).isEqualTo(1);
+
+    run(controller, 5, 60, 5 * MS);
+    assertThat(controller.level()).isEqualTo(1);
+    run(controller, 10, 60, 5 * MS);
+    assertThat(controller.level()).isEqualTo(0);
+    assertThat(events).containsExactly("bitRate 6000000", "bitRate 8000000").inOrder();
+  }
+
+  @Test public void idleScreenIsNotBackpressure() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    // Skipped unchanged frames leave only a few, all promptly encoded.
+    run(controller, 30, 2, 10 * MS);
+    assertThat(controller.level()).isEqualTo(0);
+  }
+
+  @Test public void fullQueueWithLowCadenceIsBehind() {
+    BackpressureController controller =
+        new BackpressureController(FRAME_RATE, BIT_RATE, true, actuator);
+    // No frame is late but the compositor is dropping a third of them.
+    run(controller, 3, 40, 40 * MS);
+    assertThat(controller.level()).isEqualTo(1);
+  }
+
+  @Test public void invalidArguments() {
+    try {
+      new BackpressureController(0, BIT_RATE, true, actuator);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("frameRate <= 0: 0");
+    }
+    try {
+      new BackpressureController(FRAME_RATE, 0, true, actuator);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("bitRate <= 0: 0");
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class BatchingAnalyticsTest {
+  /** Stands in for the tracker. Records what was sent and from which thread. */
+  static final class FakeTracker implements Analytics {
+    final BlockingQueue<Map<String, String>> sent = new LinkedBlockingQueue<>();
+    final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch entered = new CountDownLatch(1);
+    volatile CountDownLatch gate;
+
+    @Override public void send(Map<String, String> params) {
+      entered.countDown();
+      CountDownLatch gate = this.gate;
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+      threads.add(Thread.currentThread().getName());
+      sent.add(params);
+    }
+
+    Map<String, String> take() throws InterruptedException {
+      Map<String, String> event = sent.poll(5, TimeUnit.SECONDS);
+      if (event == null) {
+        throw new AssertionError("Timed out waiting for event.");
+      }
+      return event;
+    }
+  }
+
+  private static Map<String, String> event(String action) {
+    return Collections.singletonMap("action", action);
+  }
+
+  @Test public void sendsInOrderOnWorkerThread() throws InterruptedException {
+    FakeTracker tracker = new FakeTracker();
+    BatchingAnalytics analytics = new BatchingAnalytics(tracker, 8);
+    analytics.send(event("one"));
+    analytics.send(event("two"));
+    analytics.send(event("three"));
+
+    assertThat(tracker.take()).isEqualTo(event("one"));
+    assertThat(tracker.take()).isEqualTo(event("two"));
+    assertThat(tracker.take()).isEqualTo(event("three"));
+    assertThat(tracker.threads).containsExactly("Telecine-Analytics", "Telecine-Analytics",
+        "Telecine-Analytics");
+    assertThat(analytics.droppedCount()).isEqualTo(0);
+  }
+
+  @Test public void sendDoesNotWaitForTracker() throws InterruptedException {
+    FakeTracker tracker = new FakeTracker();
+    tracker.gate = new CountDownLatch(1);
+    BatchingAnalytics analytics = new BatchingAnalytics(tracker, 8);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      analytics.send(event("event"));
+    }
+    assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(1L);
+    assertThat(tracker.sent).isEmpty();
+
+    tracker.gate.countDown();
+    for (int i = 0; i < 5; i++) {
+      tracker.take();
+    }
+  }
+
+  @Test public void dropsAndCountsWhenFull() throws InterruptedException {
+    FakeTracker tracker = new FakeTracker();
+    tracker.gate = new CountDownLatch(1);
+    BatchingAnalytics analytics = new BatchingAnalytics(tracker, 4);
+
+    // The worker takes the first event and blocks in the tracker, leaving the queue empty.
+    analytics.send(event("0"));
+    assertThat(tracker.entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+    for (int i = 1; i <= 10; i++) {
+      analytics.send(event(String.valueOf(i)));
+    }
+    assertThat(analytics.droppedCount()).isEqualTo(6);
+
+    tracker.gate.countDown();
+    List<String> received = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      received.add(tracker.take().get("action"));
+    }
+    assertThat(received).containsExactly("0", "1", "2", "3", "4").inOrder();
+    assertThat(tracker.sent.poll(100, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test public void trackerFailureDoesNotStopWorker() throws InterruptedException {
+    final FakeTracker tracker = new FakeTracker();
+    Analytics failing = new Analytics() {
+      private boolean failed;
+
+      @Override public void send(Map<String, String> params) {
+        if (!failed) {
+          failed = true;
+          throw new IllegalStateException("Broken!");
+        }
+        tracker.send(params);
+      }
+    };
+    BatchingAnalytics analytics = new BatchingAnalytics(failing, 8);
+    analytics.send(event("lost"));
+    analytics.send(event("kept"));
+    assertThat(tracker.take()).isEqualTo(event("kept"));
+  }
+}
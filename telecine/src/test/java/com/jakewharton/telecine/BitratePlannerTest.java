@@ -0,0 +1,88 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.BitratePlanner.MAX_BIT_RATE;
+import static com.jakewharton.telecine.BitratePlanner.MIN_BIT_RATE;
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_HIGH;
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_LOW;
+import static com.jakewharton.telecine.BitratePlanner.QUALITY_MEDIUM;
+import static com.jakewharton.telecine.BitratePlanner.plan;
+import static org.junit.Assert.fail;
+
+public final class BitratePlannerTest {
+  @Test public void fullHdMediumIsCloseToPreviousFixedRate() {
+    int bitRate = plan(1080, 1920, 30, QUALITY_MEDIUM);
+    assertThat(bitRate).isEqualTo(7464960);
+  }
+
+  @Test public void scalesWithPixelCount() {
+    int full = plan(1080, 1920, 30, QUALITY_MEDIUM);
+    int half = plan(540, 960, 30, QUALITY_MEDIUM);
+    assertThat(half).isEqualTo(full / 4);
+  }
+
+  @Test public void scalesWithFrameRate() {
+    assertThat(plan(720, 1280, 60, QUALITY_MEDIUM))
+        .isEqualTo(2 * plan(720, 1280, 30, QUALITY_MEDIUM));
+  }
+
+  @Test public void qualityTiersAreOrdered() {
+    int low = plan(1080, 1920, 30, QUALITY_LOW);
+    int medium = plan(1080, 1920, 30, QUALITY_MEDIUM);
+    int high = plan(1080, 1920, 30, QUALITY_HIGH);
+    assertThat(low).isLessThan(medium);
+    assertThat(medium).isLessThan(high);
+  }
+
+  @Test public void largeDisplaysAreNotStarved() {
+    assertThat(plan(1440, 2560, 30, QUALITY_MEDIUM)).isGreaterThan(8 * 1000 * 1000);
+  }
+
+  @Test public void clampsToDefaultBounds() {
+    assertThat(plan(16, 16, 1, QUALITY_LOW)).isEqualTo(MIN_BIT_RATE);
+    assertThat(plan(4096, 4096, 120, QUALITY_HIGH)).isEqualTo(MAX_BIT_RATE);
+  }
+
+  @Test public void clampsToEncoderBounds() {
+    assertThat(plan(1080, 1920, 30, QUALITY_HIGH, 1000000, 10000000)).isEqualTo(10000000);
+    assertThat(plan(240, 320, 30, QUALITY_LOW, 1000000, 10000000)).isEqualTo(1000000);
+    assertThat(plan(720, 1280, 30, QUALITY_MEDIUM, 1000000, 10000000)).isEqualTo(3317760);
+  }
+
+  @Test public void doesNotOverflow() {
+    assertThat(plan(Integer.MAX_VALUE, Integer.MAX_VALUE, 240, QUALITY_HIGH, 1, Integer.MAX_VALUE))
+        .isEqualTo(Integer.MAX_VALUE);
+  }
+
+  @Test public void unknownQualityThrows() {
+    try {
+      plan(1080, 1920, 30, 3);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected).hasMessage("Unknown quality: 3");
+    }
+  }
+
+  @Test public void invalidSizeThrows() {
+    try {
+      plan(0, 1920, 30, QUALITY_MEDIUM);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      plan(1080, 1920, 0, QUALITY_MEDIUM);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void invertedBoundsThrow() {
+    try {
+      plan(1080, 1920, 30, QUALITY_MEDIUM, 10, 5);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
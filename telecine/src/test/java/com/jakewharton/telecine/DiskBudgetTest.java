@@ -0,0 +1,106 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class DiskBudgetTest {
+  private static final int BIT_RATE = 8000000; // 1,100,000 bytes/s with overhead.
+  private static final long RESERVE = 10000000;
+  private static final long WARN_US = 60000000;
+  private static final long STOP_US = 10000000;
+  private static final long SECOND_US = 1000000;
+
+  private final DiskBudget budget = new DiskBudget(BIT_RATE, RESERVE, WARN_US, STOP_US);
+
+  @Test public void plannedRateIncludesOverhead() {
+    assertThat(budget.bytesPerSecond()).isEqualTo(1100000);
+  }
+
+  @Test public void remainingExcludesReserveAndFinish() {
+    assertThat(budget.remainingUs(RESERVE + 1100000 * 120, 0)).isEqualTo(120 * SECOND_US);
+    assertThat(budget.remainingUs(RESERVE + 1100000 * 120, 1100000 * 20))
+        .isEqualTo(100 * SECOND_US);
+    assertThat(budget.remainingUs(RESERVE, 0)).isEqualTo(0);
+    assertThat(budget.remainingUs(RESERVE / 2, 0)).isEqualTo(0);
+  }
+
+  @Test public void canStartOnlyBeyondWarning() {
+    assertThat(budget.canStart(RESERVE + 1100000 * 61)).isTrue();
+    assertThat(budget.canStart(RESERVE + 1100000 * 60)).isFalse();
+  }
+
+  @Test public void warnsThenStops() {
+    long free = RESERVE + 1100000 * 100;
+    long timeUs = 0;
+    assertThat(budget.update(free, 0, timeUs)).isEqualTo(DiskBudget.OK);
+    while (budget.update(free, 0, timeUs) == DiskBudget.OK) {
+      free -= 1100000 * 5;
+      timeUs += 5 * SECOND_US;
+    }
+    assertThat(budget.remainingUs(free, 0)).isAtMost(WARN_US);
+    assertThat(budget.remainingUs(free, 0)).isGreaterThan(STOP_US);
+    while (budget.update(free, 0, timeUs) == DiskBudget.WARN) {
+      free -= 1100000 * 5;
+      timeUs += 5 * SECOND_US;
+    }
+    assertThat(budget.update(free, 0, timeUs)).isEqualTo(DiskBudget.STOP);
+    assertThat(budget.remainingUs(free, 0)).isAtMost(STOP_US);
+  }
+
+  @Test public void finishBytesBringStopForward() {
+    long free = RESERVE + 1100000 * 30;
+    assertThat(budget.update(free, 0, 0)).isEqualTo(DiskBudget.WARN);
+    assertThat(budget.update(free, 1100000 * 25, SECOND_US)).isEqualTo(DiskBudget.STOP);
+  }
+
+  @Test public void fasterObservedRateIsUsed() {
+    long free = 10000000000L;
+    long timeUs = 0;
+    // Something else is writing too. The disk fills at 5MB/s.
+    for (int i = 0; i < 20; i++) {
+      budget.update(free, 0, timeUs);
+      free -= 5000000 * 5;
+      timeUs += 5 * SECOND_US;
+    }
+    assertThat(budget.bytesPerSecond()).isEqualTo(5000000);
+  }
+
+  @Test public void observedRateIsSmoothed() {
+    budget.update(10000000000L, 0, 0);
+    budget.update(10000000000L - 5000000, 0, SECOND_US);
+    assertThat(budget.bytesPerSecond()).isEqualTo(5000000);
+    // A single quiet interval moves the rate only part of the way.
+    budget.update(10000000000L - 5000000, 0, 2 * SECOND_US);
+    assertThat(budget.bytesPerSecond()).isEqualTo(3500000);
+  }
+
+  @Test public void slowerObservedRateDoesNotLowerPlannedRate() {
+    budget.update(10000000000L, 0, 0);
+    budget.update(10000000000L - 100000, 0, SECOND_US);
+    assertThat(budget.bytesPerSecond()).isEqualTo(1100000);
+  }
+
+  @Test public void freedSpaceIsIgnored() {
+    budget.update(10000000000L, 0, 0);
+    budget.update(10000000000L - 5000000, 0, SECOND_US);
+    budget.update(20000000000L, 0, 2 * SECOND_US);
+    assertThat(budget.bytesPerSecond()).isEqualTo(5000000);
+  }
+
+  @Test public void invalidArguments() {
+    try {
+      new DiskBudget(0, RESERVE, WARN_US, STOP_US);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("bitRate <= 0: 0");
+    }
+    try {
+      new DiskBudget(BIT_RATE, RESERVE, STOP_US, WARN_US);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("stopUs > warnUs: 60000000 > 10000000");
+    }
+  }
+}
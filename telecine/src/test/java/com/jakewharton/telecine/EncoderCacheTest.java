@@ -0,0 +1,167 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class EncoderCacheTest {
+  private static final String FINGERPRINT = "google/walleye/walleye:8.1.0/OPM1/4479392:user/keys";
+  private static final List<EncoderCapabilities> ENCODERS = Arrays.asList(
+      new EncoderCapabilities("OMX.qcom.video.encoder.avc", true, 96, 4096, 96, 2176, 16, 16, 1,
+          100000000, 240, 1966080, 0b111, new int[] { 1, 2, 8 }),
+      new EncoderCapabilities("OMX.google.h264.encoder", false, 16, 2048, 16, 2048, 2, 2, 1,
+          12000000, 60, 108000, 0b010, new int[] { 1 }));
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test public void roundTrip() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+
+    List<EncoderCapabilities> encoders = EncoderCache.read(file, FINGERPRINT);
+    assertThat(encoders).hasSize(2);
+    for (int i = 0; i < encoders.size(); i++) {
+      assertSameCapabilities(encoders.get(i), ENCODERS.get(i));
+    }
+  }
+
+  @Test public void roundTripNoEncoders() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, Collections.<EncoderCapabilities>emptyList());
+    assertThat(EncoderCache.read(file, FINGERPRINT)).isEmpty();
+  }
+
+  @Test public void isCompact() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    assertThat(file.length()).isLessThan(300L);
+  }
+
+  @Test public void otherFingerprintIsStale() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    assertThat(EncoderCache.read(file, FINGERPRINT + "-update")).isNull();
+  }
+
+  @Test public void otherVersionIsStale() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4);
+      raf.writeInt(EncoderCache.VERSION + 1);
+    } finally {
+      raf.close();
+    }
+    assertThat(EncoderCache.read(file, FINGERPRINT)).isNull();
+  }
+
+  @Test public void notACacheThrows() throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    output.write("not a cache".getBytes("UTF-8"));
+    output.close();
+    try {
+      EncoderCache.read(file, FINGERPRINT);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("Not an encoder cache.");
+    }
+  }
+
+  @Test public void truncatedThrows() throws IOException {
+    File file = temporaryFolder.newFile();
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 3);
+    } finally {
+      raf.close();
+    }
+    try {
+      EncoderCache.read(file, FINGERPRINT);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void loadProbesOnceThenReads() {
+    File file = new File(temporaryFolder.getRoot(), EncoderCache.FILE_NAME);
+    CountingProbe probe = new CountingProbe();
+
+    List<EncoderCapabilities> first = EncoderCache.load(file, FINGERPRINT, probe);
+    assertThat(first).isSameAs(ENCODERS);
+    assertThat(probe.count).isEqualTo(1);
+
+    List<EncoderCapabilities> second = EncoderCache.load(file, FINGERPRINT, probe);
+    assertThat(second).hasSize(2);
+    assertSameCapabilities(second.get(0), ENCODERS.get(0));
+    assertThat(probe.count).isEqualTo(1);
+  }
+
+  @Test public void loadProbesAgainAfterSystemUpdate() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), EncoderCache.FILE_NAME);
+    CountingProbe probe = new CountingProbe();
+    EncoderCache.load(file, FINGERPRINT, probe);
+
+    String updated = FINGERPRINT + "-update";
+    EncoderCache.load(file, updated, probe);
+    assertThat(probe.count).isEqualTo(2);
+    // The new build's results replace the old ones.
+    assertThat(EncoderCache.read(file, updated)).isNotNull();
+    assertThat(EncoderCache.read(file, FINGERPRINT)).isNull();
+  }
+
+  @Test public void loadProbesAgainWhenCorrupt() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), EncoderCache.FILE_NAME);
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(new byte[] { 0x54, 0x4c });
+    output.close();
+
+    CountingProbe probe = new CountingProbe();
+    assertThat(EncoderCache.load(file, FINGERPRINT, probe)).isSameAs(ENCODERS);
+    assertThat(probe.count).isEqualTo(1);
+    assertThat(EncoderCache.read(file, FINGERPRINT)).hasSize(2);
+  }
+
+  @Test public void loadWithoutStorageStillProbes() {
+    File file = new File(new File(temporaryFolder.getRoot(), "missing"), EncoderCache.FILE_NAME);
+    CountingProbe probe = new CountingProbe();
+    assertThat(EncoderCache.load(file, FINGERPRINT, probe)).isSameAs(ENCODERS);
+    assertThat(EncoderCache.load(file, FINGERPRINT, probe)).isSameAs(ENCODERS);
+    assertThat(probe.count).isEqualTo(2);
+    assertThat(file.exists()).isFalse();
+  }
+
+  @Test public void writeLeavesNoTemporaryFiles() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), EncoderCache.FILE_NAME);
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    EncoderCache.write(file, FINGERPRINT, ENCODERS);
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly(EncoderCache.FILE_NAME);
+  }
+
+  private static void assertSameCapabilities(EncoderCapabilities actual,
+      EncoderCapabilities expected) {
+    assertThat(actual.toString()).isEqualTo(expected.toString());
+    assertThat(actual.hardwareAccelerated).isEqualTo(expected.hardwareAccelerated);
+  }
+
+  private static final class CountingProbe implements EncoderCache.Probe {
+    int count;
+
+    @Override public List<EncoderCapabilities> query() {
+      count++;
+      return ENCODERS;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.EncodedSample.FLAG_CODEC_CONFIG;
+import static com.jakewharton.telecine.EncodedSample.FLAG_END_OF_STREAM;
+import static com.jakewharton.telecine.EncodedSample.FLAG_KEY_FRAME;
+import static com.jakewharton.telecine.EncoderDrainer.Codec.INFO_OUTPUT_BUFFERS_CHANGED;
+import static com.jakewharton.telecine.EncoderDrainer.Codec.INFO_OUTPUT_FORMAT_CHANGED;
+import static com.jakewharton.telecine.EncoderDrainer.Codec.INFO_TRY_AGAIN_LATER;
+
+public final class EncoderDrainerTest {
+  private final RecordingSink sink = new RecordingSink();
+
+  @Test public void drainsUntilEndOfStream() {
+    FakeCodec codec = new FakeCodec() //
+        .status(INFO_TRY_AGAIN_LATER)
+        .status(INFO_OUTPUT_FORMAT_CHANGED)
+        .sample(new byte[] { 1, 2, 3 }, 0, FLAG_KEY_FRAME)
+        .status(INFO_OUTPUT_BUFFERS_CHANGED)
+        .sample(new byte[] { 4, 5 }, 33333, 0)
+        .sample(new byte[0], 66666, FLAG_END_OF_STREAM);
+    EncoderDrainer drainer = new EncoderDrainer(codec, sink, new RecordingMetrics(30));
+    drainer.run();
+
+    assertThat(drainer.failure()).isNull();
+    assertThat(drainer.formatKnown()).isTrue();
+    assertThat(drainer.samplesWritten()).isEqualTo(2);
+    assertThat(sink.events).containsExactly("format", "0:3:key", "33333:2").inOrder();
+    assertThat(codec.released).containsExactly(0, 1, 2).inOrder();
+  }
+
+  @Test public void recordsMetricsForWrittenSamples() {
+    long nowUs = System.nanoTime() / 1000;
+    FakeCodec codec = new FakeCodec() //
+        .status(INFO_OUTPUT_FORMAT_CHANGED)
+        .sample(new byte[] { 0, 0, 0, 1 }, nowUs, FLAG_CODEC_CONFIG)
+        .sample(new byte[] { 1, 2, 3 }, nowUs, FLAG_KEY_FRAME)
+        .sample(new byte[] { 4, 5 }, nowUs + 33333, FLAG_END_OF_STREAM);
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    new EncoderDrainer(codec, sink, metrics).run();
+
+    assertThat(metrics.framesEncoded()).isEqualTo(2);
+    assertThat(metrics.bytesEncoded()).isEqualTo(5);
+    assertThat(metrics.frameInterval.count()).isEqualTo(1);
+    assertThat(metrics.encodeLatency.count()).isEqualTo(2);
+    assertThat(metrics.writeLatency.count()).isEqualTo(2);
+  }
+
+  @Test public void codecConfigIsNotWritten() {
+    FakeCodec codec = new FakeCodec() //
+        .status(INFO_OUTPUT_FORMAT_CHANGED)
+        .sample(new byte[] { 0, 0, 0, 1 }, 0, FLAG_CODEC_CONFIG)
+        .sample(new byte[] { 1 }, 0, FLAG_KEY_FRAME | FLAG_END_OF_STREAM);
+    EncoderDrainer drainer = new EncoderDrainer(codec, sink, new RecordingMetrics(30));
+    drainer.run();
+
+    assertThat(sink.events).containsExactly("format", "0:1:key").inOrder();
+    assertThat(codec.released).containsExactly(0, 1).inOrder();
+  }
+
+  @Test public void sampleBeforeFormatFails() {
+    FakeCodec codec = new FakeCodec() //
+        .sample(new byte[] { 1 }, 0, FLAG_KEY_FRAME);
+    EncoderDrainer drainer = new EncoderDrainer(codec, sink, new RecordingMetrics(30));
+    drainer.run();
+
+    assertThat(drainer.failure()).isInstanceOf(IllegalStateException.class);
+    assertThat(codec.released).containsExactly(0);
+  }
+
+  @Test public void sinkFailureIsCaptured() {
+    FakeCodec codec = new FakeCodec() //
+        .status(INFO_OUTPUT_FORMAT_CHANGED)
+        .sample(new byte[] { 1 }, 0, FLAG_KEY_FRAME);
+    sink.fail = true;
+    EncoderDrainer drainer = new EncoderDrainer(codec, sink, new RecordingMetrics(30));
+    drainer.run();
+
+    assertThat(drainer.failure()).isInstanceOf(IOException.class);
+    assertThat(codec.released).containsExactly(0);
+  }
+
+  @Test public void cancelStopsWithoutEndOfStream() throws InterruptedException {
+    FakeCodec codec = new FakeCodec().status(INFO_OUTPUT_FORMAT_CHANGED);
+    EncoderDrainer drainer = new EncoderDrainer(codec, sink, new RecordingMetrics(30));
+    Thread thread = new Thread(drainer);
+    thread.start();
+
+    assertThat(drainer.await(50, TimeUnit.MILLISECONDS)).isFalse();
+    drainer.cancel();
+    assertThat(drainer.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(drainer.failure()).isNull();
+  }
+
+  static final class RecordingSink implements EncoderDrainer.Sink {
+    final List<String> events = new ArrayList<>();
+    boolean fail;
+
+    @Override public void formatChanged() {
+      events.add("format");
+    }
+
+    @Override public void writeSample(ByteBuffer data, EncodedSample sample) throws IOException {
+      if (fail) {
+        throw new IOException("Disk full");
+      }
+      assertThat(data.remaining()).isEqualTo(sample.size);
+      String key = sample.isKeyFrame() ? ":key" : "";
+      events.add(sample.presentationTimeUs + ":" + sample.size + key);
+    }
+  }
+}
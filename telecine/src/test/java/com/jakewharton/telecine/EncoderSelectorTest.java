@@ -0,0 +1,66 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class EncoderSelectorTest {
+  private static final EncoderCapabilities SOFTWARE =
+      new EncoderCapabilities("OMX.google.h264.encoder", false, 16, 2048, 16, 2048, 2, 2, 1,
+          12000000, 60, 1000000);
+  private static final EncoderCapabilities HARDWARE =
+      new EncoderCapabilities("OMX.qcom.video.encoder.avc", true, 96, 1920, 96, 1920, 16, 16,
+          100000, 20000000, 30, 1000000);
+
+  @Test public void prefersHardware() {
+    List<EncoderCapabilities> encoders = Arrays.asList(SOFTWARE, HARDWARE);
+    EncoderConfig config = EncoderSelector.select(encoders, new RecordingInfo(1088, 1920, 60, 320),
+        BitratePlanner.QUALITY_MEDIUM);
+    assertThat(config.encoderName).isEqualTo(HARDWARE.name);
+    assertThat(config.width).isEqualTo(1088);
+    assertThat(config.height).isEqualTo(1920);
+    assertThat(config.frameRate).isEqualTo(30);
+    // Planned for the clamped frame rate.
+    assertThat(config.bitRate)
+        .isEqualTo(BitratePlanner.plan(1088, 1920, 30, BitratePlanner.QUALITY_MEDIUM));
+    assertThat(config.keyFrameIntervalSeconds).isEqualTo(1);
+  }
+
+  @Test public void skipsEncodersWhichCannotAlign() {
+    List<EncoderCapabilities> encoders = Arrays.asList(HARDWARE, SOFTWARE);
+    EncoderConfig config = EncoderSelector.select(encoders, new RecordingInfo(1080, 1920, 60, 320),
+        BitratePlanner.QUALITY_MEDIUM);
+    assertThat(config.encoderName).isEqualTo(SOFTWARE.name);
+    assertThat(config.frameRate).isEqualTo(60);
+  }
+
+  @Test public void skipsEncodersWhichAreTooSmall() {
+    List<EncoderCapabilities> encoders = Arrays.asList(HARDWARE, SOFTWARE);
+    RecordingInfo info = new RecordingInfo(1440, 2560, 60, 320);
+    assertThat(EncoderSelector.select(encoders, info, BitratePlanner.QUALITY_MEDIUM)).isNull();
+  }
+
+  @Test public void noEncoders() {
+    List<EncoderCapabilities> encoders = Collections.emptyList();
+    RecordingInfo info = new RecordingInfo(1080, 1920, 60, 320);
+    assertThat(EncoderSelector.select(encoders, info, BitratePlanner.QUALITY_MEDIUM)).isNull();
+  }
+
+  @Test public void bitRateIsClampedToEncoder() {
+    List<EncoderCapabilities> encoders = Collections.singletonList(SOFTWARE);
+    RecordingInfo large = new RecordingInfo(2048, 2048, 60, 320);
+    assertThat(EncoderSelector.select(encoders, large, BitratePlanner.QUALITY_HIGH).bitRate)
+        .isEqualTo(12000000);
+
+    EncoderCapabilities hungry =
+        new EncoderCapabilities("OMX.hungry", true, 16, 2048, 16, 2048, 2, 2, 4000000, 20000000,
+            60, 1000000);
+    RecordingInfo small = new RecordingInfo(320, 240, 30, 320);
+    List<EncoderCapabilities> hungryOnly = Collections.singletonList(hungry);
+    assertThat(EncoderSelector.select(hungryOnly, small, BitratePlanner.QUALITY_LOW).bitRate)
+        .isEqualTo(4000000);
+  }
+}
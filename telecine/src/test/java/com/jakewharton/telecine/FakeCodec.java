@@ -0,0 +1,49 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/** A scripted {@link EncoderDrainer.Codec} which replays queued statuses and samples. */
+final class FakeCodec implements EncoderDrainer.Codec {
+  private final Deque<Object> events = new ArrayDeque<>();
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+  final List<Integer> released = new ArrayList<>();
+
+  FakeCodec status(int status) {
+    events.add(status);
+    return this;
+  }
+
+  FakeCodec sample(byte[] data, long presentationTimeUs, int flags) {
+    EncodedSample sample = new EncodedSample();
+    sample.set(0, data.length, presentationTimeUs, flags);
+    buffers.add(ByteBuffer.wrap(data));
+    events.add(new Object[] { buffers.size() - 1, sample });
+    return this;
+  }
+
+  @Override public int dequeueOutputBuffer(EncodedSample sample, long timeoutUs) {
+    Object event = events.poll();
+    if (event == null) {
+      return INFO_TRY_AGAIN_LATER;
+    }
+    if (event instanceof Integer) {
+      return (Integer) event;
+    }
+    Object[] pair = (Object[]) event;
+    EncodedSample source = (EncodedSample) pair[1];
+    sample.set(source.offset, source.size, source.presentationTimeUs, source.flags);
+    return (Integer) pair[0];
+  }
+
+  @Override public ByteBuffer getOutputBuffer(int index) {
+    return buffers.get(index);
+  }
+
+  @Override public void releaseOutputBuffer(int index) {
+    released.add(index);
+  }
+}
@@ -0,0 +1,201 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class FastStartTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File fixture(boolean moovFirst) throws IOException {
+    File file = temporaryFolder.newFile();
+    Mp4Fixtures fixture = new Mp4Fixtures();
+    fixture.moovFirst = moovFirst;
+    fixture.write(file);
+    return file;
+  }
+
+  private boolean rewrite(File input, File output, long offsetLimit) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(input, "r");
+    RandomAccessFile out = new RandomAccessFile(output, "rw");
+    try {
+      return FastStart.rewrite(in.getChannel(), out.getChannel(), offsetLimit);
+    } finally {
+      in.close();
+      out.close();
+    }
+  }
+
+  @Test public void moovIsMovedAfterFtyp() throws IOException {
+    File input = fixture(false);
+    File output = temporaryFolder.newFile();
+    assertThat(rewrite(input, output, FastStart.MAX_32_BIT_OFFSET)).isTrue();
+
+    byte[] bytes = Files.readAllBytes(output.toPath());
+    assertThat(bytes.length).isEqualTo((int) input.length());
+    List<TestBoxes> boxes = TestBoxes.parse(bytes);
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "mdat").inOrder();
+    assertThat(chunkType(boxes)).isEqualTo("stco");
+    assertOffsetsPointAtSamples(bytes, boxes);
+
+    Mp4Metadata metadata = parse(output);
+    assertThat(metadata.fastStart).isTrue();
+    assertThat(metadata.sampleCount).isEqualTo(6);
+    assertThat(metadata.syncSampleCount).isEqualTo(2);
+    assertThat(metadata.durationUs).isEqualTo(200000);
+  }
+
+  @Test public void mediaRecorderLayoutIsRewritten() throws IOException {
+    // MediaRecorder reserves space for the moov after the ftyp but writes it last when it grows.
+    File input = temporaryFolder.newFile();
+    Mp4Fixtures fixture = new Mp4Fixtures();
+    fixture.freeSize = 256;
+    fixture.write(input);
+    assertThat(TestBoxes.types(TestBoxes.parse(Files.readAllBytes(input.toPath()))))
+        .containsExactly("ftyp", "free", "mdat", "moov").inOrder();
+
+    assertThat(FastStart.rewrite(input)).isTrue();
+
+    byte[] bytes = Files.readAllBytes(input.toPath());
+    List<TestBoxes> boxes = TestBoxes.parse(bytes);
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "free", "mdat").inOrder();
+    assertOffsetsPointAtSamples(bytes, boxes);
+    Mp4Metadata metadata = parse(input);
+    assertThat(metadata.fastStart).isTrue();
+    assertThat(metadata.sampleCount).isEqualTo(6);
+  }
+
+  @Test public void offsetsPastLimitArePromotedTo64Bit() throws IOException {
+    File input = fixture(false);
+    File output = temporaryFolder.newFile();
+    // Only the first sample's shifted offset stays under the limit. Every entry is promoted.
+    List<TestBoxes> original = TestBoxes.parse(Files.readAllBytes(input.toPath()));
+    long firstSample = TestBoxes.find(original, "mdat").payload();
+    long limit = firstSample + TestBoxes.find(original, "moov").size + 50;
+    assertThat(rewrite(input, output, limit)).isTrue();
+
+    byte[] bytes = Files.readAllBytes(output.toPath());
+    List<TestBoxes> boxes = TestBoxes.parse(bytes);
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "mdat").inOrder();
+    assertThat(chunkType(boxes)).isEqualTo("co64");
+    // Six entries each grew by four bytes, which moved the samples too.
+    assertThat(TestBoxes.find(boxes, "moov").size)
+        .isEqualTo(TestBoxes.find(original, "moov").size + 6 * 4);
+    assertThat(bytes.length).isEqualTo((int) input.length() + 6 * 4);
+    assertOffsetsPointAtSamples(bytes, boxes);
+    assertThat(parse(output).sampleCount).isEqualTo(6);
+  }
+
+  @Test public void offsetsWithinLimitStay32Bit() throws IOException {
+    File input = fixture(false);
+    File output = temporaryFolder.newFile();
+    assertThat(rewrite(input, output, input.length() * 2)).isTrue();
+    assertThat(chunkType(TestBoxes.parse(Files.readAllBytes(output.toPath()))))
+        .isEqualTo("stco");
+  }
+
+  @Test public void moovAlreadyFirstIsUntouched() throws IOException {
+    File input = fixture(true);
+    File output = temporaryFolder.newFile();
+    assertThat(rewrite(input, output, FastStart.MAX_32_BIT_OFFSET)).isFalse();
+    assertThat(output.length()).isEqualTo(0);
+  }
+
+  @Test public void fragmentedIsUntouched() throws IOException {
+    File file = temporaryFolder.newFile();
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel(), 720, 1280,
+          FragmentedMp4WriterTest.SPS, FragmentedMp4WriterTest.PPS, 1000000);
+      writer.writeSample(FragmentedMp4WriterTest.frame(true, 10), 0, true);
+      writer.close();
+    } finally {
+      output.close();
+    }
+    byte[] before = Files.readAllBytes(file.toPath());
+
+    assertThat(FastStart.rewrite(file)).isFalse();
+    assertThat(Files.readAllBytes(file.toPath())).isEqualTo(before);
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly(file.getName());
+  }
+
+  @Test public void rewriteFileInPlace() throws IOException {
+    File file = fixture(false);
+    assertThat(FastStart.rewrite(file)).isTrue();
+
+    assertThat(parse(file).fastStart).isTrue();
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly(file.getName());
+  }
+
+  @Test public void failureKeepsOriginal() throws IOException {
+    File file = temporaryFolder.newFile();
+    BoxBuilder b = new BoxBuilder(64);
+    MovieBoxes.ftyp(b, "mp42", "isom");
+    b.start("mdat").zeros(100).end();
+    Files.write(file.toPath(), b.toByteArray());
+
+    try {
+      FastStart.rewrite(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("No moov.");
+    }
+    assertThat(Files.readAllBytes(file.toPath())).isEqualTo(b.toByteArray());
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly(file.getName());
+  }
+
+  private static Mp4Metadata parse(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return Mp4Parser.parse(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+
+  private static TestBoxes stbl(List<TestBoxes> boxes) {
+    TestBoxes trak = TestBoxes.find(TestBoxes.find(boxes, "moov").children(), "trak");
+    TestBoxes minf = TestBoxes.find(TestBoxes.find(trak.children(), "mdia").children(), "minf");
+    return TestBoxes.find(minf.children(), "stbl");
+  }
+
+  private static String chunkType(List<TestBoxes> boxes) {
+    for (TestBoxes box : stbl(boxes).children()) {
+      if (box.type.equals("stco") || box.type.equals("co64")) {
+        return box.type;
+      }
+    }
+    throw new AssertionError("No chunk offsets.");
+  }
+
+  private static List<Long> offsets(List<TestBoxes> boxes) {
+    TestBoxes chunks = TestBoxes.find(stbl(boxes).children(), chunkType(boxes));
+    boolean wide = chunks.type.equals("co64");
+    ByteBuffer data = chunks.data;
+    int count = data.getInt(chunks.payload() + 4);
+    List<Long> offsets = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int entry = chunks.payload() + 8 + i * (wide ? 8 : 4);
+      offsets.add(wide ? data.getLong(entry) : data.getInt(entry) & 0xffffffffL);
+    }
+    return offsets;
+  }
+
+  private static void assertOffsetsPointAtSamples(byte[] bytes, List<TestBoxes> boxes) {
+    List<Long> offsets = offsets(boxes);
+    assertThat(offsets).hasSize(6);
+    for (int i = 0; i < offsets.size(); i++) {
+      assertThat(bytes[(int) (long) offsets.get(i)]).isEqualTo(Mp4Fixtures.sampleByte(i));
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.jakewharton.telecine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FragmentedMp4Writer.SAMPLE_FLAGS_NON_SYNC;
+import static com.jakewharton.telecine.FragmentedMp4Writer.SAMPLE_FLAGS_SYNC;
+
+public final class FragmentedMp4WriterTest {
+  static final byte[] SPS = { 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11, 0x22 };
+  static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+  static final long FRAME_US = 40000;
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  private FragmentedMp4Writer newWriter(long fragmentDurationUs) throws IOException {
+    return new FragmentedMp4Writer(Channels.newChannel(output), 720, 1280, SPS, PPS,
+        fragmentDurationUs);
+  }
+
+  /** An Annex B access unit holding one slice NAL of {@code payload} bytes. */
+  static ByteBuffer frame(boolean keyFrame, int payload) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + payload);
+    buffer.putInt(1).put((byte) (keyFrame ? 0x65 : 0x41));
+    for (int i = 0; i < payload; i++) {
+      buffer.put((byte) (i + 1));
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Test public void headerDescribesTrack() throws IOException {
+    newWriter(1000000).close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov").inOrder();
+
+    TestBoxes moov = TestBoxes.find(boxes, "moov");
+    assertThat(TestBoxes.types(moov.children())).containsExactly("mvhd", "trak", "mvex").inOrder();
+
+    TestBoxes trak = TestBoxes.find(moov.children(), "trak");
+    TestBoxes tkhd = TestBoxes.find(trak.children(), "tkhd");
+    // Version 1 tkhd: width and height are the last two fixed point fields.
+    assertThat(tkhd.data.getInt(tkhd.offset + tkhd.size - 8)).isEqualTo(720 << 16);
+    assertThat(tkhd.data.getInt(tkhd.offset + tkhd.size - 4)).isEqualTo(1280 << 16);
+
+    TestBoxes stbl = TestBoxes.find(TestBoxes.find(TestBoxes.find(trak.children(), "mdia")
+        .children(), "minf").children(), "stbl");
+    TestBoxes stsd = TestBoxes.find(stbl.children(), "stsd");
+    TestBoxes avc1 = TestBoxes.find(stsd.children(8), "avc1");
+    assertThat(avc1.data.getShort(avc1.payload() + 24)).isEqualTo((short) 720);
+    assertThat(avc1.data.getShort(avc1.payload() + 26)).isEqualTo((short) 1280);
+    TestBoxes avcC = TestBoxes.find(avc1.children(78), "avcC");
+    ByteBuffer config = avcC.data;
+    int p = avcC.payload();
+    assertThat(config.get(p + 1)).isEqualTo(SPS[1]);
+    assertThat(config.get(p + 3)).isEqualTo(SPS[3]);
+    assertThat(config.get(p + 4) & 0x3).isEqualTo(3);
+    assertThat(config.getShort(p + 6)).isEqualTo((short) SPS.length);
+    assertThat(config.get(p + 8)).isEqualTo(SPS[0]);
+    assertThat(config.getShort(p + 8 + SPS.length + 1)).isEqualTo((short) PPS.length);
+
+    TestBoxes trex = TestBoxes.find(TestBoxes.find(moov.children(), "mvex").children(), "trex");
+    assertThat(trex.data.getInt(trex.payload() + 4)).isEqualTo(1);
+  }
+
+  @Test public void fragmentsAreCutAtKeyFrames() throws IOException {
+    FragmentedMp4Writer writer = newWriter(2 * FRAME_US);
+    for (int i = 0; i < 7; i++) {
+      writer.writeSample(frame(i % 3 == 0, 10 + i), 1000000 + i * FRAME_US, i % 3 == 0);
+    }
+    writer.close();
+    byte[] bytes = output.toByteArray();
+    assertThat(writer.bytesWritten()).isEqualTo(bytes.length);
+
+    List<TestBoxes> boxes = TestBoxes.parse(bytes);
+    assertThat(TestBoxes.types(boxes))
+        .containsExactly("ftyp", "moov", "moof", "mdat", "moof", "mdat", "moof", "mdat")
+        .inOrder();
+
+    assertFragment(boxes.get(2), boxes.get(3), 1, 0, new int[] { 10, 11, 12 }, true);
+    assertFragment(boxes.get(4), boxes.get(5), 2, 3 * 3600, new int[] { 13, 14, 15 }, true);
+    assertFragment(boxes.get(6), boxes.get(7), 3, 6 * 3600, new int[] { 16 }, true);
+  }
+
+  @Test public void leadingNonKeyFramesAreDropped() throws IOException {
+    FragmentedMp4Writer writer = newWriter(1000000);
+    writer.writeSample(frame(false, 5), 0, false);
+    writer.writeSample(frame(true, 6), FRAME_US, true);
+    writer.writeSample(frame(false, 7), 2 * FRAME_US, false);
+    writer.close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "moof", "mdat").inOrder();
+    assertFragment(boxes.get(2), boxes.get(3), 1, 0, new int[] { 6, 7 }, true);
+  }
+
+  @Test public void longGroupOfPicturesIsSplit() throws IOException {
+    FragmentedMp4Writer writer = newWriter(FRAME_US);
+    for (int i = 0; i < 10; i++) {
+      writer.writeSample(frame(i == 0, 1), i * FRAME_US, i == 0);
+    }
+    writer.close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    // No key frames after the first, so fragments are forced every four target durations.
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "moof", "mdat", "moof",
+        "mdat", "moof", "mdat").inOrder();
+    assertFragment(boxes.get(4), boxes.get(5), 2, 4 * 3600, new int[] { 1, 1, 1, 1 }, false);
+  }
+
+  @Test public void timestampsAreStrictlyIncreasing() throws IOException {
+    FragmentedMp4Writer writer = newWriter(1000000);
+    writer.writeSample(frame(true, 1), 5000, true);
+    writer.writeSample(frame(false, 1), 5000, false);
+    writer.writeSample(frame(false, 1), 5000 + FRAME_US, false);
+    writer.close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    ByteBuffer trun = trun(boxes.get(2));
+    assertThat(trun.getInt(12)).isEqualTo(1); // First duration is bumped to one tick.
+    assertThat(trun.getInt(24)).isEqualTo(3599);
+  }
+
+  @Test public void partialFileIsValidUpToLastFragment() throws IOException {
+    FragmentedMp4Writer writer = newWriter(FRAME_US);
+    for (int i = 0; i < 4; i++) {
+      writer.writeSample(frame(true, 3), i * FRAME_US, true);
+    }
+    // Simulate the process dying: no close.
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    assertThat(TestBoxes.types(boxes)).containsExactly("ftyp", "moov", "moof", "mdat", "moof",
+        "mdat", "moof", "mdat").inOrder();
+  }
+
+  @Test public void lengthPrefixedInputIsCopied() throws IOException {
+    FragmentedMp4Writer writer = newWriter(1000000);
+    ByteBuffer avcc = ByteBuffer.allocate(7);
+    avcc.putInt(3).put((byte) 0x65).put((byte) 9).put((byte) 9).flip();
+    writer.writeSample(avcc, 0, true);
+    writer.close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    TestBoxes mdat = boxes.get(3);
+    assertThat(mdat.size).isEqualTo(8 + 7);
+    assertThat(mdat.data.getInt(mdat.payload())).isEqualTo(3);
+  }
+
+  /** Returns the trun payload positioned after its version and flags. */
+  private static ByteBuffer trun(TestBoxes moof) {
+    TestBoxes traf = TestBoxes.find(moof.children(), "traf");
+    TestBoxes trun = TestBoxes.find(traf.children(), "trun");
+    ByteBuffer buffer = trun.data.duplicate();
+    buffer.position(trun.payload());
+    buffer.limit(trun.offset + trun.size);
+    return buffer.slice();
+  }
+
+  private static void assertFragment(TestBoxes moof, TestBoxes mdat, int sequence,
+      long baseDecodeTime, int[] payloads, boolean startsWithKeyFrame) {
+    assertThat(moof.type).isEqualTo("moof");
+    assertThat(mdat.type).isEqualTo("mdat");
+    List<TestBoxes> children = moof.children();
+    TestBoxes mfhd = TestBoxes.find(children, "mfhd");
+    assertThat(mfhd.data.getInt(mfhd.payload() + 4)).isEqualTo(sequence);
+
+    TestBoxes traf = TestBoxes.find(children, "traf");
+    TestBoxes tfdt = TestBoxes.find(traf.children(), "tfdt");
+    assertThat(tfdt.data.getLong(tfdt.payload() + 4)).isEqualTo(baseDecodeTime);
+
+    ByteBuffer trun = trun(moof);
+    assertThat(trun.getInt(4)).isEqualTo(payloads.length);
+    int dataOffset = trun.getInt(8);
+    assertThat(moof.offset + dataOffset).isEqualTo(mdat.payload());
+
+    int sampleStart = mdat.payload();
+    for (int i = 0; i < payloads.length; i++) {
+      int entry = 12 + i * 12;
+      assertThat(trun.getInt(entry)).isEqualTo(3600);
+      int size = trun.getInt(entry + 4);
+      // Length prefix, NAL header, payload.
+      assertThat(size).isEqualTo(4 + 1 + payloads[i]);
+      assertThat(mdat.data.getInt(sampleStart)).isEqualTo(1 + payloads[i]);
+      int flags = trun.getInt(entry + 8);
+      if (i == 0 && startsWithKeyFrame) {
+        assertThat(flags).isEqualTo(SAMPLE_FLAGS_SYNC);
+      } else if (i > 0) {
+        assertThat(flags).isEqualTo(SAMPLE_FLAGS_NON_SYNC);
+      }
+      sampleStart += size;
+    }
+    assertThat(sampleStart).isEqualTo(mdat.offset + mdat.size);
+  }
+}
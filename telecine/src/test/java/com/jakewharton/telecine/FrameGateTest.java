@@ -0,0 +1,110 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FrameGate.DEFER;
+import static com.jakewharton.telecine.FrameGate.ENCODE;
+import static com.jakewharton.telecine.FrameGate.SKIP;
+import static org.junit.Assert.fail;
+
+public final class FrameGateTest {
+  /** A 60Hz display. */
+  private static final long VSYNC_NS = 16666667;
+  private static final long SECOND_NS = 1000000000;
+
+  @Test public void firstFrameIsEncoded() {
+    FrameGate gate = new FrameGate(0, 0);
+    assertThat(gate.offer(5, false)).isEqualTo(ENCODE);
+  }
+
+  @Test public void uncappedEncodesEveryChange() {
+    FrameGate gate = new FrameGate(0, 0);
+    for (int i = 0; i < 60; i++) {
+      assertThat(gate.offer(i * VSYNC_NS, true)).isEqualTo(ENCODE);
+    }
+  }
+
+  @Test public void unchangedFramesAreSkipped() {
+    FrameGate gate = new FrameGate(0, 0);
+    gate.offer(0, true);
+    assertThat(gate.offer(VSYNC_NS, false)).isEqualTo(SKIP);
+    assertThat(gate.offer(2 * VSYNC_NS, false)).isEqualTo(SKIP);
+    assertThat(gate.offer(3 * VSYNC_NS, true)).isEqualTo(ENCODE);
+  }
+
+  @Test public void capHalvesDisplayRateDespiteJitter() {
+    FrameGate gate = new FrameGate(30, 0);
+    int encoded = 0;
+    for (int i = 0; i < 60; i++) {
+      // Alternate early and late by a millisecond.
+      long jitterNs = i % 2 == 0 ? -1000000 : 1000000;
+      if (gate.offer(i * VSYNC_NS + jitterNs, true) == ENCODE) {
+        encoded++;
+      }
+    }
+    assertThat(encoded).isEqualTo(30);
+  }
+
+  @Test public void heldFrameIsFlushedAtDeadline() {
+    FrameGate gate = new FrameGate(10, 0);
+    gate.offer(0, true);
+    assertThat(gate.offer(VSYNC_NS, true)).isEqualTo(DEFER);
+    assertThat(gate.deferredUntilNs()).isEqualTo(SECOND_NS / 10);
+    // An unchanged frame does not cancel the held change.
+    assertThat(gate.offer(2 * VSYNC_NS, false)).isEqualTo(DEFER);
+    assertThat(gate.flush()).isEqualTo(SECOND_NS / 10);
+    assertThat(gate.flush()).isEqualTo(-1);
+    // Nothing changed since the held frame was encoded.
+    assertThat(gate.offer(SECOND_NS / 10 + VSYNC_NS, false)).isEqualTo(SKIP);
+  }
+
+  @Test public void newerFrameReplacesHeldFrame() {
+    FrameGate gate = new FrameGate(10, 0);
+    gate.offer(0, true);
+    assertThat(gate.offer(VSYNC_NS, true)).isEqualTo(DEFER);
+    assertThat(gate.offer(6 * VSYNC_NS, true)).isEqualTo(ENCODE);
+    assertThat(gate.flush()).isEqualTo(-1);
+  }
+
+  @Test public void idleRecordingIsRefreshed() {
+    FrameGate gate = new FrameGate(0, SECOND_NS);
+    gate.offer(0, true);
+    assertThat(gate.offer(SECOND_NS - 1, false)).isEqualTo(SKIP);
+    assertThat(gate.offer(SECOND_NS, false)).isEqualTo(ENCODE);
+    assertThat(gate.offer(SECOND_NS + VSYNC_NS, false)).isEqualTo(SKIP);
+  }
+
+  @Test public void capChangesMidRecording() {
+    FrameGate gate = new FrameGate(0, 0);
+    gate.offer(0, true);
+    assertThat(gate.offer(VSYNC_NS, true)).isEqualTo(ENCODE);
+    gate.setMaxFrameRate(15);
+    assertThat(gate.offer(2 * VSYNC_NS, true)).isEqualTo(DEFER);
+    assertThat(gate.offer(5 * VSYNC_NS, true)).isEqualTo(ENCODE);
+    gate.setMaxFrameRate(0);
+    assertThat(gate.offer(6 * VSYNC_NS, true)).isEqualTo(ENCODE);
+  }
+
+  @Test public void flushWithoutHeldFrame() {
+    FrameGate gate = new FrameGate(30, 0);
+    assertThat(gate.flush()).isEqualTo(-1);
+    gate.offer(0, true);
+    assertThat(gate.flush()).isEqualTo(-1);
+  }
+
+  @Test public void invalidArguments() {
+    try {
+      new FrameGate(-1, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("maxFrameRate < 0: -1");
+    }
+    try {
+      new FrameGate(30, -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("refreshIntervalNs < 0: -1");
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.FRAME_US;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.PPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.frame;
+import static org.junit.Assert.fail;
+
+public final class FrameIndexTest {
+  /** 640x360, which differs from the track header so tests can tell which was used. */
+  private static final byte[] SPS = SequenceParameterSetTest.baseline(40, 23, 0, 4);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File writeMp4(byte[] sps, int frames, int keyFrameInterval) throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel(), 720, 1280, sps,
+          PPS, TimeUnit.SECONDS.toMicros(1));
+      for (int i = 0; i < frames; i++) {
+        writer.writeSample(frame(i % keyFrameInterval == 0, 10 + i), i * FRAME_US,
+            i % keyFrameInterval == 0);
+      }
+      writer.close();
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private File writeAnnexB(byte[]... nals) throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      for (byte[] nal : nals) {
+        output.write(new byte[] { 0, 0, 0, 1 });
+        output.write(nal);
+      }
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private static FrameIndex build(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return FrameIndex.build(input.getChannel(), 20000);
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test public void mp4() throws IOException {
+    FrameIndex index = build(writeMp4(SPS, 30, 10));
+    assertThat(index.width).isEqualTo(640);
+    assertThat(index.height).isEqualTo(360);
+    assertThat(index.count).isEqualTo(30);
+    for (int i = 0; i < 30; i++) {
+      assertThat(index.types[i]).isEqualTo(i % 10 == 0 ? NalUnits.TYPE_IDR : NalUnits.TYPE_NON_IDR);
+      assertThat(index.ptsUs[i]).isEqualTo(i * FRAME_US);
+      // Four byte length, header, payload.
+      assertThat(index.sizes[i]).isEqualTo(4 + 1 + 10 + i);
+    }
+    assertThat(index.offsets[1]).isEqualTo(index.offsets[0] + index.sizes[0]);
+  }
+
+  @Test public void mp4WithUnparseableSpsUsesTrackSize() throws IOException {
+    FrameIndex index = build(writeMp4(FragmentedMp4WriterTest.SPS, 5, 5));
+    assertThat(index.width).isEqualTo(720);
+    assertThat(index.height).isEqualTo(1280);
+    assertThat(index.count).isEqualTo(5);
+  }
+
+  @Test public void annexB() throws IOException {
+    FrameIndex index = build(writeAnnexB(
+        SPS,
+        PPS,
+        new byte[] { 0x65, (byte) 0x88, 1, 2, 3 },
+        new byte[] { 0x41, (byte) 0x9a, 1 },
+        new byte[] { 0x06, 5, 1 }, // SEI, which starts the next picture.
+        new byte[] { 0x41, (byte) 0x9a, 2 },
+        new byte[] { 0x41, 0x40, 3 }, // A second slice.
+        new byte[] { 0x65, (byte) 0x88, 4 }));
+    assertThat(index.width).isEqualTo(640);
+    assertThat(index.height).isEqualTo(360);
+    assertThat(index.count).isEqualTo(4);
+    assertThat(Arrays.copyOf(index.types, index.count))
+        .isEqualTo(new byte[] { 5, 1, 1, 5 });
+    assertThat(index.ptsUs[3]).isEqualTo(60000);
+    // The first picture starts with the parameter sets.
+    assertThat(index.offsets[0]).isEqualTo(4);
+    // SEI, start code, slice, start code, slice.
+    assertThat(index.sizes[2]).isEqualTo(3 + 4 + 3 + 4 + 3);
+  }
+
+  @Test public void annexBWithoutSps() throws IOException {
+    try {
+      build(writeAnnexB(new byte[] { 0x65, (byte) 0x88, 1 }));
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("No SPS in the stream.");
+    }
+  }
+
+  @Test public void unknownFormat() throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(new byte[] { 'R', 'I', 'F', 'F', 0, 0, 0, 0 });
+    } finally {
+      output.close();
+    }
+    try {
+      build(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("Neither an MP4 nor an Annex B stream.");
+    }
+  }
+
+  @Test public void idrAtOrBefore() throws IOException {
+    FrameIndex index = build(writeMp4(SPS, 30, 10));
+    assertThat(index.idrAtOrBefore(0)).isEqualTo(0);
+    assertThat(index.idrAtOrBefore(9 * FRAME_US)).isEqualTo(0);
+    assertThat(index.idrAtOrBefore(10 * FRAME_US)).isEqualTo(10);
+    assertThat(index.idrAtOrBefore(29 * FRAME_US)).isEqualTo(20);
+    assertThat(index.idrAtOrBefore(-1)).isEqualTo(-1);
+  }
+
+  @Test public void loadStoresIndexBesideRecording() throws IOException {
+    File recording = writeMp4(SPS, 30, 10);
+    FrameIndex built = FrameIndex.load(recording, 0);
+    File file = FrameIndex.fileFor(recording);
+    assertThat(file.getName()).isEqualTo(recording.getName() + ".index");
+    assertThat(file.exists()).isTrue();
+
+    FrameIndex read = FrameIndex.read(file, recording.length(), recording.lastModified());
+    assertThat(read).isNotNull();
+    assertThat(read.width).isEqualTo(built.width);
+    assertThat(read.height).isEqualTo(built.height);
+    assertThat(read.count).isEqualTo(built.count);
+    for (int i = 0; i < built.count; i++) {
+      assertThat(read.offsets[i]).isEqualTo(built.offsets[i]);
+      assertThat(read.sizes[i]).isEqualTo(built.sizes[i]);
+      assertThat(read.types[i]).isEqualTo(built.types[i]);
+      assertThat(read.ptsUs[i]).isEqualTo(built.ptsUs[i]);
+    }
+  }
+
+  @Test public void staleIndexIsIgnored() throws IOException {
+    File recording = writeMp4(SPS, 30, 10);
+    FrameIndex.load(recording, 0);
+    File file = FrameIndex.fileFor(recording);
+    assertThat(FrameIndex.read(file, recording.length() + 1, recording.lastModified())).isNull();
+    assertThat(FrameIndex.read(file, recording.length(), recording.lastModified() + 1)).isNull();
+
+    // Replacing the recording with a trimmed copy rebuilds the index.
+    File trimmed = Mp4Trimmer.trimmedFile(recording);
+    Mp4Trimmer.trim(recording, trimmed, 0, 15 * FRAME_US);
+    assertThat(trimmed.renameTo(recording)).isTrue();
+    assertThat(FrameIndex.load(recording, 0).count).isEqualTo(15);
+    assertThat(FrameIndex.read(file, recording.length(), recording.lastModified()).count)
+        .isEqualTo(15);
+  }
+
+  @Test public void corruptIndexIsRebuilt() throws IOException {
+    File recording = writeMp4(SPS, 30, 10);
+    File file = FrameIndex.fileFor(recording);
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(new byte[] { 1, 2, 3 });
+    } finally {
+      output.close();
+    }
+    assertThat(FrameIndex.load(recording, 0).count).isEqualTo(30);
+    assertThat(file.length()).isGreaterThan(3L);
+  }
+}
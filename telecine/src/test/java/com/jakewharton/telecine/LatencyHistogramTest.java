@@ -0,0 +1,74 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class LatencyHistogramTest {
+  @Test public void empty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.meanUs()).isEqualTo(0);
+    assertThat(histogram.maxUs()).isEqualTo(0);
+    assertThat(histogram.percentileUs(50)).isEqualTo(0);
+  }
+
+  @Test public void buckets() {
+    assertThat(LatencyHistogram.bucket(0)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucket(1)).isEqualTo(1);
+    assertThat(LatencyHistogram.bucket(2)).isEqualTo(2);
+    assertThat(LatencyHistogram.bucket(3)).isEqualTo(2);
+    assertThat(LatencyHistogram.bucket(4)).isEqualTo(3);
+    assertThat(LatencyHistogram.bucket(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+  }
+
+  @Test public void percentilesAreWithinFactorOfTwo() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000);
+    }
+    assertThat(histogram.count()).isEqualTo(100);
+    assertThat(histogram.meanUs()).isEqualTo(50500);
+    assertThat(histogram.maxUs()).isEqualTo(100000);
+
+    long p50 = histogram.percentileUs(50);
+    assertThat(p50).isAtLeast(50000L);
+    assertThat(p50).isLessThan(100000L);
+    assertThat(histogram.percentileUs(100)).isEqualTo(100000);
+  }
+
+  @Test public void percentileCappedAtMax() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000);
+    assertThat(histogram.percentileUs(50)).isEqualTo(1000);
+  }
+
+  @Test public void negativeValuesCountAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertThat(histogram.count()).isEqualTo(1);
+    assertThat(histogram.percentileUs(99)).isEqualTo(0);
+  }
+
+  @Test public void concurrentRecording() throws InterruptedException {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int value = (t + 1) * 100;
+      threads[t] = new Thread() {
+        @Override public void run() {
+          for (int i = 0; i < 100000; i++) {
+            histogram.record(value);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(histogram.count()).isEqualTo(400000);
+    assertThat(histogram.maxUs()).isEqualTo(400);
+    assertThat(histogram.meanUs()).isEqualTo(250);
+  }
+}
@@ -0,0 +1,147 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class LogBufferTest {
+  /** Collects entries as "priority tag message" strings. */
+  static final class Collector implements LogBuffer.Reader {
+    final List<String> entries = new ArrayList<>();
+    long lastTime;
+
+    @Override public void entry(long timeMillis, int priority, String tag, String message) {
+      entries.add(priority + " " + tag + " " + message);
+      lastTime = timeMillis;
+    }
+  }
+
+  @Test public void storesParts() {
+    LogBuffer buffer = new LogBuffer(10);
+    long before = System.currentTimeMillis();
+    buffer.add(3, "Tag", "Hello");
+    Collector collector = new Collector();
+    assertThat(buffer.read(collector)).isEqualTo(1);
+    assertThat(collector.entries).containsExactly("3 Tag Hello");
+    assertThat(collector.lastTime).isAtLeast(before);
+  }
+
+  @Test public void emptyReadsNothing() {
+    Collector collector = new Collector();
+    assertThat(new LogBuffer(3).read(collector)).isEqualTo(0);
+    assertThat(collector.entries).isEmpty();
+  }
+
+  @Test public void evictsOldest() {
+    LogBuffer buffer = new LogBuffer(3);
+    for (int i = 0; i < 5; i++) {
+      buffer.add(4, null, "Message " + i);
+    }
+    Collector collector = new Collector();
+    buffer.read(collector);
+    assertThat(collector.entries)
+        .containsExactly("4 null Message 2", "4 null Message 3", "4 null Message 4")
+        .inOrder();
+  }
+
+  @Test public void zeroCapacityThrows() {
+    try {
+      new LogBuffer(0);
+      throw new AssertionError();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /**
+   * Hammer the buffer from several writers while a reader snapshots it. Every entry read must be
+   * whole and each writer's entries must appear in the order they were logged.
+   */
+  @Test public void concurrentWritersAndReader() throws Exception {
+    final int writers = 4;
+    final int perWriter = 200000;
+    final int capacity = 64;
+    final LogBuffer buffer = new LogBuffer(capacity);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // Messages are preallocated so writers only exercise the buffer.
+    final String[][] messages = new String[writers][perWriter];
+    for (int w = 0; w < writers; w++) {
+      for (int i = 0; i < perWriter; i++) {
+        messages[w][i] = w + ":" + i;
+      }
+    }
+
+    Thread[] threads = new Thread[writers];
+    for (int w = 0; w < writers; w++) {
+      final int writer = w;
+      final String tag = String.valueOf(w);
+      threads[w] = new Thread() {
+        @Override public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          for (int i = 0; i < perWriter; i++) {
+            buffer.add(writer, tag, messages[writer][i]);
+          }
+        }
+      };
+      threads[w].start();
+    }
+
+    Thread reader = new Thread() {
+      @Override public void run() {
+        try {
+          while (!done.get()) {
+            final int[] last = new int[writers];
+            Arrays.fill(last, -1);
+            int count = buffer.read(new LogBuffer.Reader() {
+              @Override
+              public void entry(long timeMillis, int priority, String tag, String message) {
+                int colon = message.indexOf(':');
+                int writer = Integer.parseInt(message.substring(0, colon));
+                int index = Integer.parseInt(message.substring(colon + 1));
+                if (writer != priority || !tag.equals(String.valueOf(writer))) {
+                  throw new AssertionError("Torn entry: " + priority + " " + tag + " " + message);
+                }
+                if (index <= last[writer]) {
+                  throw new AssertionError("Out of order: " + message + " after " + last[writer]);
+                }
+                last[writer] = index;
+              }
+            });
+            if (count > capacity) {
+              throw new AssertionError("Read " + count + " entries");
+            }
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    reader.start();
+
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    done.set(true);
+    reader.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    // Once quiescent the buffer holds the newest entries, less any a lapped writer dropped.
+    Collector collector = new Collector();
+    assertThat(buffer.read(collector)).isAtLeast(capacity - writers);
+  }
+}
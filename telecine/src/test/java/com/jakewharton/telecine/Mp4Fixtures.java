@@ -0,0 +1,172 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.PPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.SPS;
+
+/**
+ * Writes progressive (non-fragmented) MP4 files like those from {@code MediaMuxer}: one video
+ * track whose samples are each their own chunk in a single {@code mdat}.
+ */
+final class Mp4Fixtures {
+  static final int WIDTH = 720;
+  static final int HEIGHT = 1280;
+  static final int TIMESCALE = 90000;
+  static final int SAMPLE_DURATION = 3000; // 30fps.
+
+  boolean moovFirst;
+  /** Size of a {@code free} box after the {@code ftyp}, as MediaRecorder reserves. 0 for none. */
+  int freeSize;
+  /** Zero bytes in the {@code mdat} before the first sample. Stored sparsely. */
+  long gap;
+  /** Use a 64-bit size for the {@code mdat}, as files over 4GB must. */
+  boolean largeMdat;
+  int[] sizes = { 100, 20, 30, 40, 110, 25 };
+  boolean[] sync = { true, false, false, false, true, false };
+
+  /** Sample {@code i} is {@code sizes[i]} bytes of {@code i + 1}. */
+  static byte sampleByte(int i) {
+    return (byte) (i + 1);
+  }
+
+  long duration() {
+    return (long) sizes.length * SAMPLE_DURATION;
+  }
+
+  void write(File file) throws IOException {
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      output.setLength(0);
+      write(output.getChannel());
+    } finally {
+      output.close();
+    }
+  }
+
+  private void write(FileChannel channel) throws IOException {
+    BoxBuilder ftyp = new BoxBuilder(64);
+    MovieBoxes.ftyp(ftyp, "mp42", "isom", "mp42");
+
+    long samplesSize = 0;
+    for (int size : sizes) {
+      samplesSize += size;
+    }
+    int mdatHeaderSize = largeMdat ? 16 : 8;
+    long mdatSize = mdatHeaderSize + gap + samplesSize;
+
+    // A leading moov moves the samples it points to, which can change its own size by switching
+    // to 64-bit offsets. Iterate until the size is stable.
+    long[] offsets = new long[sizes.length];
+    BoxBuilder moov = moov(offsets);
+    int moovSize;
+    do {
+      moovSize = moov.size();
+      long offset = ftyp.size() + freeSize + (moovFirst ? moovSize : 0) + mdatHeaderSize + gap;
+      for (int i = 0; i < sizes.length; i++) {
+        offsets[i] = offset;
+        offset += sizes[i];
+      }
+      moov = moov(offsets);
+    } while (moov.size() != moovSize);
+
+    long position = 0;
+    position += writeAt(channel, ByteBuffer.wrap(ftyp.toByteArray()), position);
+    if (freeSize > 0) {
+      ByteBuffer free = ByteBuffer.allocate(freeSize);
+      free.putInt(freeSize).putInt(Mp4Parser.fourCc("free"));
+      free.rewind();
+      position += writeAt(channel, free, position);
+    }
+    if (moovFirst) {
+      position += writeAt(channel, ByteBuffer.wrap(moov.toByteArray()), position);
+    }
+    ByteBuffer header = ByteBuffer.allocate(mdatHeaderSize);
+    if (largeMdat) {
+      header.putInt(1).putInt(Mp4Parser.MDAT).putLong(mdatSize);
+    } else {
+      header.putInt((int) mdatSize).putInt(Mp4Parser.MDAT);
+    }
+    header.flip();
+    writeAt(channel, header, position);
+    position += mdatHeaderSize + gap;
+    for (int i = 0; i < sizes.length; i++) {
+      byte[] sample = new byte[sizes[i]];
+      Arrays.fill(sample, sampleByte(i));
+      position += writeAt(channel, ByteBuffer.wrap(sample), position);
+    }
+    if (!moovFirst) {
+      writeAt(channel, ByteBuffer.wrap(moov.toByteArray()), position);
+    }
+  }
+
+  private BoxBuilder moov(long[] offsets) {
+    boolean large = false;
+    for (long offset : offsets) {
+      if (offset > 0xffffffffL) {
+        large = true;
+      }
+    }
+
+    BoxBuilder b = new BoxBuilder(1024);
+    b.start("moov");
+    MovieBoxes.mvhd(b, TIMESCALE, duration());
+    b.start("trak");
+    MovieBoxes.tkhd(b, duration(), WIDTH, HEIGHT);
+    b.start("mdia");
+    MovieBoxes.mdhd(b, TIMESCALE, duration());
+    MovieBoxes.hdlr(b);
+    b.start("minf");
+    MovieBoxes.videoMediaHeader(b);
+    b.start("stbl");
+    MovieBoxes.stsd(b, WIDTH, HEIGHT, SPS, PPS);
+    b.startFull("stts", 0, 0).putInt(1).putInt(sizes.length).putInt(SAMPLE_DURATION).end();
+    int syncCount = 0;
+    for (boolean s : sync) {
+      if (s) syncCount++;
+    }
+    b.startFull("stss", 0, 0).putInt(syncCount);
+    for (int i = 0; i < sync.length; i++) {
+      if (sync[i]) b.putInt(i + 1);
+    }
+    b.end();
+    b.startFull("stsc", 0, 0).putInt(1).putInt(1).putInt(1).putInt(1).end();
+    b.startFull("stsz", 0, 0).putInt(0).putInt(sizes.length);
+    for (int size : sizes) {
+      b.putInt(size);
+    }
+    b.end();
+    if (large) {
+      b.startFull("co64", 0, 0).putInt(offsets.length);
+      for (long offset : offsets) {
+        b.putLong(offset);
+      }
+    } else {
+      b.startFull("stco", 0, 0).putInt(offsets.length);
+      for (long offset : offsets) {
+        b.putInt((int) offset);
+      }
+    }
+    b.end();
+    b.end(); // stbl
+    b.end(); // minf
+    b.end(); // mdia
+    b.end(); // trak
+    b.end(); // moov
+    return b;
+  }
+
+  private static int writeAt(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer, position + written);
+    }
+    return written;
+  }
+}
@@ -0,0 +1,188 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.FRAME_US;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.PPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.SPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.frame;
+import static org.junit.Assert.fail;
+
+public final class Mp4ParserTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Mp4Metadata parse(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return Mp4Parser.parse(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+
+  private File writeFragmented(int frames, int keyFrameInterval) throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel(), 720, 1280, SPS,
+          PPS, TimeUnit.SECONDS.toMicros(1));
+      for (int i = 0; i < frames; i++) {
+        writer.writeSample(frame(i % keyFrameInterval == 0, 10 + i), i * FRAME_US,
+            i % keyFrameInterval == 0);
+      }
+      writer.close();
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  @Test public void fragmented() throws IOException {
+    Mp4Metadata metadata = parse(writeFragmented(100, 25));
+    assertThat(metadata.majorBrand).isEqualTo("iso6");
+    assertThat(metadata.codec).isEqualTo("avc1");
+    assertThat(metadata.width).isEqualTo(720);
+    assertThat(metadata.height).isEqualTo(1280);
+    assertThat(metadata.sampleCount).isEqualTo(100);
+    assertThat(metadata.syncSampleCount).isEqualTo(4);
+    assertThat(metadata.durationUs).isEqualTo(100 * FRAME_US);
+    assertThat(metadata.fragmented).isTrue();
+    assertThat(metadata.fastStart).isTrue();
+  }
+
+  @Test public void fragmentedWithoutSamples() throws IOException {
+    Mp4Metadata metadata = parse(writeFragmented(0, 1));
+    assertThat(metadata.sampleCount).isEqualTo(0);
+    assertThat(metadata.syncSampleCount).isEqualTo(0);
+    assertThat(metadata.durationUs).isEqualTo(0);
+  }
+
+  @Test public void fragmentedCutShortMidFragment() throws IOException {
+    File file = writeFragmented(100, 25);
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      output.setLength(output.length() - 3);
+    } finally {
+      output.close();
+    }
+
+    Mp4Metadata metadata = parse(file);
+    // The truncated mdat is skipped but its fragment's samples are still described.
+    assertThat(metadata.sampleCount).isEqualTo(100);
+  }
+
+  @Test public void fragmentedCutShortInMoof() throws IOException {
+    File full = writeFragmented(50, 25);
+    File first = writeFragmented(25, 25);
+    long firstLength = first.length();
+    RandomAccessFile output = new RandomAccessFile(full, "rw");
+    try {
+      output.setLength(firstLength + 20); // Into the second moof.
+    } finally {
+      output.close();
+    }
+
+    Mp4Metadata metadata = parse(full);
+    assertThat(metadata.sampleCount).isEqualTo(25);
+    assertThat(metadata.syncSampleCount).isEqualTo(1);
+  }
+
+  @Test public void progressiveMoovLast() throws IOException {
+    File file = temporaryFolder.newFile();
+    Mp4Fixtures fixture = new Mp4Fixtures();
+    fixture.write(file);
+
+    Mp4Metadata metadata = parse(file);
+    assertThat(metadata.majorBrand).isEqualTo("mp42");
+    assertThat(metadata.codec).isEqualTo("avc1");
+    assertThat(metadata.width).isEqualTo(Mp4Fixtures.WIDTH);
+    assertThat(metadata.height).isEqualTo(Mp4Fixtures.HEIGHT);
+    assertThat(metadata.sampleCount).isEqualTo(6);
+    assertThat(metadata.syncSampleCount).isEqualTo(2);
+    assertThat(metadata.durationUs).isEqualTo(200000);
+    assertThat(metadata.fragmented).isFalse();
+    assertThat(metadata.fastStart).isFalse();
+  }
+
+  @Test public void progressiveMoovFirst() throws IOException {
+    File file = temporaryFolder.newFile();
+    Mp4Fixtures fixture = new Mp4Fixtures();
+    fixture.moovFirst = true;
+    fixture.write(file);
+
+    Mp4Metadata metadata = parse(file);
+    assertThat(metadata.sampleCount).isEqualTo(6);
+    assertThat(metadata.fastStart).isTrue();
+  }
+
+  @Test public void multiGigabyteMdatIsSkipped() throws IOException {
+    File file = temporaryFolder.newFile();
+    Mp4Fixtures fixture = new Mp4Fixtures();
+    fixture.largeMdat = true;
+    fixture.gap = 5L * 1024 * 1024 * 1024; // Sparse, so nothing is actually written.
+    fixture.write(file);
+    assertThat(file.length()).isGreaterThan(fixture.gap);
+
+    long start = System.nanoTime();
+    Mp4Metadata metadata = parse(file);
+    long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(metadata.sampleCount).isEqualTo(6);
+    assertThat(metadata.durationUs).isEqualTo(200000);
+    assertThat(tookMs).isLessThan(500L); // Generous for slow machines. Typically well under 5ms.
+  }
+
+  @Test public void noMoovThrows() throws IOException {
+    File file = temporaryFolder.newFile();
+    BoxBuilder b = new BoxBuilder(64);
+    MovieBoxes.ftyp(b, "mp42", "isom");
+    b.start("mdat").zeros(100).end();
+    write(file, b);
+
+    try {
+      parse(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("No moov.");
+    }
+  }
+
+  @Test public void invalidBoxSizeThrows() throws IOException {
+    File file = temporaryFolder.newFile();
+    BoxBuilder b = new BoxBuilder(64);
+    MovieBoxes.ftyp(b, "mp42", "isom");
+    b.putInt(4).putFourCc("free");
+    write(file, b);
+
+    try {
+      parse(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).startsWith("Invalid size 4 for free");
+    }
+  }
+
+  @Test public void fourCcRoundTrip() {
+    assertThat(Mp4Parser.fourCc("moov")).isEqualTo(0x6d6f6f76);
+    assertThat(Mp4Parser.fourCcString(0x6d6f6f76)).isEqualTo("moov");
+  }
+
+  private static void write(File file, BoxBuilder b) throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FileChannel channel = output.getChannel();
+      b.writeTo(channel);
+    } finally {
+      output.close();
+    }
+  }
+}
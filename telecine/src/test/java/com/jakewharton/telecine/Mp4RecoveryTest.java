@@ -0,0 +1,319 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.PPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.SPS;
+import static org.junit.Assert.fail;
+
+public final class Mp4RecoveryTest {
+  private static final RecordingInfo INFO = new RecordingInfo(720, 1280, 30, 320);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /** Writes a file as a muxer would have left it had it been killed before writing the moov. */
+  private static final class Unfinished {
+    final BoxBuilder data = new BoxBuilder(1024);
+    boolean largeMdat;
+    /** The mdat size as written. Muxers fill it in at the end. */
+    long mdatSize;
+
+    Unfinished nal(int header, int size) {
+      data.putInt(size).putByte(header);
+      for (int i = 1; i < size; i++) {
+        data.putByte(i);
+      }
+      return this;
+    }
+
+    /** A picture of {@code slices} slices, each {@code size} bytes. */
+    Unfinished picture(boolean idr, int slices, int size) {
+      for (int i = 0; i < slices; i++) {
+        data.putInt(size).putByte(idr ? 0x65 : 0x41);
+        // first_mb_in_slice is an Exp-Golomb code: '1' for 0, '010' for 1.
+        data.putByte(i == 0 ? 0x80 : 0x40);
+        for (int j = 2; j < size; j++) {
+          data.putByte(j);
+        }
+      }
+      return this;
+    }
+
+    Unfinished parameterSets() {
+      data.putInt(SPS.length).put(SPS);
+      data.putInt(PPS.length).put(PPS);
+      return this;
+    }
+
+    void write(File file) throws IOException {
+      BoxBuilder head = new BoxBuilder(64);
+      MovieBoxes.ftyp(head, "mp42", "isom", "mp42");
+      head.start("free").zeros(32).end();
+      if (largeMdat) {
+        head.putInt(1).putFourCc("mdat").putLong(mdatSize);
+      } else {
+        head.putInt((int) mdatSize).putFourCc("mdat");
+      }
+      FileOutputStream output = new FileOutputStream(file);
+      try {
+        head.writeTo(output.getChannel());
+        data.writeTo(output.getChannel());
+      } finally {
+        output.close();
+      }
+    }
+  }
+
+  private File write(Unfinished unfinished) throws IOException {
+    File file = temporaryFolder.newFile();
+    unfinished.write(file);
+    return file;
+  }
+
+  private RecordingSidecar sidecar(boolean parameterSets) throws IOException {
+    File recording = temporaryFolder.newFile();
+    RecordingSidecar.write(recording, INFO);
+    if (parameterSets) {
+      RecordingSidecar.appendParameterSets(recording, SPS, PPS);
+    }
+    return RecordingSidecar.read(RecordingSidecar.fileFor(recording));
+  }
+
+  private Mp4Recovery.Result recover(File input, File output, RecordingSidecar sidecar)
+      throws IOException {
+    RandomAccessFile in = new RandomAccessFile(input, "r");
+    try {
+      RandomAccessFile out = new RandomAccessFile(output, "rw");
+      try {
+        return Mp4Recovery.recover(in.getChannel(), out.getChannel(), sidecar);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Mp4Metadata parse(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return Mp4Parser.parse(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+
+  private static int[] sampleSizes(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      Mp4SampleTable table = Mp4SampleTable.read(input.getChannel());
+      int[] sizes = new int[table.count];
+      System.arraycopy(table.sizes, 0, sizes, 0, table.count);
+      return sizes;
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test public void recoversAccessUnits() throws IOException {
+    File input = write(new Unfinished()
+        .picture(true, 1, 100)
+        .picture(false, 2, 20)
+        .nal(NalUnits.TYPE_SEI, 5)
+        .picture(false, 1, 30)
+        .picture(true, 3, 40));
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(input, output, sidecar(true));
+    assertThat(result.sampleCount).isEqualTo(4);
+    assertThat(result.syncSampleCount).isEqualTo(2);
+    assertThat(result.durationUs).isEqualTo(133333);
+    assertThat(result.discardedBytes).isEqualTo(0);
+    assertThat(result.size).isEqualTo(output.length());
+
+    Mp4Metadata metadata = parse(output);
+    assertThat(metadata.codec).isEqualTo("avc1");
+    assertThat(metadata.width).isEqualTo(720);
+    assertThat(metadata.height).isEqualTo(1280);
+    assertThat(metadata.sampleCount).isEqualTo(4);
+    assertThat(metadata.syncSampleCount).isEqualTo(2);
+    assertThat(metadata.fastStart).isTrue();
+    // The SEI belongs to the picture which follows it.
+    assertThat(sampleSizes(output)).isEqualTo(new int[] { 104, 48, 43, 132 });
+  }
+
+  @Test public void truncatedNalIsDiscarded() throws IOException {
+    Unfinished unfinished = new Unfinished()
+        .picture(true, 1, 100)
+        .picture(false, 1, 20)
+        .picture(false, 1, 30);
+    File input = write(unfinished);
+    RandomAccessFile file = new RandomAccessFile(input, "rw");
+    try {
+      file.setLength(file.length() - 10);
+    } finally {
+      file.close();
+    }
+
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(input, output, sidecar(true));
+    assertThat(result.sampleCount).isEqualTo(2);
+    assertThat(result.discardedBytes).isEqualTo(24);
+    assertThat(sampleSizes(output)).isEqualTo(new int[] { 104, 24 });
+  }
+
+  @Test public void zeroesAfterDataAreDiscarded() throws IOException {
+    Unfinished unfinished = new Unfinished()
+        .picture(true, 1, 100)
+        .picture(false, 1, 20);
+    unfinished.data.zeros(4096); // Preallocated but never written.
+
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(write(unfinished), output, sidecar(true));
+    assertThat(result.sampleCount).isEqualTo(2);
+    assertThat(result.discardedBytes).isEqualTo(4096);
+  }
+
+  @Test public void largeMdatWithoutSize() throws IOException {
+    Unfinished unfinished = new Unfinished()
+        .picture(true, 1, 100)
+        .picture(false, 1, 20);
+    unfinished.largeMdat = true;
+
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(write(unfinished), output, sidecar(true));
+    assertThat(result.sampleCount).isEqualTo(2);
+  }
+
+  @Test public void inBandParameterSets() throws IOException {
+    File input = write(new Unfinished()
+        .parameterSets()
+        .picture(true, 1, 100)
+        .picture(false, 1, 20));
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(input, output, sidecar(false));
+    assertThat(result.sampleCount).isEqualTo(2);
+    // Parameter sets stay with the picture they precede.
+    assertThat(sampleSizes(output)).isEqualTo(
+        new int[] { 4 + SPS.length + 4 + PPS.length + 104, 24 });
+    assertThat(parse(output).codec).isEqualTo("avc1");
+  }
+
+  @Test public void noParameterSets() throws IOException {
+    File input = write(new Unfinished().picture(true, 1, 100));
+    File output = temporaryFolder.newFile();
+    try {
+      recover(input, output, sidecar(false));
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("No SPS or PPS in the sidecar or the media data.");
+    }
+  }
+
+  @Test public void leadingNonSyncSamplesAreDropped() throws IOException {
+    File input = write(new Unfinished()
+        .picture(false, 1, 10)
+        .picture(true, 1, 100)
+        .picture(false, 1, 20));
+    File output = temporaryFolder.newFile();
+    Mp4Recovery.Result result = recover(input, output, sidecar(true));
+    assertThat(result.sampleCount).isEqualTo(2);
+    assertThat(sampleSizes(output)).isEqualTo(new int[] { 104, 24 });
+  }
+
+  @Test public void picturesLargerThanWindow() throws IOException {
+    Unfinished unfinished = new Unfinished();
+    for (int i = 0; i < 20; i++) {
+      unfinished.picture(i % 10 == 0, 2, 40000);
+    }
+    File input = write(unfinished);
+    RandomAccessFile file = new RandomAccessFile(input, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long mdatStart = 8 + 16 + 40 + 8; // ftyp, free, mdat header.
+      Mp4Recovery.Scanner scanner =
+          new Mp4Recovery.Scanner(channel, mdatStart, channel.size(), 3000, 4096);
+      scanner.scan();
+      assertThat(scanner.samples.count).isEqualTo(20);
+      assertThat(scanner.position).isEqualTo(channel.size());
+      for (int i = 0; i < 20; i++) {
+        assertThat(scanner.samples.sizes[i]).isEqualTo(80008);
+        assertThat(scanner.samples.sync[i]).isEqualTo(i % 10 == 0);
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test public void finishedFileDoesNotNeedRecovery() throws IOException {
+    File finished = temporaryFolder.newFile();
+    new Mp4Fixtures().write(finished);
+    File unfinished = write(new Unfinished().picture(true, 1, 100));
+    assertThat(needsRecovery(finished)).isFalse();
+    assertThat(needsRecovery(unfinished)).isTrue();
+    assertThat(needsRecovery(temporaryFolder.newFile())).isFalse();
+  }
+
+  private static boolean needsRecovery(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return Mp4Recovery.needsRecovery(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test public void recoverFileInPlace() throws IOException {
+    File file = write(new Unfinished()
+        .picture(true, 1, 100)
+        .picture(false, 1, 20));
+    Mp4Recovery.Result result = Mp4Recovery.recover(file, sidecar(true));
+    assertThat(file.length()).isEqualTo(result.size);
+    assertThat(parse(file).sampleCount).isEqualTo(2);
+    assertThat(new File(file.getPath() + ".recovered").exists()).isFalse();
+    assertThat(needsRecovery(file)).isFalse();
+  }
+
+  @Test public void sidecarRoundTrip() throws IOException {
+    RecordingSidecar withoutParameterSets = sidecar(false);
+    assertThat(withoutParameterSets.width).isEqualTo(720);
+    assertThat(withoutParameterSets.height).isEqualTo(1280);
+    assertThat(withoutParameterSets.frameRate).isEqualTo(30);
+    assertThat(withoutParameterSets.sps).isNull();
+    assertThat(withoutParameterSets.pps).isNull();
+
+    RecordingSidecar withParameterSets = sidecar(true);
+    assertThat(withParameterSets.sps).isEqualTo(SPS);
+    assertThat(withParameterSets.pps).isEqualTo(PPS);
+  }
+
+  @Test public void sidecarPaths() {
+    File recording = new File("/movies/Telecine_1.mp4");
+    File sidecar = RecordingSidecar.fileFor(recording);
+    assertThat(sidecar.getName()).isEqualTo("Telecine_1.mp4.recovery");
+    assertThat(RecordingSidecar.recordingFor(sidecar)).isEqualTo(recording);
+  }
+
+  @Test public void sidecarFromNewerVersion() throws IOException {
+    File sidecar = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(sidecar);
+    try {
+      output.write("version=2\nwidth=1\nheight=1\nframeRate=1\n".getBytes("ISO-8859-1"));
+    } finally {
+      output.close();
+    }
+    try {
+      RecordingSidecar.read(sidecar);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("Unsupported sidecar version 2");
+    }
+  }
+}
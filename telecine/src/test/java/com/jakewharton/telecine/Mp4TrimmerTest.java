@@ -0,0 +1,270 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.FRAME_US;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.PPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.SPS;
+import static com.jakewharton.telecine.FragmentedMp4WriterTest.frame;
+import static org.junit.Assert.fail;
+
+public final class Mp4TrimmerTest {
+  /** One progressive fixture sample, in microseconds, rounded up to land inside the sample. */
+  private static final long SAMPLE_US = 33334;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File writeProgressive(boolean moovFirst) throws IOException {
+    File file = temporaryFolder.newFile();
+    Mp4Fixtures fixtures = new Mp4Fixtures();
+    fixtures.moovFirst = moovFirst;
+    fixtures.write(file);
+    return file;
+  }
+
+  private File writeFragmented(int frames, int keyFrameInterval) throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel(), 720, 1280, SPS,
+          PPS, TimeUnit.SECONDS.toMicros(1));
+      for (int i = 0; i < frames; i++) {
+        writer.writeSample(frame(i % keyFrameInterval == 0, 10 + i), i * FRAME_US,
+            i % keyFrameInterval == 0);
+      }
+      writer.close();
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private Mp4Trimmer.Result trim(File input, File output, long startUs, long endUs)
+      throws IOException {
+    RandomAccessFile in = new RandomAccessFile(input, "r");
+    try {
+      RandomAccessFile out = new RandomAccessFile(output, "rw");
+      try {
+        return Mp4Trimmer.trim(in.getChannel(), out.getChannel(), startUs, endUs);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Mp4Metadata parse(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return Mp4Parser.parse(input.getChannel());
+    } finally {
+      input.close();
+    }
+  }
+
+  /** The bytes of every sample in {@code file}, in order. */
+  private static byte[][] samples(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = input.getChannel();
+      Mp4SampleTable table = Mp4SampleTable.read(channel);
+      byte[][] samples = new byte[table.count][];
+      for (int i = 0; i < table.count; i++) {
+        ByteBuffer sample = ByteBuffer.allocate(table.sizes[i]);
+        channel.read(sample, table.offsets[i]);
+        samples[i] = sample.array();
+      }
+      return samples;
+    } finally {
+      input.close();
+    }
+  }
+
+  private static byte[] filled(int size, byte value) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = value;
+    }
+    return bytes;
+  }
+
+  @Test public void progressiveStartsAtPrecedingSyncSample() throws IOException {
+    File input = writeProgressive(false);
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 5 * SAMPLE_US, TimeUnit.SECONDS.toMicros(1));
+    assertThat(result.sampleCount).isEqualTo(2);
+    assertThat(result.startUs).isEqualTo(133333);
+    assertThat(result.durationUs).isEqualTo(66666);
+    assertThat(result.size).isEqualTo(output.length());
+
+    Mp4Metadata metadata = parse(output);
+    assertThat(metadata.sampleCount).isEqualTo(2);
+    assertThat(metadata.syncSampleCount).isEqualTo(1);
+    assertThat(metadata.width).isEqualTo(Mp4Fixtures.WIDTH);
+    assertThat(metadata.height).isEqualTo(Mp4Fixtures.HEIGHT);
+    assertThat(metadata.durationUs).isEqualTo(66666);
+    assertThat(metadata.fragmented).isFalse();
+    assertThat(metadata.fastStart).isTrue();
+
+    byte[][] samples = samples(output);
+    assertThat(samples[0]).isEqualTo(filled(110, Mp4Fixtures.sampleByte(4)));
+    assertThat(samples[1]).isEqualTo(filled(25, Mp4Fixtures.sampleByte(5)));
+  }
+
+  @Test public void progressiveEndIsExact() throws IOException {
+    File input = writeProgressive(true);
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 0, 3 * SAMPLE_US);
+    assertThat(result.startUs).isEqualTo(0);
+    assertThat(result.sampleCount).isEqualTo(3);
+
+    byte[][] samples = samples(output);
+    assertThat(samples).hasLength(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(samples[i]).isEqualTo(filled(new Mp4Fixtures().sizes[i],
+          Mp4Fixtures.sampleByte(i)));
+    }
+  }
+
+  @Test public void progressiveUntrimmedMatchesInput() throws IOException {
+    File input = writeProgressive(false);
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 0, TimeUnit.SECONDS.toMicros(10));
+    assertThat(result.sampleCount).isEqualTo(6);
+
+    byte[][] expected = samples(input);
+    byte[][] actual = samples(output);
+    assertThat(actual).hasLength(expected.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertThat(actual[i]).isEqualTo(expected[i]);
+    }
+    assertThat(parse(output).syncSampleCount).isEqualTo(2);
+  }
+
+  @Test public void fragmentedBecomesProgressive() throws IOException {
+    File input = writeFragmented(100, 25);
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 30 * FRAME_US, 70 * FRAME_US);
+    assertThat(result.startUs).isEqualTo(25 * FRAME_US);
+    assertThat(result.durationUs).isEqualTo(45 * FRAME_US);
+    assertThat(result.sampleCount).isEqualTo(45);
+
+    Mp4Metadata metadata = parse(output);
+    assertThat(metadata.codec).isEqualTo("avc1");
+    assertThat(metadata.sampleCount).isEqualTo(45);
+    assertThat(metadata.syncSampleCount).isEqualTo(2);
+    assertThat(metadata.durationUs).isEqualTo(45 * FRAME_US);
+    assertThat(metadata.fragmented).isFalse();
+
+    byte[][] expected = samples(input);
+    byte[][] actual = samples(output);
+    for (int i = 0; i < 45; i++) {
+      assertThat(actual[i]).isEqualTo(expected[25 + i]);
+    }
+  }
+
+  @Test public void fragmentCutWithoutKeyFrameStartsAtEarlierKeyFrame() throws IOException {
+    // One second fragments are forced out after four seconds without a key frame.
+    File input = writeFragmented(200, 150);
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 130 * FRAME_US, 140 * FRAME_US);
+    assertThat(result.startUs).isEqualTo(0);
+    assertThat(result.sampleCount).isEqualTo(140);
+    assertThat(parse(output).syncSampleCount).isEqualTo(1);
+  }
+
+  @Test public void chunksSpanMultipleSamples() throws IOException {
+    File input = writeFragmented(100, 25);
+    File output = temporaryFolder.newFile();
+    trim(input, output, 0, 100 * FRAME_US);
+
+    RandomAccessFile file = new RandomAccessFile(output, "r");
+    try {
+      Mp4SampleTable table = Mp4SampleTable.read(file.getChannel());
+      assertThat(table.count).isEqualTo(100);
+      // Samples are contiguous in the output however they were chunked.
+      for (int i = 1; i < table.count; i++) {
+        assertThat(table.offsets[i]).isEqualTo(table.offsets[i - 1] + table.sizes[i - 1]);
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test public void fragmentedCutShortDropsIncompleteSamples() throws IOException {
+    File input = writeFragmented(100, 25);
+    RandomAccessFile file = new RandomAccessFile(input, "rw");
+    try {
+      file.setLength(file.length() - 3);
+    } finally {
+      file.close();
+    }
+
+    File output = temporaryFolder.newFile();
+    Mp4Trimmer.Result result = trim(input, output, 0, 100 * FRAME_US);
+    assertThat(result.sampleCount).isEqualTo(99);
+    assertThat(parse(output).sampleCount).isEqualTo(99);
+  }
+
+  @Test public void trimFileToCopy() throws IOException {
+    File file = writeFragmented(50, 10);
+    long originalLength = file.length();
+    File trimmed = Mp4Trimmer.trimmedFile(file);
+    Mp4Trimmer.Result result = Mp4Trimmer.trim(file, trimmed, 0, 48 * FRAME_US);
+    assertThat(result.sampleCount).isEqualTo(48);
+    assertThat(trimmed.length()).isEqualTo(result.size);
+    assertThat(parse(trimmed).sampleCount).isEqualTo(48);
+    assertThat(file.length()).isEqualTo(originalLength);
+    assertThat(parse(file).sampleCount).isEqualTo(50);
+    assertThat(new File(trimmed.getPath() + ".trim").exists()).isFalse();
+  }
+
+  @Test public void trimmedFileSitsNextToOriginal() {
+    File file = new File("/sdcard/Movies/Telecine/Telecine_2017-10-18-11-27-31.mp4");
+    assertThat(Mp4Trimmer.trimmedFile(file)).isEqualTo(
+        new File("/sdcard/Movies/Telecine/Telecine_2017-10-18-11-27-31-trimmed.mp4"));
+  }
+
+  @Test public void failureLeavesNoOutput() throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(new byte[] { 0, 0, 0, 8, 'f', 'r', 'e', 'e' });
+    } finally {
+      output.close();
+    }
+
+    File trimmed = Mp4Trimmer.trimmedFile(file);
+    try {
+      Mp4Trimmer.trim(file, trimmed, 0, 1000);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("No moov.");
+    }
+    assertThat(file.length()).isEqualTo(8);
+    assertThat(trimmed.exists()).isFalse();
+    assertThat(new File(trimmed.getPath() + ".trim").exists()).isFalse();
+  }
+
+  @Test public void emptyRange() throws IOException {
+    File input = writeProgressive(true);
+    File output = temporaryFolder.newFile();
+    try {
+      trim(input, output, 1000, 1000);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("Invalid range 1000..1000");
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class NalScannerTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<String> nals = new ArrayList<>();
+  private final NalScanner.Callback collect = new NalScanner.Callback() {
+    @Override public boolean onNal(long offset, int size, int type, int secondByte) {
+      nals.add(offset + ":" + size + ":" + type + ":" + secondByte);
+      return true;
+    }
+  };
+
+  private RandomAccessFile file(int... bytes) throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      for (int b : bytes) {
+        output.write(b);
+      }
+    } finally {
+      output.close();
+    }
+    return new RandomAccessFile(file, "r");
+  }
+
+  private void scanAnnexB(int windowSize, int... bytes) throws IOException {
+    RandomAccessFile file = file(bytes);
+    try {
+      new NalScanner(file.getChannel(), windowSize).scanAnnexB(0, file.length(), collect);
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test public void annexB() throws IOException {
+    scanAnnexB(NalScanner.DEFAULT_WINDOW_SIZE,
+        0, 0, 0, 1, 0x67, 0x42, 0x11,
+        0, 0, 1, 0x68, 0xce,
+        0, 0, 0, 1, 0x65, 0x88, 0x84, 0, 0, // Trailing zeros are not part of the unit.
+        0, 0, 1, 0x41, 0x9a);
+    assertThat(nals).containsExactly("4:3:7:66", "10:2:8:206", "16:3:5:136", "24:2:1:154")
+        .inOrder();
+  }
+
+  @Test public void annexBAcrossWindows() throws IOException {
+    int[] bytes = {
+        0, 0, 0, 1, 0x67, 0x42, 0x11,
+        0, 0, 1, 0x68, 0xce,
+        0, 0, 0, 1, 0x65, 0x88, 0x84, 0, 0,
+        0, 0, 1, 0x41, 0x9a
+    };
+    for (int windowSize = 1; windowSize < bytes.length; windowSize++) {
+      nals.clear();
+      scanAnnexB(windowSize, bytes);
+      assertThat(nals).containsExactly("4:3:7:66", "10:2:8:206", "16:3:5:136", "24:2:1:154")
+          .inOrder();
+    }
+  }
+
+  @Test public void annexBZeroSecondByte() throws IOException {
+    scanAnnexB(3, 0, 0, 1, 0x06, 0, 5, 0, 0, 1, 0x09);
+    assertThat(nals).containsExactly("3:3:6:0", "9:1:9:-1").inOrder();
+  }
+
+  @Test public void annexBSkipsInvalidUnits() throws IOException {
+    // A zero header and a forbidden bit are both skipped.
+    scanAnnexB(NalScanner.DEFAULT_WINDOW_SIZE, 0, 0, 1, 0, 5, 0, 0, 1, 0xe5, 5, 0, 0, 1, 0x41, 5);
+    assertThat(nals).containsExactly("13:2:1:5");
+  }
+
+  @Test public void annexBWithoutStartCode() throws IOException {
+    scanAnnexB(NalScanner.DEFAULT_WINDOW_SIZE, 0x65, 1, 2, 3);
+    assertThat(nals).isEmpty();
+  }
+
+  @Test public void lengthPrefixed() throws IOException {
+    RandomAccessFile file = file(
+        0, 0, 0, 2, 0x67, 0x42,
+        0, 0, 0, 1, 0x68,
+        0, 0, 0, 3, 0x65, 0x88, 0x84,
+        0, 0, 0, 9, 0x41, 0x9a); // Cut short.
+    try {
+      long end = new NalScanner(file.getChannel(), 6)
+          .scanLengthPrefixed(0, file.length(), 4, collect);
+      assertThat(end).isEqualTo(18);
+    } finally {
+      file.close();
+    }
+    assertThat(nals).containsExactly("4:2:7:66", "10:1:8:-1", "15:3:5:136").inOrder();
+  }
+
+  @Test public void lengthPrefixedTwoByteLengths() throws IOException {
+    RandomAccessFile file = file(0, 2, 0x67, 0x42, 0, 1, 0x68);
+    try {
+      new NalScanner(file.getChannel(), 64).scanLengthPrefixed(0, file.length(), 2, collect);
+    } finally {
+      file.close();
+    }
+    assertThat(nals).containsExactly("2:2:7:66", "6:1:8:-1").inOrder();
+  }
+
+  @Test public void lengthPrefixedStopsOnCallback() throws IOException {
+    RandomAccessFile file = file(0, 0, 0, 1, 0x67, 0, 0, 0, 1, 0x68);
+    try {
+      long end = new NalScanner(file.getChannel(), 64)
+          .scanLengthPrefixed(0, file.length(), 4, new NalScanner.Callback() {
+            @Override public boolean onNal(long offset, int size, int type, int secondByte) {
+              nals.add("" + type);
+              return false;
+            }
+          });
+      assertThat(end).isEqualTo(5);
+    } finally {
+      file.close();
+    }
+    assertThat(nals).containsExactly("7");
+  }
+}
@@ -0,0 +1,41 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class NalUnitsTest {
+  @Test public void stripStartCode() {
+    assertThat(NalUnits.stripStartCode(new byte[] { 0, 0, 0, 1, 0x67, 1 }))
+        .isEqualTo(new byte[] { 0x67, 1 });
+    assertThat(NalUnits.stripStartCode(new byte[] { 0, 0, 1, 0x68 }))
+        .isEqualTo(new byte[] { 0x68 });
+    assertThat(NalUnits.stripStartCode(new byte[] { 0x68, 2 })).isEqualTo(new byte[] { 0x68, 2 });
+  }
+
+  @Test public void annexBIsConvertedToLengthPrefixed() {
+    ByteBuffer source = ByteBuffer.wrap(new byte[] {
+        0, 0, 0, 1, 0x09, 0x10, // AUD
+        0, 0, 1, 0x65, 1, 2, 3, // IDR with 3 byte start code
+        0, 0, 0, 1, 0x41, 4, 0, // Slice with trailing zero
+    });
+    BoxBuilder sink = new BoxBuilder(8);
+    int written = NalUnits.writeLengthPrefixed(source, sink);
+
+    assertThat(source.hasRemaining()).isFalse();
+    assertThat(written).isEqualTo(4 + 2 + 4 + 4 + 4 + 2);
+    assertThat(sink.toByteArray()).isEqualTo(new byte[] {
+        0, 0, 0, 2, 0x09, 0x10, //
+        0, 0, 0, 4, 0x65, 1, 2, 3, //
+        0, 0, 0, 2, 0x41, 4,
+    });
+  }
+
+  @Test public void lengthPrefixedIsCopied() {
+    byte[] data = { 0, 0, 0, 2, 0x65, 1 };
+    BoxBuilder sink = new BoxBuilder(8);
+    assertThat(NalUnits.writeLengthPrefixed(ByteBuffer.wrap(data), sink)).isEqualTo(6);
+    assertThat(sink.toByteArray()).isEqualTo(data);
+  }
+}
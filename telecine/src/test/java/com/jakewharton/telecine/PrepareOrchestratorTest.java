@@ -0,0 +1,140 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class PrepareOrchestratorTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final List<String> abandoned = Collections.synchronizedList(new ArrayList<String>());
+  private final PrepareOrchestrator orchestrator = new PrepareOrchestrator(executor);
+
+  @After public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test public void tasksRunInParallel() throws Exception {
+    // Each task waits for the other so they can only complete if run concurrently.
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    PrepareOrchestrator.Result<String> a = orchestrator.submit(new Value("a", bothRunning));
+    PrepareOrchestrator.Result<String> b = orchestrator.submit(new Value("b", bothRunning));
+
+    orchestrator.await(5, TimeUnit.SECONDS);
+    assertThat(a.get()).isEqualTo("a");
+    assertThat(b.get()).isEqualTo("b");
+    assertThat(orchestrator.timings()).startsWith("a=");
+    assertThat(abandoned).isEmpty();
+  }
+
+  @Test public void failureEndsWaitAndAbandonsOthers() throws Exception {
+    orchestrator.submit(new Value("completed", null));
+    final CountDownLatch release = new CountDownLatch(1);
+    orchestrator.submit(new PrepareOrchestrator.Task<String>("wait") {
+      @Override String run() throws Exception {
+        release.await();
+        return "late";
+      }
+
+      @Override void abandon(String result) {
+        abandoned.add(result);
+      }
+    });
+    Thread.sleep(50); // Let the first task complete before the failure.
+    orchestrator.submit(new PrepareOrchestrator.Task<String>("broken") {
+      @Override String run() throws IOException {
+        throw new IOException("Broken!");
+      }
+    });
+
+    try {
+      orchestrator.await(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getMessage()).isEqualTo("broken failed.");
+      assertThat(e.getCause().getMessage()).isEqualTo("Broken!");
+    }
+    assertThat(abandoned).containsExactly("completed");
+
+    release.countDown();
+    awaitAbandoned(2);
+    assertThat(abandoned).containsExactly("completed", "late").inOrder();
+  }
+
+  @Test public void deadlineNamesPendingTasks() throws Exception {
+    CountDownLatch release = new CountDownLatch(2); // Only counted down once by the task.
+    orchestrator.submit(new Value("fast", null));
+    orchestrator.submit(new Value("slow", release));
+
+    try {
+      orchestrator.await(100, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (TimeoutException e) {
+      assertThat(e.getMessage()).isEqualTo("Timed out after 100ms waiting for [slow]");
+    }
+    assertThat(abandoned).containsExactly("fast");
+    assertThat(orchestrator.timings()).endsWith("slow=pending");
+
+    release.countDown();
+    awaitAbandoned(2);
+    assertThat(abandoned).containsExactly("fast", "slow").inOrder();
+  }
+
+  @Test public void abandonIsIdempotent() throws Exception {
+    orchestrator.submit(new Value("a", null));
+    orchestrator.await(5, TimeUnit.SECONDS);
+
+    orchestrator.abandon();
+    orchestrator.abandon();
+    assertThat(abandoned).containsExactly("a");
+  }
+
+  @Test public void submitAfterAwaitThrows() throws Exception {
+    orchestrator.await(1, TimeUnit.SECONDS);
+    try {
+      orchestrator.submit(new Value("a", null));
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  private void awaitAbandoned(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (abandoned.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  /** Returns its name after counting down and then awaiting {@code latch}, if any. */
+  private final class Value extends PrepareOrchestrator.Task<String> {
+    private final CountDownLatch latch;
+
+    Value(String name, CountDownLatch latch) {
+      super(name);
+      this.latch = latch;
+    }
+
+    @Override String run() throws InterruptedException {
+      if (latch != null) {
+        latch.countDown();
+        latch.await();
+      }
+      return name;
+    }
+
+    @Override void abandon(String result) {
+      abandoned.add(result);
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package com.jakewharton.telecine;
+
+import com.jakewharton.telecine.RecorderStateMachine.State;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class RecorderStateMachineTest {
+  private final List<String> events = new ArrayList<>();
+  private final QueueExecutor recorderThread = new QueueExecutor();
+  private final QueueExecutor callbackThread = new QueueExecutor();
+  private final FakeRecorder recorder = new FakeRecorder();
+  private final RecorderStateMachine machine = new RecorderStateMachine(recorder,
+      new RecorderStateMachine.Callbacks() {
+        @Override public void onStarted() {
+          events.add("onStarted");
+        }
+
+        @Override public void onError(Throwable t) {
+          events.add("onError " + t.getMessage());
+        }
+
+        @Override public void onStopped(boolean recorded) {
+          events.add("onStopped " + recorded);
+        }
+      }, recorderThread, callbackThread);
+
+  @Test public void startAndStop() {
+    machine.start();
+    recorderThread.runAll();
+    assertThat(machine.state()).isEqualTo(State.RECORDING);
+    callbackThread.runAll();
+
+    machine.stop();
+    recorderThread.runAll();
+    assertThat(machine.state()).isEqualTo(State.STOPPED);
+    callbackThread.runAll();
+
+    assertThat(events).containsExactly("prepare", "start", "onStarted", "stop", "release",
+        "onStopped true").inOrder();
+  }
+
+  @Test public void callbacksOnlyRunOnCallbackThread() {
+    machine.start();
+    recorderThread.runAll();
+    machine.stop();
+    recorderThread.runAll();
+    assertThat(events).containsExactly("prepare", "start", "stop", "release").inOrder();
+
+    callbackThread.runAll();
+    assertThat(events).containsExactly("prepare", "start", "stop", "release", "onStarted",
+        "onStopped true").inOrder();
+  }
+
+  @Test public void prepareArmsWithoutStarting() {
+    machine.prepare();
+    recorderThread.runAll();
+    callbackThread.runAll();
+    assertThat(machine.state()).isEqualTo(State.PREPARED);
+    assertThat(events).containsExactly("prepare");
+
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+    assertThat(machine.state()).isEqualTo(State.RECORDING);
+    assertThat(events).containsExactly("prepare", "start", "onStarted").inOrder();
+  }
+
+  @Test public void startWhilePreparingWaitsForPrepare() {
+    recorder.onPrepare = new Runnable() {
+      @Override public void run() {
+        machine.start();
+      }
+    };
+    machine.prepare();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.RECORDING);
+    assertThat(events).containsExactly("prepare", "start", "onStarted").inOrder();
+  }
+
+  @Test public void destroyWhilePrepared() {
+    machine.prepare();
+    recorderThread.runAll();
+    machine.destroy();
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.DESTROYED);
+    assertThat(events).containsExactly("prepare", "release", "onStopped false").inOrder();
+  }
+
+  @Test public void stopDuringPrepare() {
+    recorder.onPrepare = new Runnable() {
+      @Override public void run() {
+        machine.stop();
+      }
+    };
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.STOPPED);
+    assertThat(events).containsExactly("prepare", "release", "onStopped false").inOrder();
+  }
+
+  @Test public void stopBeforePrepare() {
+    machine.start();
+    machine.stop();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    // Preparing was already queued so it runs, but recording never starts.
+    assertThat(events).containsExactly("prepare", "release", "onStopped false").inOrder();
+  }
+
+  @Test public void destroyWhileRunning() {
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    machine.destroy();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.DESTROYED);
+    assertThat(events).containsExactly("prepare", "start", "onStarted", "stop", "release",
+        "onStopped true").inOrder();
+  }
+
+  @Test public void destroyWhileIdleDoesNotCallBack() {
+    machine.destroy();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.DESTROYED);
+    assertThat(events).isEmpty();
+  }
+
+  @Test public void startAfterDestroyIsIgnored() {
+    machine.destroy();
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.DESTROYED);
+    assertThat(events).isEmpty();
+  }
+
+  @Test public void doubleStop() {
+    machine.start();
+    recorderThread.runAll();
+
+    machine.stop();
+    machine.stop();
+    machine.destroy();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(events).containsExactly("prepare", "start", "stop", "release", "onStarted",
+        "onStopped true").inOrder();
+  }
+
+  @Test public void prepareFailure() {
+    recorder.prepareFailure = new IOException("No space");
+    machine.start();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(machine.state()).isEqualTo(State.STOPPED);
+    assertThat(events).containsExactly("prepare", "release", "onError No space",
+        "onStopped false").inOrder();
+  }
+
+  @Test public void stopFailure() {
+    recorder.stopFailure = new IllegalStateException("Codec died");
+    machine.start();
+    recorderThread.runAll();
+    machine.stop();
+    recorderThread.runAll();
+    callbackThread.runAll();
+
+    assertThat(events).containsExactly("prepare", "start", "stop", "release", "onStarted",
+        "onError Codec died", "onStopped false").inOrder();
+  }
+
+  /** A single thread whose messages only run when a test asks. */
+  private static final class QueueExecutor implements Executor {
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+
+    @Override public void execute(Runnable runnable) {
+      queue.add(runnable);
+    }
+
+    void runAll() {
+      Runnable runnable;
+      while ((runnable = queue.poll()) != null) {
+        runnable.run();
+      }
+    }
+  }
+
+  private final class FakeRecorder implements RecorderStateMachine.Recorder {
+    Runnable onPrepare;
+    Exception prepareFailure;
+    Exception stopFailure;
+
+    @Override public void prepare() throws Exception {
+      events.add("prepare");
+      if (onPrepare != null) {
+        onPrepare.run();
+      }
+      if (prepareFailure != null) {
+        throw prepareFailure;
+      }
+    }
+
+    @Override public void start() {
+      events.add("start");
+    }
+
+    @Override public void stop() throws Exception {
+      events.add("stop");
+      if (stopFailure != null) {
+        throw stopFailure;
+      }
+    }
+
+    @Override public void release() {
+      events.add("release");
+    }
+  }
+}
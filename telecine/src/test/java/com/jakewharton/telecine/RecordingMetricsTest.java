@@ -0,0 +1,102 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class RecordingMetricsTest {
+  private static final long FRAME_US = 33333;
+
+  @Test public void countsFramesAndBytes() {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    for (int i = 0; i < 30; i++) {
+      long timeUs = i * FRAME_US;
+      metrics.frameEncoded(timeUs, timeUs + 5000, 200, 1000);
+    }
+    assertThat(metrics.framesEncoded()).isEqualTo(30);
+    assertThat(metrics.bytesEncoded()).isEqualTo(30000);
+    assertThat(metrics.framesLate()).isEqualTo(0);
+    assertThat(metrics.durationUs()).isEqualTo(29 * FRAME_US);
+    assertThat(metrics.frameInterval.count()).isEqualTo(29);
+    assertThat(metrics.frameInterval.maxUs()).isEqualTo(FRAME_US);
+    assertThat(metrics.encodeLatency.maxUs()).isEqualTo(5000);
+    assertThat(metrics.writeLatency.maxUs()).isEqualTo(200);
+  }
+
+  @Test public void firstPresentationTime() {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    assertThat(metrics.firstPresentationTimeUs()).isEqualTo(-1);
+    metrics.frameEncoded(5000000, 5005000, 0, 1);
+    metrics.frameEncoded(5000000 + FRAME_US, 5005000 + FRAME_US, 0, 1);
+    assertThat(metrics.firstPresentationTimeUs()).isEqualTo(5000000);
+  }
+
+  @Test public void slowFramesAreLate() {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    metrics.frameEncoded(0, 10000, 0, 1);
+    metrics.frameEncoded(FRAME_US, FRAME_US + 90000, 0, 1); // Under three frames.
+    metrics.frameEncoded(2 * FRAME_US, 2 * FRAME_US + 150000, 0, 1);
+    assertThat(metrics.framesLate()).isEqualTo(1);
+  }
+
+  @Test public void droppedFrames() {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    metrics.frameDropped();
+    metrics.frameDropped();
+    assertThat(metrics.framesDropped()).isEqualTo(2);
+    assertThat(metrics.framesEncoded()).isEqualTo(0);
+  }
+
+  @Test public void bytesPerSecond() {
+    RecordingMetrics metrics = new RecordingMetrics(10);
+    // Two seconds at ten frames per second. The second second is twice as large.
+    for (int i = 0; i < 20; i++) {
+      metrics.frameEncoded(i * 100000L, i * 100000L, 0, i < 10 ? 100 : 200);
+    }
+    assertThat(metrics.peakBytesPerSecond()).isEqualTo(2000);
+    // 3000 bytes over the 1.9 seconds between the first and last frame.
+    assertThat(metrics.meanBytesPerSecond()).isEqualTo(1578);
+  }
+
+  @Test public void json() throws IOException {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    metrics.frameEncoded(0, 1000, 10, 500);
+    metrics.frameEncoded(FRAME_US, FRAME_US + 1000, 10, 500);
+    metrics.frameDropped();
+    StringWriter writer = new StringWriter();
+    metrics.writeJson(writer);
+    assertThat(writer.toString()).isEqualTo(""
+        + "{\n"
+        + "  \"framesEncoded\": 2,\n"
+        + "  \"framesLate\": 0,\n"
+        + "  \"framesDropped\": 1,\n"
+        + "  \"durationUs\": 33333,\n"
+        + "  \"bytesEncoded\": 1000,\n"
+        + "  \"meanBytesPerSecond\": 30000,\n"
+        + "  \"peakBytesPerSecond\": 1000,\n"
+        + "  \"encodeLatencyUs\": {\"count\": 2, \"mean\": 1000, \"p50\": 1000, \"p95\": 1000, "
+        + "\"p99\": 1000, \"max\": 1000},\n"
+        + "  \"writeLatencyUs\": {\"count\": 2, \"mean\": 10, \"p50\": 10, \"p95\": 10, "
+        + "\"p99\": 10, \"max\": 10},\n"
+        + "  \"frameIntervalUs\": {\"count\": 1, \"mean\": 33333, \"p50\": 33333, "
+        + "\"p95\": 33333, \"p99\": 33333, \"max\": 33333},\n"
+        + "  \"throttle\": []\n"
+        + "}\n");
+  }
+
+  @Test public void jsonThrottleChanges() throws IOException {
+    RecordingMetrics metrics = new RecordingMetrics(30);
+    metrics.throttleChanged(1000, 1, 405, 60);
+    metrics.throttleChanged(2000, 2, ThrottlePolicy.UNKNOWN, 4);
+    StringWriter writer = new StringWriter();
+    metrics.writeJson(writer);
+    assertThat(writer.toString()).endsWith(""
+        + "  \"throttle\": [\n"
+        + "    {\"timeUs\": 1000, \"tier\": 1, \"temperature\": 40.5, \"battery\": 60},\n"
+        + "    {\"timeUs\": 2000, \"tier\": 2, \"temperature\": null, \"battery\": 4}\n"
+        + "  ]\n"
+        + "}\n");
+  }
+}
@@ -0,0 +1,44 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class ReplayBudgetTest {
+  private static final long MB = 1024 * 1024;
+  private static final long WINDOW_US = TimeUnit.SECONDS.toMicros(30);
+
+  @Test public void budgetIsShareOfMemoryClass() {
+    assertThat(ReplayBudget.bytes(128, false)).isEqualTo(16 * MB);
+  }
+
+  @Test public void budgetIsCapped() {
+    assertThat(ReplayBudget.bytes(512, false)).isEqualTo(ReplayBudget.MAX_BYTES);
+  }
+
+  @Test public void lowRamDevicesGetLess() {
+    assertThat(ReplayBudget.bytes(512, true)).isEqualTo(ReplayBudget.LOW_RAM_BYTES);
+  }
+
+  @Test public void capacityCoversWindowWithHeadroom() {
+    // 31 seconds of 8Mbps, doubled.
+    assertThat(ReplayBudget.capacity(WINDOW_US, 8000000)).isEqualTo(62000000);
+  }
+
+  @Test public void maxBitRateFitsBudget() {
+    long budget = ReplayBudget.MAX_BYTES;
+    int bitRate = ReplayBudget.maxBitRate(WINDOW_US, budget);
+    assertThat(ReplayBudget.capacity(WINDOW_US, bitRate)).isAtMost(budget);
+    assertThat(ReplayBudget.capacity(WINDOW_US, bitRate + 100)).isGreaterThan(budget);
+  }
+
+  @Test public void lowRamBudgetStillRecordsReplay() {
+    assertThat(ReplayBudget.maxBitRate(WINDOW_US, ReplayBudget.LOW_RAM_BYTES))
+        .isAtLeast(BitratePlanner.MIN_BIT_RATE);
+  }
+
+  @Test public void partialSecondsRoundUp() {
+    assertThat(ReplayBudget.capacity(TimeUnit.MILLISECONDS.toMicros(500), 8)).isEqualTo(4);
+  }
+}
@@ -0,0 +1,132 @@
+package com.jakewharton.telecine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class ReplayBufferTest {
+  private static final long FRAME_US = 40000;
+  private static final long LONG_WINDOW = Long.MAX_VALUE;
+
+  private static ByteBuffer sample(int size, int fill) {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) fill);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Appends frame {@code n} of a stream with a key frame every {@code gop} frames. */
+  private static boolean append(ReplayBuffer buffer, int n, int gop, int size) {
+    return buffer.append(sample(size, n), n * FRAME_US, n % gop == 0);
+  }
+
+  @Test public void leadingNonKeyFramesAreDropped() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(100), 10, LONG_WINDOW);
+    assertThat(buffer.append(sample(10, 1), 0, false)).isFalse();
+    assertThat(buffer.sampleCount()).isEqualTo(0);
+    assertThat(buffer.append(sample(10, 1), FRAME_US, true)).isTrue();
+    assertThat(buffer.droppedSamples()).isEqualTo(1);
+  }
+
+  @Test public void dataWrapsAroundAndEvictsWholeGroups() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(100), 100, LONG_WINDOW);
+    // Groups of 3 samples of 15 bytes: 45 bytes per group, two groups fit.
+    for (int n = 0; n < 6; n++) {
+      assertThat(append(buffer, n, 3, 15)).isTrue();
+    }
+    assertThat(buffer.sampleCount()).isEqualTo(6);
+
+    // Sample 6 needs 15 bytes but only 10 remain at the end. Wrapping to the start requires
+    // evicting the first group.
+    assertThat(append(buffer, 6, 3, 15)).isTrue();
+    assertThat(buffer.sampleCount()).isEqualTo(4);
+    assertThat(buffer.oldestTimestampUs()).isEqualTo(3 * FRAME_US);
+
+    assertThat(append(buffer, 7, 3, 15)).isTrue();
+    assertThat(append(buffer, 8, 3, 15)).isTrue();
+    assertThat(buffer.sampleCount()).isEqualTo(6);
+
+    // Writing sample 9 at offset 45 would overwrite the group starting with sample 3.
+    assertThat(append(buffer, 9, 3, 15)).isTrue();
+    assertThat(buffer.sampleCount()).isEqualTo(4);
+    assertThat(buffer.oldestTimestampUs()).isEqualTo(6 * FRAME_US);
+    assertThat(buffer.droppedSamples()).isEqualTo(0);
+  }
+
+  @Test public void contentsSurviveWraparound() throws IOException {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(100), 100, LONG_WINDOW);
+    for (int n = 0; n < 20; n++) {
+      append(buffer, n, 2, 7 + (n % 5));
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    FragmentedMp4Writer writer =
+        new FragmentedMp4Writer(Channels.newChannel(output), 16, 16, FragmentedMp4WriterTest.SPS,
+            FragmentedMp4WriterTest.PPS, 1000000000L);
+    buffer.writeTo(writer);
+    writer.close();
+
+    List<TestBoxes> boxes = TestBoxes.parse(output.toByteArray());
+    TestBoxes mdat = TestBoxes.find(boxes, "mdat");
+    // Samples 20 - count .. 19 in order, each filled with its own index.
+    int n = 20 - buffer.sampleCount();
+    int position = mdat.payload();
+    while (position < mdat.offset + mdat.size) {
+      int size = 7 + (n % 5);
+      for (int i = 0; i < size; i++) {
+        assertThat(mdat.data.get(position + i)).isEqualTo((byte) n);
+      }
+      position += size;
+      n++;
+    }
+    assertThat(n).isEqualTo(20);
+  }
+
+  @Test public void oldGroupsAreTrimmedToWindow() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(10000), 1000, 10 * FRAME_US);
+    for (int n = 0; n < 100; n++) {
+      append(buffer, n, 4, 10);
+    }
+    // Newest is 99. The latest key frame at least 10 frames old is 88, so 88-99 remain.
+    assertThat(buffer.oldestTimestampUs()).isEqualTo(88 * FRAME_US);
+    assertThat(buffer.durationUs()).isEqualTo(11 * FRAME_US);
+    assertThat(buffer.sampleCount()).isEqualTo(12);
+  }
+
+  @Test public void metadataRingEvictsWhenFull() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(10000), 5, LONG_WINDOW);
+    for (int n = 0; n < 5; n++) {
+      append(buffer, n, 2, 1);
+    }
+    assertThat(buffer.sampleCount()).isEqualTo(5);
+    append(buffer, 5, 2, 1);
+    assertThat(buffer.sampleCount()).isEqualTo(4);
+    assertThat(buffer.oldestTimestampUs()).isEqualTo(2 * FRAME_US);
+  }
+
+  @Test public void groupLargerThanBufferRestartsAtNextKeyFrame() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(50), 100, LONG_WINDOW);
+    assertThat(append(buffer, 0, 10, 20)).isTrue();
+    assertThat(append(buffer, 1, 10, 20)).isTrue();
+    // No other key frame to evict up to, so the whole group goes and this sample is undecodable.
+    assertThat(append(buffer, 2, 10, 20)).isFalse();
+    assertThat(buffer.sampleCount()).isEqualTo(0);
+    assertThat(append(buffer, 3, 10, 20)).isFalse();
+    assertThat(append(buffer, 10, 10, 20)).isTrue();
+    assertThat(buffer.sampleCount()).isEqualTo(1);
+    assertThat(buffer.droppedSamples()).isEqualTo(2);
+  }
+
+  @Test public void oversizedSampleClears() {
+    ReplayBuffer buffer = new ReplayBuffer(ByteBuffer.allocate(50), 100, LONG_WINDOW);
+    append(buffer, 0, 2, 10);
+    assertThat(buffer.append(sample(51, 0), FRAME_US, true)).isFalse();
+    assertThat(buffer.sampleCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,242 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.fail;
+
+public final class ResolutionSolverTest {
+  private static final long UNLIMITED = Long.MAX_VALUE;
+  /** Level 3.1: 1280x720 at 30fps. */
+  private static final long LEVEL_3_1 = 108000;
+  /** Level 4.2: 1920x1080 at 60fps. */
+  private static final long LEVEL_4_2 = 522240;
+
+  private static EncoderCapabilities encoder(boolean hardware, int maxWidth, int maxHeight,
+      int alignment, int maxFrameRate, long maxMacroblocksPerSecond) {
+    return encoder(hardware, 16, maxWidth, 16, maxHeight, alignment, maxFrameRate,
+        maxMacroblocksPerSecond);
+  }
+
+  private static EncoderCapabilities encoder(boolean hardware, int minWidth, int maxWidth,
+      int minHeight, int maxHeight, int alignment, int maxFrameRate,
+      long maxMacroblocksPerSecond) {
+    String name = hardware ? "OMX.hw.avc" : "OMX.google.h264.encoder";
+    return new EncoderCapabilities(name, hardware, minWidth, maxWidth, minHeight, maxHeight,
+        alignment, alignment, 1, 50000000, maxFrameRate, maxMacroblocksPerSecond);
+  }
+
+  @Test public void alignedDisplayIsExact() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 2, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 720, 1280, 320, 60, 100);
+    assertThat(info.width).isEqualTo(720);
+    assertThat(info.height).isEqualTo(1280);
+    assertThat(info.frameRate).isEqualTo(60);
+    assertThat(info.density).isEqualTo(320);
+  }
+
+  @Test public void unalignedDisplayIsAlignedTo16() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 2, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 1080, 1920, 320, 60, 100);
+    assertThat(info.width).isEqualTo(1072);
+    assertThat(info.height).isEqualTo(1904);
+  }
+
+  @Test public void sizePercentageAppliesFirst() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 2, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 1440, 2560, 320, 60, 50);
+    assertThat(info.width).isEqualTo(720);
+    assertThat(info.height).isEqualTo(1280);
+  }
+
+  @Test public void maxHeightShrinksWidth() {
+    EncoderCapabilities encoder = encoder(true, 1920, 1088, 16, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 1080, 1920, 320, 60, 100);
+    assertThat(info.width).isEqualTo(608);
+    assertThat(info.height).isEqualTo(1088);
+  }
+
+  @Test public void macroblockRateShrinksSize() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 16, 60, LEVEL_3_1);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 1080, 1920, 320, 30, 100);
+    assertThat(info.width).isEqualTo(720);
+    assertThat(info.height).isEqualTo(1280);
+    assertThat(info.frameRate).isEqualTo(30);
+  }
+
+  @Test public void frameRateCappedToEncoder() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 16, 30, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(encoder, 1080, 1920, 320, 60, 100);
+    assertThat(info.frameRate).isEqualTo(30);
+  }
+
+  @Test public void displaySmallerThanMinimumIsUnsupported() {
+    EncoderCapabilities encoder = encoder(true, 176, 4096, 144, 4096, 16, 60, UNLIMITED);
+    assertThat(ResolutionSolver.solve(encoder, 160, 120, 320, 30, 100)).isNull();
+  }
+
+  @Test public void rateTooLowForMinimumIsUnsupported() {
+    EncoderCapabilities encoder = encoder(true, 320, 4096, 320, 4096, 16, 60, 100);
+    assertThat(ResolutionSolver.solve(encoder, 1080, 1920, 320, 30, 100)).isNull();
+  }
+
+  @Test public void prefersHardwareEncoder() {
+    EncoderCapabilities software = encoder(false, 4096, 4096, 2, 60, UNLIMITED);
+    EncoderCapabilities hardware = encoder(true, 1920, 1088, 16, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(Arrays.asList(software, hardware), 1920, 1080,
+        320, 60, 100);
+    assertThat(info.width).isEqualTo(1920);
+    assertThat(info.height).isEqualTo(1072);
+  }
+
+  @Test public void fallsBackToSoftwareEncoder() {
+    EncoderCapabilities software = encoder(false, 4096, 4096, 2, 60, UNLIMITED);
+    EncoderCapabilities hardware = encoder(true, 1024, 4096, 1024, 4096, 16, 60, UNLIMITED);
+    RecordingInfo info = ResolutionSolver.solve(Arrays.asList(hardware, software), 480, 800, 320,
+        60, 100);
+    assertThat(info.width).isEqualTo(480);
+    assertThat(info.height).isEqualTo(800);
+  }
+
+  @Test public void noEncodersIsUnsupported() {
+    RecordingInfo info = ResolutionSolver.solve(
+        Collections.<EncoderCapabilities>emptyList(), 1080, 1920, 320, 60, 100);
+    assertThat(info).isNull();
+  }
+
+  @Test public void invalidDisplayThrows() {
+    EncoderCapabilities encoder = encoder(true, 4096, 4096, 2, 60, UNLIMITED);
+    try {
+      ResolutionSolver.solve(encoder, 0, 1920, 320, 60, 100);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      ResolutionSolver.solve(encoder, 1080, 1920, 320, 0, 100);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /** Check every combination of common displays against a spread of encoder capabilities. */
+  @Test public void exhaustiveProperties() {
+    int[][] displays = {
+        { 480, 800 }, { 600, 1024 }, { 720, 1280 }, { 768, 1280 }, { 800, 1280 }, { 1080, 1920 },
+        { 1080, 2160 }, { 1080, 2280 }, { 1080, 2340 }, { 1200, 1920 }, { 1440, 2560 },
+        { 1440, 2960 }, { 1440, 3120 }, { 1536, 2048 }, { 1600, 2560 }, { 2160, 3840 },
+    };
+    int[][] maxSizes = {
+        { 1280, 720 }, { 1920, 1088 }, { 1920, 1920 }, { 2048, 2048 }, { 4096, 2304 },
+        { 4096, 4096 },
+    };
+    int[] minSizes = { 16, 176 };
+    int[] alignments = { 2, 4, 16, 32 };
+    long[] macroblockRates = { LEVEL_3_1, 245760, LEVEL_4_2, 983040, 2073600, UNLIMITED };
+    int[] maxFrameRates = { 30, 60 };
+    int[] frameRates = { 24, 60 };
+    int[] percentages = { 100, 75, 50 };
+
+    int cases = 0;
+    int solved = 0;
+    for (int[] display : displays) {
+      for (int orientation = 0; orientation < 2; orientation++) {
+        int displayWidth = display[orientation];
+        int displayHeight = display[1 - orientation];
+        for (int[] maxSize : maxSizes) {
+          for (int minSize : minSizes) {
+            for (int alignment : alignments) {
+              for (long macroblockRate : macroblockRates) {
+                for (int maxFrameRate : maxFrameRates) {
+                  EncoderCapabilities encoder = encoder(true, minSize, maxSize[0], minSize,
+                      maxSize[1], alignment, maxFrameRate, macroblockRate);
+                  for (int frameRate : frameRates) {
+                    for (int percentage : percentages) {
+                      cases++;
+                      if (checkProperties(encoder, displayWidth, displayHeight, frameRate,
+                          percentage)) {
+                        solved++;
+                      }
+                    }
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    assertThat(cases).isGreaterThan(100000);
+    // Sanity check that most combinations are actually exercising the solution path.
+    assertThat(solved).isGreaterThan(cases / 2);
+  }
+
+  private static boolean checkProperties(EncoderCapabilities encoder, int displayWidth,
+      int displayHeight, int frameRate, int percentage) {
+    String message = String.format("%dx%d@%d %d%% on %s", displayWidth, displayHeight, frameRate,
+        percentage, encoder);
+    int targetWidth = displayWidth * percentage / 100;
+    int targetHeight = displayHeight * percentage / 100;
+    int heightAlignment = ResolutionSolver.lcm(16, encoder.heightAlignment);
+
+    RecordingInfo info =
+        ResolutionSolver.solve(encoder, displayWidth, displayHeight, 160, frameRate, percentage);
+    int oracleWidth = largestWidth(encoder, displayWidth, displayHeight, frameRate, percentage);
+    if (info == null) {
+      assertWithMessage(message).that(oracleWidth).isEqualTo(0);
+      return false;
+    }
+
+    int rate = Math.min(frameRate, encoder.maxFrameRate);
+    assertWithMessage(message).that(info.frameRate).isEqualTo(rate);
+    assertWithMessage(message).that(info.density).isEqualTo(160);
+    assertWithMessage(message).that(info.width % 16).isEqualTo(0);
+    assertWithMessage(message).that(info.height % 16).isEqualTo(0);
+    assertWithMessage(message).that(encoder.supportsSize(info.width, info.height)).isTrue();
+    assertWithMessage(message).that(encoder.supportsRate(info.width, info.height, rate)).isTrue();
+    assertWithMessage(message).that(info.width).isAtMost(targetWidth);
+    assertWithMessage(message).that(info.height).isAtMost(targetHeight);
+
+    // Aspect ratio is kept to within one alignment step of height.
+    long error = Math.abs((long) info.height * displayWidth - (long) info.width * displayHeight);
+    assertWithMessage(message).that(error).isAtMost((long) heightAlignment * displayWidth);
+
+    // No wider valid size was missed.
+    assertWithMessage(message).that(info.width).isAtLeast(oracleWidth);
+    return true;
+  }
+
+  /**
+   * A brute-force search for the widest size whose height is strictly within half an alignment
+   * step of the display's aspect ratio. Returns 0 if there is none.
+   */
+  private static int largestWidth(EncoderCapabilities encoder, int displayWidth,
+      int displayHeight, int frameRate, int percentage) {
+    int targetWidth = displayWidth * percentage / 100;
+    int targetHeight = displayHeight * percentage / 100;
+    int widthAlignment = ResolutionSolver.lcm(16, encoder.widthAlignment);
+    int heightAlignment = ResolutionSolver.lcm(16, encoder.heightAlignment);
+    int rate = Math.min(frameRate, encoder.maxFrameRate);
+
+    int best = 0;
+    for (int width = widthAlignment; width <= targetWidth; width += widthAlignment) {
+      // Only the aligned heights either side of the exact one can be close enough.
+      int below = (int) ((long) width * displayHeight / displayWidth) / heightAlignment
+          * heightAlignment;
+      for (int height = below; height <= below + heightAlignment; height += heightAlignment) {
+        if (height == 0 || height > targetHeight) {
+          continue;
+        }
+        long error = Math.abs((long) height * displayWidth - (long) width * displayHeight);
+        if (2 * error < (long) heightAlignment * displayWidth
+            && encoder.supportsSize(width, height)
+            && encoder.supportsRate(width, height, rate)) {
+          best = width;
+        }
+      }
+    }
+    return best;
+  }
+}
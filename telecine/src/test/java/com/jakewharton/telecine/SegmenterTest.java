@@ -0,0 +1,154 @@
+package com.jakewharton.telecine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class SegmenterTest {
+  private static final RecordingInfo INFO = new RecordingInfo(720, 1280, 30, 320);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+  private final Segmenter.Callback callback = new Segmenter.Callback() {
+    @Override public void onFinished(File segment) {
+      events.add("finished " + segment.getName());
+    }
+
+    @Override public void onError(File file, Exception e) {
+      events.add("error " + file.getName() + ": " + e.getMessage());
+    }
+  };
+  private File recording;
+
+  @Before public void setUp() {
+    recording = new File(temporaryFolder.getRoot(), "Telecine_X.mp4");
+  }
+
+  private Segmenter segmenter(long maxDurationUs, long maxBytes) {
+    return new Segmenter(recording, INFO, maxDurationUs, maxBytes, callback,
+        Executors.newSingleThreadExecutor());
+  }
+
+  private Closeable closer(final String name) {
+    return new Closeable() {
+      @Override public void close() {
+        events.add("closed " + name);
+      }
+    };
+  }
+
+  private String manifest(Segmenter segmenter) throws IOException {
+    return new String(Files.readAllBytes(segmenter.manifestFile().toPath()),
+        Charset.forName("UTF-8"));
+  }
+
+  @Test public void naming() {
+    Segmenter segmenter = segmenter(0, 0);
+    assertThat(segmenter.current().getName()).isEqualTo("Telecine_X_001.mp4");
+    assertThat(segmenter.segmentFile(12).getName()).isEqualTo("Telecine_X_012.mp4");
+    assertThat(segmenter.manifestFile().getName()).isEqualTo("Telecine_X.m3u");
+    assertThat(segmenter.current().getParentFile()).isEqualTo(temporaryFolder.getRoot());
+    segmenter.release();
+  }
+
+  @Test public void nextWritesSidecarWithoutSwitching() throws IOException {
+    Segmenter segmenter = segmenter(0, 0);
+    File next = segmenter.next();
+    assertThat(next.getName()).isEqualTo("Telecine_X_002.mp4");
+    assertThat(segmenter.current().getName()).isEqualTo("Telecine_X_001.mp4");
+
+    RecordingSidecar sidecar = RecordingSidecar.read(RecordingSidecar.fileFor(next));
+    assertThat(sidecar.width).isEqualTo(720);
+    assertThat(sidecar.height).isEqualTo(1280);
+    segmenter.release();
+  }
+
+  @Test public void resizedSegmentSidecarHasItsOwnSize() throws IOException {
+    Segmenter segmenter = segmenter(0, 0);
+    File next = segmenter.next(new RecordingInfo(528, 960, 30, 240));
+    assertThat(next.getName()).isEqualTo("Telecine_X_002.mp4");
+
+    RecordingSidecar sidecar = RecordingSidecar.read(RecordingSidecar.fileFor(next));
+    assertThat(sidecar.width).isEqualTo(528);
+    assertThat(sidecar.height).isEqualTo(960);
+    segmenter.release();
+  }
+
+  @Test public void shouldRoll() {
+    Segmenter both = segmenter(1000, 100);
+    assertThat(both.shouldRoll(999, 99)).isFalse();
+    assertThat(both.shouldRoll(1000, 0)).isTrue();
+    assertThat(both.shouldRoll(0, 100)).isTrue();
+    both.release();
+
+    Segmenter durationOnly = segmenter(1000, 0);
+    assertThat(durationOnly.shouldRoll(999, Long.MAX_VALUE)).isFalse();
+    durationOnly.release();
+
+    Segmenter unlimited = segmenter(0, 0);
+    assertThat(unlimited.shouldRoll(Long.MAX_VALUE, Long.MAX_VALUE)).isFalse();
+    unlimited.release();
+  }
+
+  @Test public void segmentsFinishInOrderAndAreListed() throws Exception {
+    Segmenter segmenter = segmenter(0, 0);
+    segmenter.rolled(segmenter.next(), 600000000, closer("1"));
+    assertThat(segmenter.current().getName()).isEqualTo("Telecine_X_002.mp4");
+    segmenter.rolled(segmenter.next(), 599966667, closer("2"));
+    assertThat(segmenter.current().getName()).isEqualTo("Telecine_X_003.mp4");
+    assertThat(segmenter.stopped(1500000)).isTrue();
+
+    assertThat(events).containsExactly(
+        "closed 1", "finished Telecine_X_001.mp4",
+        "closed 2", "finished Telecine_X_002.mp4").inOrder();
+    assertThat(manifest(segmenter)).isEqualTo(""
+        + "#EXTM3U\n"
+        + "#EXTINF:600.000,Telecine_X_001\n"
+        + "Telecine_X_001.mp4\n"
+        + "#EXTINF:599.967,Telecine_X_002\n"
+        + "Telecine_X_002.mp4\n"
+        + "#EXTINF:1.500,Telecine_X_003\n"
+        + "Telecine_X_003.mp4\n");
+  }
+
+  @Test public void unknownDurationIsReadFromSegment() throws Exception {
+    Segmenter segmenter = segmenter(0, 0);
+    new Mp4Fixtures().write(segmenter.current());
+    // MediaRecorder finishes its own files so there is nothing to close.
+    segmenter.rolled(segmenter.next(), -1, null);
+    assertThat(segmenter.stopped(-1)).isTrue();
+
+    assertThat(manifest(segmenter)).isEqualTo(""
+        + "#EXTM3U\n"
+        + "#EXTINF:0.200,Telecine_X_001\n"
+        + "Telecine_X_001.mp4\n"
+        + "#EXTINF:0.000,Telecine_X_002\n"
+        + "Telecine_X_002.mp4\n");
+  }
+
+  @Test public void failedSegmentIsStillListed() throws Exception {
+    Segmenter segmenter = segmenter(0, 0);
+    segmenter.rolled(segmenter.next(), 1000000, new Closeable() {
+      @Override public void close() throws IOException {
+        throw new IOException("Muxer failed.");
+      }
+    });
+    assertThat(segmenter.stopped(1000000)).isTrue();
+
+    assertThat(events).containsExactly("error Telecine_X_001.mp4: Muxer failed.");
+    assertThat(manifest(segmenter)).contains("Telecine_X_001.mp4\n");
+  }
+}
@@ -0,0 +1,205 @@
+package com.jakewharton.telecine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class SequenceParameterSetTest {
+  /** Writes the bits of a NAL unit, inserting emulation prevention bytes as an encoder would. */
+  static final class BitWriter {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private int current;
+    private int bitCount;
+
+    BitWriter bits(int value, int count) {
+      for (int i = count - 1; i >= 0; i--) {
+        current = current << 1 | ((value >> i) & 1);
+        if (++bitCount == 8) {
+          bytes.write(current);
+          current = 0;
+          bitCount = 0;
+        }
+      }
+      return this;
+    }
+
+    BitWriter unsigned(int value) {
+      int coded = value + 1;
+      int length = 32 - Integer.numberOfLeadingZeros(coded);
+      bits(0, length - 1);
+      return bits(coded, length);
+    }
+
+    BitWriter signed(int value) {
+      return unsigned(value > 0 ? 2 * value - 1 : -2 * value);
+    }
+
+    /** Finish with the RBSP stop bit and escape the result. */
+    byte[] toNal() {
+      bits(1, 1);
+      while (bitCount != 0) {
+        bits(0, 1);
+      }
+      byte[] raw = bytes.toByteArray();
+      ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+      int zeros = 0;
+      for (byte b : raw) {
+        if (zeros >= 2 && (b & 0xff) <= 3) {
+          escaped.write(3);
+          zeros = 0;
+        }
+        escaped.write(b);
+        zeros = b == 0 ? zeros + 1 : 0;
+      }
+      return escaped.toByteArray();
+    }
+  }
+
+  /** A baseline SPS for a {@code widthInMbs} by {@code heightInMbs} progressive picture. */
+  static byte[] baseline(int widthInMbs, int heightInMbs, int cropRight, int cropBottom) {
+    BitWriter writer = new BitWriter()
+        .bits(0x67, 8)
+        .bits(66, 8) // Baseline.
+        .bits(0xc0, 8)
+        .bits(31, 8)
+        .unsigned(0) // seq_parameter_set_id
+        .unsigned(0) // log2_max_frame_num_minus4
+        .unsigned(2) // pic_order_cnt_type
+        .unsigned(1) // max_num_ref_frames
+        .bits(0, 1)
+        .unsigned(widthInMbs - 1)
+        .unsigned(heightInMbs - 1)
+        .bits(1, 1) // frame_mbs_only_flag
+        .bits(1, 1); // direct_8x8_inference_flag
+    if (cropRight != 0 || cropBottom != 0) {
+      writer.bits(1, 1).unsigned(0).unsigned(cropRight).unsigned(0).unsigned(cropBottom);
+    } else {
+      writer.bits(0, 1);
+    }
+    return writer.bits(0, 1).toNal(); // No VUI.
+  }
+
+  @Test public void baseline720p() throws IOException {
+    SequenceParameterSet sps = SequenceParameterSet.parse(baseline(80, 45, 0, 0));
+    assertThat(sps.profileIdc).isEqualTo(66);
+    assertThat(sps.levelIdc).isEqualTo(31);
+    assertThat(sps.chromaFormatIdc).isEqualTo(1);
+    assertThat(sps.width).isEqualTo(1280);
+    assertThat(sps.height).isEqualTo(720);
+    assertThat(sps.frameMbsOnly).isTrue();
+  }
+
+  @Test public void croppingIsInChromaUnits() throws IOException {
+    // 1088 coded lines cropped by 4 chroma lines of 2 luma lines each.
+    SequenceParameterSet sps = SequenceParameterSet.parse(baseline(120, 68, 0, 4));
+    assertThat(sps.width).isEqualTo(1920);
+    assertThat(sps.height).isEqualTo(1080);
+  }
+
+  @Test public void highProfileWithScalingLists() throws IOException {
+    BitWriter writer = new BitWriter()
+        .bits(0x67, 8)
+        .bits(100, 8) // High.
+        .bits(0, 8)
+        .bits(40, 8)
+        .unsigned(0)
+        .unsigned(1) // chroma_format_idc
+        .unsigned(0) // bit_depth_luma_minus8
+        .unsigned(0) // bit_depth_chroma_minus8
+        .bits(0, 1)
+        .bits(1, 1); // seq_scaling_matrix_present_flag
+    for (int i = 0; i < 8; i++) {
+      if (i == 0) {
+        writer.bits(1, 1);
+        for (int j = 0; j < 16; j++) {
+          writer.signed(j == 0 ? 8 : 0);
+        }
+      } else if (i == 6) {
+        writer.bits(1, 1).signed(-8); // A zero scale ends the list early.
+      } else {
+        writer.bits(0, 1);
+      }
+    }
+    byte[] nal = writer
+        .unsigned(0)
+        .unsigned(1) // pic_order_cnt_type
+        .bits(0, 1)
+        .signed(-2)
+        .signed(3)
+        .unsigned(2)
+        .signed(1)
+        .signed(-1)
+        .unsigned(4)
+        .bits(0, 1)
+        .unsigned(44) // 720 wide.
+        .unsigned(79) // 1280 tall.
+        .bits(1, 1)
+        .bits(1, 1)
+        .bits(0, 1)
+        .bits(0, 1)
+        .toNal();
+
+    SequenceParameterSet sps = SequenceParameterSet.parse(nal);
+    assertThat(sps.profileIdc).isEqualTo(100);
+    assertThat(sps.width).isEqualTo(720);
+    assertThat(sps.height).isEqualTo(1280);
+  }
+
+  @Test public void interlaced() throws IOException {
+    byte[] nal = new BitWriter()
+        .bits(0x67, 8)
+        .bits(77, 8) // Main.
+        .bits(0, 8)
+        .bits(30, 8)
+        .unsigned(0)
+        .unsigned(0)
+        .unsigned(0) // pic_order_cnt_type
+        .unsigned(2)
+        .unsigned(1)
+        .bits(0, 1)
+        .unsigned(44)
+        .unsigned(17) // 18 map units of field pairs.
+        .bits(0, 1) // frame_mbs_only_flag
+        .bits(0, 1)
+        .bits(1, 1)
+        .bits(1, 1)
+        .unsigned(0).unsigned(0).unsigned(0).unsigned(0)
+        .bits(0, 1)
+        .toNal();
+
+    SequenceParameterSet sps = SequenceParameterSet.parse(nal);
+    assertThat(sps.frameMbsOnly).isFalse();
+    assertThat(sps.width).isEqualTo(720);
+    assertThat(sps.height).isEqualTo(576);
+  }
+
+  @Test public void emulationPreventionIsRemoved() {
+    byte[] escaped = { 0x67, 0, 0, 3, 1, 0, 0, 3, 0, 0, 3 };
+    assertThat(SequenceParameterSet.unescape(escaped))
+        .isEqualTo(new byte[] { 0x67, 0, 0, 1, 0, 0, 0, 0 });
+  }
+
+  @Test public void notAnSps() {
+    try {
+      SequenceParameterSet.parse(new byte[] { 0x68, 1, 2, 3 });
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("Not an SPS.");
+    }
+  }
+
+  @Test public void truncated() {
+    byte[] nal = baseline(80, 45, 0, 0);
+    byte[] truncated = new byte[5];
+    System.arraycopy(nal, 0, truncated, 0, truncated.length);
+    try {
+      SequenceParameterSet.parse(truncated);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("SPS too short.");
+    }
+  }
+}
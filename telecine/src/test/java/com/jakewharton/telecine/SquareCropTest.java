@@ -0,0 +1,35 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class SquareCropTest {
+  @Test public void portrait() {
+    SquareCrop crop = SquareCrop.center(1080, 1920);
+    assertThat(crop.x).isEqualTo(0);
+    assertThat(crop.y).isEqualTo(420);
+    assertThat(crop.size).isEqualTo(1080);
+  }
+
+  @Test public void landscape() {
+    SquareCrop crop = SquareCrop.center(1920, 1080);
+    assertThat(crop.x).isEqualTo(420);
+    assertThat(crop.y).isEqualTo(0);
+    assertThat(crop.size).isEqualTo(1080);
+  }
+
+  @Test public void square() {
+    SquareCrop crop = SquareCrop.center(512, 512);
+    assertThat(crop.x).isEqualTo(0);
+    assertThat(crop.y).isEqualTo(0);
+    assertThat(crop.size).isEqualTo(512);
+  }
+
+  @Test public void oddDifferenceRoundsDown() {
+    SquareCrop crop = SquareCrop.center(101, 100);
+    assertThat(crop.x).isEqualTo(0);
+    assertThat(crop.y).isEqualTo(0);
+    assertThat(crop.size).isEqualTo(100);
+  }
+}
@@ -0,0 +1,75 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/** A minimal MP4 box reader for asserting on written files. */
+final class TestBoxes {
+  final String type;
+  final int offset;
+  final int size;
+  final ByteBuffer data;
+
+  private TestBoxes(String type, int offset, int size, ByteBuffer data) {
+    this.type = type;
+    this.offset = offset;
+    this.size = size;
+    this.data = data;
+  }
+
+  static List<TestBoxes> parse(byte[] bytes) {
+    return parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  static List<TestBoxes> parse(ByteBuffer buffer, int start, int end) {
+    List<TestBoxes> boxes = new ArrayList<>();
+    int position = start;
+    while (position < end) {
+      int size = buffer.getInt(position);
+      if (size < 8 || position + size > end) {
+        throw new AssertionError("Bad box size " + size + " at " + position);
+      }
+      byte[] type = new byte[4];
+      for (int i = 0; i < 4; i++) {
+        type[i] = buffer.get(position + 4 + i);
+      }
+      boxes.add(new TestBoxes(new String(type, US_ASCII), position, size, buffer));
+      position += size;
+    }
+    return boxes;
+  }
+
+  /** Children of this box, skipping {@code headerBytes} after the 8 byte box header. */
+  List<TestBoxes> children(int headerBytes) {
+    return parse(data, offset + 8 + headerBytes, offset + size);
+  }
+
+  List<TestBoxes> children() {
+    return children(0);
+  }
+
+  /** Offset of the first byte after the box header. */
+  int payload() {
+    return offset + 8;
+  }
+
+  static TestBoxes find(List<TestBoxes> boxes, String type) {
+    for (TestBoxes box : boxes) {
+      if (box.type.equals(type)) {
+        return box;
+      }
+    }
+    throw new AssertionError("No " + type + " in " + types(boxes));
+  }
+
+  static List<String> types(List<TestBoxes> boxes) {
+    List<String> types = new ArrayList<>();
+    for (TestBoxes box : boxes) {
+      types.add(box.type);
+    }
+    return types;
+  }
+}
@@ -0,0 +1,135 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.ThrottlePolicy.UNKNOWN;
+
+public final class ThrottlePolicyTest {
+  private static final long SECOND_MS = 1000;
+
+  private final ScriptedSource source = new ScriptedSource();
+  private final List<String> changes = new ArrayList<>();
+  private final ThrottlePolicy policy = new ThrottlePolicy(source, new ThrottlePolicy.Callback() {
+    @Override public void onTierChanged(long timeMs, int tier, int temperatureTenths,
+        int batteryPercent) {
+      changes.add(timeMs / SECOND_MS + "s: " + tier);
+    }
+  });
+
+  @Test public void coolDeviceIsNotThrottled() {
+    policy.start();
+    source.temperatureCurve(0, 300, 390, 10 * 60);
+    assertThat(policy.tier()).isEqualTo(0);
+    assertThat(changes).isEmpty();
+  }
+
+  @Test public void heatingStepsThroughEachTier() {
+    policy.start();
+    // 35C to 48C over ten minutes, one reading every ten seconds.
+    source.temperatureCurve(0, 350, 480, 10 * 60);
+    assertThat(changes).containsExactly("240s: 1", "370s: 2", "510s: 3").inOrder();
+  }
+
+  @Test public void jumpSkipsTiers() {
+    policy.start();
+    source.reading(0, 300, 80, false);
+    source.reading(10 * SECOND_MS, 470, 80, false);
+    assertThat(changes).containsExactly("10s: 3");
+  }
+
+  @Test public void coolingStepsDownOneTierAtATimeAfterHolding() {
+    policy.start();
+    source.reading(0, 470, 80, false);
+    // Below the critical threshold but within its hysteresis. Stays critical.
+    source.steady(10 * SECOND_MS, 450, 60);
+    assertThat(policy.tier()).isEqualTo(3);
+    // Well below every threshold. Steps down once per cool down period.
+    source.steady(70 * SECOND_MS, 350, 120);
+    assertThat(changes).containsExactly("0s: 3", "100s: 2", "130s: 1", "160s: 0").inOrder();
+  }
+
+  @Test public void hoveringAroundThresholdDoesNotFlap() {
+    policy.start();
+    for (int i = 0; i < 60; i++) {
+      source.reading(i * 10 * SECOND_MS, i % 2 == 0 ? 395 : 405, 80, false);
+    }
+    assertThat(changes).containsExactly("10s: 1");
+  }
+
+  @Test public void warmingAgainRestartsCoolDown() {
+    policy.start();
+    source.reading(0, 440, 80, false);
+    source.steady(10 * SECOND_MS, 380, 20);
+    // Back within the hysteresis before the cool down finished.
+    source.reading(30 * SECOND_MS, 420, 80, false);
+    source.steady(40 * SECOND_MS, 380, 20);
+    assertThat(policy.tier()).isEqualTo(2);
+    source.steady(60 * SECOND_MS, 380, 20);
+    assertThat(changes).containsExactly("0s: 2", "70s: 1").inOrder();
+  }
+
+  @Test public void lowBatteryThrottlesUnlessCharging() {
+    policy.start();
+    source.reading(0, UNKNOWN, 20, false);
+    source.reading(10 * SECOND_MS, UNKNOWN, 15, false);
+    source.reading(20 * SECOND_MS, UNKNOWN, 5, false);
+    assertThat(changes).containsExactly("10s: 1", "20s: 2").inOrder();
+
+    source.reading(30 * SECOND_MS, UNKNOWN, 5, true);
+    source.reading(60 * SECOND_MS, UNKNOWN, 5, true);
+    assertThat(policy.tier()).isEqualTo(1);
+  }
+
+  @Test public void hotterSignalWins() {
+    policy.start();
+    source.reading(0, 440, 12, false);
+    assertThat(policy.tier()).isEqualTo(2);
+  }
+
+  @Test public void unknownReadingsAreNotThrottled() {
+    policy.start();
+    source.steady(0, UNKNOWN, 60);
+    assertThat(changes).isEmpty();
+  }
+
+  @Test public void stopStopsSource() {
+    policy.start();
+    assertThat(source.listener).isNotNull();
+    policy.stop();
+    assertThat(source.listener).isNull();
+  }
+
+  /** Replays readings as though they came from the device. */
+  private static final class ScriptedSource implements ThrottlePolicy.SignalSource {
+    ThrottlePolicy.Listener listener;
+
+    @Override public void start(ThrottlePolicy.Listener listener) {
+      this.listener = listener;
+    }
+
+    @Override public void stop() {
+      listener = null;
+    }
+
+    void reading(long timeMs, int temperatureTenths, int batteryPercent, boolean charging) {
+      listener.onReading(timeMs, temperatureTenths, batteryPercent, charging);
+    }
+
+    /** A reading every ten seconds for {@code seconds} at a constant temperature. */
+    void steady(long startMs, int temperatureTenths, int seconds) {
+      for (int s = 0; s < seconds; s += 10) {
+        reading(startMs + s * SECOND_MS, temperatureTenths, 80, false);
+      }
+    }
+
+    /** A reading every ten seconds rising linearly from {@code from} to {@code to}. */
+    void temperatureCurve(long startMs, int from, int to, int seconds) {
+      for (int s = 0; s <= seconds; s += 10) {
+        reading(startMs + s * SECOND_MS, from + (to - from) * s / seconds, 80, false);
+      }
+    }
+  }
+}
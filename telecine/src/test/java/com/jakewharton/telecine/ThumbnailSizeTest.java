@@ -0,0 +1,90 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class ThumbnailSizeTest {
+  @Test public void portraitFitsLongEdge() {
+    ThumbnailSize size = ThumbnailSize.fit(1080, 1920, 540);
+    assertThat(size.width).isEqualTo(304); // 303.75
+    assertThat(size.height).isEqualTo(540);
+  }
+
+  @Test public void landscapeFitsLongEdge() {
+    ThumbnailSize size = ThumbnailSize.fit(1920, 1080, 540);
+    assertThat(size.width).isEqualTo(540);
+    assertThat(size.height).isEqualTo(304);
+  }
+
+  @Test public void smallSizeIsNotScaledUp() {
+    ThumbnailSize size = ThumbnailSize.fit(320, 480, 540);
+    assertThat(size.width).isEqualTo(320);
+    assertThat(size.height).isEqualTo(480);
+  }
+
+  @Test public void extremeAspectKeepsOnePixel() {
+    ThumbnailSize size = ThumbnailSize.fit(10000, 1, 540);
+    assertThat(size.width).isEqualTo(540);
+    assertThat(size.height).isEqualTo(1);
+  }
+
+  @Test public void aspectIsKept() {
+    for (int width = 100; width <= 4096; width += 37) {
+      for (int height = 100; height <= 4096; height += 41) {
+        ThumbnailSize size = ThumbnailSize.fit(width, height, 540);
+        assertThat(Math.max(size.width, size.height)).isAtMost(540);
+        // Rounding each edge moves the aspect by at most half a pixel on either edge.
+        double error = Math.abs((double) size.width / size.height - (double) width / height);
+        double tolerance = (size.width + 1.0) / (size.height - 0.5) - (double) size.width
+            / size.height;
+        assertThat(error).isAtMost(tolerance);
+      }
+    }
+  }
+
+  @Test public void invalidSizeThrows() {
+    try {
+      ThumbnailSize.fit(0, 1920, 540);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void densityScalesWithWidth() {
+    ThumbnailSize size = ThumbnailSize.fit(1080, 1920, 540);
+    assertThat(size.scaleDensity(480, 1080)).isEqualTo(135);
+    assertThat(new ThumbnailSize(1, 1).scaleDensity(120, 4096)).isEqualTo(1);
+  }
+
+  @Test public void bufferWidthUnpadded() {
+    assertThat(ThumbnailSize.bufferWidth(304, 304 * 4, 4)).isEqualTo(304);
+  }
+
+  @Test public void bufferWidthIncludesRowPadding() {
+    // Rows aligned to 64 bytes.
+    assertThat(ThumbnailSize.bufferWidth(304, 1280, 4)).isEqualTo(320);
+  }
+
+  @Test public void bufferWidthRejectsShortRows() {
+    try {
+      ThumbnailSize.bufferWidth(304, 1200, 4);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      ThumbnailSize.bufferWidth(304, 1218, 4);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void thumbnailSquareCrop() {
+    ThumbnailSize size = ThumbnailSize.fit(1080, 1920, 540);
+    SquareCrop crop = SquareCrop.center(size.width, size.height);
+    assertThat(crop.x).isEqualTo(0);
+    assertThat(crop.y).isEqualTo(118);
+    assertThat(crop.size).isEqualTo(304);
+  }
+}
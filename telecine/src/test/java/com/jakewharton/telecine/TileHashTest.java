@@ -0,0 +1,79 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class TileHashTest {
+  @Test public void gridCoversPartialTiles() {
+    TileHash hash = new TileHash(20, 10, 8);
+    assertThat(hash.columns).isEqualTo(3);
+    assertThat(hash.rows).isEqualTo(2);
+  }
+
+  @Test public void firstFrameChangesEveryTile() {
+    TileHash hash = new TileHash(20, 10, 8);
+    assertThat(hash.update(new int[200])).isEqualTo(6);
+  }
+
+  @Test public void identicalFrameChangesNothing() {
+    TileHash hash = new TileHash(20, 10, 8);
+    hash.update(frame(20, 10));
+    assertThat(hash.update(frame(20, 10))).isEqualTo(0);
+    assertThat(hash.update(frame(20, 10))).isEqualTo(0);
+  }
+
+  @Test public void changedPixelChangesItsTile() {
+    TileHash hash = new TileHash(20, 10, 8);
+    hash.update(frame(20, 10));
+    int[] pixels = frame(20, 10);
+    pixels[9 * 20 + 19] ^= 1; // The bottom right corner is in a partial tile.
+    assertThat(hash.update(pixels)).isEqualTo(1);
+    // Back to the original.
+    assertThat(hash.update(frame(20, 10))).isEqualTo(1);
+  }
+
+  @Test public void movedContentChangesTiles() {
+    TileHash hash = new TileHash(16, 8, 8);
+    int[] left = new int[128];
+    left[0] = 0xffffffff;
+    int[] right = new int[128];
+    right[8] = 0xffffffff;
+    hash.update(left);
+    assertThat(hash.update(right)).isEqualTo(2);
+  }
+
+  @Test public void swappedPixelsWithinTileAreDetected() {
+    TileHash hash = new TileHash(8, 8, 8);
+    int[] pixels = frame(8, 8);
+    hash.update(pixels);
+    int[] swapped = pixels.clone();
+    swapped[0] = pixels[1];
+    swapped[1] = pixels[0];
+    assertThat(hash.update(swapped)).isEqualTo(1);
+  }
+
+  @Test public void invalidArguments() {
+    try {
+      new TileHash(0, 10, 8);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("Invalid size: 0x10");
+    }
+    try {
+      new TileHash(10, 10, 8).update(new int[99]);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("pixels.length < 100: 99");
+    }
+  }
+
+  private static int[] frame(int width, int height) {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xff000000 | i * 0x010203;
+    }
+    return pixels;
+  }
+}